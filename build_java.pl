@@ -17,6 +17,8 @@ samples/
 org.mozilla.jss.DatabaseCloser        
 org.mozilla.jss.CryptoManager          
 org.mozilla.jss.crypto.Algorithm        
+org.mozilla.jss.crypto.DigestAlgorithm
+org.mozilla.jss.crypto.HMACAlgorithm
 org.mozilla.jss.crypto.EncryptionAlgorithm      
 org.mozilla.jss.crypto.PQGParams     
 org.mozilla.jss.crypto.SecretDecoderRing
@@ -54,6 +56,8 @@ org.mozilla.jss.provider.java.security.JSSKeyStoreSpi
 org.mozilla.jss.SecretDecoderRing.KeyManager
 org.mozilla.jss.ssl.SSLSocket 
 org.mozilla.jss.ssl.SSLServerSocket 
+org.mozilla.jss.ssl.JSSEngine 
+org.mozilla.jss.ssl.EngineProxy 
 org.mozilla.jss.ssl.SocketBase 
 org.mozilla.jss.util.Debug
 org.mozilla.jss.util.Password       
@@ -0,0 +1,100 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss;
+
+/**
+ * The outcome of verifying one certificate of a batch; see
+ * {@link CryptoManager#verifyCertificates} and
+ * {@link CryptoManager#verifyCertificatesByNickname}.
+ */
+public final class CertVerificationResult {
+
+    private final int index;
+    private final String nickname;
+    private final int errorCode;
+    private final String errorMessage;
+    private final int usages;
+    private final long elapsedMicros;
+
+    CertVerificationResult(int index, String nickname, int errorCode,
+            String errorMessage, int usages, long elapsedMicros) {
+        this.index = index;
+        this.nickname = nickname;
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+        this.usages = usages;
+        this.elapsedMicros = elapsedMicros;
+    }
+
+    /**
+     * Returns the position of the certificate in the collection that
+     * was verified.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the nickname of the certificate, or null if it was
+     * verified from its encoding.
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    public boolean isValid() {
+        return errorCode == 0;
+    }
+
+    /**
+     * Returns the error code verification failed with, as defined in
+     * class <tt>org.mozilla.jss.util.NativeErrcodes</tt> (-1 if NSS
+     * returned an error without a counterpart there), or 0 if the
+     * certificate is valid.
+     * @see org.mozilla.jss.util.NativeErrcodes
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Returns the description of the NSS error, or null if the
+     * certificate is valid.
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Returns the usages (a bit map as defined in CertificateUsage) the
+     * certificate is currently good for. Only set when verifying without
+     * a particular usage.
+     */
+    public int getUsages() {
+        return usages;
+    }
+
+    /**
+     * Returns the time spent finding or decoding the certificate and
+     * verifying it, in microseconds.
+     */
+    public long getElapsedMicros() {
+        return elapsedMicros;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Certificate ").append(index);
+        if (nickname != null) {
+            sb.append(" (").append(nickname).append(")");
+        }
+        if (isValid()) {
+            sb.append(": valid");
+        } else {
+            sb.append(": (").append(errorCode).append(") ").append(errorMessage);
+        }
+        sb.append(", ").append(elapsedMicros).append(" us");
+        return sb.toString();
+    }
+}
@@ -1061,3 +1061,92 @@ Java_org_mozilla_jss_CryptoManager_setOCSPTimeoutNative(
     }
 }
 
+
+/**********************************************************************
+ * CryptoManager.cacheOCSPResponseNative
+ *
+ * Hands an OCSP response for a certificate to NSS, which verifies it
+ * against the issuer and keeps it in its OCSP cache. Only responses NSS
+ * did not cache throw, whatever status they give the certificate.
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_CryptoManager_cacheOCSPResponseNative(
+        JNIEnv *env, jobject this,
+        jbyteArray certArray, jbyteArray issuerArray,
+        jbyteArray responseArray)
+{
+    CERTCertDBHandle *certdb = CERT_GetDefaultCertDB();
+    SECItem *derCert = NULL;
+    SECItem *derIssuer = NULL;
+    SECItem *response = NULL;
+    CERTCertificate *cert = NULL;
+    CERTCertificate *issuer = NULL;
+
+    PR_ASSERT(certdb != NULL);
+
+    derCert = JSS_ByteArrayToSECItem(env, certArray);
+    if (derCert == NULL) {
+        /* exception was thrown */
+        goto finish;
+    }
+    derIssuer = JSS_ByteArrayToSECItem(env, issuerArray);
+    if (derIssuer == NULL) {
+        /* exception was thrown */
+        goto finish;
+    }
+    response = JSS_ByteArrayToSECItem(env, responseArray);
+    if (response == NULL) {
+        /* exception was thrown */
+        goto finish;
+    }
+
+    /* NSS looks the issuer up to check the signature of the response,
+     * so keep it as a temporary certificate while it does.
+     */
+    issuer = CERT_NewTempCertificate(certdb, derIssuer, NULL,
+            PR_FALSE /* isperm */, PR_TRUE /* copyDER */);
+    if (issuer == NULL) {
+        JSS_throwMsgPrErr(env, CERTIFICATE_EXCEPTION,
+            "Unable to decode issuer certificate");
+        goto finish;
+    }
+
+    cert = CERT_NewTempCertificate(certdb, derCert, NULL,
+            PR_FALSE /* isperm */, PR_TRUE /* copyDER */);
+    if (cert == NULL) {
+        JSS_throwMsgPrErr(env, CERTIFICATE_EXCEPTION,
+            "Unable to decode certificate");
+        goto finish;
+    }
+
+    if (CERT_CacheOCSPResponseFromSideChannel(certdb, cert, PR_Now(),
+            response, NULL) != SECSuccess) {
+        PRErrorCode err = PR_GetError();
+
+        /* A verified response saying the certificate is revoked or
+         * unknown also fails, but NSS has cached it all the same. */
+        if (err != SEC_ERROR_REVOKED_CERTIFICATE &&
+                err != SEC_ERROR_OCSP_UNKNOWN_CERT) {
+            JSS_throwMsgPrErr(env, CERTIFICATE_EXCEPTION,
+                "OCSP response rejected");
+            goto finish;
+        }
+    }
+
+finish:
+    if (cert != NULL) {
+        CERT_DestroyCertificate(cert);
+    }
+    if (issuer != NULL) {
+        CERT_DestroyCertificate(issuer);
+    }
+    if (derCert != NULL) {
+        SECITEM_FreeItem(derCert, PR_TRUE /*freeit*/);
+    }
+    if (derIssuer != NULL) {
+        SECITEM_FreeItem(derIssuer, PR_TRUE /*freeit*/);
+    }
+    if (response != NULL) {
+        SECITEM_FreeItem(response, PR_TRUE /*freeit*/);
+    }
+}
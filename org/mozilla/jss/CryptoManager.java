@@ -7,10 +7,18 @@ import java.security.GeneralSecurityException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.mozilla.jss.asn1.ANY;
 import org.mozilla.jss.asn1.ASN1Util;
@@ -1201,6 +1209,220 @@ public final class CryptoManager implements TokenSupplier
         boolean checkSig, int cUsage)
         throws TokenException, CertificateEncodingException;
 
+    /////////////////////////////////////////////////////////////
+    // verifyCertificates
+    /////////////////////////////////////////////////////////////
+
+    /**
+     * The number of certificates verifyCertificates() hands to NSS in
+     * one native call, unless changed with setVerifyBatchSize().
+     */
+    public static final int DEFAULT_VERIFY_BATCH_SIZE = 256;
+
+    private volatile int verifyBatchSize = DEFAULT_VERIFY_BATCH_SIZE;
+    private volatile ExecutorService verifyExecutor;
+
+    public int getVerifyBatchSize() {
+        return verifyBatchSize;
+    }
+
+    /**
+     * Sets the number of certificates verifyCertificates() and
+     * verifyCertificatesByNickname() verify in one native call.
+     */
+    public void setVerifyBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                "Invalid batch size: " + batchSize);
+        }
+        verifyBatchSize = batchSize;
+    }
+
+    public ExecutorService getVerifyExecutor() {
+        return verifyExecutor;
+    }
+
+    /**
+     * Sets the thread pool verifyCertificates() and
+     * verifyCertificatesByNickname() run their batches in. With no
+     * executor (the default) the batches run one after another in the
+     * calling thread. The executor is not shut down by JSS.
+     */
+    public void setVerifyExecutor(ExecutorService executor) {
+        verifyExecutor = executor;
+    }
+
+    /**
+     * Verify many certificates that exist in the given cert database,
+     * checking that each is valid and that we trust its issuer.
+     * The certificates are verified in batches of getVerifyBatchSize(),
+     * each in a single native call, run in the executor set with
+     * setVerifyExecutor().
+     *
+     * @param nicknames nicknames of the certificates to verify.
+     * @param checkSig verify the signatures of the certificates
+     * @param certificateUsage the usage to verify. If null or
+     *      CheckAllUsages, the usages each certificate is good for are
+     *      returned, and a certificate good for none of them is invalid.
+     * @param time the time to verify at, or null for now.
+     * @return one result per nickname, in the order of the collection.
+     *      A certificate that cannot be found is reported as invalid
+     *      with SEC_ERROR_UNKNOWN_CERT.
+     *
+     * @exception InvalidNicknameException If a nickname is null.
+     * @exception InterruptedException If interrupted while waiting for
+     *      the executor.
+     */
+    public List<CertVerificationResult> verifyCertificatesByNickname(
+            Collection<String> nicknames,
+            boolean checkSig,
+            CertificateUsage certificateUsage,
+            Date time)
+                throws InvalidNicknameException, InterruptedException {
+        String[] certs = nicknames.toArray(new String[nicknames.size()]);
+        for (String nickname : certs) {
+            if (nickname == null) {
+                throw new InvalidNicknameException("Nickname must be non-null");
+            }
+        }
+        return verifyBatches(certs, true, checkSig, certificateUsage, time);
+    }
+
+    /**
+     * Verify many DER-encoded certificates, checking that each is valid
+     * and that we trust its issuer. The certificates of a batch are
+     * decoded as temporary certificates before any of them is verified,
+     * so certificates in the same batch can serve as issuers of one
+     * another. See verifyCertificatesByNickname() for how the batches
+     * are run.
+     *
+     * @param certPackages DER encodings of the certificates to verify.
+     * @param checkSig verify the signatures of the certificates
+     * @param certificateUsage the usage to verify. If null or
+     *      CheckAllUsages, the usages each certificate is good for are
+     *      returned, and a certificate good for none of them is invalid.
+     * @param time the time to verify at, or null for now.
+     * @return one result per certificate, in the order of the
+     *      collection. A certificate that cannot be decoded is reported
+     *      as invalid.
+     *
+     * @exception InterruptedException If interrupted while waiting for
+     *      the executor.
+     */
+    public List<CertVerificationResult> verifyCertificates(
+            Collection<byte[]> certPackages,
+            boolean checkSig,
+            CertificateUsage certificateUsage,
+            Date time)
+                throws InterruptedException {
+        byte[][] certs = certPackages.toArray(new byte[certPackages.size()][]);
+        for (byte[] certPackage : certs) {
+            if (certPackage == null) {
+                throw new IllegalArgumentException(
+                    "Certificate package must be non-null");
+            }
+        }
+        return verifyBatches(certs, false, checkSig, certificateUsage, time);
+    }
+
+    private List<CertVerificationResult> verifyBatches(Object[] certs,
+            boolean byNickname, boolean checkSig,
+            CertificateUsage certificateUsage, Date time)
+                throws InterruptedException {
+
+        int usage = certificateUsage == null ? 0 : certificateUsage.getUsage();
+        long millis = time == null ? System.currentTimeMillis() : time.getTime();
+        int batchSize = verifyBatchSize;
+        ExecutorService executor = verifyExecutor;
+
+        CertVerificationResult[] results = new CertVerificationResult[certs.length];
+        List<VerifyBatch> batches = new ArrayList<>();
+        for (int start = 0; start < certs.length; start += batchSize) {
+            int end = Math.min(start + batchSize, certs.length);
+            batches.add(new VerifyBatch(certs, start, end, byNickname,
+                    checkSig, usage, millis, results));
+        }
+
+        if (executor == null || batches.size() < 2) {
+            for (VerifyBatch batch : batches) {
+                batch.call();
+            }
+        } else {
+            List<Future<Void>> futures = executor.invokeAll(batches);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * One native call's worth of certificates.
+     */
+    private class VerifyBatch implements Callable<Void> {
+        private final Object[] certs;
+        private final int start;
+        private final int end;
+        private final boolean byNickname;
+        private final boolean checkSig;
+        private final int usage;
+        private final long time;
+        private final CertVerificationResult[] results;
+
+        VerifyBatch(Object[] certs, int start, int end, boolean byNickname,
+                boolean checkSig, int usage, long time,
+                CertVerificationResult[] results) {
+            this.certs = certs;
+            this.start = start;
+            this.end = end;
+            this.byNickname = byNickname;
+            this.checkSig = checkSig;
+            this.usage = usage;
+            this.time = time;
+            this.results = results;
+        }
+
+        public Void call() {
+            Object[] batch = Arrays.copyOfRange(certs, start, end);
+            int[] errorCodes = new int[batch.length];
+            String[] errorMessages = new String[batch.length];
+            int[] usages = new int[batch.length];
+            long[] elapsedMicros = new long[batch.length];
+
+            verifyCertificatesNative(batch, byNickname, checkSig, usage, time,
+                    errorCodes, errorMessages, usages, elapsedMicros);
+
+            for (int i = 0; i < batch.length; i++) {
+                results[start + i] = new CertVerificationResult(start + i,
+                        byNickname ? (String) batch[i] : null,
+                        errorCodes[i], errorMessages[i], usages[i],
+                        elapsedMicros[i]);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Verifies each of certs, nicknames or DER encodings, at time
+     * (milliseconds since the epoch), filling in the output arrays.
+     */
+    private native void verifyCertificatesNative(Object[] certs,
+            boolean byNickname, boolean checkSig, int certificateUsage,
+            long time, int[] errorCodes, String[] errorMessages,
+            int[] usages, long[] elapsedMicros);
+
      ///////////////////////////////////////////////////////////////////////
     // OCSP management
     ///////////////////////////////////////////////////////////////////////
@@ -1273,4 +1495,46 @@ public final class CryptoManager implements TokenSupplier
     private native void setOCSPTimeoutNative(
         int ocsp_timeout )
                     throws GeneralSecurityException;
+
+    private OCSPResponseCache ocspResponseCache;
+
+    /**
+     * Installs a JSS-level OCSP response cache. From then on every
+     * response added to the cache is also handed to NSS, which verifies
+     * it and uses it when verifying the certificate; the responses the
+     * cache already holds are handed over now. Replaces any cache
+     * installed earlier.
+     * @param cache the cache, or null to uninstall the current one.
+     */
+    public synchronized void setOCSPResponseCache(OCSPResponseCache cache) {
+        if (ocspResponseCache != null) {
+            ocspResponseCache.detach();
+        }
+        ocspResponseCache = cache;
+        if (cache != null) {
+            cache.attach(this);
+        }
+    }
+
+    public synchronized OCSPResponseCache getOCSPResponseCache() {
+        return ocspResponseCache;
+    }
+
+    /**
+     * Hands an OCSP response for a certificate to NSS, which verifies it
+     * and keeps it in its OCSP cache. A verified response that says the
+     * certificate is revoked or unknown is accepted too.
+     * @param cert the DER-encoded certificate.
+     * @param issuer the DER-encoded issuer of the certificate.
+     * @param response the DER-encoded OCSPResponse.
+     * @throws CertificateException If NSS rejects the response.
+     */
+    void cacheOCSPResponse(byte[] cert, byte[] issuer, byte[] response)
+        throws CertificateException
+    {
+        cacheOCSPResponseNative(cert, issuer, response);
+    }
+
+    private native void cacheOCSPResponseNative(byte[] cert, byte[] issuer,
+        byte[] response) throws CertificateException;
 }
@@ -128,6 +128,9 @@ public final class JSSProvider extends java.security.Provider {
         /////////////////////////////////////////////////////////////
         put("SecureRandom.pkcs11prng",
             "org.mozilla.jss.provider.java.security.JSSSecureRandomSpi");
+        // PK11SecureRandom needs no locking, so on Java 9 and later
+        // SecureRandom won't synchronize calls to it either
+        put("SecureRandom.pkcs11prng ThreadSafe", "true");
 
         /////////////////////////////////////////////////////////////
         // KeyPairGenerator
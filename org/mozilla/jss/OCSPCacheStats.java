@@ -0,0 +1,178 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss;
+
+/**
+ * A snapshot of the counters of an {@link OCSPResponseCache}.
+ *
+ * <p>The counters are cumulative for the life of the cache. To measure
+ * an interval, take two snapshots and call {@link #since}.
+ *
+ * @see OCSPResponseCache#getStats()
+ */
+public class OCSPCacheStats {
+
+    static final int HITS = 0;
+    static final int MISSES = 1;
+    static final int EXPIRED = 2;
+    static final int FETCHES = 3;
+    static final int FETCH_FAILURES = 4;
+    static final int FETCH_TIME = 5;
+    static final int MAX_FETCH_TIME = 6;
+    static final int PREFETCHES = 7;
+    static final int STORED = 8;
+    static final int REJECTED = 9;
+    static final int EVICTIONS = 10;
+    static final int NUM_COUNTERS = 11;
+
+    private final long[] counters;
+    private final int size;
+
+    OCSPCacheStats(long[] counters, int size) {
+        if( counters.length != NUM_COUNTERS ) {
+            throw new IllegalArgumentException(
+                "Expected " + NUM_COUNTERS + " counters, got " +
+                counters.length);
+        }
+        this.counters = counters;
+        this.size = size;
+    }
+
+    /**
+     * Returns the difference between this snapshot and an earlier one.
+     * The maximum fetch time and the size are those of this snapshot.
+     */
+    public OCSPCacheStats since(OCSPCacheStats earlier) {
+        long[] diff = new long[NUM_COUNTERS];
+        for( int i = 0; i < NUM_COUNTERS; i++ ) {
+            diff[i] = counters[i] - earlier.counters[i];
+        }
+        diff[MAX_FETCH_TIME] = counters[MAX_FETCH_TIME];
+        return new OCSPCacheStats(diff, size);
+    }
+
+    /**
+     * Number of lookups that found a response that had not expired.
+     */
+    public long getHits() {
+        return counters[HITS];
+    }
+
+    /**
+     * Number of lookups that found no response, or an expired one.
+     */
+    public long getMisses() {
+        return counters[MISSES];
+    }
+
+    /**
+     * Number of misses that found an expired response.
+     */
+    public long getExpired() {
+        return counters[EXPIRED];
+    }
+
+    /**
+     * Fraction of lookups that were hits, between 0 and 1. Returns 0 if
+     * there were no lookups.
+     */
+    public double getHitRate() {
+        long total = getHits() + getMisses();
+        return (total == 0) ? 0.0 : (double) getHits() / total;
+    }
+
+    /**
+     * Number of requests sent to OCSP responders, including pre-fetches
+     * and failed requests.
+     */
+    public long getFetches() {
+        return counters[FETCHES];
+    }
+
+    /**
+     * Number of requests that failed: the responder could not be
+     * reached, did not answer in time, or answered with an error or a
+     * malformed response.
+     */
+    public long getFetchFailures() {
+        return counters[FETCH_FAILURES];
+    }
+
+    /**
+     * Total time spent waiting for responders, in nanoseconds.
+     */
+    public long getTotalFetchTime() {
+        return counters[FETCH_TIME];
+    }
+
+    /**
+     * Average time a request to a responder took, in nanoseconds.
+     * Returns 0 if there were no requests.
+     */
+    public long getAverageFetchTime() {
+        long fetches = getFetches();
+        return (fetches == 0) ? 0 : getTotalFetchTime() / fetches;
+    }
+
+    /**
+     * Longest time a request to a responder took, in nanoseconds.
+     */
+    public long getMaxFetchTime() {
+        return counters[MAX_FETCH_TIME];
+    }
+
+    /**
+     * Number of requests made to refresh responses nearing their next
+     * update, before they were needed.
+     */
+    public long getPrefetches() {
+        return counters[PREFETCHES];
+    }
+
+    /**
+     * Number of responses added to the cache, whether fetched, stapled
+     * or imported.
+     */
+    public long getStored() {
+        return counters[STORED];
+    }
+
+    /**
+     * Number of responses NSS refused to accept, for example because of
+     * a bad signature.
+     */
+    public long getRejected() {
+        return counters[REJECTED];
+    }
+
+    /**
+     * Number of responses dropped to keep the cache within its maximum
+     * size.
+     */
+    public long getEvictions() {
+        return counters[EVICTIONS];
+    }
+
+    /**
+     * Number of responses in the cache when the snapshot was taken.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public String toString() {
+        return "OCSPCacheStats[hits=" + getHits() +
+            ", misses=" + getMisses() +
+            ", expired=" + getExpired() +
+            ", fetches=" + getFetches() +
+            ", fetchFailures=" + getFetchFailures() +
+            ", averageFetchTime=" + getAverageFetchTime() +
+            ", maxFetchTime=" + getMaxFetchTime() +
+            ", prefetches=" + getPrefetches() +
+            ", stored=" + getStored() +
+            ", rejected=" + getRejected() +
+            ", evictions=" + getEvictions() +
+            ", size=" + getSize() + "]";
+    }
+}
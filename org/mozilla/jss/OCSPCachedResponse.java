@@ -0,0 +1,272 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.mozilla.jss.netscape.security.util.DerOutputStream;
+import org.mozilla.jss.netscape.security.util.DerValue;
+import org.mozilla.jss.netscape.security.util.ObjectIdentifier;
+
+/**
+ * An OCSP response held by an {@link OCSPResponseCache}: the DER-encoded
+ * OCSPResponse (RFC 6960) together with the certificate and issuer it
+ * answers for, and the status and validity period it gives for that
+ * certificate.
+ *
+ * <p>Creating one parses the response, but does not verify its
+ * signature; NSS does that when an installed cache hands the response to
+ * it. Until then the response is not trusted, and
+ * {@link #getCertStatus()} refuses to report its status.
+ */
+public final class OCSPCachedResponse {
+
+    public static final int GOOD = 0;
+    public static final int REVOKED = 1;
+    public static final int UNKNOWN = 2;
+
+    static final ObjectIdentifier BASIC_RESPONSE =
+        new ObjectIdentifier("1.3.6.1.5.5.7.48.1.1");
+
+    static final ObjectIdentifier SHA1 =
+        new ObjectIdentifier("1.3.14.3.2.26");
+
+    private final X509Certificate cert;
+    private final X509Certificate issuer;
+    private final byte[] response;
+    private final int status;
+    private final Date producedAt;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private volatile boolean verified;
+
+    /**
+     * Parses an OCSP response for a certificate.
+     *
+     * @param cert the certificate the response is about.
+     * @param issuer the issuer of the certificate.
+     * @param response the DER-encoded OCSPResponse.
+     * @exception IOException If the response is malformed, is not a
+     *      successful basic response, or does not cover the certificate.
+     */
+    public OCSPCachedResponse(X509Certificate cert, X509Certificate issuer,
+            byte[] response) throws IOException {
+
+        this.cert = cert;
+        this.issuer = issuer;
+        this.response = response.clone();
+
+        DerValue outer = new DerValue(response);
+        if (outer.tag != DerValue.tag_Sequence) {
+            throw new IOException("Invalid OCSP response");
+        }
+
+        int responseStatus = outer.data.getDerValue().getEnumerated();
+        if (responseStatus != 0) {
+            throw new IOException(
+                "OCSP responder returned status " + responseStatus);
+        }
+
+        DerValue responseBytes = outer.data.getDerValue();
+        if (!responseBytes.isContextSpecific((byte) 0)) {
+            throw new IOException("OCSP response has no response bytes");
+        }
+        DerValue typed = responseBytes.data.getDerValue();
+        if (!BASIC_RESPONSE.equals(typed.data.getOID())) {
+            throw new IOException("Unsupported OCSP response type");
+        }
+
+        // BasicOCSPResponse: only tbsResponseData is needed
+        DerValue basic = new DerValue(typed.data.getOctetString());
+        DerValue tbs = basic.data.getDerValue();
+
+        // version, if present, and responder ID
+        if (tbs.data.getDerValue().isContextSpecific((byte) 0)) {
+            tbs.data.getDerValue();
+        }
+        producedAt = tbs.data.getGeneralizedTime();
+
+        DerValue single = null;
+        for (DerValue value : tbs.data.getSequence(1)) {
+            if (matches(value.data.getDerValue())) {
+                single = value;
+                break;
+            }
+        }
+        if (single == null) {
+            throw new IOException(
+                "OCSP response does not cover certificate " +
+                cert.getSerialNumber());
+        }
+
+        DerValue certStatus = single.data.getDerValue();
+        if (certStatus.isContextSpecific((byte) 0)) {
+            status = GOOD;
+        } else if (certStatus.isContextSpecific((byte) 1)) {
+            status = REVOKED;
+        } else {
+            status = UNKNOWN;
+        }
+
+        thisUpdate = single.data.getGeneralizedTime();
+
+        Date next = null;
+        if (single.data.available() > 0) {
+            DerValue value = single.data.getDerValue();
+            if (value.isContextSpecific((byte) 0)) {
+                next = value.data.getGeneralizedTime();
+            }
+        }
+        nextUpdate = next;
+    }
+
+    /**
+     * Returns whether a CertID names our certificate. The issuer hashes
+     * are computed with whatever algorithm the responder used.
+     */
+    private boolean matches(DerValue certID) throws IOException {
+        DerValue algorithm = certID.data.getDerValue();
+        ObjectIdentifier oid = algorithm.data.getOID();
+        byte[] nameHash = certID.data.getOctetString();
+        byte[] keyHash = certID.data.getOctetString();
+        BigInteger serial = certID.data.getInteger().toBigInteger();
+
+        if (!serial.equals(cert.getSerialNumber())) {
+            return false;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(oid.toString());
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+        return Arrays.equals(nameHash, issuerNameHash(issuer, digest)) &&
+            Arrays.equals(keyHash, issuerKeyHash(issuer, digest));
+    }
+
+    static byte[] issuerNameHash(X509Certificate issuer, MessageDigest digest) {
+        return digest.digest(issuer.getSubjectX500Principal().getEncoded());
+    }
+
+    static byte[] issuerKeyHash(X509Certificate issuer, MessageDigest digest)
+            throws IOException {
+        // hash of the subjectPublicKey BIT STRING, without tag and length
+        DerValue spki = new DerValue(issuer.getPublicKey().getEncoded());
+        spki.data.getDerValue();
+        return digest.digest(spki.data.getBitString());
+    }
+
+    static MessageDigest getSHA1Digest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Encodes a CertID, hashed with SHA-1 as most responders expect.
+     */
+    static void encodeCertID(DerOutputStream out, X509Certificate cert,
+            X509Certificate issuer) throws IOException {
+
+        MessageDigest digest = getSHA1Digest();
+
+        DerOutputStream algorithm = new DerOutputStream();
+        algorithm.putOID(SHA1);
+        algorithm.putNull();
+
+        DerOutputStream certID = new DerOutputStream();
+        certID.write(DerValue.tag_Sequence, algorithm);
+        certID.putOctetString(issuerNameHash(issuer, digest));
+        certID.putOctetString(issuerKeyHash(issuer, digest));
+        certID.putUnsignedInteger(cert.getSerialNumber().toByteArray());
+
+        out.write(DerValue.tag_Sequence, certID);
+    }
+
+    public X509Certificate getCertificate() {
+        return cert;
+    }
+
+    public X509Certificate getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * Returns the DER-encoded OCSPResponse.
+     */
+    public byte[] getEncoded() {
+        return response.clone();
+    }
+
+    byte[] getEncodedInternal() {
+        return response;
+    }
+
+    /**
+     * Returns true once NSS has verified this response.
+     */
+    public boolean isVerified() {
+        return verified;
+    }
+
+    void setVerified() {
+        verified = true;
+    }
+
+    /**
+     * Returns the status of the certificate: GOOD, REVOKED or UNKNOWN.
+     *
+     * @exception IllegalStateException If NSS has not verified the
+     *      response, because its cache was not installed in CryptoManager.
+     */
+    public int getCertStatus() {
+        if (!verified) {
+            throw new IllegalStateException(
+                "OCSP response for " + cert.getSerialNumber() +
+                " has not been verified");
+        }
+        return status;
+    }
+
+    public Date getProducedAt() {
+        return (Date) producedAt.clone();
+    }
+
+    public Date getThisUpdate() {
+        return (Date) thisUpdate.clone();
+    }
+
+    /**
+     * Returns when newer status will be available, or null if the
+     * responder did not say.
+     */
+    public Date getNextUpdate() {
+        return nextUpdate == null ? null : (Date) nextUpdate.clone();
+    }
+
+    long getThisUpdateTime() {
+        return thisUpdate.getTime();
+    }
+
+    long getNextUpdateTime() {
+        return nextUpdate == null ? -1 : nextUpdate.getTime();
+    }
+
+    public String toString() {
+        String[] names = { "good", "revoked", "unknown" };
+        return "OCSP response for " + cert.getSerialNumber() + ": " +
+            names[status] + (verified ? "" : " (unverified)") +
+            ", this update " + thisUpdate +
+            ", next update " + nextUpdate;
+    }
+}
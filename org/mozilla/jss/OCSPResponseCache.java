@@ -0,0 +1,767 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.mozilla.jss.netscape.security.extensions.AuthInfoAccessExtension;
+import org.mozilla.jss.netscape.security.util.DerOutputStream;
+import org.mozilla.jss.netscape.security.util.DerValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of OCSP responses kept by JSS, next to the one inside NSS,
+ * so that applications can see how well it works, warm it, and keep
+ * its contents across restarts.
+ *
+ * <p>Responses get into the cache in three ways: fetched from the OCSP
+ * responder of the certificate by {@link #fetch}, handed in by the
+ * application with {@link #put} (responses stapled to a TLS handshake,
+ * for instance), or loaded from an {@link OCSPResponseStore} by
+ * {@link #importFrom}. A response is fresh until its nextUpdate or, if
+ * it has none, for {@link #getDefaultMaxAge()} after its thisUpdate.
+ * At most {@link #getMaximumSize()} responses are kept, least recently
+ * used first out.
+ *
+ * <p>Once installed with {@link CryptoManager#setOCSPResponseCache},
+ * each response added to the cache is also handed to NSS, which
+ * verifies it and keeps it in its own cache. Certificate verification,
+ * including in the SSL certificate authentication callbacks, then finds
+ * it there without contacting the responder. Responses NSS rejects are
+ * not cached. A cache that is not installed does not verify the
+ * responses it holds, and they report no status until it is installed;
+ * see {@link OCSPCachedResponse#getCertStatus()}.
+ *
+ * <p>A slow responder would otherwise hold up the handshake that
+ * happens to need a new response: {@link #startPrefetch} refreshes the
+ * responses nearing their next update in the background instead.
+ */
+public class OCSPResponseCache {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(OCSPResponseCache.class);
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /** Connect and read timeout of requests to responders, in ms. */
+    public static final int DEFAULT_TIMEOUT = 10000;
+
+    /** How long before its expiry a response is refreshed, in ms. */
+    public static final long DEFAULT_PREFETCH_WINDOW = 10 * 60 * 1000L;
+
+    /** How long a response without nextUpdate stays fresh, in ms. */
+    public static final long DEFAULT_MAX_AGE = 60 * 60 * 1000L;
+
+    static final int MAX_RESPONSE_SIZE = 1024 * 1024;
+
+    private int maximumSize;
+
+    private final LinkedHashMap<Key, OCSPCachedResponse> cache =
+        new LinkedHashMap<Key, OCSPCachedResponse>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, OCSPCachedResponse> eldest) {
+                if (size() > maximumSize) {
+                    counters.incrementAndGet(OCSPCacheStats.EVICTIONS);
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    private final ConcurrentHashMap<Key, FutureTask<OCSPCachedResponse>> inFlight =
+        new ConcurrentHashMap<>();
+
+    private final AtomicLongArray counters =
+        new AtomicLongArray(OCSPCacheStats.NUM_COUNTERS);
+
+    private volatile String responderURL;
+    private volatile int timeout = DEFAULT_TIMEOUT;
+    private volatile long prefetchWindow = DEFAULT_PREFETCH_WINDOW;
+    private volatile long defaultMaxAge = DEFAULT_MAX_AGE;
+
+    private volatile CryptoManager manager;
+    private ScheduledFuture<?> prefetchTask;
+
+    public OCSPResponseCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public OCSPResponseCache(int maximumSize) {
+        setMaximumSize(maximumSize);
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Lookups
+    ////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the cached response for a certificate if it is still
+     * fresh, or null.
+     *
+     * @param cert the certificate.
+     * @param issuer the issuer of the certificate.
+     * @exception IOException If the issuer public key cannot be read.
+     */
+    public OCSPCachedResponse get(X509Certificate cert,
+            X509Certificate issuer) throws IOException {
+        return lookup(new Key(cert, issuer));
+    }
+
+    /**
+     * Returns the cached response for a certificate if it is still
+     * fresh, or else asks the OCSP responder for a new one and caches it.
+     * Concurrent requests for the same certificate share one request to
+     * the responder.
+     *
+     * <p>The responder is the one set with setResponderURL(), or else
+     * the OCSP access location in the Authority Information Access
+     * extension of the certificate.
+     *
+     * <p>The response is only verified if this cache is installed in
+     * CryptoManager.
+     *
+     * @param cert the certificate.
+     * @param issuer the issuer of the certificate.
+     * @exception IOException If there is no responder, it cannot be
+     *      reached, or its answer is not a good response for the
+     *      certificate.
+     * @exception CertificateException If NSS rejects the response.
+     */
+    public OCSPCachedResponse fetch(X509Certificate cert,
+            X509Certificate issuer) throws IOException, CertificateException {
+        Key key = new Key(cert, issuer);
+        OCSPCachedResponse response = lookup(key);
+        if (response != null) {
+            return response;
+        }
+        return refresh(key, cert, issuer, false);
+    }
+
+    /**
+     * Adds a response obtained some other way, such as one stapled to a
+     * TLS handshake. A response older than the one in the cache does not
+     * replace it.
+     *
+     * @param cert the certificate the response is for.
+     * @param issuer the issuer of the certificate.
+     * @param response the DER-encoded OCSPResponse.
+     * @return the parsed response.
+     * @exception IOException If the response is malformed or does not
+     *      cover the certificate.
+     * @exception CertificateException If NSS rejects the response.
+     */
+    public OCSPCachedResponse put(X509Certificate cert,
+            X509Certificate issuer, byte[] response)
+            throws IOException, CertificateException {
+        OCSPCachedResponse parsed =
+            new OCSPCachedResponse(cert, issuer, response);
+        add(new Key(cert, issuer), parsed);
+        return parsed;
+    }
+
+    /**
+     * Removes the response for a certificate, if any.
+     */
+    public boolean remove(X509Certificate cert, X509Certificate issuer)
+            throws IOException {
+        Key key = new Key(cert, issuer);
+        synchronized (cache) {
+            return cache.remove(key) != null;
+        }
+    }
+
+    /**
+     * Empties the cache. Responses already handed to NSS stay in its
+     * cache.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private OCSPCachedResponse lookup(Key key) {
+        OCSPCachedResponse response;
+        synchronized (cache) {
+            response = cache.get(key);
+        }
+
+        if (response != null && isFresh(response, System.currentTimeMillis())) {
+            counters.incrementAndGet(OCSPCacheStats.HITS);
+            return response;
+        }
+
+        counters.incrementAndGet(OCSPCacheStats.MISSES);
+        if (response != null) {
+            counters.incrementAndGet(OCSPCacheStats.EXPIRED);
+        }
+        return null;
+    }
+
+    private void add(Key key, OCSPCachedResponse response)
+            throws CertificateException {
+
+        CryptoManager cm = manager;
+        if (cm != null) {
+            try {
+                cm.cacheOCSPResponse(
+                    response.getCertificate().getEncoded(),
+                    response.getIssuer().getEncoded(),
+                    response.getEncodedInternal());
+            } catch (CertificateException e) {
+                counters.incrementAndGet(OCSPCacheStats.REJECTED);
+                throw e;
+            }
+            // including revoked and unknown responses, which NSS caches
+            response.setVerified();
+        }
+
+        synchronized (cache) {
+            if (maximumSize > 0) {
+                OCSPCachedResponse old = cache.get(key);
+                if (old == null ||
+                        old.getThisUpdateTime() <= response.getThisUpdateTime()) {
+                    cache.put(key, response);
+                }
+            }
+        }
+        counters.incrementAndGet(OCSPCacheStats.STORED);
+    }
+
+    private boolean isFresh(OCSPCachedResponse response, long now) {
+        return now < getExpiry(response);
+    }
+
+    private long getExpiry(OCSPCachedResponse response) {
+        long nextUpdate = response.getNextUpdateTime();
+        if (nextUpdate >= 0) {
+            return nextUpdate;
+        }
+        return response.getThisUpdateTime() + defaultMaxAge;
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Requests to responders
+    ////////////////////////////////////////////////////////////////////
+
+    private OCSPCachedResponse refresh(final Key key,
+            final X509Certificate cert, final X509Certificate issuer,
+            final boolean prefetch) throws IOException, CertificateException {
+
+        FutureTask<OCSPCachedResponse> task = new FutureTask<>(
+            new Callable<OCSPCachedResponse>() {
+                public OCSPCachedResponse call() throws Exception {
+                    return download(key, cert, issuer, prefetch);
+                }
+            });
+
+        FutureTask<OCSPCachedResponse> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+
+        try {
+            return running.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while waiting for OCSP response");
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof CertificateException) {
+                throw (CertificateException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private OCSPCachedResponse download(Key key, X509Certificate cert,
+            X509Certificate issuer, boolean prefetch)
+            throws IOException, CertificateException {
+
+        String url = responderURL;
+        if (url == null) {
+            url = getResponderURL(cert);
+        }
+        if (url == null) {
+            throw new IOException("No OCSP responder for certificate " +
+                cert.getSerialNumber());
+        }
+
+        byte[] request = encodeRequest(cert, issuer);
+
+        counters.incrementAndGet(OCSPCacheStats.FETCHES);
+        if (prefetch) {
+            counters.incrementAndGet(OCSPCacheStats.PREFETCHES);
+        }
+
+        OCSPCachedResponse response;
+        long start = System.nanoTime();
+        try {
+            response = new OCSPCachedResponse(cert, issuer, post(url, request));
+
+        } catch (IOException e) {
+            counters.incrementAndGet(OCSPCacheStats.FETCH_FAILURES);
+            throw e;
+
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            counters.addAndGet(OCSPCacheStats.FETCH_TIME, elapsed);
+            long max = counters.get(OCSPCacheStats.MAX_FETCH_TIME);
+            while (elapsed > max &&
+                    !counters.compareAndSet(OCSPCacheStats.MAX_FETCH_TIME, max, elapsed)) {
+                max = counters.get(OCSPCacheStats.MAX_FETCH_TIME);
+            }
+        }
+
+        logger.debug("OCSPResponseCache: fetched " + response + " from " + url);
+
+        add(key, response);
+        return response;
+    }
+
+    private byte[] post(String url, byte[] request) throws IOException {
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            conn.setUseCaches(false);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/ocsp-request");
+            conn.setRequestProperty("Accept", "application/ocsp-response");
+            conn.setFixedLengthStreamingMode(request.length);
+
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(request);
+            }
+
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("OCSP responder " + url +
+                    " returned HTTP status " + code);
+            }
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    response.write(buffer, 0, n);
+                    if (response.size() > MAX_RESPONSE_SIZE) {
+                        throw new IOException("OCSP response from " + url +
+                            " is too large");
+                    }
+                }
+            }
+            return response.toByteArray();
+
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Encodes an OCSPRequest for one certificate. There is no nonce, so
+     * that responders can answer from their own caches.
+     */
+    static byte[] encodeRequest(X509Certificate cert, X509Certificate issuer)
+            throws IOException {
+
+        DerOutputStream certID = new DerOutputStream();
+        OCSPCachedResponse.encodeCertID(certID, cert, issuer);
+
+        DerOutputStream request = new DerOutputStream();
+        request.write(DerValue.tag_Sequence, certID);
+
+        DerOutputStream requestList = new DerOutputStream();
+        requestList.write(DerValue.tag_Sequence, request);
+
+        DerOutputStream tbsRequest = new DerOutputStream();
+        tbsRequest.write(DerValue.tag_Sequence, requestList);
+
+        DerOutputStream ocspRequest = new DerOutputStream();
+        ocspRequest.write(DerValue.tag_Sequence, tbsRequest);
+
+        return ocspRequest.toByteArray();
+    }
+
+    /**
+     * Returns the first OCSP access location in the Authority Information
+     * Access extension of a certificate, or null.
+     */
+    static String getResponderURL(X509Certificate cert) throws IOException {
+
+        byte[] extension = cert.getExtensionValue(
+            AuthInfoAccessExtension.ID.toString());
+        if (extension == null) {
+            return null;
+        }
+
+        DerValue accessDescriptions =
+            new DerValue(new DerValue(extension).getOctetString());
+
+        while (accessDescriptions.data.available() > 0) {
+            DerValue accessDescription = accessDescriptions.data.getDerValue();
+            if (!AuthInfoAccessExtension.METHOD_OCSP.equals(
+                    accessDescription.data.getOID())) {
+                continue;
+            }
+            DerValue location = accessDescription.data.getDerValue();
+            if (location.isContextSpecific((byte) 6)) {
+                // uniformResourceIdentifier [6] IA5String
+                location.resetTag(DerValue.tag_IA5String);
+                return location.getIA5String();
+            }
+        }
+        return null;
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Pre-fetch
+    ////////////////////////////////////////////////////////////////////
+
+    /**
+     * Fetches new responses for the cached ones that expire within the
+     * pre-fetch window, or have expired. Failures are logged and leave
+     * the old response in place.
+     *
+     * @return the number of responses refreshed.
+     */
+    public int prefetch() {
+        long due = System.currentTimeMillis() + prefetchWindow;
+
+        List<OCSPCachedResponse> responses = new ArrayList<>();
+        List<Key> keys = new ArrayList<>();
+        synchronized (cache) {
+            for (Map.Entry<Key, OCSPCachedResponse> entry : cache.entrySet()) {
+                if (getExpiry(entry.getValue()) <= due) {
+                    keys.add(entry.getKey());
+                    responses.add(entry.getValue());
+                }
+            }
+        }
+
+        int refreshed = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            OCSPCachedResponse response = responses.get(i);
+            try {
+                refresh(keys.get(i), response.getCertificate(),
+                        response.getIssuer(), true);
+                refreshed++;
+
+            } catch (IOException e) {
+                logger.warn("OCSPResponseCache: unable to pre-fetch OCSP response for " +
+                        response.getCertificate().getSerialNumber() + ": " + e.getMessage());
+
+            } catch (CertificateException e) {
+                logger.warn("OCSPResponseCache: OCSP response for " +
+                        response.getCertificate().getSerialNumber() +
+                        " rejected: " + e.getMessage());
+            }
+        }
+        return refreshed;
+    }
+
+    /**
+     * Runs prefetch() periodically in the given scheduler, replacing any
+     * earlier schedule. The scheduler is not shut down by JSS.
+     */
+    public synchronized void startPrefetch(ScheduledExecutorService scheduler,
+            long period, TimeUnit unit) {
+        stopPrefetch();
+        prefetchTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    prefetch();
+                } catch (RuntimeException e) {
+                    // keep the schedule going
+                    logger.warn("OCSPResponseCache: pre-fetch failed: " + e.getMessage(), e);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stopPrefetch() {
+        if (prefetchTask != null) {
+            prefetchTask.cancel(false);
+            prefetchTask = null;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Import and export
+    ////////////////////////////////////////////////////////////////////
+
+    /**
+     * Saves the responses that are still fresh to a store.
+     *
+     * @return the number of responses saved.
+     */
+    public int exportTo(OCSPResponseStore store) throws IOException {
+        long now = System.currentTimeMillis();
+        List<OCSPCachedResponse> responses = new ArrayList<>();
+        synchronized (cache) {
+            for (OCSPCachedResponse response : cache.values()) {
+                if (isFresh(response, now)) {
+                    responses.add(response);
+                }
+            }
+        }
+        store.save(responses);
+        return responses.size();
+    }
+
+    /**
+     * Adds the responses of a store that are still fresh to the cache.
+     * Responses NSS rejects are skipped.
+     *
+     * @return the number of responses added.
+     */
+    public int importFrom(OCSPResponseStore store) throws IOException {
+        Collection<OCSPCachedResponse> responses = store.load();
+        long now = System.currentTimeMillis();
+        int imported = 0;
+
+        for (OCSPCachedResponse response : responses) {
+            if (!isFresh(response, now)) {
+                continue;
+            }
+            try {
+                add(new Key(response.getCertificate(), response.getIssuer()),
+                        response);
+                imported++;
+            } catch (CertificateException e) {
+                logger.warn("OCSPResponseCache: OCSP response for " +
+                        response.getCertificate().getSerialNumber() +
+                        " rejected: " + e.getMessage());
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Called by CryptoManager.setOCSPResponseCache(). Hands the fresh
+     * responses already cached to NSS, dropping those it rejects.
+     */
+    void attach(CryptoManager cm) {
+        manager = cm;
+
+        long now = System.currentTimeMillis();
+        List<Key> keys = new ArrayList<>();
+        List<OCSPCachedResponse> responses = new ArrayList<>();
+        synchronized (cache) {
+            Iterator<Map.Entry<Key, OCSPCachedResponse>> i =
+                cache.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<Key, OCSPCachedResponse> entry = i.next();
+                if (isFresh(entry.getValue(), now)) {
+                    keys.add(entry.getKey());
+                    responses.add(entry.getValue());
+                } else {
+                    i.remove();
+                }
+            }
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            OCSPCachedResponse response = responses.get(i);
+            try {
+                cm.cacheOCSPResponse(
+                    response.getCertificate().getEncoded(),
+                    response.getIssuer().getEncoded(),
+                    response.getEncodedInternal());
+                response.setVerified();
+            } catch (CertificateException e) {
+                counters.incrementAndGet(OCSPCacheStats.REJECTED);
+                synchronized (cache) {
+                    cache.remove(keys.get(i));
+                }
+            }
+        }
+    }
+
+    void detach() {
+        manager = null;
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Statistics and settings
+    ////////////////////////////////////////////////////////////////////
+
+    public OCSPCacheStats getStats() {
+        long[] values = new long[OCSPCacheStats.NUM_COUNTERS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = counters.get(i);
+        }
+        return new OCSPCacheStats(values, size());
+    }
+
+    public int getMaximumSize() {
+        synchronized (cache) {
+            return maximumSize;
+        }
+    }
+
+    /**
+     * Sets the maximum number of responses. Zero turns the cache off;
+     * responses are then only handed to NSS.
+     */
+    public void setMaximumSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + size);
+        }
+        synchronized (cache) {
+            maximumSize = size;
+            Iterator<OCSPCachedResponse> i = cache.values().iterator();
+            while (cache.size() > size) {
+                i.next();
+                i.remove();
+                counters.incrementAndGet(OCSPCacheStats.EVICTIONS);
+            }
+        }
+    }
+
+    public String getResponderURL() {
+        return responderURL;
+    }
+
+    /**
+     * Sends all requests to the given responder instead of the one named
+     * in each certificate. Pass null to go back to the certificates'.
+     */
+    public void setResponderURL(String url) {
+        responderURL = url;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the connect and read timeouts of requests to responders, in
+     * milliseconds.
+     */
+    public void setTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeout);
+        }
+        this.timeout = timeout;
+    }
+
+    public long getPrefetchWindow() {
+        return prefetchWindow;
+    }
+
+    /**
+     * Sets how long before they expire responses are refreshed by
+     * prefetch(), in milliseconds.
+     */
+    public void setPrefetchWindow(long window) {
+        if (window < 0) {
+            throw new IllegalArgumentException(
+                "Invalid pre-fetch window: " + window);
+        }
+        prefetchWindow = window;
+    }
+
+    public long getDefaultMaxAge() {
+        return defaultMaxAge;
+    }
+
+    /**
+     * Sets how long a response without nextUpdate stays fresh after its
+     * thisUpdate, in milliseconds.
+     */
+    public void setDefaultMaxAge(long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Invalid maximum age: " + maxAge);
+        }
+        defaultMaxAge = maxAge;
+    }
+
+    /**
+     * Identifies a certificate the way a SHA-1 CertID does.
+     */
+    private static final class Key {
+        private final byte[] nameHash;
+        private final byte[] keyHash;
+        private final BigInteger serial;
+        private final int hash;
+
+        Key(X509Certificate cert, X509Certificate issuer) throws IOException {
+            MessageDigest digest = OCSPCachedResponse.getSHA1Digest();
+            nameHash = OCSPCachedResponse.issuerNameHash(issuer, digest);
+            keyHash = OCSPCachedResponse.issuerKeyHash(issuer, digest);
+            serial = cert.getSerialNumber();
+            hash = 31 * (31 * Arrays.hashCode(nameHash) +
+                Arrays.hashCode(keyHash)) + serial.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return serial.equals(other.serial) &&
+                Arrays.equals(nameHash, other.nameHash) &&
+                Arrays.equals(keyHash, other.keyHash);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Persistent storage for the responses of an {@link OCSPResponseCache},
+ * so that they survive a restart. A store only has to keep the
+ * certificate, issuer and encoded response of each entry; the cache
+ * parses the response again when it is loaded.
+ *
+ * @see OCSPResponseCache#exportTo
+ * @see OCSPResponseCache#importFrom
+ */
+public interface OCSPResponseStore {
+
+    /**
+     * Replaces the stored responses with the given ones.
+     */
+    public void save(Collection<OCSPCachedResponse> responses)
+        throws IOException;
+
+    /**
+     * Returns the stored responses. Responses that have expired in the
+     * meantime are skipped by the cache.
+     */
+    public Collection<OCSPCachedResponse> load() throws IOException;
+}
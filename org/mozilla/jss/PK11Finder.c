@@ -1885,3 +1885,176 @@ Java_org_mozilla_jss_CryptoManager_verifyCertTempNative(JNIEnv *env,
     }
 }
 
+
+/***********************************************************************
+ * CryptoManager.verifyCertificatesNative
+ *
+ * Verifies a batch of certificates, given by nickname or as DER
+ * encodings, at the given time (milliseconds since the epoch), and fills
+ * in the error code (as defined in NativeErrcodes) and message, current
+ * usages and elapsed time of each. A certificate that cannot be found or
+ * decoded is reported as invalid.
+ *
+ * DER certificates are all decoded as temporary certificates before any
+ * is verified, so certificates of the batch can be issuers of one another.
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_CryptoManager_verifyCertificatesNative(JNIEnv *env,
+        jobject self, jobjectArray certArray, jboolean byNickname,
+        jboolean checkSig, jint required_certificateUsage, jlong time,
+        jintArray errorCodeArray, jobjectArray errorMessageArray,
+        jintArray usageArray, jlongArray elapsedArray)
+{
+    CERTCertDBHandle *certdb = CERT_GetDefaultCertDB();
+    CERTCertificate **certs = NULL;
+    jint *errorCodes = NULL;
+    jint *usages = NULL;
+    jlong *elapsed = NULL;
+    PRTime verifyTime = (PRTime) time * PR_USEC_PER_MSEC;
+    jsize count;
+    jsize i;
+
+    PR_ASSERT(certdb != NULL);
+
+    count = (*env)->GetArrayLength(env, certArray);
+    if (count == 0) {
+        return;
+    }
+
+    certs = PR_Calloc(count, sizeof(CERTCertificate *));
+    errorCodes = PR_Calloc(count, sizeof(jint));
+    usages = PR_Calloc(count, sizeof(jint));
+    elapsed = PR_Calloc(count, sizeof(jlong));
+    if (certs == NULL || errorCodes == NULL || usages == NULL ||
+            elapsed == NULL) {
+        JSS_throw(env, OUT_OF_MEMORY_ERROR);
+        goto finish;
+    }
+
+    /*
+     * Find or decode the certificates.
+     */
+    for (i = 0; i < count; i++) {
+        jobject item = (*env)->GetObjectArrayElement(env, certArray, i);
+        PRTime start = PR_Now();
+
+        if (item == NULL) {
+            errorCodes[i] = SEC_ERROR_INVALID_ARGS;
+
+        } else if (byNickname) {
+            const char *nickname;
+
+            nickname = (*env)->GetStringUTFChars(env, (jstring) item, NULL);
+            if (nickname == NULL) {
+                /* OutOfMemoryError is pending */
+                goto finish;
+            }
+            certs[i] = CERT_FindCertByNickname(certdb, nickname);
+            (*env)->ReleaseStringUTFChars(env, (jstring) item, nickname);
+            if (certs[i] == NULL) {
+                errorCodes[i] = SEC_ERROR_UNKNOWN_CERT;
+            }
+
+        } else {
+            SECItem *derCert = JSS_ByteArrayToSECItem(env, (jbyteArray) item);
+            if (derCert == NULL) {
+                /* exception is pending */
+                goto finish;
+            }
+            certs[i] = CERT_NewTempCertificate(certdb, derCert, NULL,
+                    PR_FALSE /* isperm */, PR_TRUE /* copyDER */);
+            SECITEM_FreeItem(derCert, PR_TRUE /*freeit*/);
+            if (certs[i] == NULL) {
+                errorCodes[i] = PR_GetError();
+                if (errorCodes[i] == 0) {
+                    errorCodes[i] = SEC_ERROR_BAD_DER;
+                }
+            }
+        }
+
+        (*env)->DeleteLocalRef(env, item);
+        elapsed[i] = PR_Now() - start;
+    }
+
+    /*
+     * Verify them.
+     */
+    for (i = 0; i < count; i++) {
+        SECCertificateUsage currUsage = 0x0000;
+        PRTime start;
+        SECStatus rv;
+
+        if (certs[i] == NULL) {
+            continue;
+        }
+
+        start = PR_Now();
+
+        /* 0 for certificateUsage in call to CERT_VerifyCertificate will
+         * retrieve the current valid usage into currUsage
+         */
+        rv = CERT_VerifyCertificate(certdb, certs[i], checkSig,
+                required_certificateUsage, verifyTime, NULL /* wincx */,
+                NULL /* log */, &currUsage);
+
+        if (rv != SECSuccess) {
+            errorCodes[i] = PR_GetError();
+            if (errorCodes[i] == 0) {
+                errorCodes[i] = SEC_ERROR_CERT_NOT_VALID;
+            }
+
+        } else if ((required_certificateUsage == 0x0000) &&
+            (currUsage ==
+                ( certUsageUserCertImport |
+                certUsageVerifyCA |
+                certUsageProtectedObjectSigner |
+                certUsageAnyCA ))) {
+
+            /* The certificate is good for nothing (0x0b80), as in
+             * verifyCertificateNowNative2.
+             */
+            errorCodes[i] = SEC_ERROR_INADEQUATE_CERT_TYPE;
+        }
+
+        usages[i] = (jint) currUsage;
+        elapsed[i] += PR_Now() - start;
+    }
+
+    for (i = 0; i < count; i++) {
+        const char *errStr;
+        jstring message;
+
+        if (errorCodes[i] == 0) {
+            continue;
+        }
+
+        errStr = JSS_strerror(errorCodes[i]);
+        message = (*env)->NewStringUTF(env,
+                errStr == NULL ? "Unknown error" : errStr);
+        if (message == NULL) {
+            /* OutOfMemoryError is pending */
+            goto finish;
+        }
+        (*env)->SetObjectArrayElement(env, errorMessageArray, i, message);
+        (*env)->DeleteLocalRef(env, message);
+
+        errorCodes[i] = JSS_ConvertNativeErrcodeToJava(errorCodes[i]);
+    }
+
+    (*env)->SetIntArrayRegion(env, errorCodeArray, 0, count, errorCodes);
+    (*env)->SetIntArrayRegion(env, usageArray, 0, count, usages);
+    (*env)->SetLongArrayRegion(env, elapsedArray, 0, count, elapsed);
+
+finish:
+    if (certs != NULL) {
+        for (i = 0; i < count; i++) {
+            if (certs[i] != NULL) {
+                CERT_DestroyCertificate(certs[i]);
+            }
+        }
+        PR_Free(certs);
+    }
+    PR_Free(errorCodes);
+    PR_Free(usages);
+    PR_Free(elapsed);
+}
@@ -3,11 +3,12 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package org.mozilla.jss.asn1;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 import org.mozilla.jss.util.Assert;
 
@@ -28,6 +29,31 @@ public class ANY implements ASN1Value {
     private byte[] encoded;
     private Tag tag;
 
+    // Set instead of encoded when decoded by slicing a shared array; the
+    // encoding is copied out the first time getEncoded() is called.
+    private byte[] sliceBuf;
+    private int sliceOffset;
+    private int sliceLength;
+
+    ANY(Tag tag, byte[] buf, int offset, int length) {
+        this.tag = tag;
+        this.sliceBuf = buf;
+        this.sliceOffset = offset;
+        this.sliceLength = length;
+    }
+
+    /**
+     * Returns a cursor over the encoding. Values decoded from a slice are
+     * slices of the same array.
+     */
+    private ASN1Cursor cursor() {
+        byte[] buf = sliceBuf;
+        if( buf != null ) {
+            return new ASN1Cursor(buf, sliceOffset, sliceLength, true);
+        }
+        return new ASN1Cursor(encoded, 0, encoded.length, false);
+    }
+
     /**
      * Creates an ANY value, which is just a generic ASN.1 value.
      * This method is provided for efficiency if the tag is already known,
@@ -52,8 +78,7 @@ public class ANY implements ASN1Value {
       try {
         this.encoded = encoded;
 
-        ByteArrayInputStream bis = new ByteArrayInputStream(encoded);
-        ASN1Header head = new ASN1Header(bis);
+        ASN1Header head = new ASN1Header(cursor());
         this.tag = head.getTag();
       } catch(IOException e) {
             throw new org.mozilla.jss.util.AssertionException(
@@ -75,6 +100,11 @@ public class ANY implements ASN1Value {
      * @return Encoded header and contents.
      */
     public byte[] getEncoded() {
+        if( encoded == null && sliceBuf != null ) {
+            encoded = Arrays.copyOfRange(sliceBuf, sliceOffset,
+                sliceOffset + sliceLength);
+            sliceBuf = null;
+        }
         return encoded;
     }
 
@@ -87,8 +117,7 @@ public class ANY implements ASN1Value {
      */
     public ASN1Header getHeader() throws InvalidBERException, IOException {
         if( header == null ) {
-            ByteArrayInputStream bis = new ByteArrayInputStream(encoded);
-            header = new ASN1Header(bis);
+            header = new ASN1Header(cursor());
         }
         return header;
     }
@@ -102,7 +131,7 @@ public class ANY implements ASN1Value {
     public byte[] getContents() throws InvalidBERException {
       try {
         if( contents==null ) {
-            ByteArrayInputStream bis = new ByteArrayInputStream(encoded);
+            ASN1Cursor bis = cursor();
             header = new ASN1Header(bis);
             contents = new byte[ bis.available() ];
             if( (contents.length != header.getContentLength()) &&
@@ -121,7 +150,12 @@ public class ANY implements ASN1Value {
     }
 
     public void encode(OutputStream ostream) throws IOException {
-        ostream.write(encoded);
+        byte[] buf = sliceBuf;
+        if( buf != null ) {
+            ostream.write(buf, sliceOffset, sliceLength);
+        } else {
+            ostream.write(encoded);
+        }
     }
 
     /**
@@ -138,8 +172,7 @@ public class ANY implements ASN1Value {
         throws InvalidBERException
     {
       try {
-        ByteArrayInputStream bis = new ByteArrayInputStream(encoded);
-        return template.decode(bis);
+        return template.decode(cursor());
       } catch( IOException e ) {
           throw new RuntimeException("Unable to read byte array: " + e.getMessage(), e);
       }
@@ -160,8 +193,7 @@ public class ANY implements ASN1Value {
     public ASN1Value decodeWith(Tag implicitTag, ASN1Template template)
         throws IOException, InvalidBERException
     {
-        ByteArrayInputStream bis = new ByteArrayInputStream(encoded);
-        return template.decode(implicitTag, bis);
+        return template.decode(implicitTag, cursor());
     }
 
     /**
@@ -175,7 +207,7 @@ public class ANY implements ASN1Value {
         if( ! implicitTag.equals(tag) ) {
             throw new RuntimeException("No implicit tags allowed for ANY");
         }
-        ostream.write(encoded);
+        encode(ostream);
     }
 
     /**
@@ -249,6 +281,18 @@ public static class Template implements ASN1Template {
 
             return new ANY( head.getTag(), recording.toByteArray() );
 
+        } else if( istream instanceof ASN1Cursor &&
+                ((ASN1Cursor) istream).slices() ) {
+            // definite length encoding, refer to it instead of copying it
+            ASN1Cursor cursor = (ASN1Cursor) istream;
+            if( head.getTotalLength() > cursor.available() ) {
+                throw new EOFException();
+            }
+            int offset = cursor.position();
+            int length = (int) head.getTotalLength();
+            cursor.position(offset + length);
+            return new ANY(head.getTag(), cursor.array(), offset, length);
+
         } else {
             // definite length encoding
             byte[] data = new byte[ (int) head.getTotalLength() ];
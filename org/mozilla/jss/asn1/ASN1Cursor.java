@@ -0,0 +1,98 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.asn1;
+
+import java.io.InputStream;
+
+/**
+ * An InputStream over a region of a byte array, whose position the
+ * decoders in this package can read and set directly.
+ *
+ * Templates that know about it walk the array by offset: ASN1Header parses
+ * headers in place, look-ahead saves and restores the position instead of
+ * using mark/reset, and SEQUENCE and SET measure their elements by
+ * position instead of wrapping them in a CountingStream. Other templates
+ * just see an InputStream.
+ *
+ * If <code>slices</code> is set, OCTET_STRING and ANY values refer to the
+ * array instead of copying their bytes out of it, so the array must not
+ * be modified while they are in use.
+ */
+final class ASN1Cursor extends InputStream {
+
+    private final byte[] buf;
+    private final int limit;
+    private final boolean slices;
+    private int pos;
+    private int mark;
+
+    ASN1Cursor(byte[] buf, int offset, int length, boolean slices) {
+        if( offset < 0 || length < 0 || offset > buf.length - length ) {
+            throw new IndexOutOfBoundsException("offset " + offset +
+                ", length " + length + ", array length " + buf.length);
+        }
+        this.buf = buf;
+        this.pos = offset;
+        this.mark = offset;
+        this.limit = offset + length;
+        this.slices = slices;
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    void position(int newPos) {
+        pos = newPos;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    boolean slices() {
+        return slices;
+    }
+
+    public int read() {
+        return (pos < limit) ? (buf[pos++] & 0xff) : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if( pos >= limit ) {
+            return (len == 0) ? 0 : -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public long skip(long n) {
+        long k = Math.max(0, Math.min(n, limit - pos));
+        pos += (int) k;
+        return k;
+    }
+
+    public int available() {
+        return limit - pos;
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void mark(int readlimit) {
+        mark = pos;
+    }
+
+    public void reset() {
+        pos = mark;
+    }
+}
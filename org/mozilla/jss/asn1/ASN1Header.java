@@ -8,7 +8,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
-import java.util.Vector;
+import java.util.Arrays;
 
 import org.mozilla.jss.util.Assert;
 
@@ -34,11 +34,20 @@ public class ASN1Header {
     public long getTotalLength() {
         if( contentLength == -1 ) {
             return -1;
+        } else if( headerLength > 0 ) {
+            return headerLength + contentLength;
         } else {
             return encode().length + contentLength;
         }
     }
 
+    // Set when the header was parsed in place from an ASN1Cursor: where
+    // the encoding lies in its array. It is only copied out if encode()
+    // is called.
+    private byte[] encodingBuf = null;
+    private int encodingOffset;
+    private int headerLength = 0;
+
     private Tag tag;
     public Tag getTag() {
         return tag;
@@ -82,6 +91,14 @@ public class ASN1Header {
     public static ASN1Header lookAhead(InputStream derStream)
         throws IOException, InvalidBERException
     {
+        if( derStream instanceof ASN1Cursor ) {
+            ASN1Cursor cursor = (ASN1Cursor) derStream;
+            int pos = cursor.position();
+            ASN1Header info = new ASN1Header(cursor);
+            cursor.position(pos);
+            return info;
+        }
+
         if( ! derStream.markSupported() ) {
             throw new IOException("Mark not supported on this input stream");
         }
@@ -103,6 +120,11 @@ public class ASN1Header {
     public ASN1Header(InputStream istream)
         throws InvalidBERException, IOException
     {
+        if( istream instanceof ASN1Cursor ) {
+            parse((ASN1Cursor) istream);
+            return;
+        }
+
         // default BAOS size is 32 bytes, which is plenty
         ByteArrayOutputStream encoding = new ByteArrayOutputStream();
         int inInt = istream.read();
@@ -133,15 +155,9 @@ public class ASN1Header {
         //
         long tagNum;
         if( (byte1 & 0x1f) == 0x1f ) {
-            // long form
-
-            //
-            // read all octets into a Vector of Bytes
-            //
+            // long form: base 128, the last byte has MSB == 0.
             byte next;
-            Vector<Byte> bV = new Vector<>();
-
-            // last byte has MSB == 0.
+            tagNum = 0;
             do {
                 inInt = istream.read();
                 if( inInt == -1 ) {
@@ -150,50 +166,8 @@ public class ASN1Header {
                 }
                 encoding.write(inInt);
                 next = (byte) inInt;
-                bV.addElement( new Byte(next) );
+                tagNum = addTagDigit(tagNum, next);
             } while( (next & 0x80) == 0x80 );
-            Assert._assert( bV.size() > 0 );
-
-            //
-            // Copy Vector of 7-bit bytes into array of 8-bit bytes.
-            //
-            byte[] bA = new byte[ ( (bV.size()*7) + 7 ) / 8 ];
-            int v; // vector index
-            int a; // array index
-
-            // clear the target array
-            for( a = 0; a < bA.length; a++ ) {
-                bA[a] = 0;
-            }
-            int shift = 0; // the amount the Vector is shifted from the array
-
-            // copy bits from the Vector to the array, going from the
-            // end (LSB) to the beginning (MSB).
-            a = bA.length - 1;
-            for( v=bV.size()-1 ; v >= 0; v--) {
-                Assert._assert( v >= 0 );
-                Assert._assert( v < bV.size() );
-                Assert._assert( a >= 0 );
-                Assert._assert( a < bA.length );
-
-                // MSB is not part of the number
-                byte b = (byte) ( bV.elementAt(v).byteValue() & 0x7f );
-                bA[a] |= b << shift;
-                if( shift > 1 ) {
-                    // The byte from the Vector falls across a byte boundary
-                    // in the array.  We've already got the less-significant
-                    // bits, now copy the more-significant bits into
-                    // the next element of the array.
-                    Assert._assert( a > 0 );
-                    --a;
-                    bA[a] |= b >>> (8-shift);
-                }
-
-                shift = (shift+7)%8; // update shift
-            }
-
-            // Create a new unsigned BigInteger from the byte array
-            tagNum = (new BigInteger( 1, bA )).longValue();
 
         } else {
             // short form
@@ -234,6 +208,84 @@ public class ASN1Header {
         cachedEncoding = encoding.toByteArray();
     }
 
+    /**
+     * Parses the header in place from the cursor's array, consuming it.
+     */
+    private void parse(ASN1Cursor cursor) throws InvalidBERException {
+        byte[] buf = cursor.array();
+        int limit = cursor.limit();
+        int start = cursor.position();
+        int pos = start;
+
+        if( pos >= limit ) {
+            throw new InvalidBERException("End-of-file reached while "+
+                "decoding ASN.1 header");
+        }
+        byte byte1 = buf[pos++];
+        Tag.Class tagClass = Tag.Class.fromInt( (byte1 & 0xff) >>> 6 );
+        form = ((byte1 & 0x20) == 0x20) ? CONSTRUCTED : PRIMITIVE;
+
+        long tagNum;
+        if( (byte1 & 0x1f) == 0x1f ) {
+            // long form: base 128, the last byte has MSB == 0.
+            byte next;
+            tagNum = 0;
+            do {
+                if( pos >= limit ) {
+                    throw new InvalidBERException("End-of-file reached while"
+                        +" decoding ASN.1 header");
+                }
+                next = buf[pos++];
+                tagNum = addTagDigit(tagNum, next);
+            } while( (next & 0x80) == 0x80 );
+        } else {
+            tagNum = byte1 & 0x1f;
+        }
+        tag = new Tag(tagClass, tagNum);
+
+        if( pos >= limit ) {
+            throw new InvalidBERException("End-of-file reached while "+
+                "decoding ASN.1 header");
+        }
+        byte lenByte = buf[pos++];
+        if( (lenByte & 0x80) == 0 ) {
+            contentLength = lenByte;
+        } else if( (lenByte & 0x7f) == 0 ) {
+            contentLength = -1;
+        } else {
+            int numBytes = lenByte & 0x7f;
+            if( numBytes > limit - pos ) {
+                throw new InvalidBERException("End-of-file reached while "+
+                    "decoding ASN.1 header");
+            }
+            long len = 0;
+            for( int i = 0; i < numBytes; i++ ) {
+                if( (len >>> 55) != 0 ) {
+                    throw new InvalidBERException("ASN.1 length too large");
+                }
+                len = (len << 8) | (buf[pos++] & 0xff);
+            }
+            contentLength = len;
+        }
+
+        encodingBuf = buf;
+        encodingOffset = start;
+        headerLength = pos - start;
+        cursor.position(pos);
+    }
+
+    /**
+     * Appends one base-128 digit of a long form tag number.
+     */
+    private static long addTagDigit(long tagNum, byte digit)
+        throws InvalidBERException
+    {
+        if( (tagNum >>> 56) != 0 ) {
+            throw new InvalidBERException("ASN.1 tag number too large");
+        }
+        return (tagNum << 7) | (digit & 0x7f);
+    }
+
     /**
      * This constructor is to be called when we are constructing an ASN1Value
      * rather than decoding it.
@@ -264,6 +316,12 @@ public class ASN1Header {
         if( cachedEncoding != null ) {
             return cachedEncoding;
         }
+        if( encodingBuf != null ) {
+            cachedEncoding = Arrays.copyOfRange(encodingBuf, encodingOffset,
+                encodingOffset + headerLength);
+            encodingBuf = null;
+            return cachedEncoding;
+        }
 
         ByteArrayOutputStream cache = new ByteArrayOutputStream();
 
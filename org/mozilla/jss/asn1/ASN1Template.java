@@ -5,6 +5,7 @@ package org.mozilla.jss.asn1;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * An interface for decoding ASN1Values from their BER encodings.
@@ -50,4 +51,61 @@ public interface ASN1Template {
      */
     public ASN1Value decode(Tag implicitTag, InputStream istream)
         throws IOException, InvalidBERException;
+
+    /**
+     * Decodes an ASN1Value from a region of a byte array.
+     *
+     * <p>The decoders in this package walk the array by offset rather
+     * than through stream wrappers, and OCTET_STRING and ANY values
+     * refer to the array instead of copying out of it. The array must
+     * therefore not be modified while the decoded value is in use.
+     * Other templates decode through the InputStream methods as usual.
+     *
+     * @param encoded Array holding the encoding.
+     * @param offset Offset of the encoding in the array.
+     * @param length Number of bytes available; trailing bytes after the
+     *      value are ignored.
+     * @return ASN.1 value.
+     * @throws InvalidBERException If there is an invalid BER encoding.
+     * @throws IOException If other error occurred.
+     */
+    default ASN1Value decode(byte[] encoded, int offset, int length)
+        throws IOException, InvalidBERException
+    {
+        return decode(new ASN1Cursor(encoded, offset, length, true));
+    }
+
+    /**
+     * Decodes an ASN1Value from the remaining bytes of a buffer, and
+     * advances its position past the value.
+     *
+     * <p>If the buffer is backed by an accessible array, this works like
+     * {@link #decode(byte[], int, int)}, and the values decoded refer to
+     * that array. Otherwise the remaining bytes are copied once into a
+     * new array, which the values then refer to.
+     *
+     * @param encoded Buffer holding the encoding at its position.
+     * @return ASN.1 value.
+     * @throws InvalidBERException If there is an invalid BER encoding.
+     * @throws IOException If other error occurred.
+     */
+    default ASN1Value decode(ByteBuffer encoded)
+        throws IOException, InvalidBERException
+    {
+        ASN1Cursor cursor;
+        int start;
+        if( encoded.hasArray() ) {
+            start = encoded.arrayOffset() + encoded.position();
+            cursor = new ASN1Cursor(encoded.array(), start,
+                encoded.remaining(), true);
+        } else {
+            byte[] copy = new byte[encoded.remaining()];
+            encoded.duplicate().get(copy);
+            start = 0;
+            cursor = new ASN1Cursor(copy, 0, copy.length, true);
+        }
+        ASN1Value val = decode(cursor);
+        encoded.position(encoded.position() + cursor.position() - start);
+        return val;
+    }
 }
@@ -3,7 +3,6 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package org.mozilla.jss.asn1;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
@@ -34,7 +33,7 @@ public class ASN1Util {
     {
       try {
 
-        ByteArrayInputStream bis = new ByteArrayInputStream(encoded);
+        ASN1Cursor bis = new ASN1Cursor(encoded, 0, encoded.length, false);
         return template.decode(bis);
 
       } catch( IOException e ) {
@@ -48,7 +47,7 @@ public class ASN1Util {
     {
       try {
 
-        ByteArrayInputStream bis = new ByteArrayInputStream(encoded);
+        ASN1Cursor bis = new ASN1Cursor(encoded, 0, encoded.length, false);
         return template.decode(implicitTag, bis);
 
       } catch( IOException e ) {
@@ -4,9 +4,12 @@
 package org.mozilla.jss.asn1;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class OCTET_STRING implements ASN1Value {
 
@@ -18,14 +21,47 @@ public class OCTET_STRING implements ASN1Value {
 
     byte[] data;
 
+    // Set instead of data when decoded by slicing a shared array; the
+    // bytes are copied out the first time toByteArray() is called.
+    private byte[] sliceBuf;
+    private int sliceOffset;
+    private int sliceLength;
+
     public OCTET_STRING( byte[] data ) {
         this.data = data;
     }
 
+    OCTET_STRING( byte[] buf, int offset, int length ) {
+        this.sliceBuf = buf;
+        this.sliceOffset = offset;
+        this.sliceLength = length;
+    }
+
     public byte[] toByteArray() {
+        if( data == null && sliceBuf != null ) {
+            data = Arrays.copyOfRange(sliceBuf, sliceOffset,
+                sliceOffset + sliceLength);
+            sliceBuf = null;
+        }
         return data;
     }
 
+    /**
+     * Returns the contents as a read-only buffer. If this value was
+     * decoded from a shared array, the buffer refers to that array and
+     * no bytes are copied.
+     *
+     * @return The contents.
+     */
+    public ByteBuffer toByteBuffer() {
+        byte[] buf = sliceBuf;
+        if( buf != null ) {
+            return ByteBuffer.wrap(buf, sliceOffset, sliceLength).slice()
+                .asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(toByteArray()).asReadOnlyBuffer();
+    }
+
     public void encode(OutputStream ostream) throws IOException {
         // use getTag() so we can be subclassed
         encode(getTag(), ostream);
@@ -34,6 +70,14 @@ public class OCTET_STRING implements ASN1Value {
     public void encode(Tag implicitTag, OutputStream ostream)
         throws IOException
     {
+        byte[] buf = sliceBuf;
+        if( buf != null ) {
+            ASN1Header head = new ASN1Header(implicitTag, FORM, sliceLength);
+            head.encode(ostream);
+            ostream.write(buf, sliceOffset, sliceLength);
+            return;
+        }
+
         ASN1Header head = new ASN1Header(implicitTag, FORM, data.length);
 
         head.encode(ostream);
@@ -99,6 +143,19 @@ public static class Template implements ASN1Template {
             ahead = new ASN1Header(istream);
 
             data = bos.toByteArray();
+        } else if( istream instanceof ASN1Cursor &&
+                ((ASN1Cursor) istream).slices() &&
+                getClass() == Template.class ) {
+            // refer to the contents instead of copying them; subclasses
+            // get a copy, since generateInstance() takes an array
+            ASN1Cursor cursor = (ASN1Cursor) istream;
+            if( head.getContentLength() > cursor.available() ) {
+                throw new EOFException();
+            }
+            int offset = cursor.position();
+            int length = (int) head.getContentLength();
+            cursor.position(offset + length);
+            return new OCTET_STRING(cursor.array(), offset, length);
         } else {
             data = new byte[ (int) head.getContentLength() ];
             ASN1Util.readFully(data, istream);
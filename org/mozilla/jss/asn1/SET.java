@@ -704,25 +704,38 @@ public static class Template implements ASN1Template {
             ASN1Template t = e.getTemplate();
             ASN1Value val;
 
-            try (CountingStream countstream = new CountingStream(istream)) {
-
+            long len;
+            if (istream instanceof ASN1Cursor) {
+                // measure the item by position, no need to count
+                ASN1Cursor cursor = (ASN1Cursor) istream;
+                int start = cursor.position();
                 if (e.getImplicitTag() == null) {
-                    val = t.decode(countstream);
+                    val = t.decode(cursor);
                 } else {
-                    val = t.decode(e.getImplicitTag(), countstream);
+                    val = t.decode(e.getImplicitTag(), cursor);
                 }
+                len = cursor.position() - start;
+            } else {
+                try (CountingStream countstream = new CountingStream(istream)) {
 
-                // Decrement remaining count
-                long len = countstream.getNumRead();
-                if (remainingContent != -1) {
-                    if (remainingContent < len) {
-                        // this item went past the end of the SET
-                        throw new InvalidBERException("Item went "+
-                            (len-remainingContent) + " bytes past the end of" +
-                            " the SET");
+                    if (e.getImplicitTag() == null) {
+                        val = t.decode(countstream);
+                    } else {
+                        val = t.decode(e.getImplicitTag(), countstream);
                     }
-                    remainingContent -= len;
+                    len = countstream.getNumRead();
+                }
+            }
+
+            // Decrement remaining count
+            if (remainingContent != -1) {
+                if (remainingContent < len) {
+                    // this item went past the end of the SET
+                    throw new InvalidBERException("Item went "+
+                        (len-remainingContent) + " bytes past the end of" +
+                        " the SET");
                 }
+                remainingContent -= len;
             }
 
             // Store this element in the SET
@@ -92,7 +92,9 @@ JSS_AlgInfo JSS_AlgTable[NUM_ALGS] = {
 /* 61 */    {SEC_OID_AES_192_ECB, SEC_OID_TAG},
 /* 62 */    {SEC_OID_AES_192_CBC, SEC_OID_TAG},
 /* 63 */    {SEC_OID_AES_256_ECB, SEC_OID_TAG},
-/* 64 */    {SEC_OID_AES_256_CBC, SEC_OID_TAG}
+/* 64 */    {SEC_OID_AES_256_CBC, SEC_OID_TAG},
+/* 65 */    {CKM_AES_CTR, PK11_MECH},
+/* 66 */    {CKM_AES_GCM, PK11_MECH}
 /* REMEMBER TO UPDATE NUM_ALGS!!! */
 };
 
@@ -223,4 +223,8 @@ public class Algorithm {
     protected static final short SEC_OID_AES_192_CBC = 62;
     protected static final short SEC_OID_AES_256_ECB = 63;
     protected static final short SEC_OID_AES_256_CBC = 64;
+
+    // AES stream and AEAD modes
+    protected static final short CKM_AES_CTR = 65;
+    protected static final short CKM_AES_GCM = 66;
 }
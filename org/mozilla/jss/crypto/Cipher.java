@@ -6,9 +6,12 @@ package org.mozilla.jss.crypto;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.security.spec.AlgorithmParameterSpec;
 
 import javax.crypto.BadPaddingException;
+import javax.crypto.ShortBufferException;
 
 import org.mozilla.jss.util.Assert;
 
@@ -107,6 +110,150 @@ public abstract class Cipher {
         throws IllegalStateException, IllegalBlockSizeException,
         BadPaddingException, TokenException;
 
+    /**
+     * Supplies additional authenticated data to an AEAD cipher such as
+     *  AES/GCM. All of it must be supplied before any input.
+     * @param aad The additional authenticated data.
+     * @param offset The index in <code>aad</code> at which to begin reading.
+     * @param length The number of bytes from <code>aad</code> to read.
+     * @exception UnsupportedOperationException If the algorithm does not
+     *      authenticate additional data.
+     */
+    public void updateAAD(byte[] aad, int offset, int length)
+        throws IllegalStateException, TokenException
+    {
+        throw new UnsupportedOperationException(
+            "Additional authenticated data is not supported by " +
+            getClass().getName());
+    }
+
+    /**
+     * Returns an upper bound on the number of bytes that
+     * <code>update</code> or <code>doFinal</code> will write for
+     * <code>inputLength</code> bytes of input. An output buffer of this
+     * size is never too short.
+     */
+    public int getOutputSize(int inputLength) {
+        // buffered input plus padding: two blocks of up to 32 bytes
+        return inputLength + 64;
+    }
+
+    /**
+     * Updates the encryption context with additional input, writing the
+     *  output into the given array instead of allocating a new one.
+     *  <code>output</code> may be the same array as <code>input</code>.
+     * @param input Bytes of plaintext (if encrypting) or ciphertext (if
+     *      decrypting).
+     * @param inputOffset The index in <code>input</code> at which to begin
+     *      reading.
+     * @param inputLength The number of bytes from <code>input</code> to read.
+     * @param output The array that receives the output.
+     * @param outputOffset The index in <code>output</code> at which to begin
+     *      writing.
+     * @return The number of bytes written to <code>output</code>.
+     * @exception ShortBufferException If <code>output</code> is too short.
+     *      The input may already have been consumed; size the output with
+     *      {@link #getOutputSize} to be safe.
+     */
+    public int update(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset)
+        throws IllegalStateException, ShortBufferException, TokenException
+    {
+        byte[] bytes = update(input, inputOffset, inputLength);
+        return copyOut(bytes, output, outputOffset);
+    }
+
+    /**
+     * Completes a cipher operation, writing the output into the given array
+     *  instead of allocating a new one. <code>output</code> may be the same
+     *  array as <code>input</code>.
+     * @param input Bytes of plaintext (if encrypting) or ciphertext (if
+     *      decrypting).
+     * @param inputOffset The index in <code>input</code> at which to begin
+     *      reading.
+     * @param inputLength The number of bytes from <code>input</code> to read.
+     * @param output The array that receives the output.
+     * @param outputOffset The index in <code>output</code> at which to begin
+     *      writing.
+     * @return The number of bytes written to <code>output</code>.
+     * @exception ShortBufferException If <code>output</code> is too short.
+     */
+    public int doFinal(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset)
+        throws IllegalStateException, IllegalBlockSizeException,
+        BadPaddingException, ShortBufferException, TokenException
+    {
+        byte[] bytes = doFinal(input, inputOffset, inputLength);
+        return copyOut(bytes, output, outputOffset);
+    }
+
+    /**
+     * Updates the encryption context with all remaining bytes of
+     *  <code>input</code>, writing the output to <code>output</code>.
+     *  The position of <code>input</code> is advanced to its limit, and that
+     *  of <code>output</code> by the number of bytes written.
+     * @return The number of bytes written to <code>output</code>.
+     * @exception ShortBufferException If <code>output</code> has too few
+     *      bytes remaining.
+     */
+    public int update(ByteBuffer input, ByteBuffer output)
+        throws IllegalStateException, ShortBufferException, TokenException
+    {
+        if( output.isReadOnly() ) {
+            throw new ReadOnlyBufferException();
+        }
+        byte[] bytes = update(remainingBytes(input));
+        return putOut(bytes, output);
+    }
+
+    /**
+     * Completes a cipher operation with all remaining bytes of
+     *  <code>input</code>, writing the output to <code>output</code>.
+     *  The position of <code>input</code> is advanced to its limit, and that
+     *  of <code>output</code> by the number of bytes written.
+     * @return The number of bytes written to <code>output</code>.
+     * @exception ShortBufferException If <code>output</code> has too few
+     *      bytes remaining.
+     */
+    public int doFinal(ByteBuffer input, ByteBuffer output)
+        throws IllegalStateException, IllegalBlockSizeException,
+        BadPaddingException, ShortBufferException, TokenException
+    {
+        if( output.isReadOnly() ) {
+            throw new ReadOnlyBufferException();
+        }
+        byte[] bytes = doFinal(remainingBytes(input));
+        return putOut(bytes, output);
+    }
+
+    private static int copyOut(byte[] bytes, byte[] output, int outputOffset)
+        throws ShortBufferException
+    {
+        if( bytes.length > output.length - outputOffset ) {
+            throw new ShortBufferException(bytes.length +  " needed, " +
+                (output.length - outputOffset) + " supplied");
+        }
+        System.arraycopy(bytes, 0, output, outputOffset, bytes.length);
+        return bytes.length;
+    }
+
+    private static int putOut(byte[] bytes, ByteBuffer output)
+        throws ShortBufferException
+    {
+        if( bytes.length > output.remaining() ) {
+            throw new ShortBufferException(bytes.length +  " needed, " +
+                output.remaining() + " supplied");
+        }
+        output.put(bytes);
+        return bytes.length;
+    }
+
+    private static byte[] remainingBytes(ByteBuffer input) {
+        byte[] bytes = new byte[input.remaining()];
+        input.get(bytes);
+        return bytes;
+    }
+
     /**
      * Pads a byte array so that its length is a multiple of the given
      *  blocksize.  The method of padding is the one defined in the RSA
@@ -107,6 +107,18 @@ public interface CryptoStore {
     public void deletePublicKey(PublicKey publicKey)
             throws NoSuchItemOnTokenException, TokenException;
 
+    /**
+     * Permanently deletes a symmetric key from the token.
+     *
+     * @param symmetricKey A symmetric key to be permanently deleted.
+     * @exception NoSuchItemOnTokenException If the given symmetric key does
+     *      not reside on this token.
+     * @exception TokenException If an error occurs on the token while
+     *      deleting the key.
+     */
+    public void deleteSymmetricKey(SymmetricKey symmetricKey)
+            throws NoSuchItemOnTokenException, TokenException;
+
     /**
      * Get an encrypted private key for the given cert.
      *
@@ -0,0 +1,279 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+/*
+ * One-shot digests and HMACs.
+ *
+ * Each call does all of its work in a single JNI crossing and keeps no
+ * NSS context beyond the call, so no CipherContextProxy is created.
+ * Bounds and output sizes are checked in Java before the call.
+ *
+ * Input arrays are not pinned across the digest: they are copied
+ * DIGEST_CHUNK bytes at a time into a buffer on the stack and fed to
+ * the context from there.
+ */
+
+#include "_jni/org_mozilla_jss_crypto_DigestAlgorithm.h"
+#include "_jni/org_mozilla_jss_crypto_HMACAlgorithm.h"
+
+#include <nspr.h>
+#include <seccomon.h>
+#include <secoidt.h>
+#include <pk11func.h>
+#include <hasht.h>
+#include <sechash.h>
+#include <jni.h>
+#include <string.h>
+
+#include <java_ids.h>
+#include <jss_exceptions.h>
+#include <jssutil.h>
+#include <pk11util.h>
+#include "Algorithm.h"
+
+#define DIGEST_CHUNK 4096
+
+/*
+ * Restarts the context and digests len bytes of inputBA, starting at
+ * offset, into out, which must have room for HASH_LENGTH_MAX bytes.
+ * Returns PR_FAILURE if an exception was thrown.
+ */
+static PRStatus
+digestArray(JNIEnv *env, PK11Context *context, jbyteArray inputBA,
+    jint offset, jint len, unsigned char *out, unsigned int *outLen,
+    const char *failMsg)
+{
+    unsigned char buf[DIGEST_CHUNK];
+    SECStatus rv;
+
+    rv = PK11_DigestBegin(context);
+    while( rv == SECSuccess && len > 0 ) {
+        jint chunk = (len > DIGEST_CHUNK) ? DIGEST_CHUNK : len;
+
+        (*env)->GetByteArrayRegion(env, inputBA, offset, chunk, (jbyte*)buf);
+        rv = PK11_DigestOp(context, buf, chunk);
+        offset += chunk;
+        len -= chunk;
+    }
+    if( rv == SECSuccess ) {
+        rv = PK11_DigestFinal(context, out, outLen, HASH_LENGTH_MAX);
+    }
+    memset(buf, 0, sizeof(buf));
+
+    if( rv != SECSuccess ) {
+        JSS_throwMsgPrErr(env, DIGEST_EXCEPTION, failMsg);
+        return PR_FAILURE;
+    }
+    return PR_SUCCESS;
+}
+
+/*
+ * Creates a digest context for the algorithm.
+ * Returns NULL if an exception was thrown.
+ */
+static PK11Context*
+createDigestContext(JNIEnv *env, jobject algObj)
+{
+    SECOidTag alg;
+    PK11Context *context;
+
+    alg = JSS_getOidTagFromAlg(env, algObj);
+    if( alg == SEC_OID_UNKNOWN ) {
+        JSS_throwMsg(env, DIGEST_EXCEPTION, "Unknown digest algorithm");
+        return NULL;
+    }
+    context = PK11_CreateDigestContext(alg);
+    if( context == NULL ) {
+        JSS_throwMsgPrErr(env, DIGEST_EXCEPTION,
+            "Unable to initialize digest context");
+    }
+    return context;
+}
+
+/***********************************************************************
+ *
+ * DigestAlgorithm.hashNative
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_crypto_DigestAlgorithm_hashNative
+    (JNIEnv *env, jobject this, jbyteArray inputBA, jint inOff, jint inLen,
+    jbyteArray outputBA, jint outOff)
+{
+    PK11Context *context;
+    unsigned char out[HASH_LENGTH_MAX];
+    unsigned int outLen = 0;
+
+    context = createDigestContext(env, this);
+    if( context == NULL ) {
+        return;
+    }
+    if( digestArray(env, context, inputBA, inOff, inLen, out, &outLen,
+            "Digest operation failed") == PR_SUCCESS ) {
+        (*env)->SetByteArrayRegion(env, outputBA, outOff, outLen,
+            (jbyte*)out);
+    }
+    PK11_DestroyContext(context, PR_TRUE /*freeit*/);
+}
+
+/***********************************************************************
+ *
+ * DigestAlgorithm.hashBatchNative
+ *
+ * Computes the digests of the inputs with one context, storing them one
+ * after another in output.
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_crypto_DigestAlgorithm_hashBatchNative
+    (JNIEnv *env, jobject this, jobjectArray inputs, jbyteArray outputBA,
+    jint outOff)
+{
+    PK11Context *context;
+    unsigned char out[HASH_LENGTH_MAX];
+    unsigned int outLen = 0;
+    jsize count, i;
+
+    context = createDigestContext(env, this);
+    if( context == NULL ) {
+        return;
+    }
+
+    count = (*env)->GetArrayLength(env, inputs);
+    for( i = 0; i < count; i++ ) {
+        jbyteArray inputBA;
+        PRStatus status;
+
+        inputBA = (*env)->GetObjectArrayElement(env, inputs, i);
+        if( inputBA == NULL ) {
+            /* checked in Java, but the array may have changed */
+            JSS_throw(env, NULL_POINTER_EXCEPTION);
+            break;
+        }
+        status = digestArray(env, context, inputBA, 0,
+                    (*env)->GetArrayLength(env, inputBA), out, &outLen,
+                    "Digest operation failed");
+        (*env)->DeleteLocalRef(env, inputBA);
+        if( status != PR_SUCCESS ) {
+            break;
+        }
+        (*env)->SetByteArrayRegion(env, outputBA, outOff + i * outLen,
+            outLen, (jbyte*)out);
+    }
+
+    PK11_DestroyContext(context, PR_TRUE /*freeit*/);
+}
+
+/*
+ * Creates an HMAC signing context for the key, following
+ * PK11MessageDigest.initHMAC. Returns NULL if an exception was thrown.
+ */
+static PK11Context*
+createHMACContext(JNIEnv *env, jobject algObj, jobject keyObj)
+{
+    PK11SymKey *origKey = NULL, *newKey = NULL;
+    PK11Context *context = NULL;
+    CK_MECHANISM_TYPE mech;
+    SECItem param;
+
+    mech = JSS_getPK11MechFromAlg(env, algObj);
+    if( mech == CKM_INVALID_MECHANISM ) {
+        JSS_throwMsg(env, DIGEST_EXCEPTION, "Unknown HMAC algorithm");
+        return NULL;
+    }
+
+    if( JSS_PK11_getSymKeyPtr(env, keyObj, &origKey) != PR_SUCCESS ) {
+        return NULL;
+    }
+
+    /* copy the key, setting the CKA_SIGN attribute; for some keys on
+     * an HSM this fails, but the key may work anyway */
+    newKey = PK11_CopySymKeyForSigning(origKey, mech);
+    if( newKey == NULL ) {
+        newKey = origKey;
+    }
+
+    param.data = NULL;
+    param.len = 0;
+    context = PK11_CreateContextBySymKey(mech, CKA_SIGN, newKey, &param);
+    if( context == NULL ) {
+        JSS_throwMsgPrErr(env, DIGEST_EXCEPTION,
+            "Unable to initialize HMAC context");
+    }
+
+    if( newKey != origKey ) {
+        /* the context holds its own reference */
+        PK11_FreeSymKey(newKey);
+    }
+    return context;
+}
+
+/***********************************************************************
+ *
+ * HMACAlgorithm.hmacNative
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_crypto_HMACAlgorithm_hmacNative
+    (JNIEnv *env, jobject this, jobject keyObj, jbyteArray inputBA,
+    jint inOff, jint inLen, jbyteArray outputBA, jint outOff)
+{
+    PK11Context *context;
+    unsigned char out[HASH_LENGTH_MAX];
+    unsigned int outLen = 0;
+
+    context = createHMACContext(env, this, keyObj);
+    if( context == NULL ) {
+        return;
+    }
+    if( digestArray(env, context, inputBA, inOff, inLen, out, &outLen,
+            "HMAC operation failed") == PR_SUCCESS ) {
+        (*env)->SetByteArrayRegion(env, outputBA, outOff, outLen,
+            (jbyte*)out);
+    }
+    PK11_DestroyContext(context, PR_TRUE /*freeit*/);
+}
+
+/***********************************************************************
+ *
+ * HMACAlgorithm.hmacBatchNative
+ *
+ * Computes the HMACs of the inputs with one context, storing them one
+ * after another in output.
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_crypto_HMACAlgorithm_hmacBatchNative
+    (JNIEnv *env, jobject this, jobject keyObj, jobjectArray inputs,
+    jbyteArray outputBA, jint outOff)
+{
+    PK11Context *context;
+    unsigned char out[HASH_LENGTH_MAX];
+    unsigned int outLen = 0;
+    jsize count, i;
+
+    context = createHMACContext(env, this, keyObj);
+    if( context == NULL ) {
+        return;
+    }
+
+    count = (*env)->GetArrayLength(env, inputs);
+    for( i = 0; i < count; i++ ) {
+        jbyteArray inputBA;
+        PRStatus status;
+
+        inputBA = (*env)->GetObjectArrayElement(env, inputs, i);
+        if( inputBA == NULL ) {
+            JSS_throw(env, NULL_POINTER_EXCEPTION);
+            break;
+        }
+        status = digestArray(env, context, inputBA, 0,
+                    (*env)->GetArrayLength(env, inputBA), out, &outLen,
+                    "HMAC operation failed");
+        (*env)->DeleteLocalRef(env, inputBA);
+        if( status != PR_SUCCESS ) {
+            break;
+        }
+        (*env)->SetByteArrayRegion(env, outputBA, outOff + i * outLen,
+            outLen, (jbyte*)out);
+    }
+
+    PK11_DestroyContext(context, PR_TRUE /*freeit*/);
+}
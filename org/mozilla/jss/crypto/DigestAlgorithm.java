@@ -4,6 +4,7 @@
 
 package org.mozilla.jss.crypto;
 
+import java.security.DigestException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Hashtable;
 
@@ -51,6 +52,125 @@ public class DigestAlgorithm extends Algorithm {
         return outputSize;
     }
 
+    ///////////////////////////////////////////////////////////////////////
+    // One-shot digesting
+    ///////////////////////////////////////////////////////////////////////
+
+    /**
+     * Digests part of an array in a single native call, without creating
+     * a digest context object. This is the cheapest way to hash a small
+     * input such as a certificate or a public key.
+     * The digest is computed by NSS on the internal token.
+     *
+     * @param input The data to digest.
+     * @param inputOffset The index in <code>input</code> at which to start.
+     * @param inputLength The number of bytes to digest.
+     * @param output The array that receives the digest.
+     * @param outputOffset The index in <code>output</code> at which to
+     *      store the digest. There must be room for
+     *      {@link #getOutputSize} bytes.
+     * @return The number of bytes stored, which is the output size.
+     * @exception DigestException If the output is too small or the
+     *      digest fails.
+     */
+    public int digest(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset)
+        throws DigestException
+    {
+        checkBounds(input, inputOffset, inputLength);
+        checkOutput(output, outputOffset, 1);
+        hashNative(input, inputOffset, inputLength, output, outputOffset);
+        return outputSize;
+    }
+
+    /**
+     * Digests an array in a single native call.
+     *
+     * @param input The data to digest.
+     * @return The digest.
+     * @exception DigestException If the digest fails.
+     */
+    public byte[] digest(byte[] input) throws DigestException {
+        byte[] output = new byte[outputSize];
+        digest(input, 0, input.length, output, 0);
+        return output;
+    }
+
+    /**
+     * Digests each of the inputs, all in a single native call. The
+     * digests are stored one after another in <code>output</code>.
+     *
+     * @param inputs The arrays to digest.
+     * @param output The array that receives the digests. There must be
+     *      room for <code>inputs.length</code> times
+     *      {@link #getOutputSize} bytes.
+     * @param outputOffset The index in <code>output</code> at which to
+     *      store the first digest.
+     * @exception DigestException If the output is too small or a digest
+     *      fails.
+     */
+    public void digest(byte[][] inputs, byte[] output, int outputOffset)
+        throws DigestException
+    {
+        for( int i = 0; i < inputs.length; i++ ) {
+            if( inputs[i] == null ) {
+                throw new NullPointerException("inputs[" + i + "] is null");
+            }
+        }
+        checkOutput(output, outputOffset, inputs.length);
+        hashBatchNative(inputs, output, outputOffset);
+    }
+
+    /**
+     * Digests each of the inputs, all in a single native call.
+     *
+     * @param inputs The arrays to digest.
+     * @return The digests, in the same order as the inputs.
+     * @exception DigestException If a digest fails.
+     */
+    public byte[][] digest(byte[][] inputs) throws DigestException {
+        byte[] all = new byte[inputs.length * outputSize];
+        digest(inputs, all, 0);
+        return split(all, inputs.length);
+    }
+
+    static void checkBounds(byte[] bytes, int offset, int length) {
+        if( offset < 0 || length < 0 || offset > bytes.length - length ) {
+            throw new ArrayIndexOutOfBoundsException(
+                "offset " + offset + ", length " + length +
+                ", array length " + bytes.length);
+        }
+    }
+
+    void checkOutput(byte[] output, int outputOffset, int count)
+        throws DigestException
+    {
+        if( outputOffset < 0 ||
+            output.length - outputOffset < (long) count * outputSize )
+        {
+            throw new DigestException("Output buffer too small: " +
+                ((long) count * outputSize) + " needed, " +
+                (output.length - outputOffset) + " supplied");
+        }
+    }
+
+    byte[][] split(byte[] all, int count) {
+        byte[][] digests = new byte[count][];
+        for( int i = 0; i < count; i++ ) {
+            digests[i] = new byte[outputSize];
+            System.arraycopy(all, i * outputSize, digests[i], 0, outputSize);
+        }
+        return digests;
+    }
+
+    private native void hashNative(byte[] input, int inputOffset,
+            int inputLength, byte[] output, int outputOffset)
+        throws DigestException;
+
+    private native void hashBatchNative(byte[][] inputs, byte[] output,
+            int outputOffset)
+        throws DigestException;
+
     /**
      * The MD2 digest algorithm, from RSA.
      */
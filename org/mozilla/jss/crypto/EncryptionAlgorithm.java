@@ -8,6 +8,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Hashtable;
 import java.util.Vector;
 
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.RC2ParameterSpec;
 
@@ -47,6 +48,12 @@ public class EncryptionAlgorithm extends Algorithm {
         public static final Mode NONE = new Mode("NONE");
         public static final Mode ECB = new Mode("ECB");
         public static final Mode CBC = new Mode("CBC");
+        public static final Mode CTR = new Mode("CTR");
+        public static final Mode GCM = new Mode("GCM");
+        /**
+         * AES key wrap (RFC 3394).
+         */
+        public static final Mode KW = new Mode("KW");
     }
 
     public static class Alg {
@@ -408,4 +415,45 @@ public class EncryptionAlgorithm extends Algorithm {
         Padding.PKCS5, IVParameterSpecClasses, 16,
         AES_ROOT_OID.subBranch(42), 256);
 
+    /**
+     * AES in counter mode, with a 16-byte initial counter block given as
+     * the IV. The whole block is incremented as a 128-bit counter.
+     */
+    public static final EncryptionAlgorithm
+    AES_CTR = new EncryptionAlgorithm(CKM_AES_CTR, Alg.AES, Mode.CTR,
+        Padding.NONE, IVParameterSpecClasses, 16, null, 0); // no oid
+
+    // AES/GCM takes a GCMParameterSpec, which carries the IV and the tag
+    // length. Additional authenticated data is supplied with
+    // Cipher.updateAAD().
+    public static final EncryptionAlgorithm
+    AES_128_GCM = new EncryptionAlgorithm(CKM_AES_GCM, Alg.AES, Mode.GCM,
+        Padding.NONE, GCMParameterSpec.class, 16,
+        AES_ROOT_OID.subBranch(6), 128);
+
+    public static final EncryptionAlgorithm
+    AES_192_GCM = new EncryptionAlgorithm(CKM_AES_GCM, Alg.AES, Mode.GCM,
+        Padding.NONE, GCMParameterSpec.class, 16,
+        AES_ROOT_OID.subBranch(26), 192);
+
+    public static final EncryptionAlgorithm
+    AES_256_GCM = new EncryptionAlgorithm(CKM_AES_GCM, Alg.AES, Mode.GCM,
+        Padding.NONE, GCMParameterSpec.class, 16,
+        AES_ROOT_OID.subBranch(46), 256);
+
+    /**
+     * AES key wrap (RFC 3394) of arbitrary data whose length is a multiple
+     * of 8 bytes, using the default IV.
+     */
+    public static final EncryptionAlgorithm
+    AES_KW = new EncryptionAlgorithm(CKM_NSS_AES_KEY_WRAP, Alg.AES, Mode.KW,
+        Padding.NONE, (Class<?>)null, 8, null, 0); // no oid
+
+    /**
+     * AES key wrap of data padded to a multiple of 8 bytes as in PKCS #5.
+     */
+    public static final EncryptionAlgorithm
+    AES_KW_PAD = new EncryptionAlgorithm(CKM_NSS_AES_KEY_WRAP_PAD, Alg.AES,
+        Mode.KW, Padding.PKCS5, (Class<?>)null, 8, null, 0); // no oid
+
 }
@@ -4,10 +4,13 @@
 
 package org.mozilla.jss.crypto;
 
+import java.security.DigestException;
+import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Hashtable;
 
 import org.mozilla.jss.asn1.OBJECT_IDENTIFIER;
+import org.mozilla.jss.pkcs11.PK11SymKey;
 
 /**
  * Algorithms for performing HMACs. These can be used to create
@@ -48,6 +51,145 @@ public class HMACAlgorithm extends DigestAlgorithm {
         }
     }
 
+    ///////////////////////////////////////////////////////////////////////
+    // One-shot HMAC
+    ///////////////////////////////////////////////////////////////////////
+
+    /**
+     * An HMAC needs a key; use the variants that take one.
+     *
+     * @exception DigestException Always.
+     */
+    public int digest(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset)
+        throws DigestException
+    {
+        throw new DigestException("HMAC requires a key");
+    }
+
+    /**
+     * An HMAC needs a key; use the variants that take one.
+     *
+     * @exception DigestException Always.
+     */
+    public void digest(byte[][] inputs, byte[] output, int outputOffset)
+        throws DigestException
+    {
+        throw new DigestException("HMAC requires a key");
+    }
+
+    /**
+     * Computes the HMAC of part of an array in a single native call,
+     * without creating a digest context object.
+     *
+     * @param key The HMAC key. It must be a PKCS #11 key.
+     * @param input The data to authenticate.
+     * @param inputOffset The index in <code>input</code> at which to start.
+     * @param inputLength The number of bytes to authenticate.
+     * @param output The array that receives the HMAC. There must be room
+     *      for {@link #getOutputSize} bytes.
+     * @param outputOffset The index in <code>output</code> at which to
+     *      store the HMAC.
+     * @return The number of bytes stored, which is the output size.
+     * @exception InvalidKeyException If the key is not a PKCS #11 key.
+     * @exception DigestException If the output is too small or the
+     *      operation fails.
+     */
+    public int digest(SymmetricKey key, byte[] input, int inputOffset,
+            int inputLength, byte[] output, int outputOffset)
+        throws InvalidKeyException, DigestException
+    {
+        checkBounds(input, inputOffset, inputLength);
+        checkOutput(output, outputOffset, 1);
+        hmacNative(checkKey(key), input, inputOffset, inputLength,
+            output, outputOffset);
+        return getOutputSize();
+    }
+
+    /**
+     * Computes the HMAC of an array in a single native call.
+     *
+     * @param key The HMAC key. It must be a PKCS #11 key.
+     * @param input The data to authenticate.
+     * @return The HMAC.
+     * @exception InvalidKeyException If the key is not a PKCS #11 key.
+     * @exception DigestException If the operation fails.
+     */
+    public byte[] digest(SymmetricKey key, byte[] input)
+        throws InvalidKeyException, DigestException
+    {
+        byte[] output = new byte[getOutputSize()];
+        digest(key, input, 0, input.length, output, 0);
+        return output;
+    }
+
+    /**
+     * Computes the HMAC of each input with the same key, all in a single
+     * native call and with a single NSS context. The HMACs are stored one
+     * after another in <code>output</code>.
+     *
+     * @param key The HMAC key. It must be a PKCS #11 key.
+     * @param inputs The arrays to authenticate.
+     * @param output The array that receives the HMACs. There must be room
+     *      for <code>inputs.length</code> times {@link #getOutputSize}
+     *      bytes.
+     * @param outputOffset The index in <code>output</code> at which to
+     *      store the first HMAC.
+     * @exception InvalidKeyException If the key is not a PKCS #11 key.
+     * @exception DigestException If the output is too small or the
+     *      operation fails.
+     */
+    public void digest(SymmetricKey key, byte[][] inputs, byte[] output,
+            int outputOffset)
+        throws InvalidKeyException, DigestException
+    {
+        for( int i = 0; i < inputs.length; i++ ) {
+            if( inputs[i] == null ) {
+                throw new NullPointerException("inputs[" + i + "] is null");
+            }
+        }
+        checkOutput(output, outputOffset, inputs.length);
+        hmacBatchNative(checkKey(key), inputs, output, outputOffset);
+    }
+
+    /**
+     * Computes the HMAC of each input with the same key, all in a single
+     * native call.
+     *
+     * @param key The HMAC key. It must be a PKCS #11 key.
+     * @param inputs The arrays to authenticate.
+     * @return The HMACs, in the same order as the inputs.
+     * @exception InvalidKeyException If the key is not a PKCS #11 key.
+     * @exception DigestException If the operation fails.
+     */
+    public byte[][] digest(SymmetricKey key, byte[][] inputs)
+        throws InvalidKeyException, DigestException
+    {
+        byte[] all = new byte[inputs.length * getOutputSize()];
+        digest(key, inputs, all, 0);
+        return split(all, inputs.length);
+    }
+
+    private static SymmetricKey checkKey(SymmetricKey key)
+        throws InvalidKeyException
+    {
+        if( key == null ) {
+            throw new InvalidKeyException("HMAC key is null");
+        }
+        if( ! (key instanceof PK11SymKey) ) {
+            throw new InvalidKeyException("HMAC key is not a PKCS #11 key");
+        }
+        return key;
+    }
+
+    private native void hmacNative(SymmetricKey key, byte[] input,
+            int inputOffset, int inputLength, byte[] output, int outputOffset)
+        throws DigestException;
+
+    private native void hmacBatchNative(SymmetricKey key, byte[][] inputs,
+            byte[] output, int outputOffset)
+        throws DigestException;
+
     /**
      * SHA-X HMAC.  This is a Message Authentication Code that uses a
      * symmetric key together with SHA-X digesting to create a form of
@@ -10,7 +10,7 @@ import java.security.InvalidKeyException;
 /**
  * A class for performing message digesting (hashing) and MAC operations.
  */
-public abstract class JSSMessageDigest {
+public abstract class JSSMessageDigest implements Cloneable {
 
     /**
      * Initializes an HMAC digest with the given symmetric key. This also
@@ -101,6 +101,28 @@ public abstract class JSSMessageDigest {
      */
     public abstract void reset() throws DigestException;
 
+    /**
+     * Returns a copy of this digest, including all input digested so far.
+     * This allows the digest of a common prefix to be computed once and
+     * then completed with different suffixes.
+     *
+     * @exception CloneNotSupportedException If this digest cannot be
+     *      copied. This is the default.
+     */
+    public JSSMessageDigest clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    /**
+     * Copies the fields of this digest, for use by subclasses that
+     * support cloning.
+     */
+    protected final JSSMessageDigest cloneFields()
+        throws CloneNotSupportedException
+    {
+        return (JSSMessageDigest) super.clone();
+    }
+
     /**
      * @return The algorithm that this digest uses.
      */
@@ -120,4 +120,10 @@ public class KeyWrapAlgorithm extends Algorithm {
     public static final KeyWrapAlgorithm
     AES_KEY_WRAP_PAD = new KeyWrapAlgorithm(CKM_NSS_AES_KEY_WRAP_PAD, "AES KeyWrap/Padding",
                 (Class<?>) null, true, 8);
+
+    // the names used by the JCA for the same mechanisms
+    static {
+        nameMap.put("aes/kw/nopadding", AES_KEY_WRAP);
+        nameMap.put("aes/kw/pkcs5padding", AES_KEY_WRAP_PAD);
+    }
 }
@@ -0,0 +1,218 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2007 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package org.mozilla.jss.netscape.security.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.mozilla.jss.netscape.security.pkcs.ContentInfo;
+import org.mozilla.jss.netscape.security.util.DerInputStream;
+import org.mozilla.jss.netscape.security.util.DerValue;
+import org.mozilla.jss.netscape.security.util.ObjectIdentifier;
+import org.mozilla.jss.netscape.security.util.Utils;
+
+/**
+ * Splits a bundle of certificates or CRLs into their DER encodings, one
+ * at a time, without reading the whole bundle first.
+ * <p>
+ * A bundle is either a concatenation of DER encodings, or text holding
+ * PEM blocks, possibly with other text between them; which one is told
+ * from its first byte. Each encoding may also be a PKCS #7 SignedData
+ * ContentInfo, in which case the certificates or CRLs it carries are
+ * returned in turn.
+ */
+class X509BundleReader {
+
+    // tags of the certificates and crls fields of SignedData
+    static final byte CERTIFICATES = (byte) 0xA0;
+    static final byte CRLS = (byte) 0xA1;
+
+    private static final String PEM_BEGIN = "-----BEGIN ";
+    private static final String PEM_END = "-----END ";
+
+    private PushbackInputStream in;
+    private byte signedDataTag;
+    private Boolean pem;
+    private Deque<byte[]> pending = new ArrayDeque<byte[]>();
+
+    /**
+     * @param in the bundle.
+     * @param signedDataTag CERTIFICATES or CRLS, for the SignedData field
+     *            to read.
+     */
+    X509BundleReader(InputStream in, byte signedDataTag) {
+        this.in = new PushbackInputStream(in);
+        this.signedDataTag = signedDataTag;
+    }
+
+    /**
+     * Returns the next DER encoding, or null at the end of the bundle.
+     *
+     * @exception IOException on read errors or malformed input.
+     */
+    byte[] next() throws IOException {
+        while (pending.isEmpty()) {
+            byte[] encoding = (isPEM()) ? readPEM() : readDER();
+            if (encoding == null)
+                return null;
+            if (!isContentInfo(encoding))
+                return encoding;
+            expandSignedData(encoding);
+        }
+        return pending.removeFirst();
+    }
+
+    private boolean isPEM() throws IOException {
+        if (pem == null) {
+            int b;
+            do {
+                b = in.read();
+            } while (b == ' ' || b == '\t' || b == '\r' || b == '\n');
+            if (b >= 0)
+                in.unread(b);
+            pem = (b >= 0 && b != DerValue.tag_Sequence);
+        }
+        return pem;
+    }
+
+    private byte[] readDER() throws IOException {
+        int tag = in.read();
+        if (tag < 0)
+            return null;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(6);
+        header.write(tag);
+
+        int b = readByte();
+        header.write(b);
+        int length = b;
+        if ((b & 0x80) != 0) {
+            int n = b & 0x7f;
+            if (n == 0 || n > 4)
+                throw new IOException("Unsupported DER length encoding: " +
+                        ((n == 0) ? "indefinite length" : "too long"));
+            length = 0;
+            for (int i = 0; i < n; i++) {
+                b = readByte();
+                header.write(b);
+                length = (length << 8) | b;
+            }
+            if (length < 0)
+                throw new IOException("DER length too large");
+        }
+
+        byte[] encoding = new byte[header.size() + length];
+        System.arraycopy(header.toByteArray(), 0, encoding, 0, header.size());
+        for (int off = header.size(); off < encoding.length;) {
+            int n = in.read(encoding, off, encoding.length - off);
+            if (n < 0)
+                throw new EOFException("Truncated DER encoding");
+            off += n;
+        }
+        return encoding;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException("Truncated DER encoding");
+        return b;
+    }
+
+    private byte[] readPEM() throws IOException {
+        String line;
+        do {
+            line = readLine();
+            if (line == null)
+                return null;
+        } while (!line.startsWith(PEM_BEGIN));
+
+        String label = line.substring(PEM_BEGIN.length());
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            line = readLine();
+            if (line == null)
+                throw new EOFException("Missing PEM footer for " + label);
+            if (line.startsWith(PEM_END))
+                break;
+            // skip RFC 1421 headers such as Proc-Type
+            if (line.indexOf(':') < 0)
+                sb.append(line);
+        }
+        return Utils.base64decode(sb.toString());
+    }
+
+    /*
+     * Reads a line of ASCII text, trimmed, or returns null at the end of
+     * the input.
+     */
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n')
+            sb.append((char) b);
+        if (b < 0 && sb.length() == 0)
+            return null;
+        return sb.toString().trim();
+    }
+
+    /*
+     * A ContentInfo starts with its content type, while certificates and
+     * CRLs start with a SEQUENCE.
+     */
+    private static boolean isContentInfo(byte[] encoding) throws IOException {
+        DerValue val = new DerValue(encoding);
+        return val.tag == DerValue.tag_Sequence &&
+                val.data.available() > 0 &&
+                val.data.peekByte() == DerValue.tag_ObjectId;
+    }
+
+    private void expandSignedData(byte[] encoding) throws IOException {
+        DerValue contentInfo = new DerValue(encoding);
+        ObjectIdentifier contentType = contentInfo.data.getOID();
+        if (!contentType.equals(ContentInfo.SIGNED_DATA_OID))
+            throw new IOException("Unsupported PKCS #7 content type: " +
+                                  contentType);
+        if (contentInfo.data.available() == 0)
+            return;
+
+        // content [0] EXPLICIT SignedData
+        DerValue content = contentInfo.data.getDerValue();
+        DerInputStream signedData = content.data.getDerValue().data;
+
+        signedData.getInteger();         // version
+        signedData.getDerValue();        // digestAlgorithms
+        signedData.getDerValue();        // contentInfo
+        while (signedData.available() > 0) {
+            DerValue field = signedData.getDerValue();
+            if (field.tag != signedDataTag)
+                continue;
+            while (field.data.available() > 0) {
+                DerValue item = field.data.getDerValue();
+                // skip other certificate and revocation info choices
+                if (item.tag == DerValue.tag_Sequence)
+                    pending.addLast(item.toByteArray());
+            }
+        }
+    }
+}
@@ -17,20 +17,66 @@
 // --- END COPYRIGHT BLOCK ---
 package org.mozilla.jss.netscape.security.provider;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.security.cert.CRL;
 import java.security.cert.CRLException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactorySpi;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.mozilla.jss.netscape.security.x509.X509CRLImpl;
 import org.mozilla.jss.netscape.security.x509.X509CertImpl;
 import org.mozilla.jss.netscape.security.x509.X509ExtensionException;
 
+/**
+ * Certificate factory for X.509 certificates and CRLs.
+ * <p>
+ * engineGenerateCertificates and engineGenerateCRLs read bundles: DER
+ * encodings one after another, or PEM blocks, either of which may also
+ * be PKCS #7 SignedData carrying certificates or CRLs. The
+ * <code>certificates</code> and <code>crls</code> methods read the same
+ * bundles lazily, one item at a time.
+ * <p>
+ * A factory created with a ForkJoinPool parses bundles of at least
+ * PARALLEL_THRESHOLD items in that pool. The bundle is still read
+ * sequentially, but only split into encodings, which is cheap next to
+ * parsing them.
+ */
 public class X509CertificateFactory extends CertificateFactorySpi {
 
+    /**
+     * Bundles with fewer items than this are parsed sequentially, even by
+     * a factory with a ForkJoinPool.
+     */
+    public static final int PARALLEL_THRESHOLD = 256;
+
+    // number of items parsed by a single task
+    private static final int CHUNK_SIZE = 64;
+
+    private ForkJoinPool pool;
+
+    public X509CertificateFactory() {
+    }
+
+    /**
+     * Creates a factory that parses large bundles in parallel.
+     *
+     * @param pool the pool to parse in, or null to parse sequentially.
+     */
+    public X509CertificateFactory(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
     public Certificate engineGenerateCertificate(InputStream inStream)
             throws CertificateException {
         return new X509CertImpl(inStream);
@@ -38,7 +84,18 @@ public class X509CertificateFactory extends CertificateFactorySpi {
 
     public Collection<Certificate> engineGenerateCertificates(InputStream inStream)
             throws CertificateException {
-        return null;
+        X509BundleReader reader =
+                new X509BundleReader(inStream, X509BundleReader.CERTIFICATES);
+        try {
+            return decodeAll(reader, CERTIFICATE_DECODER);
+        } catch (IOException e) {
+            throw new CertificateException("Unable to read certificates: " +
+                                           e.getMessage(), e);
+        } catch (CertificateException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException(e);
+        }
     }
 
     public CRL engineGenerateCRL(InputStream inStream)
@@ -55,7 +112,188 @@ public class X509CertificateFactory extends CertificateFactorySpi {
 
     public Collection<CRL> engineGenerateCRLs(InputStream inStream)
             throws CRLException {
-        return null;
+        X509BundleReader reader =
+                new X509BundleReader(inStream, X509BundleReader.CRLS);
+        try {
+            return decodeAll(reader, CRL_DECODER);
+        } catch (IOException e) {
+            throw new CRLException("Unable to read CRLs: " + e.getMessage(), e);
+        } catch (CRLException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new CRLException(e);
+        }
+    }
+
+    /**
+     * Returns the certificates of a bundle, parsing each one as it is
+     * reached. Read and parsing errors are thrown by the iterator as
+     * IllegalStateException, with the original exception as the cause.
+     *
+     * @param inStream the bundle.
+     */
+    public Iterator<Certificate> certificates(InputStream inStream) {
+        return new BundleIterator<Certificate>(
+                new X509BundleReader(inStream, X509BundleReader.CERTIFICATES),
+                CERTIFICATE_DECODER);
+    }
+
+    /**
+     * Returns the CRLs of a bundle, parsing each one as it is reached.
+     * Read and parsing errors are thrown by the iterator as
+     * IllegalStateException, with the original exception as the cause.
+     *
+     * @param inStream the bundle.
+     */
+    public Iterator<CRL> crls(InputStream inStream) {
+        return new BundleIterator<CRL>(
+                new X509BundleReader(inStream, X509BundleReader.CRLS),
+                CRL_DECODER);
+    }
+
+    private <T> List<T> decodeAll(X509BundleReader reader, Decoder<T> decoder)
+            throws IOException, GeneralSecurityException {
+        List<T> result = new ArrayList<T>();
+        byte[] encoding;
+
+        if (pool == null) {
+            while ((encoding = reader.next()) != null)
+                result.add(decoder.decode(encoding));
+            return result;
+        }
+
+        List<byte[]> encodings = new ArrayList<byte[]>();
+        while ((encoding = reader.next()) != null)
+            encodings.add(encoding);
+
+        if (encodings.size() < PARALLEL_THRESHOLD) {
+            for (byte[] e : encodings)
+                result.add(decoder.decode(e));
+            return result;
+        }
+
+        Object[] values = new Object[encodings.size()];
+        try {
+            pool.invoke(new DecodeTask(encodings, values, 0, values.length,
+                                       decoder));
+        } catch (RuntimeException e) {
+            // the pool may rethrow a copy of the DecodeError
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof GeneralSecurityException)
+                    throw (GeneralSecurityException) t;
+            }
+            throw e;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> decoded = (List<T>) Arrays.asList(values);
+        return decoded;
+    }
+
+    private interface Decoder<T> {
+        T decode(byte[] encoding) throws GeneralSecurityException;
+    }
+
+    private static final Decoder<Certificate> CERTIFICATE_DECODER =
+            new Decoder<Certificate>() {
+                public Certificate decode(byte[] encoding)
+                        throws CertificateException {
+                    return new X509CertImpl(encoding);
+                }
+            };
+
+    private static final Decoder<CRL> CRL_DECODER =
+            new Decoder<CRL>() {
+                public CRL decode(byte[] encoding)
+                        throws CRLException, X509ExtensionException {
+                    return new X509CRLImpl(encoding);
+                }
+            };
+
+    /*
+     * Carries a parsing error out of a DecodeTask.
+     */
+    private static class DecodeError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DecodeError(GeneralSecurityException cause) {
+            super(cause);
+        }
+    }
+
+    /*
+     * Parses a range of encodings into the same range of values, splitting
+     * it in halves down to CHUNK_SIZE.
+     */
+    private static class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private List<byte[]> encodings;
+        private Object[] values;
+        private int from;
+        private int to;
+        private Decoder<?> decoder;
+
+        DecodeTask(List<byte[]> encodings, Object[] values, int from, int to,
+                   Decoder<?> decoder) {
+            this.encodings = encodings;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+            this.decoder = decoder;
+        }
+
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                try {
+                    for (int i = from; i < to; i++)
+                        values[i] = decoder.decode(encodings.get(i));
+                } catch (GeneralSecurityException e) {
+                    throw new DecodeError(e);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DecodeTask(encodings, values, from, mid, decoder),
+                      new DecodeTask(encodings, values, mid, to, decoder));
+        }
     }
 
+    private static class BundleIterator<T> implements Iterator<T> {
+        private X509BundleReader reader;
+        private Decoder<T> decoder;
+        private byte[] next;
+        private boolean done;
+
+        BundleIterator(X509BundleReader reader, Decoder<T> decoder) {
+            this.reader = reader;
+            this.decoder = decoder;
+        }
+
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = reader.next();
+                } catch (IOException e) {
+                    throw new IllegalStateException(
+                            "Unable to read bundle: " + e.getMessage(), e);
+                }
+                done = (next == null);
+            }
+            return next != null;
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            byte[] encoding = next;
+            next = null;
+            try {
+                return decoder.decode(encoding);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(
+                        "Unable to parse bundle: " + e.getMessage(), e);
+            }
+        }
+    }
 }
@@ -0,0 +1,313 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2007 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package org.mozilla.jss.netscape.security.x509;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CRLException;
+import java.util.Date;
+
+import org.mozilla.jss.netscape.security.util.BigInt;
+import org.mozilla.jss.netscape.security.util.DerOutputStream;
+import org.mozilla.jss.netscape.security.util.DerValue;
+
+/**
+ * Encodes and signs an X.509 CRL straight to an output stream.
+ * <p>
+ * X509CRLImpl builds the whole CRL in memory, several times over, before
+ * it is written out. This encoder instead takes the revoked certificates
+ * as an Iterable and walks it three times: once to size the encoding,
+ * once to feed the <code>tbsCertList</code> to the signature engine, and
+ * once to write the signed CRL. Only one entry is encoded at a time, so
+ * memory use does not grow with the size of the CRL.
+ * <p>
+ * The Iterable must return the same entries in the same order each
+ * time; a database query or a file can be re-read for each pass, and a
+ * <code>java.util.stream.Stream</code> can be passed as
+ * <code>() -&gt; makeStream().iterator()</code>. Entries are written in
+ * the order they are returned. Entries other than RevokedCertImpl are
+ * not supported, as with X509CRLImpl.
+ *
+ * @see X509CRLImpl
+ */
+public class CRLStreamEncoder {
+
+    private X500Name issuer;
+    private Date thisUpdate;
+    private Date nextUpdate;
+    private Iterable<? extends RevokedCertificate> revokedCerts;
+    private CRLExtensions extensions;
+    private final static boolean isExplicit = true;
+
+    private AlgorithmId sigAlgId;
+    private byte[] signature;
+
+    /**
+     * Creates an encoder for a CRL.
+     *
+     * @param issuer the name of the CA issuing this CRL.
+     * @param thisDate the Date of this issue.
+     * @param nextDate the Date of the next CRL, or null.
+     * @param badCerts the revoked certificates, or null if there are none.
+     * @param crlExts the CRL extensions, or null.
+     */
+    public CRLStreamEncoder(X500Name issuer, Date thisDate, Date nextDate,
+                            Iterable<? extends RevokedCertificate> badCerts,
+                            CRLExtensions crlExts) {
+        this.issuer = issuer;
+        this.thisUpdate = thisDate;
+        this.nextUpdate = nextDate;
+        this.revokedCerts = badCerts;
+        this.extensions = crlExts;
+    }
+
+    /**
+     * Encodes the CRL, signs it using the key passed, and writes it to
+     * the stream. The stream is not closed.
+     *
+     * @param key the private key used for signing.
+     * @param algorithm the name of the signature algorithm used.
+     * @param provider the name of the provider, or null.
+     * @param out the stream to write the signed CRL to.
+     * @return the length of the signed CRL.
+     *
+     * @exception NoSuchAlgorithmException on unsupported signature
+     *                algorithms.
+     * @exception InvalidKeyException on incorrect key.
+     * @exception NoSuchProviderException on incorrect provider.
+     * @exception SignatureException on signature errors.
+     * @exception CRLException on encoding or I/O errors, or if the
+     *                revoked certificates changed between passes.
+     * @exception X509ExtensionException on any extension errors.
+     */
+    public long sign(PrivateKey key, String algorithm, String provider,
+                     OutputStream out)
+            throws CRLException, NoSuchAlgorithmException, InvalidKeyException,
+            NoSuchProviderException, SignatureException, X509ExtensionException {
+        Signature sigEngine = null;
+        if (provider == null)
+            sigEngine = Signature.getInstance(algorithm);
+        else
+            sigEngine = Signature.getInstance(algorithm, provider);
+
+        sigEngine.initSign(key);
+
+        // in case the name is reset
+        sigAlgId = AlgorithmId.get(sigEngine.getAlgorithm());
+
+        try {
+            // first pass: size the revoked certificates
+            DerOutputStream entry = new DerOutputStream();
+            long entriesLength = 0;
+            boolean entryExtensions = false;
+            if (revokedCerts != null) {
+                for (RevokedCertificate cert : revokedCerts) {
+                    entry.reset();
+                    ((RevokedCertImpl) cert).encodeUncached(entry);
+                    entriesLength += entry.size();
+                    if (cert.hasExtensions())
+                        entryExtensions = true;
+                }
+            }
+            int version = (entryExtensions || extensions != null) ? 1 : 0;
+
+            // everything in the tbsCertList but the revoked certificates
+            DerOutputStream head = new DerOutputStream();
+            if (version != 0) // v2 crl encode version
+                head.putInteger(new BigInt(version));
+            sigAlgId.encode(head);
+            issuer.encode(head);
+
+            // from 2050 should encode GeneralizedTime
+            head.putUTCTime(thisUpdate);
+
+            if (nextUpdate != null)
+                head.putUTCTime(nextUpdate);
+
+            DerOutputStream tail = new DerOutputStream();
+            if (extensions != null)
+                extensions.encode(tail, isExplicit);
+
+            byte[] entriesHeader = new byte[0];
+            if (entriesLength > 0)
+                entriesHeader = header(DerValue.tag_Sequence, entriesLength);
+            long tbsContent = head.size() + entriesHeader.length
+                    + entriesLength + tail.size();
+            byte[] tbsHeader = header(DerValue.tag_Sequence, tbsContent);
+
+            // second pass: sign the tbsCertList
+            writeInfo(new SignatureOutputStream(sigEngine), tbsHeader, head,
+                      entriesHeader, entriesLength, tail);
+            signature = sigEngine.sign();
+
+            DerOutputStream sig = new DerOutputStream();
+            sigAlgId.encode(sig);
+            sig.putBitString(signature);
+
+            long length = tbsHeader.length + tbsContent + sig.size();
+            byte[] signedHeader = header(DerValue.tag_Sequence, length);
+
+            // third pass: write the signed CRL
+            out.write(signedHeader);
+            writeInfo(out, tbsHeader, head, entriesHeader, entriesLength, tail);
+            sig.writeTo(out);
+            out.flush();
+
+            return signedHeader.length + length;
+
+        } catch (SignatureIOException e) {
+            throw e.getCause();
+        } catch (IOException e) {
+            throw new CRLException("Error while encoding data: " +
+                                   e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes the CRL, signs it using the key passed, and writes it to
+     * the stream. The stream is not closed.
+     *
+     * @see #sign(PrivateKey, String, String, OutputStream)
+     */
+    public long sign(PrivateKey key, String algorithm, OutputStream out)
+            throws CRLException, NoSuchAlgorithmException, InvalidKeyException,
+            NoSuchProviderException, SignatureException, X509ExtensionException {
+        return sign(key, algorithm, null, out);
+    }
+
+    /**
+     * Encodes the CRL, signs it using the key passed, and writes it to
+     * the given file, replacing its contents.
+     *
+     * @see #sign(PrivateKey, String, String, OutputStream)
+     */
+    public long sign(PrivateKey key, String algorithm, String provider,
+                     File file)
+            throws CRLException, NoSuchAlgorithmException, InvalidKeyException,
+            NoSuchProviderException, SignatureException, X509ExtensionException {
+        try (OutputStream out =
+                new BufferedOutputStream(new FileOutputStream(file), 65536)) {
+            return sign(key, algorithm, provider, out);
+        } catch (IOException e) {
+            throw new CRLException("Error while writing " + file + ": " +
+                                   e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the algorithm the last CRL was signed with, or null if
+     * none has been signed.
+     */
+    public AlgorithmId getSigAlgId() {
+        return sigAlgId;
+    }
+
+    /**
+     * Returns the signature of the last CRL signed, or null if none has
+     * been signed.
+     */
+    public byte[] getSignature() {
+        if (signature == null)
+            return null;
+        return signature.clone();
+    }
+
+    private void writeInfo(OutputStream out, byte[] tbsHeader,
+                           DerOutputStream head, byte[] entriesHeader,
+                           long entriesLength, DerOutputStream tail)
+            throws IOException, CRLException, X509ExtensionException {
+        out.write(tbsHeader);
+        head.writeTo(out);
+        if (entriesLength > 0) {
+            out.write(entriesHeader);
+            DerOutputStream entry = new DerOutputStream();
+            long written = 0;
+            for (RevokedCertificate cert : revokedCerts) {
+                entry.reset();
+                ((RevokedCertImpl) cert).encodeUncached(entry);
+                written += entry.size();
+                if (written > entriesLength)
+                    break;
+                entry.writeTo(out);
+            }
+            if (written != entriesLength)
+                throw new CRLException(
+                        "Revoked certificates changed while encoding");
+        }
+        tail.writeTo(out);
+    }
+
+    // The tag and length octets of an element with the given content length.
+    private static byte[] header(byte tag, long length) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("CRL too large: " + length + " bytes");
+        DerOutputStream out = new DerOutputStream();
+        out.write(tag);
+        out.putLength((int) length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Feeds what is written to it to a signature engine.
+     */
+    private static class SignatureOutputStream extends OutputStream {
+        private final Signature sig;
+
+        SignatureOutputStream(Signature sig) {
+            this.sig = sig;
+        }
+
+        public void write(int b) throws IOException {
+            try {
+                sig.update((byte) b);
+            } catch (SignatureException e) {
+                throw new SignatureIOException(e);
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                sig.update(b, off, len);
+            } catch (SignatureException e) {
+                throw new SignatureIOException(e);
+            }
+        }
+    }
+
+    // carries a SignatureException through OutputStream.write
+    private static class SignatureIOException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SignatureIOException(SignatureException e) {
+            super(e);
+        }
+
+        public SignatureException getCause() {
+            return (SignatureException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2007 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package org.mozilla.jss.netscape.security.x509;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Generates delta CRLs against a base CRL, and applies delta CRLs to it.
+ * <p>
+ * A delta CRL lists the changes since its base CRL: certificates revoked
+ * since, or whose entry changed, and certificates taken off the CRL,
+ * which are listed with the reason <code>removeFromCRL</code>. It carries
+ * a DeltaCRLIndicator extension holding the CRL number of its base.
+ * <p>
+ * Both operations walk the base CRL and the changes side by side in
+ * increasing serial number order, so they take time linear in the sizes
+ * of the two. Changes must be given in that order. Base CRLs parsed with
+ * <code>X509CRLImpl(ByteBuffer)</code> are already indexed by serial
+ * number and are decoded one entry at a time; other base CRLs are sorted
+ * first.
+ *
+ * @see X509CRLImpl
+ * @see DeltaCRLIndicatorExtension
+ */
+public class DeltaCRLEngine {
+
+    private X509CRLImpl base;
+    private BigInteger baseCRLNumber;
+
+    /**
+     * Creates an engine for a base CRL.
+     *
+     * @param base a complete CRL with a CRL number.
+     * @exception CRLException if the base is a delta CRL or has no CRL
+     *                number.
+     */
+    public DeltaCRLEngine(X509CRLImpl base) throws CRLException {
+        if (base.isDeltaCRL())
+            throw new CRLException("Base CRL is a delta CRL");
+        baseCRLNumber = base.getCRLNumber();
+        if (baseCRLNumber == null)
+            throw new CRLException("Base CRL has no CRL number");
+        this.base = base;
+    }
+
+    /**
+     * Returns the entries of a delta CRL for the given changes to the base
+     * CRL, in serial number order.
+     * <p>
+     * A change is a revoked certificate entry, or an entry with the
+     * reason <code>removeFromCRL</code> for a certificate taken off the
+     * CRL. A change that leaves the base as it is, such as a revocation
+     * identical to the base entry or a removal of a certificate not in
+     * the base, is left out.
+     *
+     * @param changes the changes, in increasing serial number order.
+     * @exception CRLException if the changes are out of order, or on
+     *                encoding errors.
+     */
+    public RevokedCertificate[] diff(Iterator<? extends RevokedCertificate> changes)
+            throws CRLException {
+        List<RevokedCertificate> delta = new ArrayList<RevokedCertificate>();
+        Iterator<RevokedCertificate> baseEntries =
+                base.revokedCertificatesBySerial();
+        RevokedCertificate baseEntry = next(baseEntries);
+        BigInteger last = null;
+
+        while (changes.hasNext()) {
+            RevokedCertificate change = changes.next();
+            BigInteger serial = change.getSerialNumber();
+            if (last != null && last.compareTo(serial) >= 0)
+                throw new CRLException("Revocation changes are not in " +
+                                       "increasing serial number order");
+            last = serial;
+
+            while (baseEntry != null &&
+                    baseEntry.getSerialNumber().compareTo(serial) < 0)
+                baseEntry = next(baseEntries);
+
+            if (baseEntry != null && baseEntry.getSerialNumber().equals(serial)) {
+                if (isRemoval(change) ||
+                        !Arrays.equals(change.getEncoded(), baseEntry.getEncoded()))
+                    delta.add(change);
+            } else if (!isRemoval(change)) {
+                delta.add(change);
+            }
+        }
+        return delta.toArray(new RevokedCertificate[delta.size()]);
+    }
+
+    /**
+     * Generates an unsigned delta CRL for the given changes to the base
+     * CRL. It has the issuer of the base, and carries a CRL number and a
+     * DeltaCRLIndicator extension. Sign it with
+     * {@link X509CRLImpl#sign(java.security.PrivateKey, String)}.
+     *
+     * @param changes the changes, in increasing serial number order.
+     * @param crlNumber the CRL number of the delta CRL.
+     * @param thisDate the Date of this issue.
+     * @param nextDate the Date of the next delta CRL, or null.
+     * @exception CRLException if the changes are out of order, or on
+     *                encoding errors.
+     * @exception X509ExtensionException on extension handling errors.
+     * @see #diff(Iterator)
+     */
+    public X509CRLImpl generate(Iterator<? extends RevokedCertificate> changes,
+                                BigInteger crlNumber, Date thisDate, Date nextDate)
+            throws CRLException, X509ExtensionException {
+        RevokedCertificate[] entries = diff(changes);
+        CRLExtensions exts = new CRLExtensions();
+        try {
+            exts.set(CRLNumberExtension.NAME,
+                     new CRLNumberExtension(crlNumber));
+            exts.set(DeltaCRLIndicatorExtension.NAME,
+                     new DeltaCRLIndicatorExtension(Boolean.TRUE, baseCRLNumber));
+        } catch (IOException e) {
+            throw new CRLException("Encoding error: " + e.getMessage());
+        }
+        X500Name issuer = (X500Name) base.getIssuerDN();
+        return new X509CRLImpl(issuer, thisDate, nextDate, entries, exts);
+    }
+
+    /**
+     * Applies a delta CRL to the base CRL.
+     * <p>
+     * The result lists the revoked certificates of the complete CRL the
+     * delta stands for, in serial number order. It is worked out again,
+     * entry by entry, each time it is iterated, so it can be passed to
+     * {@link CRLStreamEncoder} to publish a new complete CRL without
+     * holding it in memory.
+     *
+     * @param delta a delta CRL issued against this base, or against an
+     *            earlier one.
+     * @exception CRLException if delta is not a delta CRL of the same
+     *                issuer, its CRL number is not greater than that of
+     *                this base, or its base is newer than this base.
+     */
+    public Iterable<RevokedCertificate> apply(final X509CRLImpl delta)
+            throws CRLException {
+        if (!delta.isDeltaCRL())
+            throw new CRLException("Not a delta CRL");
+        if (!delta.getIssuerDN().equals(base.getIssuerDN()))
+            throw new CRLException("Delta CRL issuer does not match base CRL");
+        BigInteger deltaNumber = delta.getCRLNumber();
+        if (deltaNumber == null || deltaNumber.compareTo(baseCRLNumber) <= 0)
+            throw new CRLException("Delta CRL number " + deltaNumber +
+                                   " is not greater than base CRL number " +
+                                   baseCRLNumber);
+        BigInteger deltaBase = delta.getDeltaBaseCRLNumber();
+        if (deltaBase == null || deltaBase.compareTo(baseCRLNumber) > 0)
+            throw new CRLException("Delta CRL base number " + deltaBase +
+                                   " is newer than base CRL number " +
+                                   baseCRLNumber);
+
+        return new Iterable<RevokedCertificate>() {
+            public Iterator<RevokedCertificate> iterator() {
+                return new MergeIterator(base.revokedCertificatesBySerial(),
+                                         delta.revokedCertificatesBySerial());
+            }
+        };
+    }
+
+    /**
+     * Returns true if the entry has the reason <code>removeFromCRL</code>.
+     */
+    public static boolean isRemoval(RevokedCertificate entry) {
+        CRLExtensions exts = entry.getExtensions();
+        if (exts == null)
+            return false;
+        Enumeration<Extension> e = exts.getElements();
+        while (e.hasMoreElements()) {
+            Extension ext = e.nextElement();
+            if (ext instanceof CRLReasonExtension) {
+                return RevocationReason.REMOVE_FROM_CRL.equals(
+                        ((CRLReasonExtension) ext).getReason());
+            }
+        }
+        return false;
+    }
+
+    private static RevokedCertificate next(Iterator<RevokedCertificate> i) {
+        return i.hasNext() ? i.next() : null;
+    }
+
+    /*
+     * Merges base entries with delta entries, both in serial number order.
+     * A delta entry replaces the base entry with the same serial number,
+     * and removals are dropped.
+     */
+    private static class MergeIterator implements Iterator<RevokedCertificate> {
+        private Iterator<RevokedCertificate> baseEntries;
+        private Iterator<RevokedCertificate> deltaEntries;
+        private RevokedCertificate baseEntry;
+        private RevokedCertificate deltaEntry;
+        private RevokedCertificate pending;
+
+        MergeIterator(Iterator<RevokedCertificate> baseEntries,
+                      Iterator<RevokedCertificate> deltaEntries) {
+            this.baseEntries = baseEntries;
+            this.deltaEntries = deltaEntries;
+            baseEntry = DeltaCRLEngine.next(baseEntries);
+            deltaEntry = DeltaCRLEngine.next(deltaEntries);
+            pending = advance();
+        }
+
+        public boolean hasNext() {
+            return pending != null;
+        }
+
+        public RevokedCertificate next() {
+            if (pending == null)
+                throw new NoSuchElementException();
+            RevokedCertificate result = pending;
+            pending = advance();
+            return result;
+        }
+
+        private RevokedCertificate advance() {
+            while (baseEntry != null || deltaEntry != null) {
+                int cmp;
+                if (deltaEntry == null)
+                    cmp = -1;
+                else if (baseEntry == null)
+                    cmp = 1;
+                else
+                    cmp = baseEntry.getSerialNumber().compareTo(
+                            deltaEntry.getSerialNumber());
+
+                if (cmp < 0) {
+                    RevokedCertificate result = baseEntry;
+                    baseEntry = DeltaCRLEngine.next(baseEntries);
+                    return result;
+                }
+
+                RevokedCertificate result = deltaEntry;
+                deltaEntry = DeltaCRLEngine.next(deltaEntries);
+                if (cmp == 0)
+                    baseEntry = DeltaCRLEngine.next(baseEntries);
+                if (!isRemoval(result))
+                    return result;
+            }
+            return null;
+        }
+    }
+}
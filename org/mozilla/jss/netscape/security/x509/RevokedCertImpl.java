@@ -227,18 +227,7 @@ public class RevokedCertImpl extends RevokedCertificate implements Serializable
             X509ExtensionException {
         try (DerOutputStream seq = new DerOutputStream()) {
             if (revokedCert == null) {
-                DerOutputStream tmp = new DerOutputStream();
-                // sequence { serialNumber, revocationDate, extensions }
-                serialNumber.encode(tmp);
-
-                // from 2050 should encode GeneralizedTime
-                tmp.putUTCTime(revocationDate);
-
-                if (extensions != null)
-                    extensions.encode(tmp, isExplicit);
-
-                seq.write(DerValue.tag_Sequence, tmp);
-
+                encodeEntry(seq);
                 revokedCert = seq.toByteArray();
             }
             outStrm.write(revokedCert);
@@ -247,6 +236,38 @@ public class RevokedCertImpl extends RevokedCertificate implements Serializable
         }
     }
 
+    /**
+     * Encodes the revoked certificate to an output stream without
+     * keeping a copy of the encoding in this object, for encoders that
+     * write many entries once each.
+     */
+    void encodeUncached(DerOutputStream outStrm) throws CRLException,
+            X509ExtensionException {
+        try {
+            if (revokedCert != null)
+                outStrm.write(revokedCert);
+            else
+                encodeEntry(outStrm);
+        } catch (IOException e) {
+            throw new CRLException("Encoding error: " + e.toString());
+        }
+    }
+
+    private void encodeEntry(DerOutputStream seq) throws IOException,
+            CRLException {
+        DerOutputStream tmp = new DerOutputStream();
+        // sequence { serialNumber, revocationDate, extensions }
+        serialNumber.encode(tmp);
+
+        // from 2050 should encode GeneralizedTime
+        tmp.putUTCTime(revocationDate);
+
+        if (extensions != null)
+            extensions.encode(tmp, isExplicit);
+
+        seq.write(DerValue.tag_Sequence, tmp);
+    }
+
     /**
      * Gets the serial number for this RevokedCertificate, the <em>userCertificate</em>.
      *
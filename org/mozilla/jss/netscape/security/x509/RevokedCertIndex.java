@@ -0,0 +1,294 @@
+// --- BEGIN COPYRIGHT BLOCK ---
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; version 2 of the License.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+// (C) 2007 Red Hat, Inc.
+// All rights reserved.
+// --- END COPYRIGHT BLOCK ---
+package org.mozilla.jss.netscape.security.x509;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.cert.CRLException;
+import java.util.Arrays;
+
+import org.mozilla.jss.netscape.security.util.DerValue;
+
+/**
+ * An index over the <code>revokedCertificates</code> of an encoded CRL,
+ * sorted by serial number.
+ *
+ * Only the offset of each entry in the encoding is kept, four bytes per
+ * entry. Lookups binary-search the index comparing serial numbers in
+ * place, and entries are decoded into RevokedCertImpl objects only when
+ * asked for. The buffer is never modified and only read with absolute
+ * gets, so an index may be shared between threads.
+ *
+ * The static methods walk DER elements in a ByteBuffer without copying
+ * them; they support tags of one byte and lengths of up to four.
+ */
+final class RevokedCertIndex {
+
+    private final ByteBuffer der;
+    private final int[] offsets; // entry offsets, in serial number order
+
+    /**
+     * Indexes the entries of a <code>revokedCertificates</code> SEQUENCE
+     * whose contents run from <code>start</code> to <code>end</code>.
+     *
+     * @param extensionsAllowed false for a v1 CRL, whose entries must
+     *            not have extensions.
+     * @exception CRLException if an entry is not a SEQUENCE of a serial
+     *                number, a revocation date and optional extensions.
+     */
+    RevokedCertIndex(ByteBuffer der, int start, int end,
+            boolean extensionsAllowed) throws CRLException {
+        this.der = der;
+
+        int[] found = new int[16];
+        int count = 0;
+        int pos = start;
+        while (pos < end) {
+            if (der.get(pos) != DerValue.tag_Sequence)
+                throw new CRLException("Invalid encoded RevokedCertificate, " +
+                                       "starting sequence tag missing.");
+            int next = skip(der, pos, end);
+            int p = pos + headerLength(der, pos, end);
+
+            if (p >= next || der.get(p) != DerValue.tag_Integer ||
+                    contentLength(der, p, next) == 0)
+                throw new CRLException("Invalid encoded RevokedCertificate, " +
+                                       "serial number missing.");
+            p = skip(der, p, next);
+
+            if (p >= next || (der.get(p) != DerValue.tag_UtcTime &&
+                    der.get(p) != DerValue.tag_GeneralizedTime))
+                throw new CRLException("Invalid encoding for RevokedCertificates");
+            p = skip(der, p, next);
+
+            if (p < next && !extensionsAllowed)
+                throw new CRLException("Invalid encoding, extensions" +
+                                       " not supported in CRL v1 entries.");
+
+            if (count == found.length)
+                found = Arrays.copyOf(found, count * 2);
+            found[count++] = pos;
+            pos = next;
+        }
+
+        offsets = Arrays.copyOf(found, count);
+        if (!isSorted(offsets))
+            sort(offsets, new int[count], 0, count);
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns true if there is an entry for the given serial number.
+     */
+    boolean contains(BigInteger serialNumber) {
+        return find(serialNumber) >= 0;
+    }
+
+    /**
+     * Decodes the entry for the given serial number.
+     *
+     * @return the entry, or null if there is none.
+     */
+    RevokedCertImpl get(BigInteger serialNumber)
+            throws CRLException, X509ExtensionException {
+        int i = find(serialNumber);
+        return (i < 0) ? null : get(i);
+    }
+
+    /**
+     * Decodes the entry at the given position in serial number order.
+     */
+    RevokedCertImpl get(int index)
+            throws CRLException, X509ExtensionException {
+        int off = offsets[index];
+        byte[] entry = copy(der, off, skip(der, off, der.limit()));
+        try {
+            return new RevokedCertImpl(new DerValue(entry));
+        } catch (IOException e) {
+            throw new CRLException("Parsing error: " + e.getMessage());
+        }
+    }
+
+    private int find(BigInteger serialNumber) {
+        ByteBuffer key = ByteBuffer.wrap(serialNumber.toByteArray());
+        int low = 0;
+        int high = offsets.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareSerials(der, serialOffset(offsets[mid]),
+                                     serialLength(offsets[mid]),
+                                     key, 0, key.limit());
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    // The entries were checked by the constructor, so the serial number
+    // of each can be located without bounds checks.
+
+    private int serialOffset(int entry) {
+        int p = entry + headerLength(der, entry);
+        return p + headerLength(der, p);
+    }
+
+    private int serialLength(int entry) {
+        int p = entry + headerLength(der, entry);
+        return length(der, p);
+    }
+
+    private int compareEntries(int a, int b) {
+        return compareSerials(der, serialOffset(a), serialLength(a),
+                              der, serialOffset(b), serialLength(b));
+    }
+
+    private boolean isSorted(int[] a) {
+        for (int i = 1; i < a.length; i++) {
+            if (compareEntries(a[i - 1], a[i]) > 0)
+                return false;
+        }
+        return true;
+    }
+
+    // merge sort of a[from, to), using tmp as scratch space
+    private void sort(int[] a, int[] tmp, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        sort(a, tmp, from, mid);
+        sort(a, tmp, mid, to);
+        if (compareEntries(a[mid - 1], a[mid]) <= 0)
+            return;
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to)
+            a[k++] = (compareEntries(tmp[j], tmp[i]) < 0) ? tmp[j++] : tmp[i++];
+        while (i < mid)
+            a[k++] = tmp[i++];
+        while (j < to)
+            a[k++] = tmp[j++];
+    }
+
+    /**
+     * Compares two DER INTEGER contents as signed numbers. Redundant
+     * leading bytes are ignored, so a non-minimal encoding compares equal
+     * to the minimal one.
+     */
+    static int compareSerials(ByteBuffer a, int aOff, int aLen,
+                              ByteBuffer b, int bOff, int bLen) {
+        while (aLen > 1 && isRedundant(a.get(aOff), a.get(aOff + 1))) {
+            aOff++;
+            aLen--;
+        }
+        while (bLen > 1 && isRedundant(b.get(bOff), b.get(bOff + 1))) {
+            bOff++;
+            bLen--;
+        }
+
+        boolean aNeg = a.get(aOff) < 0;
+        boolean bNeg = b.get(bOff) < 0;
+        if (aNeg != bNeg)
+            return aNeg ? -1 : 1;
+        if (aLen != bLen)
+            return ((aLen < bLen) != aNeg) ? -1 : 1;
+        for (int i = 0; i < aLen; i++) {
+            int x = a.get(aOff + i) & 0xff;
+            int y = b.get(bOff + i) & 0xff;
+            if (x != y)
+                return (x < y) ? -1 : 1;
+        }
+        return 0;
+    }
+
+    private static boolean isRedundant(byte first, byte second) {
+        return (first == 0 && second >= 0) || (first == -1 && second < 0);
+    }
+
+    /**
+     * Returns the length of the tag and length octets of the element at
+     * <code>off</code>, checking that they lie before <code>limit</code>.
+     */
+    static int headerLength(ByteBuffer b, int off, int limit)
+            throws CRLException {
+        if (limit - off < 2)
+            throw new CRLException("Invalid DER encoding: truncated element");
+        int n = headerLength(b, off);
+        if (n > 5 || limit - off < n)
+            throw new CRLException("Invalid DER encoding: bad length");
+        return n;
+    }
+
+    private static int headerLength(ByteBuffer b, int off) {
+        int first = b.get(off + 1) & 0xff;
+        return (first < 0x80) ? 2 : 2 + (first & 0x7f);
+    }
+
+    /**
+     * Returns the length of the contents of the element at
+     * <code>off</code>, checking that they lie before <code>limit</code>.
+     */
+    static int contentLength(ByteBuffer b, int off, int limit)
+            throws CRLException {
+        int header = headerLength(b, off, limit);
+        if (header == 2 && (b.get(off + 1) & 0xff) == 0x80)
+            throw new CRLException("Invalid DER encoding: indefinite length");
+        int len = length(b, off);
+        if (len < 0 || len > limit - off - header)
+            throw new CRLException("Invalid DER encoding: bad length");
+        return len;
+    }
+
+    private static int length(ByteBuffer b, int off) {
+        int first = b.get(off + 1) & 0xff;
+        if (first < 0x80)
+            return first;
+        int len = 0;
+        for (int i = 0; i < (first & 0x7f); i++)
+            len = (len << 8) | (b.get(off + 2 + i) & 0xff);
+        return len;
+    }
+
+    /**
+     * Returns the offset just past the element at <code>off</code>.
+     */
+    static int skip(ByteBuffer b, int off, int limit) throws CRLException {
+        return off + headerLength(b, off, limit) + contentLength(b, off, limit);
+    }
+
+    /**
+     * Copies the bytes from <code>start</code> to <code>end</code>.
+     */
+    static byte[] copy(ByteBuffer b, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer src = b.duplicate();
+        src.position(start);
+        src.get(bytes);
+        return bytes;
+    }
+}
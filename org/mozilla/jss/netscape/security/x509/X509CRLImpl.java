@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -34,10 +35,16 @@ import java.security.cert.Certificate;
 import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.mozilla.jss.netscape.security.util.BigInt;
@@ -107,6 +114,14 @@ public class X509CRLImpl extends X509CRL {
     private boolean entriesIncluded = true;
     private final static boolean isExplicit = true;
 
+    // Set instead of signedCRL, tbsCertList and revokedCerts when the CRL
+    // is parsed from a ByteBuffer: the encoding, where the tbsCertList
+    // lies in it, and an index of its revoked certificates.
+    private ByteBuffer encoded = null;
+    private int tbsOffset;
+    private int tbsLength;
+    private RevokedCertIndex revokedIndex = null;
+
     private boolean readOnly = false;
 
     /**
@@ -145,6 +160,32 @@ public class X509CRLImpl extends X509CRL {
         }
     }
 
+    /**
+     * Unmarshals an X.509 CRL from a buffer without decoding its revoked
+     * certificate entries. This form of constructor is meant for large
+     * CRLs: instead of one object per entry, only a sorted index of the
+     * entries' positions is built, and <code>isRevoked</code> and
+     * <code>getRevokedCertificate</code> look serial numbers up in the
+     * encoding itself. Entries are decoded when they are asked for.
+     * <p>
+     * The bytes from the buffer's position to its limit must hold exactly
+     * one CRL. They are not copied, and must not be modified while this
+     * object is in use. The buffer may be direct, or a file mapped with
+     * <code>FileChannel.map</code>, to keep the CRL off the Java heap.
+     *
+     * @param crlData the buffer holding the encoded CRL.
+     * @exception CRLException on parsing errors.
+     * @exception X509ExtensionException on extension handling errors.
+     */
+    public X509CRLImpl(ByteBuffer crlData)
+            throws CRLException, X509ExtensionException {
+        try {
+            parse(crlData.slice().asReadOnlyBuffer());
+        } catch (IOException e) {
+            throw new CRLException("Parsing error: " + e.getMessage());
+        }
+    }
+
     /**
      * Unmarshals an X.509 CRL from an input stream. Only one CRL
      * is expected at the end of the input stream.
@@ -290,6 +331,8 @@ public class X509CRLImpl extends X509CRL {
      * @exception CRLException if an encoding error occurs.
      */
     public byte[] getEncoded() throws CRLException {
+        if (signedCRL == null && encoded != null)
+            return RevokedCertIndex.copy(encoded, 0, encoded.limit());
         if (signedCRL == null)
             throw new CRLException("Null CRL to encode");
         byte[] dup = new byte[signedCRL.length];
@@ -398,7 +441,7 @@ public class X509CRLImpl extends X509CRL {
     public void verify(PublicKey key, String sigProvider)
             throws CRLException, NoSuchAlgorithmException, InvalidKeyException,
             NoSuchProviderException, SignatureException {
-        if (signedCRL == null) {
+        if (signedCRL == null && encoded == null) {
             throw new CRLException("Uninitialized CRL");
         }
         Signature sigVerf = null;
@@ -432,10 +475,16 @@ public class X509CRLImpl extends X509CRL {
         sigVerf = Signature.getInstance(sigAlg, sigProvider);
         sigVerf.initVerify(key);
 
-        if (tbsCertList == null)
+        if (tbsCertList != null) {
+            sigVerf.update(tbsCertList, 0, tbsCertList.length);
+        } else if (encoded != null) {
+            ByteBuffer tbs = encoded.duplicate();
+            tbs.limit(tbsOffset + tbsLength);
+            tbs.position(tbsOffset);
+            sigVerf.update(tbs);
+        } else {
             throw new CRLException("Uninitialized CRL");
-
-        sigVerf.update(tbsCertList, 0, tbsCertList.length);
+        }
 
         if (!sigVerf.verify(signature)) {
             throw new CRLException("Signature does not match.");
@@ -532,9 +581,18 @@ public class X509CRLImpl extends X509CRL {
                 + "\n");
         if (nextUpdate != null)
             sb.append("Next Update: " + nextUpdate + "\n");
-        if (revokedCerts.isEmpty())
+        if (getNumberOfRevokedCertificates() <= 0)
             sb.append("\nNO certificates have been revoked\n");
-        else {
+        else if (revokedIndex != null) {
+            sb.append("\nRevoked Certificates:\n");
+            for (int i = 0; i < revokedIndex.size(); i++) {
+                try {
+                    sb.append(revokedIndex.get(i));
+                } catch (Exception e) {
+                    sb.append("Unable to decode entry: " + e.getMessage() + "\n");
+                }
+            }
+        } else {
             sb.append("\nRevoked Certificates:\n");
             for (Enumeration<RevokedCertificate> e = revokedCerts.elements(); e.hasMoreElements();)
                 sb.append(e.nextElement());
@@ -560,6 +618,8 @@ public class X509CRLImpl extends X509CRL {
      *         false otherwise.
      */
     public boolean isRevoked(BigInteger serialNumber) {
+        if (revokedIndex != null)
+            return revokedIndex.contains(serialNumber);
         if (revokedCerts == null || revokedCerts.isEmpty())
             return false;
         return revokedCerts.containsKey(serialNumber);
@@ -654,9 +714,19 @@ public class X509CRLImpl extends X509CRL {
      *
      * @return the revoked certificate or null if there is
      *         no entry in the CRL marked with the provided serial number.
+     * @exception IllegalStateException if the CRL was parsed from a
+     *                ByteBuffer and the entry cannot be decoded.
      * @see RevokedCertificate
      */
     public X509CRLEntry getRevokedCertificate(BigInteger serialNumber) {
+        if (revokedIndex != null) {
+            try {
+                return revokedIndex.get(serialNumber);
+            } catch (CRLException | X509ExtensionException e) {
+                throw new IllegalStateException(
+                        "Unable to decode CRL entry: " + e.getMessage(), e);
+            }
+        }
         if (revokedCerts == null || revokedCerts.isEmpty())
             return null;
         return revokedCerts.get(serialNumber);
@@ -666,11 +736,23 @@ public class X509CRLImpl extends X509CRL {
      * Gets all the revoked certificates from the CRL.
      * A Set of RevokedCertificate.
      *
+     * If the CRL was parsed from a ByteBuffer, this decodes every entry.
+     *
      * @return all the revoked certificates or null if there are
      *         none.
+     * @exception IllegalStateException if the CRL was parsed from a
+     *                ByteBuffer and an entry cannot be decoded.
      * @see RevokedCertificate
      */
     public Set<RevokedCertificate> getRevokedCertificates() {
+        if (revokedIndex != null) {
+            if (revokedIndex.size() == 0)
+                return null;
+            Set<RevokedCertificate> certSet = new LinkedHashSet<RevokedCertificate>();
+            for (int i = 0; i < revokedIndex.size(); i++)
+                certSet.add(decodeEntry(i));
+            return certSet;
+        }
         if (revokedCerts == null || revokedCerts.isEmpty())
             return null;
         else {
@@ -681,7 +763,9 @@ public class X509CRLImpl extends X509CRL {
 
     @SuppressWarnings("unchecked")
     public Hashtable<BigInteger, RevokedCertificate> getListOfRevokedCertificates() {
-        if (revokedCerts == null) {
+        if (revokedIndex != null) {
+            return decodeAll();
+        } else if (revokedCerts == null) {
             return null;
         } else {
             return (Hashtable<BigInteger, RevokedCertificate>) revokedCerts.clone();
@@ -689,6 +773,8 @@ public class X509CRLImpl extends X509CRL {
     }
 
     public int getNumberOfRevokedCertificates() {
+        if (revokedIndex != null)
+            return revokedIndex.size();
         if (revokedCerts == null)
             return -1;
         else
@@ -705,6 +791,8 @@ public class X509CRLImpl extends X509CRL {
      */
     public byte[] getTBSCertList()
             throws CRLException {
+        if (tbsCertList == null && encoded != null)
+            return RevokedCertIndex.copy(encoded, tbsOffset, tbsOffset + tbsLength);
         if (tbsCertList == null)
             throw new CRLException("Uninitialized CRL");
         byte[] dup = new byte[tbsCertList.length];
@@ -996,6 +1084,52 @@ public class X509CRLImpl extends X509CRL {
         DerValue tmp;
         byte nextByte;
 
+        parseInfoHeader(derStrm);
+
+        if (derStrm.available() == 0)
+            return; // done parsing no more optional fields present
+
+        // revokedCertificates (optional)
+        nextByte = (byte) derStrm.peekByte();
+        if ((nextByte == DerValue.tag_SequenceOf)
+                && (!((nextByte & 0x0c0) == 0x080))) {
+            if (includeEntries) {
+                DerValue[] badCerts = derStrm.getSequence(4);
+                for (int i = 0; i < badCerts.length; i++) {
+                    RevokedCertImpl entry = new RevokedCertImpl(badCerts[i]);
+                    if (entry.hasExtensions() && (version == 0))
+                        throw new CRLException("Invalid encoding, extensions" +
+                                " not supported in CRL v1 entries.");
+
+                    revokedCerts.put(entry.getSerialNumber(),
+                                     entry);
+                }
+            } else {
+                derStrm.skipSequence(4);
+            }
+        }
+
+        if (derStrm.available() == 0)
+            return; // done parsing no extensions
+
+        // crlExtensions (optional)
+        tmp = derStrm.getDerValue();
+        if (tmp.isConstructed() && tmp.isContextSpecific((byte) 0)) {
+            if (version == 0)
+                throw new CRLException("Invalid encoding, extensions not" +
+                                   " supported in CRL v1.");
+            extensions = new CRLExtensions(tmp.data);
+        }
+    }
+
+    /*
+     * Parses the fields of the tbsCertList that precede the revoked
+     * certificates: version, signature, issuer, thisUpdate and nextUpdate.
+     */
+    private void parseInfoHeader(DerInputStream derStrm)
+            throws CRLException, IOException {
+        byte nextByte;
+
         // version (optional if v1)
         version = 0; // by default, version = v1 == 0
         nextByte = (byte) derStrm.peekByte();
@@ -1004,7 +1138,7 @@ public class X509CRLImpl extends X509CRL {
             if (version != 1) // i.e. v2
                 throw new CRLException("Invalid version");
         }
-        tmp = derStrm.getDerValue();
+        DerValue tmp = derStrm.getDerValue();
         // signature
         {
             AlgorithmId tmpId = AlgorithmId.parse(tmp);
@@ -1030,7 +1164,7 @@ public class X509CRLImpl extends X509CRL {
         }
 
         if (derStrm.available() == 0)
-            return; // done parsing no more optional fields present
+            return; // no more optional fields present
 
         // nextUpdate (optional)
         nextByte = (byte) derStrm.peekByte();
@@ -1039,35 +1173,88 @@ public class X509CRLImpl extends X509CRL {
         } else if (nextByte == DerValue.tag_GeneralizedTime) {
             nextUpdate = derStrm.getGeneralizedTime();
         } // else it is not present
+    }
 
-        if (derStrm.available() == 0)
-            return; // done parsing no more optional fields present
+    /*
+     * Parses an X.509 CRL held in a buffer, indexing the revoked
+     * certificates instead of decoding them. Only the small fields are
+     * copied out of the buffer.
+     */
+    private void parse(ByteBuffer der)
+            throws CRLException, IOException, X509ExtensionException {
+        // check if can over write the certificate
+        if (readOnly)
+            throw new CRLException("cannot over-write existing CRL");
 
-        // revokedCertificates (optional)
-        nextByte = (byte) derStrm.peekByte();
-        if ((nextByte == DerValue.tag_SequenceOf)
-                && (!((nextByte & 0x0c0) == 0x080))) {
-            if (includeEntries) {
-                DerValue[] badCerts = derStrm.getSequence(4);
-                for (int i = 0; i < badCerts.length; i++) {
-                    RevokedCertImpl entry = new RevokedCertImpl(badCerts[i]);
-                    if (entry.hasExtensions() && (version == 0))
-                        throw new CRLException("Invalid encoding, extensions" +
-                                " not supported in CRL v1 entries.");
+        readOnly = true;
+        int limit = der.limit();
 
-                    revokedCerts.put(entry.getSerialNumber(),
-                                     entry);
-                }
-            } else {
-                derStrm.skipSequence(4);
-            }
+        if (limit == 0 || der.get(0) != DerValue.tag_Sequence)
+            throw new CRLException("signed CRL fields invalid");
+        int start = RevokedCertIndex.headerLength(der, 0, limit);
+        int end = RevokedCertIndex.skip(der, 0, limit);
+        if (end != limit)
+            throw new CRLException("signed overrun, bytes = " + (limit - end));
+
+        // the tbsCertList
+        if (start == end || der.get(start) != DerValue.tag_Sequence)
+            throw new CRLException("signed CRL fields invalid");
+        tbsOffset = start;
+        int tbsEnd = RevokedCertIndex.skip(der, start, end);
+        tbsLength = tbsEnd - start;
+
+        // signatureAlgorithm and signature
+        DerInputStream sigStrm =
+                new DerInputStream(RevokedCertIndex.copy(der, tbsEnd, end));
+        DerValue algId = sigStrm.getDerValue();
+        DerValue sig = sigStrm.getDerValue();
+        if (sigStrm.available() != 0)
+            throw new CRLException("signed overrun, bytes = "
+                                     + sigStrm.available());
+
+        sigAlgId = AlgorithmId.parse(algId);
+        signature = sig.getBitString();
+
+        if (algId.data.available() != 0)
+            throw new CRLException("AlgorithmId field overrun");
+
+        if (sig.data.available() != 0)
+            throw new CRLException("Signature field overrun");
+
+        // the fields before revokedCertificates
+        int content = start + RevokedCertIndex.headerLength(der, start, tbsEnd);
+        int pos = content;
+        if (pos < tbsEnd && der.get(pos) == DerValue.tag_Integer)
+            pos = RevokedCertIndex.skip(der, pos, tbsEnd); // version
+        pos = RevokedCertIndex.skip(der, pos, tbsEnd); // signature
+        pos = RevokedCertIndex.skip(der, pos, tbsEnd); // issuer
+        pos = RevokedCertIndex.skip(der, pos, tbsEnd); // thisUpdate
+        if (pos < tbsEnd && (der.get(pos) == DerValue.tag_UtcTime
+                || der.get(pos) == DerValue.tag_GeneralizedTime))
+            pos = RevokedCertIndex.skip(der, pos, tbsEnd); // nextUpdate
+
+        parseInfoHeader(new DerInputStream(
+                RevokedCertIndex.copy(der, content, pos)));
+
+        // revokedCertificates (optional)
+        if (pos < tbsEnd && der.get(pos) == DerValue.tag_SequenceOf) {
+            int next = RevokedCertIndex.skip(der, pos, tbsEnd);
+            revokedIndex = new RevokedCertIndex(der,
+                    pos + RevokedCertIndex.headerLength(der, pos, tbsEnd),
+                    next, version != 0);
+            pos = next;
+        } else {
+            revokedIndex = new RevokedCertIndex(der, pos, pos, false);
         }
 
-        if (derStrm.available() == 0)
+        encoded = der;
+
+        if (pos == tbsEnd)
             return; // done parsing no extensions
 
         // crlExtensions (optional)
-        tmp = derStrm.getDerValue();
+        DerValue tmp = new DerValue(RevokedCertIndex.copy(der, pos,
+                RevokedCertIndex.skip(der, pos, tbsEnd)));
         if (tmp.isConstructed() && tmp.isContextSpecific((byte) 0)) {
             if (version == 0)
                 throw new CRLException("Invalid encoding, extensions not" +
@@ -1075,4 +1262,56 @@ public class X509CRLImpl extends X509CRL {
             extensions = new CRLExtensions(tmp.data);
         }
     }
+
+    /*
+     * Returns the revoked certificates in increasing serial number order.
+     * A CRL parsed from a ByteBuffer decodes each entry as it is reached;
+     * otherwise the entries are sorted first.
+     */
+    Iterator<RevokedCertificate> revokedCertificatesBySerial() {
+        if (revokedIndex != null) {
+            return new Iterator<RevokedCertificate>() {
+                private int next = 0;
+
+                public boolean hasNext() {
+                    return next < revokedIndex.size();
+                }
+
+                public RevokedCertificate next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return decodeEntry(next++);
+                }
+            };
+        }
+        if (revokedCerts == null)
+            return Collections.<RevokedCertificate>emptyList().iterator();
+        List<RevokedCertificate> sorted =
+                new ArrayList<RevokedCertificate>(revokedCerts.values());
+        Collections.sort(sorted, new Comparator<RevokedCertificate>() {
+            public int compare(RevokedCertificate a, RevokedCertificate b) {
+                return a.getSerialNumber().compareTo(b.getSerialNumber());
+            }
+        });
+        return sorted.iterator();
+    }
+
+    private RevokedCertificate decodeEntry(int index) {
+        try {
+            return revokedIndex.get(index);
+        } catch (CRLException | X509ExtensionException e) {
+            throw new IllegalStateException(
+                    "Unable to decode CRL entry: " + e.getMessage(), e);
+        }
+    }
+
+    private Hashtable<BigInteger, RevokedCertificate> decodeAll() {
+        Hashtable<BigInteger, RevokedCertificate> certs =
+                new Hashtable<BigInteger, RevokedCertificate>();
+        for (int i = 0; i < revokedIndex.size(); i++) {
+            RevokedCertificate entry = decodeEntry(i);
+            certs.put(entry.getSerialNumber(), entry);
+        }
+        return certs;
+    }
 }
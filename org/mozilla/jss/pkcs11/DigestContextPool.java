@@ -0,0 +1,72 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.pkcs11;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import org.mozilla.jss.crypto.DigestAlgorithm;
+
+/**
+ * A per-thread pool of idle NSS digest contexts.
+ *
+ * <p>PK11MessageDigest takes a context from the pool when it first needs
+ * one and gives it back, freshly restarted, once the digest is complete.
+ * A thread that computes many short digests, each with a new
+ * MessageDigest, therefore reuses a handful of NSS contexts rather than
+ * creating and destroying one per digest.
+ *
+ * <p>Only plain digest contexts are pooled. They are created on the
+ * internal slot regardless of the token, so the pool is keyed by
+ * algorithm alone. HMAC contexts are bound to their key and are not
+ * pooled.
+ */
+final class DigestContextPool {
+
+    /**
+     * The maximum number of idle contexts kept per thread and algorithm.
+     */
+    static final int MAX_IDLE = 4;
+
+    private static final ThreadLocal<HashMap<DigestAlgorithm,
+        ArrayDeque<CipherContextProxy>>> pools =
+        new ThreadLocal<HashMap<DigestAlgorithm,
+            ArrayDeque<CipherContextProxy>>>() {
+            protected HashMap<DigestAlgorithm,
+                ArrayDeque<CipherContextProxy>> initialValue() {
+                return new HashMap<>();
+            }
+        };
+
+    private DigestContextPool() { }
+
+    /**
+     * Returns an idle, restarted context for the algorithm, or null if
+     * this thread has none.
+     */
+    static CipherContextProxy take(DigestAlgorithm alg) {
+        ArrayDeque<CipherContextProxy> idle = pools.get().get(alg);
+        return (idle == null) ? null : idle.poll();
+    }
+
+    /**
+     * Offers a restarted context to this thread's pool. If the pool is
+     * full the context is closed.
+     */
+    static void give(DigestAlgorithm alg, CipherContextProxy context) {
+        HashMap<DigestAlgorithm, ArrayDeque<CipherContextProxy>> pool =
+            pools.get();
+        ArrayDeque<CipherContextProxy> idle = pool.get(alg);
+        if( idle == null ) {
+            idle = new ArrayDeque<>(MAX_IDLE);
+            pool.put(alg, idle);
+        }
+        if( idle.size() < MAX_IDLE ) {
+            idle.push(context);
+        } else {
+            context.close();
+        }
+    }
+}
@@ -208,7 +208,13 @@ public final class KeyType {
                             EncryptionAlgorithm.AES_CBC_PAD,
                             EncryptionAlgorithm.AES_128_CBC_PAD,
                             EncryptionAlgorithm.AES_192_CBC_PAD,
-                            EncryptionAlgorithm.AES_256_CBC_PAD
+                            EncryptionAlgorithm.AES_256_CBC_PAD,
+                            EncryptionAlgorithm.AES_CTR,
+                            EncryptionAlgorithm.AES_128_GCM,
+                            EncryptionAlgorithm.AES_192_GCM,
+                            EncryptionAlgorithm.AES_256_GCM,
+                            EncryptionAlgorithm.AES_KW,
+                            EncryptionAlgorithm.AES_KW_PAD
                             },
                             "AES"
                         );
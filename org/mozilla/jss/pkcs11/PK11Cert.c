@@ -20,14 +20,15 @@
 #include <java_ids.h>
 #include "pk11util.h"
 #include <jssutil.h>
+#include <jss_jnicache.h>
 
 
 /*
  * Class:     org_mozilla_jss_pkcs11_PK11Cert
- * Method:    getEncoded
+ * Method:    getEncodedNative
  * Signature: ()[B
  */
-JNIEXPORT jbyteArray JNICALL Java_org_mozilla_jss_pkcs11_PK11Cert_getEncoded
+JNIEXPORT jbyteArray JNICALL Java_org_mozilla_jss_pkcs11_PK11Cert_getEncodedNative
   (JNIEnv *env, jobject this)
 {
 	PRThread * VARIABLE_MAY_NOT_BE_USED pThread;
@@ -80,10 +81,10 @@ finish:
 
 /*
  * Class:     org_mozilla_jss_pkcs11_PK11Cert
- * Method:    getVersion
+ * Method:    getVersionNative
  * Signature: ()I
  */
-JNIEXPORT jint JNICALL Java_org_mozilla_jss_pkcs11_PK11Cert_getVersion
+JNIEXPORT jint JNICALL Java_org_mozilla_jss_pkcs11_PK11Cert_getVersionNative
   (JNIEnv *env, jobject this)
 {
 	PRThread * VARIABLE_MAY_NOT_BE_USED pThread;
@@ -122,13 +123,13 @@ finish:
 
 /******************************************************************
  *
- * C e r t P r o x y . g e t P u b l i c K e y 
+ * P K 1 1 C e r t . g e t P u b l i c K e y N a t i v e
  *
  * Extracts the SECKEYPublicKey from the CERTCertificate, wraps it
  * in a Java wrapper, and returns it.
  */
 JNIEXPORT jobject JNICALL
-Java_org_mozilla_jss_pkcs11_PK11Cert_getPublicKey
+Java_org_mozilla_jss_pkcs11_PK11Cert_getPublicKeyNative
 	(JNIEnv *env, jobject this)
 {
 	CERTCertificate *cert;
@@ -375,15 +376,16 @@ JSS_PK11_findCertsAndSlotFromNickname(char *nickname, void *wincx,
  * cert: Will be eaten and erased whether the wrap was successful or not.
  * slot: Will be eaten and erased whether the wrap was successful or not.
  * nickname: the cert instance's nickname
- * returns: a new PK11Cert wrapping the CERTCertificate, PK11SlotInfo,
- *		and nickname, or NULL if an exception was thrown.
+ * returns: a PK11Cert wrapping the CERTCertificate, PK11SlotInfo,
+ *		and nickname, or NULL if an exception was thrown. It may be
+ *		shared with earlier calls, see PK11CertCache.
  */
 jobject
 JSS_PK11_wrapCertAndSlotAndNickname(JNIEnv *env, CERTCertificate **cert,
     PK11SlotInfo **slot, const char *nickname)
 {
-	jclass certClass;
-	jmethodID constructor;
+	jclass cacheClass;
+	jmethodID wrap;
 	jbyteArray certPtr;
 	jbyteArray slotPtr;
 	jstring jnickname = NULL;
@@ -398,24 +400,25 @@ JSS_PK11_wrapCertAndSlotAndNickname(JNIEnv *env, CERTCertificate **cert,
 		jnickname = (*env)->NewStringUTF(env, nickname);
 	}
 
-	certClass = (*env)->FindClass(env, INTERNAL_TOKEN_CERT_CLASS_NAME);
-	if(certClass == NULL) {
+	cacheClass = JSS_getClass(env, JSS_jni.certCacheClass,
+		CERT_CACHE_CLASS_NAME);
+	if(cacheClass == NULL) {
 		ASSERT_OUTOFMEM(env);
 		goto finish;
 	}
 
-	constructor = (*env)->GetMethodID(
-							env,
-							certClass,
-							PLAIN_CONSTRUCTOR,
-							CERT_CONSTRUCTOR_SIG);
-	if(constructor == NULL) {
+	wrap = JSS_getStaticMethodID(env, JSS_jni.certCacheWrap, cacheClass,
+		CERT_CACHE_WRAP_NAME, CERT_CACHE_WRAP_SIG);
+	if(wrap == NULL) {
 		ASSERT_OUTOFMEM(env);
 		goto finish;
 	}
 
-	/* Call the constructor */
-	Cert = (*env)->NewObject(env, certClass, constructor, certPtr,
+	/*
+	 * Returns a new PK11InternalTokenCert, or a cached one for the same
+	 * CERTCertificate. Either way, the Java side now owns the references.
+	 */
+	Cert = (*env)->CallStaticObjectMethod(env, cacheClass, wrap, certPtr,
 		slotPtr, jnickname);
 	if(Cert==NULL) {
 		goto finish;
@@ -655,10 +658,10 @@ Java_org_mozilla_jss_pkcs11_PK11Cert_getTrust
 }
 
 /**********************************************************************
- * PK11Cert.getSerialNumberByteArray
+ * PK11Cert.getSerialNumberByteArrayNative
  */
 JNIEXPORT jbyteArray JNICALL
-Java_org_mozilla_jss_pkcs11_PK11Cert_getSerialNumberByteArray
+Java_org_mozilla_jss_pkcs11_PK11Cert_getSerialNumberByteArrayNative
     (JNIEnv *env, jobject this)
 {
     CERTCertificate *cert;
@@ -675,10 +678,10 @@ Java_org_mozilla_jss_pkcs11_PK11Cert_getSerialNumberByteArray
 
 
 /**********************************************************************
- * PK11Cert.getSubjectDNString
+ * PK11Cert.getSubjectDNStringNative
  */
 JNIEXPORT jstring JNICALL
-Java_org_mozilla_jss_pkcs11_PK11Cert_getSubjectDNString
+Java_org_mozilla_jss_pkcs11_PK11Cert_getSubjectDNStringNative
     (JNIEnv *env, jobject this)
 {
     CERTCertificate *cert;
@@ -698,10 +701,10 @@ Java_org_mozilla_jss_pkcs11_PK11Cert_getSubjectDNString
 }
 
 /**********************************************************************
- * PK11Cert.getIssuerDNString
+ * PK11Cert.getIssuerDNStringNative
  */
 JNIEXPORT jstring JNICALL
-Java_org_mozilla_jss_pkcs11_PK11Cert_getIssuerDNString
+Java_org_mozilla_jss_pkcs11_PK11Cert_getIssuerDNStringNative
     (JNIEnv *env, jobject this)
 {
     CERTCertificate *cert;
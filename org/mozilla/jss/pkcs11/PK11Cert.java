@@ -5,17 +5,43 @@
 package org.mozilla.jss.pkcs11;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
+import java.security.PublicKey;
 import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
 
 import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.netscape.security.x509.X509CertImpl;
 import org.mozilla.jss.util.Assert;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-public class PK11Cert implements org.mozilla.jss.crypto.X509Certificate {
+/**
+ * A certificate held by NSS.
+ *
+ * <p>The encoding, serial number, DNs, public key and version of a
+ * certificate never change, so they are read from the CERTCertificate on
+ * first use and kept. Methods returning arrays return a copy each time.
+ *
+ * <p>Certificates returned by JSS may be shared; see {@link PK11CertCache}.
+ */
+public class PK11Cert
+    implements org.mozilla.jss.crypto.X509Certificate, AutoCloseable {
+
+    public byte[] getEncoded() throws CertificateEncodingException {
+        return getEncodedInternal().clone();
+    }
+
+    private byte[] getEncodedInternal() throws CertificateEncodingException {
+        byte[] encoded = this.encoded;
+        if (encoded == null) {
+            encoded = getEncodedNative();
+            this.encoded = encoded;
+        }
+        return encoded;
+    }
 
-	public native byte[] getEncoded() throws CertificateEncodingException;
+    private native byte[] getEncodedNative() throws CertificateEncodingException;
 
     //public native byte[] getUniqueID();
 
@@ -64,17 +90,93 @@ public class PK11Cert implements org.mozilla.jss.crypto.X509Certificate {
 
     public BigInteger
     getSerialNumber() {
-        return new BigInteger( getSerialNumberByteArray() );
+        BigInteger serialNumber = this.serialNumber;
+        if (serialNumber == null) {
+            serialNumber = new BigInteger( getSerialNumberByteArray() );
+            this.serialNumber = serialNumber;
+        }
+        return serialNumber;
     }
-    protected native byte[] getSerialNumberByteArray();
 
-    protected native String getSubjectDNString();
+    protected byte[] getSerialNumberByteArray() {
+        byte[] serial = this.serial;
+        if (serial == null) {
+            serial = getSerialNumberByteArrayNative();
+            this.serial = serial;
+        }
+        return serial.clone();
+    }
 
-    protected native String getIssuerDNString();
+    private native byte[] getSerialNumberByteArrayNative();
 
-	public native java.security.PublicKey getPublicKey();
+    protected String getSubjectDNString() {
+        String subjectDN = this.subjectDN;
+        if (subjectDN == null) {
+            subjectDN = getSubjectDNStringNative();
+            this.subjectDN = subjectDN;
+        }
+        return subjectDN;
+    }
+
+    private native String getSubjectDNStringNative();
+
+    protected String getIssuerDNString() {
+        String issuerDN = this.issuerDN;
+        if (issuerDN == null) {
+            issuerDN = getIssuerDNStringNative();
+            this.issuerDN = issuerDN;
+        }
+        return issuerDN;
+    }
+
+    private native String getIssuerDNStringNative();
+
+    public PublicKey getPublicKey() {
+        PublicKey publicKey = this.publicKey;
+        if (publicKey == null) {
+            publicKey = getPublicKeyNative();
+            this.publicKey = publicKey;
+        }
+        return publicKey;
+    }
+
+    private native PublicKey getPublicKeyNative();
+
+    public int getVersion() {
+        int version = this.version;
+        if (version < 0) {
+            version = getVersionNative();
+            this.version = version;
+        }
+        return version;
+    }
+
+    private native int getVersionNative();
+
+    /**
+     * Returns this certificate parsed into an X509CertImpl. Each call
+     * returns a new object, which the caller may modify.
+     */
+    public X509CertImpl getX509CertImpl() throws CertificateException {
+        return new X509CertImpl(getEncodedInternal());
+    }
 
-	public native int getVersion();
+    /**
+     * Returns the SHA-256 digest of the DER encoding of this certificate.
+     */
+    public byte[] getSHA256Fingerprint() throws CertificateEncodingException {
+        byte[] fingerprint = this.fingerprint;
+        if (fingerprint == null) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                fingerprint = md.digest(getEncodedInternal());
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            this.fingerprint = fingerprint;
+        }
+        return fingerprint.clone();
+    }
 
 
     ///////////////////////////////////////////////////////////////////////
@@ -121,6 +223,47 @@ public class PK11Cert implements org.mozilla.jss.crypto.X509Certificate {
 		this.nickname = nickname;
 	}
 
+    /**
+     * Releases the underlying CERTCertificate and slot references
+     * immediately instead of waiting for the garbage collector.
+     * This certificate must not be used after it has been closed.
+     * Closing it again has no effect.
+     *
+     * <p>If {@link PK11CertCache} handed the same certificate object out
+     * more than once, the other callers may still be using it. Closing it
+     * then only drops it from the cache, so later lookups get a new
+     * object, and the references are released by the garbage collector.
+     */
+    public void close() {
+        boolean release;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            release = !shared;
+        }
+        PK11CertCache.remove(this);
+        if (release) {
+            certProxy.close();
+            tokenProxy.close();
+        }
+    }
+
+    /**
+     * Marks this certificate as handed out once more, unless it has
+     * already been closed.
+     *
+     * @return false if the certificate has been closed.
+     */
+    synchronized boolean share() {
+        if (closed || certProxy.isReleased()) {
+            return false;
+        }
+        shared = true;
+        return true;
+    }
+
 	/////////////////////////////////////////////////////////////
 	// private data
 	/////////////////////////////////////////////////////////////
@@ -129,15 +272,21 @@ public class PK11Cert implements org.mozilla.jss.crypto.X509Certificate {
 	protected TokenProxy tokenProxy;
 
 	protected String nickname;
-}
-
-class CertProxy extends org.mozilla.jss.util.NativeProxy {
-
-    public static Logger logger = LoggerFactory.getLogger(CertProxy.class);
-
-    public CertProxy(byte[] pointer) {
-        super(pointer);
-    }
 
-    protected native void releaseNativeResources();
+    // see close()
+    private boolean closed;
+    private boolean shared;
+
+    // the PK11CertCache key of this object, if it is cached
+    volatile Object cacheKey;
+
+    // immutable attributes, read on first use
+    private volatile byte[] encoded;
+    private volatile byte[] serial;
+    private volatile BigInteger serialNumber;
+    private volatile String subjectDN;
+    private volatile String issuerDN;
+    private volatile PublicKey publicKey;
+    private volatile int version = -1;
+    private volatile byte[] fingerprint;
 }
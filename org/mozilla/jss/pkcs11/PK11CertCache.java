@@ -0,0 +1,171 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.pkcs11;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache of the PK11Cert objects that JSS hands out, so that looking up
+ * the same certificate again (with findCertByNickname, for instance)
+ * returns the same object, along with the attributes it has already read.
+ *
+ * <p>Certificates are looked up by their CERTCertificate and slot
+ * pointers and their nickname. NSS keeps a single CERTCertificate per
+ * certificate, so these identify it. The cache only holds weak
+ * references: a certificate that nobody uses any more is still garbage
+ * collected, and its entry dropped. At most
+ * {@link #getMaximumSize()} entries are kept, least recently used first
+ * out.
+ *
+ * <p>Closing a certificate drops it from the cache. If it was handed out
+ * several times, its references are then left to the garbage collector;
+ * see {@link PK11Cert#close()}.
+ */
+public final class PK11CertCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private static int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    private static final LinkedHashMap<Key, WeakReference<PK11Cert>> cache =
+        new LinkedHashMap<Key, WeakReference<PK11Cert>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, WeakReference<PK11Cert>> eldest) {
+                return size() > maximumSize;
+            }
+        };
+
+    private PK11CertCache() {
+    }
+
+    /**
+     * Called from native code instead of the PK11InternalTokenCert
+     * constructor. Takes over the CERTCertificate and slot references
+     * either way: a new certificate keeps them, and if a cached one is
+     * returned they are released, since it holds its own.
+     */
+    static PK11InternalTokenCert wrap(byte[] certPtr, byte[] slotPtr,
+            String nickname) {
+
+        Key key = new Key(certPtr, slotPtr);
+
+        synchronized (cache) {
+            if (maximumSize > 0) {
+                WeakReference<PK11Cert> ref = cache.get(key);
+                PK11Cert cert = (ref == null) ? null : ref.get();
+                if (cert instanceof PK11InternalTokenCert &&
+                        Objects.equals(cert.nickname, nickname) &&
+                        cert.share()) {
+                    new CertProxy(certPtr).close();
+                    new TokenProxy(slotPtr).close();
+                    return (PK11InternalTokenCert) cert;
+                }
+            }
+        }
+
+        PK11InternalTokenCert cert =
+            new PK11InternalTokenCert(certPtr, slotPtr, nickname);
+
+        synchronized (cache) {
+            if (maximumSize > 0) {
+                cert.cacheKey = key;
+                cache.put(key, new WeakReference<PK11Cert>(cert));
+            }
+        }
+        return cert;
+    }
+
+    /**
+     * Forgets a certificate that has been closed.
+     */
+    static void remove(PK11Cert cert) {
+        Object key = cert.cacheKey;
+        if (key == null) {
+            return;
+        }
+        synchronized (cache) {
+            WeakReference<PK11Cert> ref = cache.get(key);
+            if (ref != null) {
+                PK11Cert c = ref.get();
+                // the entry may already hold a newer object
+                if (c == null || c == cert) {
+                    cache.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Empties the cache. Certificates already handed out stay valid.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache, including entries whose
+     * certificate has been garbage collected but not yet dropped.
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public static int getMaximumSize() {
+        synchronized (cache) {
+            return maximumSize;
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries. Zero turns the cache off, so
+     * each lookup returns a new certificate object.
+     */
+    public static void setMaximumSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + size);
+        }
+        synchronized (cache) {
+            maximumSize = size;
+            if (cache.size() > size) {
+                cache.clear();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final byte[] certPtr;
+        private final byte[] slotPtr;
+        private final int hash;
+
+        Key(byte[] certPtr, byte[] slotPtr) {
+            this.certPtr = certPtr;
+            this.slotPtr = slotPtr;
+            this.hash = 31 * Arrays.hashCode(certPtr) + Arrays.hashCode(slotPtr);
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Arrays.equals(certPtr, other.certPtr) &&
+                Arrays.equals(slotPtr, other.slotPtr);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
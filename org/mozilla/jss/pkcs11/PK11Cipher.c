@@ -9,14 +9,41 @@
 #include <seccomon.h>
 #include <pk11func.h>
 #include <secitem.h>
+#include <secerr.h>
+#include <string.h>
 
 /* JSS includes */
 #include <java_ids.h>
 #include <jss_exceptions.h>
 #include <jssutil.h>
+#include <jss_jnicache.h>
 #include <pk11util.h>
 #include <Algorithm.h>
 
+/*
+ * Builds the CK_AES_CTR_PARAMS for AES/CTR: the IV is the initial counter
+ * block, all of which is incremented. The IV length has been checked in
+ * Java. Returns NULL on failure.
+ */
+static SECItem *
+ctrParamFromIV(SECItem *iv)
+{
+    SECItem *param;
+    CK_AES_CTR_PARAMS *ctr;
+
+    if( iv == NULL || iv->len != sizeof(ctr->cb) ) {
+        return NULL;
+    }
+    param = SECITEM_AllocItem(NULL, NULL, sizeof(CK_AES_CTR_PARAMS));
+    if( param == NULL ) {
+        return NULL;
+    }
+    ctr = (CK_AES_CTR_PARAMS*) param->data;
+    ctr->ulCounterBits = sizeof(ctr->cb) * 8;
+    memcpy(ctr->cb, iv->data, sizeof(ctr->cb));
+    return param;
+}
+
 /***********************************************************************
  *
  * PK11Cipher.initContext
@@ -76,7 +103,11 @@ Java_org_mozilla_jss_pkcs11_PK11Cipher_initContextWithKeyBits
             goto finish;
         }
     }
-    param = PK11_ParamFromIV(mech, iv);
+    if( mech == CKM_AES_CTR ) {
+        param = ctrParamFromIV(iv);
+    } else {
+        param = PK11_ParamFromIV(mech, iv);
+    }
 
     /*
      * Set RC2 effective key length.
@@ -236,9 +267,503 @@ finish:
     PR_ASSERT( outBA || (*env)->ExceptionOccurred(env) );
     return outBA;
 }
+
+/***********************************************************************
+ *
+ * In-place cipher operations.
+ *
+ * These write the output of an update or finalization directly into a
+ * caller-supplied Java array or direct buffer, instead of allocating a
+ * new array for every call.
+ *
+ * A token operation can take arbitrarily long, so Java arrays are never
+ * pinned with GetPrimitiveArrayCritical across it: that would hold off
+ * the garbage collector. Instead the input is fed to NSS at most
+ * CIPHER_CHUNK bytes at a time through buffers on the stack, so nothing
+ * is allocated per call. Direct buffers with enough room for the output
+ * are used in place.
+ *
+ * Input and output may share memory. Output is held back on the stack
+ * while writing it could overwrite input not read yet, which can happen
+ * when the output starts after the input; up to CIPHER_HOLD bytes after
+ * is handled this way. Only output starting further into the input than
+ * that makes the input be copied to the heap first.
+ *
+ * The operation reports its status, and the exception is thrown by the
+ * caller once it is done with JNI calls.
+ */
+#define CIPHER_CHUNK 4096
+#define CIPHER_HOLD 1024
+#define CIPHER_MAX_BLOCK 64
+
+typedef enum {
+    CIPHER_OP_OK,
+    CIPHER_OP_FAILED,
+    CIPHER_OP_SHORT_BUFFER,
+    CIPHER_OP_NO_MEMORY
+} CipherOpStatus;
+
+typedef struct {
+    CipherOpStatus status;
+    PRErrorCode error;  /* for CIPHER_OP_FAILED */
+    int needed;         /* for CIPHER_OP_SHORT_BUFFER */
+} CipherOpResult;
+
+/*
+ * Where the input of an operation is read from or its output written to:
+ * a Java array if array is set, else native memory at ptr.
+ */
+typedef struct {
+    jbyteArray array;
+    unsigned char *ptr;
+    jint off;
+} CipherRegion;
+
+static void
+regionRead(JNIEnv *env, CipherRegion *region, jint pos, jint len,
+    unsigned char *dest)
+{
+    if( region->array != NULL ) {
+        (*env)->GetByteArrayRegion(env, region->array, region->off + pos,
+            len, (jbyte*)dest);
+    } else {
+        memcpy(dest, region->ptr + region->off + pos, len);
+    }
+}
+
+static void
+regionWrite(JNIEnv *env, CipherRegion *region, jint pos, jint len,
+    unsigned char *src)
+{
+    if( region->array != NULL ) {
+        (*env)->SetByteArrayRegion(env, region->array, region->off + pos,
+            len, (jbyte*)src);
+    } else {
+        memcpy(region->ptr + region->off + pos, src, len);
+    }
+}
+
+/*
+ * Runs an update on inLen bytes of input, writing into out, which has
+ * room for outAvail bytes. If overlap is set, input and output share
+ * memory and the output starts shift bytes after the input (shift is
+ * negative if it starts before).
+ *
+ * Once NSS has consumed the input the context has advanced, so a short
+ * buffer detected here cannot be retried. Callers that size the output
+ * with Cipher.getOutputSize() never take that path.
+ */
+static int
+cipherUpdateChunked(JNIEnv *env, PK11Context *context, CipherRegion *in,
+    jint inLen, CipherRegion *out, jint outAvail, jint blockSize,
+    PRBool overlap, jint shift, CipherOpResult *result)
+{
+    unsigned char inBuf[CIPHER_CHUNK];
+    /* held output, plus the output of one chunk */
+    unsigned char outBuf[CIPHER_HOLD + CIPHER_CHUNK + 2 * CIPHER_MAX_BLOCK];
+    unsigned char *copy = NULL;
+    CipherRegion copyRegion;
+    jint consumed = 0;
+    int written = 0;
+    int held = 0;
+
+    result->status = CIPHER_OP_OK;
+    if( blockSize > CIPHER_MAX_BLOCK ) {
+        result->status = CIPHER_OP_FAILED;
+        result->error = SEC_ERROR_INVALID_ARGS;
+        return 0;
+    }
+
+    if( overlap && shift > CIPHER_HOLD ) {
+        /* too far into the input to hold back, work from a copy */
+        copy = PR_Malloc(inLen);
+        if( copy == NULL ) {
+            result->status = CIPHER_OP_NO_MEMORY;
+            return 0;
+        }
+        regionRead(env, in, 0, inLen, copy);
+        copyRegion.array = NULL;
+        copyRegion.ptr = copy;
+        copyRegion.off = 0;
+        in = &copyRegion;
+        overlap = PR_FALSE;
+    }
+
+    while( consumed < inLen ) {
+        int chunk = inLen - consumed;
+        int len = 0;
+        int flush;
+
+        if( chunk > CIPHER_CHUNK ) {
+            chunk = CIPHER_CHUNK;
+        }
+        regionRead(env, in, consumed, chunk, inBuf);
+        consumed += chunk;
+
+        if( PK11_CipherOp(context, outBuf + held, &len,
+                sizeof(outBuf) - held, inBuf, chunk) != SECSuccess ) {
+            result->status = CIPHER_OP_FAILED;
+            result->error = PR_GetError();
+            break;
+        }
+        held += len;
+
+        flush = held;
+        if( overlap && consumed < inLen ) {
+            /* stop short of the input not read yet */
+            int limit = consumed - shift - written;
+            if( flush > limit ) {
+                flush = (limit > 0) ? limit : 0;
+            }
+        }
+        if( written + flush > outAvail ) {
+            result->status = CIPHER_OP_SHORT_BUFFER;
+            result->needed = written + held;
+            break;
+        }
+        if( flush > 0 ) {
+            regionWrite(env, out, written, flush, outBuf);
+            written += flush;
+            held -= flush;
+            memmove(outBuf, outBuf + flush, held);
+        }
+    }
+
+    if( copy != NULL ) {
+        memset(copy, 0, inLen);
+        PR_Free(copy);
+    }
+    memset(inBuf, 0, sizeof(inBuf));
+    memset(outBuf, 0, sizeof(outBuf));
+    return (result->status == CIPHER_OP_OK) ? written : 0;
+}
+
+/*
+ * Runs a finalization, writing into out, which has room for outAvail
+ * bytes.
+ */
+static int
+cipherFinal(JNIEnv *env, PK11Context *context, CipherRegion *out,
+    jint outAvail, jint blockSize, CipherOpResult *result)
+{
+    unsigned char outBuf[CIPHER_MAX_BLOCK];
+    unsigned int len = 0;
+
+    result->status = CIPHER_OP_OK;
+    if( PK11_DigestFinal(context, outBuf, &len, sizeof(outBuf))
+            != SECSuccess ) {
+        result->status = CIPHER_OP_FAILED;
+        result->error = PR_GetError();
+        return 0;
+    }
+    if( (int) len > outAvail ) {
+        result->status = CIPHER_OP_SHORT_BUFFER;
+        result->needed = len;
+        len = 0;
+    } else if( len > 0 ) {
+        regionWrite(env, out, 0, len, outBuf);
+    }
+    memset(outBuf, 0, sizeof(outBuf));
+    return len;
+}
+
+static void
+throwCipherOpResult(JNIEnv *env, CipherOpResult *result, PRBool final,
+    int outAvail)
+{
+    char msg[80];
+
+    switch( result->status ) {
+      case CIPHER_OP_OK:
+        break;
+      case CIPHER_OP_FAILED:
+        JSS_throwMsgPrErrArg(env, TOKEN_EXCEPTION,
+            final ? "Cipher context finalization failed"
+                  : "Cipher context update failed",
+            result->error);
+        break;
+      case CIPHER_OP_SHORT_BUFFER:
+        PR_snprintf(msg, sizeof(msg), "%d needed, %d supplied",
+            result->needed, outAvail);
+        JSS_throwMsg(env, SHORT_BUFFER_EXCEPTION, msg);
+        break;
+      case CIPHER_OP_NO_MEMORY:
+        JSS_throw(env, OUT_OF_MEMORY_ERROR);
+        break;
+    }
+}
+
+/***********************************************************************
+ *
+ * PK11Cipher.updateContextInto
+ *
+ * Offsets and lengths have been checked by the caller. input and output
+ * may be the same array, and the regions may overlap.
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_pkcs11_PK11Cipher_updateContextInto
+    (JNIEnv *env, jclass clazz, jobject contextObj, jbyteArray inputBA,
+    jint inOff, jint inLen, jbyteArray outputBA, jint outOff, jint outAvail,
+    jint blockSize)
+{
+    PK11Context *context=NULL;
+    CipherRegion in, out;
+    PRBool overlap;
+    CipherOpResult result;
+    int outLen = 0;
+
+    PR_ASSERT(env!=NULL && contextObj!=NULL && inputBA!=NULL &&
+        outputBA!=NULL);
+
+    if( JSS_PK11_getCipherContext(env, contextObj, &context) != PR_SUCCESS) {
+        return 0;
+    }
+
+    in.array = inputBA;
+    in.ptr = NULL;
+    in.off = inOff;
+    out.array = outputBA;
+    out.ptr = NULL;
+    out.off = outOff;
+    overlap = (*env)->IsSameObject(env, inputBA, outputBA) &&
+        inOff < outOff + outAvail && outOff < inOff + inLen;
+
+    outLen = cipherUpdateChunked(env, context, &in, inLen, &out, outAvail,
+                blockSize, overlap, outOff - inOff, &result);
+
+    throwCipherOpResult(env, &result, PR_FALSE, outAvail);
+    return outLen;
+}
+
+/***********************************************************************
+ *
+ * PK11Cipher.finalizeContextInto
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_pkcs11_PK11Cipher_finalizeContextInto
+    (JNIEnv *env, jclass clazz, jobject contextObj, jbyteArray outputBA,
+    jint outOff, jint outAvail, jint blockSize)
+{
+    PK11Context *context=NULL;
+    CipherRegion out;
+    CipherOpResult result;
+    int outLen = 0;
+
+    PR_ASSERT(env!=NULL && contextObj!=NULL && outputBA!=NULL);
+
+    if( JSS_PK11_getCipherContext(env, contextObj, &context) != PR_SUCCESS) {
+        return 0;
+    }
+
+    out.array = outputBA;
+    out.ptr = NULL;
+    out.off = outOff;
+    outLen = cipherFinal(env, context, &out, outAvail, blockSize, &result);
+
+    throwCipherOpResult(env, &result, PR_TRUE, outAvail);
+    return outLen;
+}
+
+/***********************************************************************
+ *
+ * PK11Cipher.updateContextDirect
+ *
+ * Both buffers are direct ByteBuffers; positions and lengths have been
+ * checked by the caller. They may share memory.
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_pkcs11_PK11Cipher_updateContextDirect
+    (JNIEnv *env, jclass clazz, jobject contextObj, jobject inputBuf,
+    jint inPos, jint inLen, jobject outputBuf, jint outPos, jint outAvail,
+    jint blockSize)
+{
+    PK11Context *context=NULL;
+    unsigned char *inbuf;
+    unsigned char *outbuf;
+    CipherRegion in, out;
+    PRBool overlap;
+    CipherOpResult result;
+    int outLen = 0;
+
+    PR_ASSERT(env!=NULL && contextObj!=NULL && inputBuf!=NULL &&
+        outputBuf!=NULL);
+
+    if( JSS_PK11_getCipherContext(env, contextObj, &context) != PR_SUCCESS) {
+        return 0;
+    }
+
+    inbuf = (*env)->GetDirectBufferAddress(env, inputBuf);
+    outbuf = (*env)->GetDirectBufferAddress(env, outputBuf);
+    if( inbuf == NULL || outbuf == NULL ) {
+        JSS_throwMsg(env, ILLEGAL_ARGUMENT_EXCEPTION,
+            "Unable to access direct buffer");
+        return 0;
+    }
+
+    inbuf += inPos;
+    outbuf += outPos;
+    overlap = inLen > 0 && inbuf < outbuf + outAvail &&
+        outbuf < inbuf + inLen;
+
+    if( !overlap && outAvail >= inLen +
+            (blockSize > 0 ? blockSize : 1) ) {
+        /* NSS can work on the buffers themselves */
+        if( PK11_CipherOp(context, outbuf, &outLen, outAvail,
+                inbuf, inLen) != SECSuccess ) {
+            JSS_throwMsgPrErrArg(env, TOKEN_EXCEPTION,
+                "Cipher context update failed", PR_GetError());
+            return 0;
+        }
+        return outLen;
+    }
+
+    in.array = NULL;
+    in.ptr = inbuf;
+    in.off = 0;
+    out.array = NULL;
+    out.ptr = outbuf;
+    out.off = 0;
+    outLen = cipherUpdateChunked(env, context, &in, inLen, &out, outAvail,
+                blockSize, overlap, (jint)(outbuf - inbuf), &result);
+
+    throwCipherOpResult(env, &result, PR_FALSE, outAvail);
+    return outLen;
+}
+
+/***********************************************************************
+ *
+ * PK11Cipher.finalizeContextDirect
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_pkcs11_PK11Cipher_finalizeContextDirect
+    (JNIEnv *env, jclass clazz, jobject contextObj, jobject outputBuf,
+    jint outPos, jint outAvail, jint blockSize)
+{
+    PK11Context *context=NULL;
+    CipherRegion out;
+    CipherOpResult result;
+    int outLen;
+
+    PR_ASSERT(env!=NULL && contextObj!=NULL && outputBuf!=NULL);
+
+    if( JSS_PK11_getCipherContext(env, contextObj, &context) != PR_SUCCESS) {
+        return 0;
+    }
+
+    out.array = NULL;
+    out.ptr = (*env)->GetDirectBufferAddress(env, outputBuf);
+    out.off = outPos;
+    if( out.ptr == NULL ) {
+        JSS_throwMsg(env, ILLEGAL_ARGUMENT_EXCEPTION,
+            "Unable to access direct buffer");
+        return 0;
+    }
+
+    outLen = cipherFinal(env, context, &out, outAvail, blockSize, &result);
+
+    throwCipherOpResult(env, &result, PR_TRUE, outAvail);
+    return outLen;
+}
     
 
 
+/***********************************************************************
+ *
+ * PK11Cipher.singlePartOp
+ *
+ * Encrypts or decrypts with AES/GCM or AES key wrap in one call, as
+ * NSS does not support multi-part operations for these mechanisms.
+ * work is a direct buffer the Java side keeps for the cipher, holding
+ * aadLen bytes of AAD followed by inLen bytes of input; the output is
+ * written after the input, in room for outAvail bytes. Returns the
+ * number of bytes written.
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_pkcs11_PK11Cipher_singlePartOp
+    (JNIEnv *env, jclass clazz, jboolean encrypt, jobject keyObj,
+    jobject algObj, jbyteArray ivBA, jint tagBits, jobject workBuf,
+    jint aadLen, jint inLen, jint outAvail)
+{
+    CK_MECHANISM_TYPE mech;
+    PK11SymKey *key = NULL;
+    SECItem *iv = NULL;
+    unsigned char *work;
+    CK_GCM_PARAMS gcm;
+    SECItem paramItem;
+    SECItem *param = NULL;
+    unsigned int outLen = 0;
+    SECStatus rv;
+    PRErrorCode err = 0;
+
+    PR_ASSERT(env!=NULL && keyObj!=NULL && algObj!=NULL && workBuf!=NULL);
+
+    mech = JSS_getPK11MechFromAlg(env, algObj);
+    if( mech == CKM_INVALID_MECHANISM ) {
+        JSS_throwMsg(env, TOKEN_EXCEPTION, "Unable to resolve algorithm to"
+            " PKCS #11 mechanism");
+        goto finish;
+    }
+    if( JSS_PK11_getSymKeyPtr(env, keyObj, &key) != PR_SUCCESS ) {
+        goto finish;
+    }
+    work = (*env)->GetDirectBufferAddress(env, workBuf);
+    if( work == NULL ) {
+        JSS_throwMsg(env, ILLEGAL_ARGUMENT_EXCEPTION,
+            "Unable to access direct buffer");
+        goto finish;
+    }
+    if( ivBA != NULL ) {
+        iv = JSS_ByteArrayToSECItem(env, ivBA);
+        if( iv == NULL ) {
+            goto finish;
+        }
+    }
+
+    if( mech == CKM_AES_GCM ) {
+        memset(&gcm, 0, sizeof(gcm));
+        gcm.pIv = iv->data;
+        gcm.ulIvLen = iv->len;
+        gcm.pAAD = (aadLen > 0) ? work : NULL;
+        gcm.ulAADLen = aadLen;
+        gcm.ulTagBits = tagBits;
+        paramItem.type = siBuffer;
+        paramItem.data = (unsigned char*) &gcm;
+        paramItem.len = sizeof(gcm);
+        param = &paramItem;
+    } else {
+        /* key wrap: no parameter means the default IV */
+        param = iv;
+    }
+
+    if( encrypt ) {
+        rv = PK11_Encrypt(key, mech, param, work + aadLen + inLen, &outLen,
+                outAvail, work + aadLen, inLen);
+    } else {
+        rv = PK11_Decrypt(key, mech, param, work + aadLen + inLen, &outLen,
+                outAvail, work + aadLen, inLen);
+    }
+    if( rv != SECSuccess ) {
+        err = PR_GetError();
+        outLen = 0;
+        if( !encrypt && err == SEC_ERROR_BAD_DATA ) {
+            /* the tag or key wrap integrity check did not match */
+            JSS_throwMsgPrErrArg(env,
+                (mech == CKM_AES_GCM) ? AEAD_BAD_TAG_EXCEPTION
+                                      : BAD_PADDING_EXCEPTION,
+                "Integrity check failed", err);
+        } else {
+            JSS_throwMsgPrErrArg(env, TOKEN_EXCEPTION,
+                encrypt ? "Encryption failed" : "Decryption failed", err);
+        }
+    }
+
+finish:
+    if( iv != NULL ) {
+        SECITEM_FreeItem(iv, PR_TRUE /*freeit*/);
+    }
+    return outLen;
+}
+
 /***********************************************************************
  *
  * J S S _ P K 1 1 _ g e t C i p h e r C o n t e x t
@@ -294,12 +819,14 @@ JSS_PK11_wrapCipherContextProxy(JNIEnv *env, PK11Context **context) {
     /*
      * Lookup the class and constructor
      */
-    proxyClass = (*env)->FindClass(env, CIPHER_CONTEXT_PROXY_CLASS_NAME);
+    proxyClass = JSS_getClass(env, JSS_jni.cipherContextProxyClass,
+                            CIPHER_CONTEXT_PROXY_CLASS_NAME);
     if(proxyClass == NULL) {
         ASSERT_OUTOFMEM(env);
         goto finish;
     }
-    constructor = (*env)->GetMethodID(env, proxyClass,
+    constructor = JSS_getMethodID(env, JSS_jni.cipherContextProxyConstructor,
+                            proxyClass,
                             PLAIN_CONSTRUCTOR,
                             CIPHER_CONTEXT_PROXY_CONSTRUCTOR_SIG);
     if(constructor == NULL) {
@@ -4,12 +4,17 @@
 
 package org.mozilla.jss.pkcs11;
 
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.RC2ParameterSpec;
 
@@ -42,6 +47,24 @@ final class PK11Cipher extends org.mozilla.jss.crypto.Cipher {
     // modified by various operations
     private int state=UNINITIALIZED;
 
+    // GCM and AES key wrap are single-part operations in NSS: their input
+    // is collected here and passed to NSS in one call by doFinal.
+    private boolean singlePart = false;
+    private int tagBits;
+    private byte[] aad = null;
+    private int aadLength;
+    private byte[] pending = null;
+    private int pendingLength;
+
+    // Native memory for single-part operations, kept for the life of the
+    // cipher: doFinal copies the AAD and input here, NSS writes its output
+    // after them, and the whole region is wiped afterwards.
+    private ByteBuffer workspace = null;
+    private int workspaceUsed;
+    private static final byte[] ZEROS = new byte[1024];
+
+    private static final byte[] EMPTY = new byte[0];
+
     // States
     private static final int UNINITIALIZED=0;
     private static final int ENCRYPT=1;
@@ -76,6 +99,8 @@ final class PK11Cipher extends org.mozilla.jss.crypto.Cipher {
             IV = ((IvParameterSpec)params).getIV();
         } else if( params instanceof RC2ParameterSpec ) {
             IV = ((RC2ParameterSpec)params).getIV();
+        } else if( params instanceof GCMParameterSpec ) {
+            IV = ((GCMParameterSpec)params).getIV();
         }
         return IV;
     }
@@ -85,30 +110,20 @@ final class PK11Cipher extends org.mozilla.jss.crypto.Cipher {
         throws InvalidKeyException, InvalidAlgorithmParameterException,
         TokenException
     {
-        reset();
-
-        checkKey(key);
-        checkParams(parameters);
-
-        IV = getIVFromParams(parameters);
-        this.key = key;
-        this.parameters = parameters;
-        state = ENCRYPT;
-
-        if( parameters instanceof RC2ParameterSpec ) {
-            contextProxy = initContextWithKeyBits(
-                true, key, algorithm, IV,
-                ((RC2ParameterSpec)parameters).getEffectiveKeyBits(),
-                algorithm.isPadded());
-        } else {
-            contextProxy = initContext(
-                true, key, algorithm, IV, algorithm.isPadded());
-        }
+        init(true, key, parameters);
     }
 
     public void initDecrypt(SymmetricKey key, AlgorithmParameterSpec parameters)
         throws InvalidKeyException, InvalidAlgorithmParameterException,
         TokenException
+    {
+        init(false, key, parameters);
+    }
+
+    private void init(boolean encrypt, SymmetricKey key,
+            AlgorithmParameterSpec parameters)
+        throws InvalidKeyException, InvalidAlgorithmParameterException,
+        TokenException
     {
         reset();
 
@@ -116,19 +131,63 @@ final class PK11Cipher extends org.mozilla.jss.crypto.Cipher {
         checkParams(parameters);
 
         IV = getIVFromParams(parameters);
+        EncryptionAlgorithm.Mode mode = algorithm.getMode();
+        if( mode == EncryptionAlgorithm.Mode.CTR &&
+            IV.length != algorithm.getBlockSize() )
+        {
+            throw new InvalidAlgorithmParameterException(algorithm +
+                " requires a " + algorithm.getBlockSize() + "-byte IV");
+        }
+        if( mode == EncryptionAlgorithm.Mode.GCM ) {
+            int tLen = ((GCMParameterSpec)parameters).getTLen();
+            if( tLen < 96 || tLen > 128 || tLen % 8 != 0 ) {
+                throw new InvalidAlgorithmParameterException(
+                    "Unsupported GCM tag length: " + tLen);
+            }
+            if( IV.length == 0 ) {
+                throw new InvalidAlgorithmParameterException(
+                    "GCM IV is empty");
+            }
+            tagBits = tLen;
+        }
+
         this.key = key;
         this.parameters = parameters;
-        state = DECRYPT;
+        singlePart = (mode == EncryptionAlgorithm.Mode.GCM ||
+                      mode == EncryptionAlgorithm.Mode.KW);
+        state = encrypt ? ENCRYPT : DECRYPT;
 
+        if( singlePart ) {
+            // there is no NSS context until doFinal
+            return;
+        }
         if( parameters instanceof RC2ParameterSpec ) {
             contextProxy = initContextWithKeyBits(
-                false, key, algorithm, IV,
+                encrypt, key, algorithm, IV,
                 ((RC2ParameterSpec)parameters).getEffectiveKeyBits(),
                 algorithm.isPadded());
         } else {
             contextProxy = initContext(
-                false, key, algorithm, IV, algorithm.isPadded());
+                encrypt, key, algorithm, IV, algorithm.isPadded());
+        }
+    }
+
+    public void updateAAD(byte[] bytes, int offset, int length)
+        throws IllegalStateException, TokenException
+    {
+        checkState();
+        checkBounds(bytes, offset, length);
+        if( algorithm.getMode() != EncryptionAlgorithm.Mode.GCM ) {
+            throw new UnsupportedOperationException(algorithm +
+                " does not take additional authenticated data");
+        }
+        if( pendingLength > 0 ) {
+            throw new IllegalStateException("Additional authenticated " +
+                "data must be supplied before any input");
         }
+        aad = ensureCapacity(aad, aadLength, length);
+        System.arraycopy(bytes, offset, aad, aadLength, length);
+        aadLength += length;
     }
 
     public byte[] update(byte[] bytes)
@@ -137,6 +196,10 @@ final class PK11Cipher extends org.mozilla.jss.crypto.Cipher {
         if( state == UNINITIALIZED ) {
             throw new IllegalStateException();
         }
+        if( singlePart ) {
+            append(bytes, 0, bytes.length);
+            return EMPTY;
+        }
 
         return updateContext( contextProxy, bytes, algorithm.getBlockSize());
     }
@@ -144,54 +207,380 @@ final class PK11Cipher extends org.mozilla.jss.crypto.Cipher {
     public byte[] update(byte[] bytes, int offset, int length)
         throws IllegalStateException, TokenException
     {
-        byte[] sub = new byte[length];
-
-        System.arraycopy( bytes, offset, sub, 0, length );
+        checkState();
+        checkBounds(bytes, offset, length);
+        if( singlePart ) {
+            append(bytes, offset, length);
+            return EMPTY;
+        }
 
-        return update(sub);
+        byte[] out = new byte[length + algorithm.getBlockSize()];
+        int n;
+        try {
+            n = updateInto(bytes, offset, length, out, 0);
+        } catch(ShortBufferException e) {
+            // cannot happen, out is sized for the worst case
+            throw new TokenException(e.getMessage());
+        }
+        return trim(out, n);
     }
 
     public byte[] doFinal(byte[] bytes)
         throws IllegalStateException, IllegalBlockSizeException,
         BadPaddingException, TokenException
     {
-        if( state == UNINITIALIZED ) {
-            throw new IllegalStateException();
-        }
-
-        byte[] first = update(bytes);
-
-        byte[] last = finalizeContext(contextProxy, algorithm.getBlockSize(),
-                    algorithm.isPadded() );
-
-        byte[] combined = new byte[ first.length+last.length ];
-        System.arraycopy(first, 0, combined, 0, first.length);
-        System.arraycopy(last, 0, combined, first.length, last.length);
-        return combined;
+        return doFinal(bytes, 0, bytes.length);
     }
 
     public byte[] doFinal(byte[] bytes, int offset, int length)
         throws IllegalStateException, IllegalBlockSizeException,
         BadPaddingException, TokenException
     {
-        byte[] sub = new byte[length];
-
-        System.arraycopy(bytes, offset, sub, 0, length);
+        checkState();
+        checkBounds(bytes, offset, length);
 
-        return doFinal(sub);
+        byte[] out = new byte[getOutputSize(length)];
+        int n;
+        try {
+            n = doFinalInto(bytes, offset, length, out, 0);
+        } catch(ShortBufferException e) {
+            // cannot happen, out is sized for the worst case
+            throw new TokenException(e.getMessage());
+        }
+        return trim(out, n);
     }
 
     public byte[] doFinal()
         throws IllegalStateException, IllegalBlockSizeException,
         BadPaddingException, TokenException
     {
-        if( state == UNINITIALIZED ) {
-            throw new IllegalStateException();
+        checkState();
+        if( singlePart ) {
+            return doFinal(EMPTY, 0, 0);
         }
         return finalizeContext(contextProxy, algorithm.getBlockSize(),
                     algorithm.isPadded() );
     }
 
+    public int getOutputSize(int inputLength) {
+        if( singlePart ) {
+            return singlePartOutputSize(pendingLength + inputLength);
+        }
+        // up to one block buffered from earlier updates, plus one of padding
+        return inputLength + 2 * algorithm.getBlockSize();
+    }
+
+    public int update(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset)
+        throws IllegalStateException, ShortBufferException, TokenException
+    {
+        checkState();
+        checkBounds(input, inputOffset, inputLength);
+        checkBounds(output, outputOffset, 0);
+        return updateInto(input, inputOffset, inputLength,
+                    output, outputOffset);
+    }
+
+    public int doFinal(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset)
+        throws IllegalStateException, IllegalBlockSizeException,
+        BadPaddingException, ShortBufferException, TokenException
+    {
+        checkState();
+        checkBounds(input, inputOffset, inputLength);
+        checkBounds(output, outputOffset, 0);
+        return doFinalInto(input, inputOffset, inputLength,
+                    output, outputOffset);
+    }
+
+    public int update(ByteBuffer input, ByteBuffer output)
+        throws IllegalStateException, ShortBufferException, TokenException
+    {
+        checkState();
+        if( output.isReadOnly() ) {
+            throw new ReadOnlyBufferException();
+        }
+        if( singlePart ) {
+            appendRemaining(input);
+            return 0;
+        }
+        int inLen = input.remaining();
+        int n;
+
+        if( input.isDirect() && output.isDirect() ) {
+            n = updateContextDirect(contextProxy, input, input.position(),
+                    inLen, output, output.position(), output.remaining(),
+                    algorithm.getBlockSize());
+        } else if( input.hasArray() && output.hasArray() ) {
+            n = updateInto(input.array(),
+                    input.arrayOffset() + input.position(), inLen,
+                    output.array(), output.arrayOffset() + output.position(),
+                    output.remaining());
+        } else {
+            return super.update(input, output);
+        }
+        input.position(input.limit());
+        output.position(output.position() + n);
+        return n;
+    }
+
+    public int doFinal(ByteBuffer input, ByteBuffer output)
+        throws IllegalStateException, IllegalBlockSizeException,
+        BadPaddingException, ShortBufferException, TokenException
+    {
+        checkState();
+        if( output.isReadOnly() ) {
+            throw new ReadOnlyBufferException();
+        }
+        if( singlePart ) {
+            return singlePartFinal(input, output);
+        }
+        if( !(input.isDirect() && output.isDirect()) &&
+            !(input.hasArray() && output.hasArray()) )
+        {
+            return super.doFinal(input, output);
+        }
+
+        int n = update(input, output);
+        int last;
+        if( output.isDirect() ) {
+            last = finalizeContextDirect(contextProxy, output,
+                    output.position(), output.remaining(),
+                    algorithm.getBlockSize());
+        } else {
+            last = finalizeContextInto(contextProxy, output.array(),
+                    output.arrayOffset() + output.position(),
+                    output.remaining(), algorithm.getBlockSize());
+        }
+        output.position(output.position() + last);
+        return n + last;
+    }
+
+    private int updateInto(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset)
+        throws ShortBufferException, TokenException
+    {
+        return updateInto(input, inputOffset, inputLength, output,
+                    outputOffset, output.length - outputOffset);
+    }
+
+    private int updateInto(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset, int outputAvail)
+        throws ShortBufferException, TokenException
+    {
+        if( singlePart ) {
+            append(input, inputOffset, inputLength);
+            return 0;
+        }
+        if( inputLength == 0 ) {
+            return 0;
+        }
+        return updateContextInto(contextProxy, input, inputOffset,
+                    inputLength, output, outputOffset, outputAvail,
+                    algorithm.getBlockSize());
+    }
+
+    private int doFinalInto(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset)
+        throws IllegalBlockSizeException, BadPaddingException,
+        ShortBufferException, TokenException
+    {
+        if( singlePart ) {
+            return singlePartFinal(input, inputOffset, inputLength,
+                        output, outputOffset, output.length - outputOffset);
+        }
+        int n = updateInto(input, inputOffset, inputLength,
+                    output, outputOffset);
+        n += finalizeContextInto(contextProxy, output, outputOffset + n,
+                    output.length - outputOffset - n,
+                    algorithm.getBlockSize());
+        return n;
+    }
+
+    /**
+     * The exact output size of a single-part operation on
+     * <code>total</code> bytes, or for padded key unwrapping an upper bound.
+     */
+    private int singlePartOutputSize(int total) {
+        if( algorithm.getMode() == EncryptionAlgorithm.Mode.GCM ) {
+            int tagLength = tagBits / 8;
+            if( state == DECRYPT ) {
+                return Math.max(total - tagLength, 0);
+            }
+            return total + tagLength;
+        }
+        // key wrap adds one 8-byte block, after padding if any
+        if( state == DECRYPT ) {
+            return Math.max(total - 8, 0);
+        }
+        if( algorithm.isPadded() ) {
+            total = (total / 8 + 1) * 8;
+        }
+        return total + 8;
+    }
+
+    private int singlePartFinal(byte[] input, int inputOffset,
+            int inputLength, byte[] output, int outputOffset, int outputAvail)
+        throws BadPaddingException, ShortBufferException, TokenException
+    {
+        int needed = singlePartOutputSize(pendingLength + inputLength);
+        if( needed > outputAvail ) {
+            // checked before NSS sees the input, so the caller can retry
+            throw new ShortBufferException(needed + " needed, " +
+                outputAvail + " supplied");
+        }
+        try {
+            int n = singlePartRun(input, inputOffset, inputLength, needed);
+            workspace.get(output, outputOffset, n);
+            return n;
+        } finally {
+            singlePartDone();
+        }
+    }
+
+    /**
+     * Copies the AAD, the collected input and the given input into the
+     * workspace and runs the operation. On return the workspace is
+     * positioned at the output.
+     */
+    private int singlePartRun(byte[] input, int inputOffset,
+            int inputLength, int needed)
+        throws BadPaddingException, TokenException
+    {
+        int inLen = pendingLength + inputLength;
+        ByteBuffer work = workspace(aadLength + inLen + needed);
+        if( aadLength > 0 ) {
+            work.put(aad, 0, aadLength);
+        }
+        if( pendingLength > 0 ) {
+            work.put(pending, 0, pendingLength);
+        }
+        work.put(input, inputOffset, inputLength);
+
+        int n = singlePartOp(state == ENCRYPT, key, algorithm, IV, tagBits,
+                    work, aadLength, inLen, needed);
+        work.limit(aadLength + inLen + n).position(aadLength + inLen);
+        return n;
+    }
+
+    private ByteBuffer workspace(int size) {
+        if( workspace == null || workspace.capacity() < size ) {
+            int capacity = (workspace == null) ? 256 : workspace.capacity();
+            workspace = ByteBuffer.allocateDirect(Math.max(size, capacity * 2));
+        }
+        workspace.clear();
+        workspaceUsed = size;
+        return workspace;
+    }
+
+    // wipes the workspace and collected input, which may be plaintext
+    private void singlePartDone() {
+        if( workspace != null ) {
+            int length = workspaceUsed;
+            workspace.clear();
+            while( length > 0 ) {
+                int n = Math.min(length, ZEROS.length);
+                workspace.put(ZEROS, 0, n);
+                length -= n;
+            }
+            workspace.clear();
+            workspaceUsed = 0;
+        }
+        clearPending();
+        if( state == ENCRYPT &&
+            algorithm.getMode() == EncryptionAlgorithm.Mode.GCM )
+        {
+            // never encrypt twice with the same GCM key and IV
+            state = UNINITIALIZED;
+        }
+    }
+
+    private int singlePartFinal(ByteBuffer input, ByteBuffer output)
+        throws BadPaddingException, ShortBufferException, TokenException
+    {
+        int needed = singlePartOutputSize(pendingLength + input.remaining());
+        if( needed > output.remaining() ) {
+            throw new ShortBufferException(needed + " needed, " +
+                output.remaining() + " supplied");
+        }
+
+        byte[] in = EMPTY;
+        int inOff = 0;
+        int inLen = 0;
+        if( input.hasArray() ) {
+            in = input.array();
+            inOff = input.arrayOffset() + input.position();
+            inLen = input.remaining();
+            input.position(input.limit());
+        } else {
+            appendRemaining(input);
+        }
+
+        try {
+            int n = singlePartRun(in, inOff, inLen, needed);
+            output.put(workspace);
+            return n;
+        } finally {
+            singlePartDone();
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        pending = ensureCapacity(pending, pendingLength, length);
+        System.arraycopy(bytes, offset, pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    private void appendRemaining(ByteBuffer input) {
+        int length = input.remaining();
+        pending = ensureCapacity(pending, pendingLength, length);
+        input.get(pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    private static byte[] ensureCapacity(byte[] buf, int used, int more) {
+        if( buf != null && buf.length - used >= more ) {
+            return buf;
+        }
+        int size = Math.max(used + more, (buf == null) ? 256 : buf.length * 2);
+        byte[] bigger = new byte[size];
+        if( buf != null ) {
+            System.arraycopy(buf, 0, bigger, 0, used);
+            Arrays.fill(buf, 0, used, (byte) 0);
+        }
+        return bigger;
+    }
+
+    // clears collected input, which may be plaintext, and AAD
+    private void clearPending() {
+        if( pending != null ) {
+            Arrays.fill(pending, 0, pendingLength, (byte) 0);
+        }
+        pendingLength = 0;
+        aadLength = 0;
+    }
+
+    private void checkState() {
+        if( state == UNINITIALIZED ) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static void checkBounds(byte[] bytes, int offset, int length) {
+        if( offset < 0 || length < 0 || offset > bytes.length - length ) {
+            throw new ArrayIndexOutOfBoundsException(
+                "offset " + offset + ", length " + length +
+                ", array length " + bytes.length);
+        }
+    }
+
+    private static byte[] trim(byte[] bytes, int length) {
+        if( length == bytes.length ) {
+            return bytes;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
     private static native CipherContextProxy
     initContext(boolean encrypt, SymmetricKey key, EncryptionAlgorithm alg,
                  byte[] IV, boolean padded)
@@ -211,12 +600,57 @@ final class PK11Cipher extends org.mozilla.jss.crypto.Cipher {
     finalizeContext( CipherContextProxy context, int blocksize, boolean padded)
         throws TokenException, IllegalBlockSizeException, BadPaddingException;
 
+    // The following write into the caller's buffer and return the number of
+    // bytes written. Offsets and lengths must already have been checked;
+    // input and output may overlap.
+    private static native int
+    updateContextInto( CipherContextProxy context, byte[] input,
+                int inputOffset, int inputLength, byte[] output,
+                int outputOffset, int outputAvail, int blocksize )
+        throws ShortBufferException, TokenException;
+
+    private static native int
+    finalizeContextInto( CipherContextProxy context, byte[] output,
+                int outputOffset, int outputAvail, int blocksize )
+        throws ShortBufferException, TokenException,
+        IllegalBlockSizeException, BadPaddingException;
+
+    // Both buffers must be direct. They may share memory.
+    private static native int
+    updateContextDirect( CipherContextProxy context, ByteBuffer input,
+                int inputPosition, int inputLength, ByteBuffer output,
+                int outputPosition, int outputAvail, int blocksize )
+        throws ShortBufferException, TokenException;
+
+    private static native int
+    finalizeContextDirect( CipherContextProxy context, ByteBuffer output,
+                int outputPosition, int outputAvail, int blocksize )
+        throws ShortBufferException, TokenException,
+        IllegalBlockSizeException, BadPaddingException;
+
+    // One-shot GCM or key wrap operation. work is a direct buffer holding
+    // the AAD followed by the input; the output is written after the input.
+    // tagBits and the AAD are only used for GCM; IV may be null for key
+    // wrap.
+    private static native int
+    singlePartOp( boolean encrypt, SymmetricKey key, EncryptionAlgorithm alg,
+                byte[] IV, int tagBits, ByteBuffer work, int aadLength,
+                int inputLength, int outputAvail )
+        throws TokenException, BadPaddingException;
+
     private void reset() {
         parameters = null;
         key = null;
         IV = null;
         state = UNINITIALIZED;
-        contextProxy = null;
+        clearPending();
+        singlePart = false;
+        tagBits = 0;
+        if( contextProxy != null ) {
+            // free the previous NSS context now rather than at finalization
+            contextProxy.close();
+            contextProxy = null;
+        }
     }
 
     /**
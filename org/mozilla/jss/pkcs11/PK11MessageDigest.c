@@ -179,3 +179,56 @@ finish:
     }
     return outLen;
 }
+
+
+/***********************************************************************
+ *
+ * PK11MessageDigest.resetContext
+ *
+ * Restarts the digest or HMAC operation on an existing context, so it can
+ * be reused without creating a new one.
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_pkcs11_PK11MessageDigest_resetContext
+    (JNIEnv *env, jclass clazz, jobject proxyObj)
+{
+    PK11Context *context = NULL;
+
+    if( JSS_PK11_getCipherContext(env, proxyObj, &context) != PR_SUCCESS ) {
+        /* exception was thrown */
+        return;
+    }
+
+    if( PK11_DigestBegin(context) != SECSuccess ) {
+        JSS_throwMsg(env, DIGEST_EXCEPTION, "Unable to reset digest context");
+    }
+}
+
+
+/***********************************************************************
+ *
+ * PK11MessageDigest.cloneContext
+ *
+ * Copies a context along with the state of its operation.
+ */
+JNIEXPORT jobject JNICALL
+Java_org_mozilla_jss_pkcs11_PK11MessageDigest_cloneContext
+    (JNIEnv *env, jclass clazz, jobject proxyObj)
+{
+    PK11Context *context = NULL;
+    PK11Context *copy = NULL;
+
+    if( JSS_PK11_getCipherContext(env, proxyObj, &context) != PR_SUCCESS ) {
+        /* exception was thrown */
+        return NULL;
+    }
+
+    copy = PK11_CloneContext(context);
+    if( copy == NULL ) {
+        JSS_throwMsgPrErr(env, DIGEST_EXCEPTION,
+            "Unable to clone digest context");
+        return NULL;
+    }
+
+    return JSS_PK11_wrapCipherContextProxy(env, &copy);
+}
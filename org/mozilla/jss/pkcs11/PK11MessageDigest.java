@@ -60,29 +60,23 @@ public final class PK11MessageDigest extends JSSMessageDigest {
     public void update(byte[] input, int offset, int len)
         throws DigestException
     {
-        if( digestProxy == null ) {
-            throw new DigestException("Digest not correctly initialized");
-        }
         if( input.length < offset+len ) {
             throw new IllegalArgumentException(
                 "Input buffer is not large enough for offset and length");
         }
 
-        update(digestProxy, input, offset, len);
+        update(context(), input, offset, len);
     }
 
     public int digest(byte[] outbuf, int offset, int len)
         throws DigestException
     {
-        if( digestProxy == null ) {
-            throw new DigestException("Digest not correctly initialized");
-        }
         if( outbuf.length < offset+len ) {
             throw new IllegalArgumentException(
                 "Output buffer is not large enough for offset and length");
         }
 
-        int retval = digest(digestProxy, outbuf, offset, len);
+        int retval = digest(context(), outbuf, offset, len);
 
         reset();
 
@@ -91,12 +85,21 @@ public final class PK11MessageDigest extends JSSMessageDigest {
 
     public void reset() throws DigestException {
         if( ! (alg instanceof HMACAlgorithm) ) {
-            // This is a regular digest, so we have enough information
-            // to initialize the context
-            this.digestProxy = initDigest(alg);
+            // This is a regular digest. Restart the context and give it
+            // back to the pool; the next update will take one again.
+            if( digestProxy != null ) {
+                CipherContextProxy idle = digestProxy;
+                digestProxy = null;
+                resetContext(idle);
+                DigestContextPool.give(alg, idle);
+            }
         } else if( hmacKey != null ) {
             // This is an HMAC digest, and we have a key
-            this.digestProxy = initHMAC(token, alg, hmacKey);
+            if( digestProxy != null ) {
+                resetContext(digestProxy);
+            } else {
+                this.digestProxy = initHMAC(token, alg, hmacKey);
+            }
         } else {
             // this is an HMAC digest for which we don't have the key yet,
             // we have to wait to construct the context
@@ -104,10 +107,47 @@ public final class PK11MessageDigest extends JSSMessageDigest {
         }
     }
 
+    /**
+     * Returns a copy of this digest, including all input digested so far.
+     * The copy has its own NSS context, so the two can be continued
+     * independently.
+     *
+     * @exception CloneNotSupportedException If the token cannot copy the
+     *      digest state.
+     */
+    public PK11MessageDigest clone() throws CloneNotSupportedException {
+        PK11MessageDigest copy = (PK11MessageDigest) cloneFields();
+        if( digestProxy != null ) {
+            try {
+                copy.digestProxy = cloneContext(digestProxy);
+            } catch(DigestException e) {
+                throw new CloneNotSupportedException(e.getMessage());
+            }
+        }
+        return copy;
+    }
+
     public DigestAlgorithm getAlgorithm() {
         return alg;
     }
 
+    /**
+     * Returns the context to digest with, taking one from the pool or
+     * creating one if this is a regular digest that doesn't have one yet.
+     */
+    private CipherContextProxy context() throws DigestException {
+        if( digestProxy == null ) {
+            if( alg instanceof HMACAlgorithm ) {
+                throw new DigestException("Digest not correctly initialized");
+            }
+            digestProxy = DigestContextPool.take(alg);
+            if( digestProxy == null ) {
+                digestProxy = initDigest(alg);
+            }
+        }
+        return digestProxy;
+    }
+
     private static native CipherContextProxy
     initDigest(DigestAlgorithm alg)
         throws DigestException;
@@ -122,4 +162,13 @@ public final class PK11MessageDigest extends JSSMessageDigest {
     private static native int
     digest(CipherContextProxy proxy, byte[] outbuf, int offset, int len);
 
+    /**
+     * Restarts the operation on the context, discarding any input.
+     */
+    private static native void
+    resetContext(CipherContextProxy proxy) throws DigestException;
+
+    private static native CipherContextProxy
+    cloneContext(CipherContextProxy proxy) throws DigestException;
+
 }
@@ -20,28 +20,24 @@
  */
 
 #include <jssutil.h>
+#include <jss_exceptions.h>
+#include <string.h>
 
 /*
- * JNI FUNCTION:  PK11SecureRandom.setSeed
+ * JNI FUNCTION:  PK11SecureRandom.seedRandom
  *
- * JNI FUNCTION TYPE:  protected
+ * JNI FUNCTION TYPE:  private static
  *
  * JNI INPUTS:
  *
  *    env
  *        The JNI object through which all JNI functions are referenced
  *
- *    this
+ *    clazz
  *        A JNI reference to the class which defines this native method
  *
- * INPUTS:
- *
- *    N/A
- *
- * OUTPUTS:
- *
  *    jseed
- *        A JNI array for storage of the random byte seed sequence
+ *        A JNI array containing the seed bytes
  *
  * ERRORS:
  *
@@ -49,56 +45,30 @@
  *
  * RETURN:
  *
- *    Upon success, this method returns a byte array
- *    containing a random byte sequence
+ *    N/A
  *
  * NOTES:
  *
  *    This routine is called to seed the pseudo-random number generator.
+ *    It is not synchronized; NSS serializes access to the generator.
  *
  * JNI NOTES:
  *
  *    Class:     org_mozilla_jss_pkcs11_PK11SecureRandom
- *    Method:    setSeed
+ *    Method:    seedRandom
  *    Signature: ([B)V
  */
 
 JNIEXPORT void JNICALL
-Java_org_mozilla_jss_pkcs11_PK11SecureRandom_setSeed
-    ( JNIEnv* env, jobject this, jbyteArray jseed )
+Java_org_mozilla_jss_pkcs11_PK11SecureRandom_seedRandom
+    ( JNIEnv* env, jclass clazz, jbyteArray jseed )
 {
-    /*
-     * "JNI" data members
-     */
-
-    jbyte*    jdata   = NULL;
-    jboolean  jIsCopy = JNI_FALSE;
-    jsize     jlen    = 0;
-
-
-    /*
-     * "C" data members
-     */
-
-    PRThread*     VARIABLE_MAY_NOT_BE_USED pThread = NULL;
-    SECStatus     status  = PR_FALSE;
+    jbyte*        jdata   = NULL;
+    jsize         jlen    = 0;
+    SECStatus     status  = SECFailure;
     PK11SlotInfo* slot    = NULL;
 
-
-    /*
-     * Perform initial assertions
-     */
-
-    PR_ASSERT( env != NULL && this != NULL );
-
-
-    /*
-     * Attach to the external java thread
-     */
-
-    pThread = PR_AttachThread( PR_SYSTEM_THREAD, 0, NULL );
-    PR_ASSERT( pThread != NULL );
-
+    PR_ASSERT( env != NULL && jseed != NULL );
 
     /*
      * Obtain the appropriate "slot"
@@ -110,23 +80,12 @@ Java_org_mozilla_jss_pkcs11_PK11SecureRandom_setSeed
         goto loser;
     }
 
-
-    /*
-     * Convert "JNI jbyteArray" into "JNI jbyte*" so
-     * that it can be cast into a "C unsigned char*"
-     */
-
-    jdata = ( *env )->GetByteArrayElements( env, jseed, &jIsCopy );
-
-
-    /*
-     * Retrieve the length of the "JNI jbyteArray"
-     * so that it can be cast into a "C int"
-     */
-
+    jdata = ( *env )->GetByteArrayElements( env, jseed, NULL );
+    if( jdata == NULL ) {
+        goto loser;
+    }
     jlen = ( *env )->GetArrayLength( env, jseed );
 
-
     /*
      * Seed the pseudo-random number generator;
      * currently, failures from this routine are ignored
@@ -138,162 +97,99 @@ Java_org_mozilla_jss_pkcs11_PK11SecureRandom_setSeed
         goto loser;
     }
 
-
 loser:
 
-    /*
-     * Copy back the contents of the "JNI jbyte*" and
-     * free any resources associated with it
-     */
-
-    if(  jIsCopy == JNI_TRUE ) {
-        ( *env )->ReleaseByteArrayElements( env, jseed, jdata, 0 );
+    if( jdata != NULL ) {
+        ( *env )->ReleaseByteArrayElements( env, jseed, jdata, JNI_ABORT );
     }
 
-
-    /*
-     * Free any "C" resources
-     */
-
     if( slot != NULL ) {
         PK11_FreeSlot( slot );
     }
     slot = NULL;
 
-
-    /*
-     * Detach from the external java thread and return
-     */
-
-    PR_DetachThread();
-
     return;
 }
 
 
 /*
- * JNI FUNCTION:  PK11SecureRandom.nextBytes
+ * JNI FUNCTION:  PK11SecureRandom.generateRandom
  *
- * JNI FUNCTION TYPE:  protected
+ * JNI FUNCTION TYPE:  private static
  *
  * JNI INPUTS:
  *
  *    env
  *        The JNI object through which all JNI functions are referenced
  *
- *    this
+ *    clazz
  *        A JNI reference to the class which defines this native method
  *
- * INPUTS:
- *
- *    N/A
- *
- * OUTPUTS:
- *
- *    jbytes
- *        A JNI array for storage of the random byte sequence
+ *    jbytes, offset, length
+ *        The region of a JNI array to fill with random bytes
  *
  * ERRORS:
  *
- *    N/A
+ *    Throws TokenRuntimeException if NSS fails to generate random bytes.
  *
  * RETURN:
  *
- *    Upon success, this method returns a byte array
- *    containing a random byte sequence
+ *    N/A
  *
  * NOTES:
  *
- *    This routine is called to generate a pseudo-random number.
+ *    This routine is called to generate pseudo-random bytes, either to
+ *    refill a per-thread buffer or for a large request. It is not
+ *    synchronized; NSS serializes access to the generator. The bytes are
+ *    generated into native memory and then copied, so the Java array is
+ *    never pinned while NSS may block.
  *
  * JNI NOTES:
  *
  *    Class:     org_mozilla_jss_pkcs11_PK11SecureRandom
- *    Method:    nextBytes
- *    Signature: ([B)V
+ *    Method:    generateRandom
+ *    Signature: ([BII)V
  */
 
 JNIEXPORT void JNICALL
-Java_org_mozilla_jss_pkcs11_PK11SecureRandom_nextBytes
-    ( JNIEnv* env, jobject this, jbyteArray jbytes )
+Java_org_mozilla_jss_pkcs11_PK11SecureRandom_generateRandom
+    ( JNIEnv* env, jclass clazz, jbyteArray jbytes, jint offset,
+      jint length )
 {
-    /*
-     * "JNI" data members
-     */
-
-    jbyte*    jdata   = NULL;
-    jboolean  jIsCopy = JNI_FALSE;
-    jsize     jlen    = 0;
-
-
-    /*
-     * "C" data members
-     */
-
-    PRThread*     VARIABLE_MAY_NOT_BE_USED pThread = NULL;
-    SECStatus     status  = PR_FALSE;
-
-
-    /*
-     * Perform initial assertions
-     */
-
-    PR_ASSERT( env != NULL && this != NULL );
-
-
-    /*
-     * Attach to the external java thread
-     */
+    unsigned char  stackbuf[ 512 ];
+    unsigned char* buf     = stackbuf;
+    SECStatus      status  = SECFailure;
 
-    pThread = PR_AttachThread( PR_SYSTEM_THREAD, 0, NULL );
-    PR_ASSERT( pThread != NULL );
+    PR_ASSERT( env != NULL && jbytes != NULL );
 
+    if( length <= 0 ) {
+        return;
+    }
+    if( length > ( jint ) sizeof( stackbuf ) ) {
+        buf = PR_Malloc( length );
+        if( buf == NULL ) {
+            JSS_throw( env, OUT_OF_MEMORY_ERROR );
+            return;
+        }
+    }
 
-    /*
-     * Convert "JNI jbyteArray" into "JNI jbyte*" so
-     * that it can be cast into a "C unsigned char*"
-     */
-
-    jdata = ( *env )->GetByteArrayElements( env, jbytes, &jIsCopy );
-
-
-    /*
-     * Retrieve the length of the "JNI jbyteArray"
-     * so that it can be cast into a "C int"
-     */
-
-    jlen = ( *env )->GetArrayLength( env, jbytes );
-
-
-    /*
-     * Generate a pseudo-random number; currently,
-     * failures from this routine are ignored
-     */
-
-    status = PK11_GenerateRandom( ( unsigned char* ) jdata, ( int ) jlen );
+    status = PK11_GenerateRandom( buf, ( int ) length );
     if( status != SECSuccess ) {
+        JSS_throwMsgPrErr( env, TOKEN_RUNTIME_EXCEPTION,
+            "Failed to generate random bytes" );
         goto loser;
     }
 
+    ( *env )->SetByteArrayRegion( env, jbytes, offset, length,
+        ( jbyte* ) buf );
 
 loser:
 
-    /*
-     * Copy back the contents of the "JNI jbyte*" and
-     * free any resources associated with it
-     */
-
-    if( jIsCopy == JNI_TRUE ) {
-        ( *env )->ReleaseByteArrayElements( env, jbytes, jdata, 0 );
+    /* don't leave random bytes behind in native memory */
+    memset( buf, 0, length );
+    if( buf != stackbuf ) {
+        PR_Free( buf );
     }
 
-
-    /*
-     * Detach from the external java thread and return
-     */
-
-    PR_DetachThread();
-
     return;
 }
-
@@ -4,14 +4,81 @@
 
 package org.mozilla.jss.pkcs11;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A random number generator for PKCS #11.
  *
+ * <p>Small requests are served from a per-thread buffer that is filled
+ * from PK11_GenerateRandom in blocks of {@link #BLOCK_SIZE} bytes, so
+ * threads don't contend on a lock or cross into native code for every
+ * nonce or IV. Bytes are cleared from the buffer as they are handed out.
+ * A buffer is discarded and refilled when it is older than
+ * {@link #MAX_BUFFER_AGE_MILLIS}, and after any call to
+ * <code>setSeed</code>, so output always reflects recent seeding.
+ * Requests larger than {@link #MAX_BUFFERED_REQUEST} bytes go straight
+ * to NSS.
+ *
  * @see org.mozilla.jss.CryptoManager
  */
 public final
 class PK11SecureRandom implements org.mozilla.jss.crypto.JSSSecureRandom
 {
+    /**
+     * The number of bytes pulled from NSS to refill a thread's buffer.
+     */
+    static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Requests larger than this are not buffered.
+     */
+    static final int MAX_BUFFERED_REQUEST = 256;
+
+    /**
+     * The longest time bytes stay in a thread's buffer before it is
+     * discarded and refilled.
+     */
+    static final long MAX_BUFFER_AGE_MILLIS = 1000;
+
+    // incremented by setSeed, to invalidate all buffers
+    private static final AtomicInteger seedGeneration = new AtomicInteger();
+
+    private static final ThreadLocal<Buffer> buffers =
+        new ThreadLocal<Buffer>() {
+            protected Buffer initialValue() {
+                return new Buffer();
+            }
+        };
+
+    private static final class Buffer {
+        final byte[] bytes = new byte[BLOCK_SIZE];
+        int pos = BLOCK_SIZE; // empty
+        int generation;
+        long filled;
+
+        boolean isStale(int need) {
+            return BLOCK_SIZE - pos < need ||
+                generation != seedGeneration.get() ||
+                System.currentTimeMillis() - filled > MAX_BUFFER_AGE_MILLIS;
+        }
+
+        void refill() {
+            // read the generation first, so a concurrent setSeed
+            // invalidates these bytes rather than being missed
+            generation = seedGeneration.get();
+            generateRandom(bytes, 0, BLOCK_SIZE);
+            filled = System.currentTimeMillis();
+            pos = 0;
+        }
+
+        void take(byte[] out, int off, int len) {
+            System.arraycopy(bytes, pos, out, off, len);
+            Arrays.fill(bytes, pos, pos + len, (byte) 0);
+            pos += len;
+        }
+    }
+
     ////////////////////////////////////////////////////
     // construction and finalization
     ////////////////////////////////////////////////////
@@ -23,8 +90,12 @@ class PK11SecureRandom implements org.mozilla.jss.crypto.JSSSecureRandom
     //  public routines
     ////////////////////////////////////////////////////
 
-    public synchronized native void
-    setSeed( byte[] seed );
+    public void
+    setSeed( byte[] seed )
+    {
+        seedRandom( seed );
+        seedGeneration.incrementAndGet();
+    }
 
     public void
     setSeed( long seed )
@@ -39,7 +110,27 @@ class PK11SecureRandom implements org.mozilla.jss.crypto.JSSSecureRandom
         setSeed( data );
     }
 
-    public synchronized native void
-    nextBytes( byte bytes[] );
-}
+    public void
+    nextBytes( byte bytes[] )
+    {
+        int len = bytes.length;
 
+        if( len > MAX_BUFFERED_REQUEST ) {
+            generateRandom( bytes, 0, len );
+            return;
+        }
+
+        Buffer buf = buffers.get();
+        if( buf.isStale( len ) ) {
+            Arrays.fill( buf.bytes, buf.pos, BLOCK_SIZE, ( byte ) 0 );
+            buf.refill();
+        }
+        buf.take( bytes, 0, len );
+    }
+
+    private static native void
+    seedRandom( byte[] seed );
+
+    private static native void
+    generateRandom( byte[] bytes, int offset, int length );
+}
@@ -94,7 +94,7 @@ final class PK11Signature extends org.mozilla.jss.crypto.SignatureSpi {
 
         // Now initialize the signature context
         if( ! raw ) {
-            sigContext = null;
+            releaseSigContext();
             initSigContext();
         }
 
@@ -122,6 +122,16 @@ final class PK11Signature extends org.mozilla.jss.crypto.SignatureSpi {
     protected native void initSigContext()
         throws TokenException;
 
+    /*************************************************************
+    ** Frees the native context, if any, and clears the sigContext field.
+    */
+    private void releaseSigContext() {
+        if( sigContext != null ) {
+            sigContext.close();
+            sigContext = null;
+        }
+    }
+
 
 	public void engineInitVerify(PublicKey publicKey)
 		throws InvalidKeyException, TokenException
@@ -162,7 +172,7 @@ final class PK11Signature extends org.mozilla.jss.crypto.SignatureSpi {
 		key = pubKey;
 
         if( ! raw ) {
-            sigContext = null;
+            releaseSigContext();
             initVfyContext();
         }
 
@@ -233,7 +243,7 @@ final class PK11Signature extends org.mozilla.jss.crypto.SignatureSpi {
             result = engineSignNative();
         }
 		state = UNINITIALIZED;
-		sigContext = null;
+		releaseSigContext();
 
 		return result;
     }
@@ -302,7 +312,7 @@ final class PK11Signature extends org.mozilla.jss.crypto.SignatureSpi {
             result = engineVerifyNative(sigBytes);
         }
 		state = UNINITIALIZED;
-		sigContext = null;
+		releaseSigContext();
 
 		return result;
     }
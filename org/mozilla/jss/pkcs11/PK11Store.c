@@ -476,6 +476,52 @@ finish:
     return;
 }
 
+/**********************************************************************
+ * PK11Store.deleteSymmetricKey
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_pkcs11_PK11Store_deleteSymmetricKey
+    (JNIEnv *env, jobject this, jobject symKeyObj)
+{
+    PK11SlotInfo *slot;
+    PK11SlotInfo *keySlot = NULL;
+    PK11SymKey *symKey;
+
+    PR_ASSERT(env != NULL && this != NULL);
+
+    if (symKeyObj == NULL) {
+        JSS_throw(env, NO_SUCH_ITEM_ON_TOKEN_EXCEPTION);
+        goto finish;
+    }
+
+    if (JSS_PK11_getStoreSlotPtr(env, this, &slot) != PR_SUCCESS) {
+        PR_ASSERT((*env)->ExceptionOccurred(env) != NULL);
+        goto finish;
+    }
+
+    if (JSS_PK11_getSymKeyPtr(env, symKeyObj, &symKey) != PR_SUCCESS) {
+        PR_ASSERT((*env)->ExceptionOccurred(env) != NULL);
+        goto finish;
+    }
+
+    keySlot = PK11_GetSlotFromKey(symKey);
+    if (slot != keySlot) {
+        JSS_throw(env, NO_SUCH_ITEM_ON_TOKEN_EXCEPTION);
+        goto finish;
+    }
+
+    if (PK11_DeleteTokenSymKey(symKey) != SECSuccess) {
+        JSS_throwMsg(env, TOKEN_EXCEPTION, "Unable to remove symmetric key");
+        goto finish;
+    }
+
+finish:
+    if (keySlot != NULL) {
+        PK11_FreeSlot(keySlot);
+    }
+    return;
+}
+
 /**********************************************************************
  * PK11Store.deleteCert
  *
@@ -138,6 +138,9 @@ public final class PK11Store implements CryptoStore {
     public native void deletePublicKey(PublicKey publicKey)
             throws NoSuchItemOnTokenException, TokenException;
 
+    public native void deleteSymmetricKey(SymmetricKey symmetricKey)
+            throws NoSuchItemOnTokenException, TokenException;
+
     public byte[] getEncryptedPrivateKeyInfo(
             X509Certificate cert,
             PBEAlgorithm pbeAlg,
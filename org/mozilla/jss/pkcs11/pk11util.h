@@ -216,7 +216,9 @@ JSS_PK11_findCertsAndSlotFromNickname(char *nickname, void *wincx,
  *      or use, this PK11SlotInfo again. To enforce this, *ppSlot
  *      will be set to NULL whether the functions fails or succeeds.
  * nickname: the cert instance's nickname.
- * Returns: a new Java PK11Cert object, or NULL if an exception was thrown.
+ * Returns: a Java PK11Cert object, or NULL if an exception was thrown.
+ *      The object may be shared with earlier calls for the same
+ *      CERTCertificate, slot and nickname; see PK11CertCache.
  */
 jobject
 JSS_PK11_wrapCertAndSlotAndNickname(JNIEnv *env, CERTCertificate **ppCert,
@@ -0,0 +1,142 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.provider.java.security;
+
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mozilla.jss.crypto.PrivateKey;
+import org.mozilla.jss.crypto.SymmetricKey;
+
+/**
+ * A snapshot of the aliases in the tokens of a JSSKeyStoreSpi, so that
+ * alias lookups do not enumerate the tokens each time.
+ *
+ * Certificate aliases are the certificate nicknames. Private keys are
+ * indexed by the hex key ID alias used by JSSKeyStoreSpi, symmetric keys
+ * by nickname; both are prefixed with "tokenName:" except on the internal
+ * key storage token. A key handle may be null if the key was added after
+ * the token was scanned; it is looked up when first needed.
+ *
+ * NSS gives no notice when the token contents change, so the snapshot
+ * expires after a timeout, JSSKeyStoreSpi scans the tokens again before
+ * reporting an alias missing from it, and updates it as it changes
+ * entries itself. It also caches decoded certificates by alias.
+ */
+class AliasIndex {
+
+    private final Set<String> aliases = new LinkedHashSet<>();
+    private final Set<String> certAliases = new HashSet<>();
+    private final Map<String, PrivateKey> privateKeys = new HashMap<>();
+    private final Map<String, SymmetricKey> symmetricKeys = new HashMap<>();
+
+    // token name prefixes of the tokens scanned; null for the internal
+    // key storage token
+    private final Set<String> tokenNames = new HashSet<>();
+
+    private final long expires;
+
+    // decoded certificates, and whether an alias has a key, by alias
+    final Map<String, Certificate> certificates = new ConcurrentHashMap<>();
+    final Map<String, Boolean> hasKey = new ConcurrentHashMap<>();
+
+    AliasIndex(long timeout) {
+        long now = System.currentTimeMillis();
+        expires = (timeout > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + timeout;
+    }
+
+    boolean isExpired() {
+        return System.currentTimeMillis() >= expires;
+    }
+
+    static String alias(String tokenName, String name) {
+        return (tokenName == null) ? name : tokenName + ":" + name;
+    }
+
+    synchronized void addToken(String tokenName) {
+        tokenNames.add(tokenName);
+    }
+
+    /**
+     * Returns true if the token with the given name prefix was scanned,
+     * so its keys are all in the index.
+     */
+    synchronized boolean hasToken(String tokenName) {
+        return tokenNames.contains(tokenName);
+    }
+
+    synchronized void addCertificate(String alias) {
+        aliases.add(alias);
+        certAliases.add(alias);
+    }
+
+    synchronized void addPrivateKey(String alias, PrivateKey key) {
+        aliases.add(alias);
+        privateKeys.put(alias, key);
+    }
+
+    synchronized void addSymmetricKey(String alias, SymmetricKey key) {
+        symmetricKeys.put(alias, key);
+    }
+
+    synchronized void removeCertificate(String alias) {
+        certAliases.remove(alias);
+        if (!privateKeys.containsKey(alias))
+            aliases.remove(alias);
+        certificates.remove(alias);
+        hasKey.remove(alias);
+    }
+
+    synchronized void removePrivateKey(String alias) {
+        privateKeys.remove(alias);
+        if (!certAliases.contains(alias))
+            aliases.remove(alias);
+        hasKey.remove(alias);
+    }
+
+    synchronized void removeSymmetricKey(String alias) {
+        symmetricKeys.remove(alias);
+        hasKey.remove(alias);
+    }
+
+    synchronized boolean contains(String alias) {
+        return aliases.contains(alias);
+    }
+
+    synchronized int size() {
+        return aliases.size();
+    }
+
+    synchronized Collection<String> getAliases() {
+        return new ArrayList<>(aliases);
+    }
+
+    synchronized boolean isCertificate(String alias) {
+        return certAliases.contains(alias);
+    }
+
+    synchronized boolean hasPrivateKey(String alias) {
+        return privateKeys.containsKey(alias);
+    }
+
+    synchronized PrivateKey getPrivateKey(String alias) {
+        return privateKeys.get(alias);
+    }
+
+    synchronized boolean hasSymmetricKey(String alias) {
+        return symmetricKeys.containsKey(alias);
+    }
+
+    synchronized SymmetricKey getSymmetricKey(String alias) {
+        return symmetricKeys.get(alias);
+    }
+}
@@ -20,9 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.xml.bind.DatatypeConverter;
 
@@ -74,7 +72,8 @@ import org.slf4j.LoggerFactory;
  * with this nickname, or if there is a cert with this nickname and the cert
  * has an associated private key.
  *
- * <li>load updates the token in the keystore.
+ * <li>load updates the token in the keystore, and refreshes the alias
+ * index.
  *
  * <li>store is a no-op.
  *
@@ -84,6 +83,15 @@ import org.slf4j.LoggerFactory;
  *
  * <li>setKeyEntry not supported yet. Need to convert a temporary key
  * into a permanent key.
+ *
+ * <li>The aliases of the tokens are kept in an index, so that lookups
+ * do not enumerate the tokens every time, and decoded certificates are
+ * cached by alias. NSS does not report changes made outside this keystore,
+ * so the index is rebuilt when it is older than the alias cache timeout
+ * (see {@link JSSLoadStoreParameter#setAliasCacheTimeout}, no caching by
+ * default), when the keystore is loaded again, or when an alias looked
+ * up is missing from it. Changes made through this keystore update it
+ * right away.
  * </ol>
  */
 public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
@@ -93,6 +101,9 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
     CryptoToken token;
     protected TokenProxy proxy;
 
+    long aliasCacheTimeout = JSSLoadStoreParameter.DEFAULT_ALIAS_CACHE_TIMEOUT;
+    volatile AliasIndex index;
+
     public JSSKeyStoreSpi() {
 
         logger.debug("JSSKeyStoreSpi: <init>()");
@@ -136,7 +147,42 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
     public Collection<String> getAliases() {
 
         logger.debug("JSSKeyStoreSpi: getAliases()");
-        Set<String> aliases = new LinkedHashSet<>();
+        return getIndex().getAliases();
+    }
+
+    /**
+     * Returns the alias index, rebuilding it if it has expired.
+     */
+    AliasIndex getIndex() {
+
+        AliasIndex index = this.index;
+        if (index == null || index.isExpired()) {
+            index = buildIndex();
+            this.index = index;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the alias index for a lookup of the given alias. If the
+     * alias is missing from an index built earlier, it may have been
+     * added outside this keystore, so the tokens are scanned again.
+     */
+    AliasIndex getIndex(String alias) {
+
+        AliasIndex index = this.index;
+        if (index == null || index.isExpired() ||
+                !index.contains(alias) && !index.hasSymmetricKey(alias)) {
+            index = buildIndex();
+            this.index = index;
+        }
+        return index;
+    }
+
+    AliasIndex buildIndex() {
+
+        logger.debug("JSSKeyStoreSpi: buildIndex()");
+        AliasIndex index = new AliasIndex(aliasCacheTimeout);
 
         try {
             List<CryptoToken> tokens = new ArrayList<>();
@@ -164,15 +210,8 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
 
             for (CryptoToken token : tokens) {
 
-                String tokenName;
-                if (token == cm.getInternalKeyStorageToken()) {
-                    tokenName = null;
-                    logger.debug("JSSKeyStoreSpi: token: internal");
-
-                } else {
-                    tokenName = token.getName();
-                    logger.debug("JSSKeyStoreSpi: token: " + tokenName);
-                }
+                String tokenName = getTokenPrefix(cm, token);
+                logger.debug("JSSKeyStoreSpi: token: " + (tokenName == null ? "internal" : tokenName));
 
                 CryptoStore store = token.getCryptoStore();
 
@@ -180,25 +219,30 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
                 for (X509Certificate cert : store.getCertificates()) {
                     String nickname = cert.getNickname();
                     logger.debug("JSSKeyStoreSpi:   - " + nickname);
-                    aliases.add(nickname);
+                    index.addCertificate(nickname);
                 }
 
                 logger.debug("JSSKeyStoreSpi: - private keys:");
                 for (PrivateKey privateKey : store.getPrivateKeys()) {
-                    // convert key ID into hexadecimal
-                    String keyID = DatatypeConverter.printHexBinary(privateKey.getUniqueID()).toLowerCase();
-                    String nickname;
-                    if (tokenName == null) {
-                        nickname = keyID;
-                    } else {
-                        nickname = tokenName + ":" + keyID;
+                    String nickname = AliasIndex.alias(tokenName, getKeyID(privateKey));
+                    logger.debug("JSSKeyStoreSpi:   - " + nickname);
+                    index.addPrivateKey(nickname, privateKey);
+                }
+
+                logger.debug("JSSKeyStoreSpi: - symmetric keys:");
+                for (SymmetricKey symmetricKey : store.getSymmetricKeys()) {
+                    String nickname = symmetricKey.getNickName();
+                    if (nickname == null) {
+                        continue;
                     }
                     logger.debug("JSSKeyStoreSpi:   - " + nickname);
-                    aliases.add(nickname);
+                    index.addSymmetricKey(AliasIndex.alias(tokenName, nickname), symmetricKey);
                 }
+
+                index.addToken(tokenName);
             }
 
-            return aliases;
+            return index;
 
         } catch (NotInitializedException e) {
             throw new RuntimeException(e);
@@ -208,11 +252,64 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
         }
     }
 
+    /**
+     * Returns the prefix of the aliases of the token: null for the internal
+     * key storage token, the token name otherwise.
+     */
+    String getTokenPrefix(CryptoManager cm, CryptoToken token) throws TokenException {
+
+        if (token == cm.getInternalKeyStorageToken()) {
+            return null;
+        }
+
+        return token.getName();
+    }
+
+    String getKeyID(PrivateKey privateKey) throws TokenException {
+        // convert key ID into hexadecimal
+        return DatatypeConverter.printHexBinary(privateKey.getUniqueID()).toLowerCase();
+    }
+
+    PrivateKey findPrivateKey(CryptoStore store, String nickname) throws TokenException {
+
+        logger.debug("JSSKeyStoreSpi: searching for private key");
+
+        for (PrivateKey privateKey : store.getPrivateKeys()) {
+
+            String keyID = getKeyID(privateKey);
+            logger.debug("JSSKeyStoreSpi: - " + keyID);
+
+            if (nickname.equals(keyID)) {
+                logger.debug("JSSKeyStoreSpi: found private key: " + nickname);
+                return privateKey;
+            }
+        }
+
+        return null;
+    }
+
+    SymmetricKey findSymmetricKey(CryptoStore store, String nickname) throws TokenException {
+
+        logger.debug("JSSKeyStoreSpi: searching for symmetric key");
+
+        for (SymmetricKey symmetricKey : store.getSymmetricKeys()) {
+
+            logger.debug("JSSKeyStoreSpi: - " + symmetricKey.getNickName());
+
+            if (nickname.equals(symmetricKey.getNickName())) {
+                logger.debug("JSSKeyStoreSpi: found symmetric key: " + nickname);
+                return symmetricKey;
+            }
+        }
+
+        return null;
+    }
+
     public boolean engineContainsAlias(String alias) {
 
         logger.debug("JSSKeyStoreSpi: engineContainsAlias(" + alias + ")");
 
-        return getAliases().contains(alias);
+        return getIndex(alias).contains(alias);
     }
 
     public void engineDeleteEntry(String alias) throws KeyStoreException {
@@ -237,6 +334,8 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
 
                 logger.debug("JSSKeyStoreSpi: deleting cert: " + alias);
                 store.deleteCertOnly(cert);
+
+                certificateDeleted(manager, alias);
                 return;
 
             } catch (ObjectNotFoundException e) {
@@ -255,18 +354,9 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
             }
 
             CryptoStore store = token.getCryptoStore();
+            PrivateKey privateKey = findPrivateKey(store, nickname);
 
-            logger.debug("JSSKeyStoreSpi: searching for private key");
-
-            for (PrivateKey privateKey : store.getPrivateKeys()) {
-
-                // convert key ID into hexadecimal
-                String keyID = DatatypeConverter.printHexBinary(privateKey.getUniqueID()).toLowerCase();
-                logger.debug("JSSKeyStoreSpi: - " + keyID);
-
-                if (!nickname.equals(keyID)) {
-                    continue;
-                }
+            if (privateKey != null) {
 
                 try {
                     logger.debug("JSSKeyStoreSpi: searching for public key: " + nickname);
@@ -282,6 +372,24 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
                 logger.debug("JSSKeyStoreSpi: deleting private key: " + nickname);
                 store.deletePrivateKey(privateKey);
 
+                AliasIndex index = this.index;
+                if (index != null) {
+                    index.removePrivateKey(AliasIndex.alias(getTokenPrefix(manager, token), nickname));
+                }
+                return;
+            }
+
+            SymmetricKey symmetricKey = findSymmetricKey(store, nickname);
+
+            if (symmetricKey != null) {
+
+                logger.debug("JSSKeyStoreSpi: deleting symmetric key: " + nickname);
+                store.deleteSymmetricKey(symmetricKey);
+
+                AliasIndex index = this.index;
+                if (index != null) {
+                    index.removeSymmetricKey(AliasIndex.alias(getTokenPrefix(manager, token), nickname));
+                }
                 return;
             }
 
@@ -302,10 +410,41 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
         }
     }
 
+    /**
+     * Updates the alias index after a cert was deleted. Other certs may
+     * still have the same nickname, so the alias is only removed if there
+     * are none left.
+     */
+    void certificateDeleted(CryptoManager manager, String alias) throws TokenException {
+
+        AliasIndex index = this.index;
+        if (index == null) {
+            return;
+        }
+
+        index.certificates.remove(alias);
+        index.hasKey.remove(alias);
+
+        try {
+            manager.findCertByNickname(alias);
+
+        } catch (ObjectNotFoundException e) {
+            index.removeCertificate(alias);
+        }
+    }
+
     public Certificate engineGetCertificate(String alias) {
 
         logger.debug("JSSKeyStoreSpi: engineGetCertificate(" + alias + ")");
 
+        AliasIndex index = getIndex();
+        Certificate certificate = index.certificates.get(alias);
+
+        if (certificate != null) {
+            logger.debug("JSSKeyStoreSpi: cert found in cache: " + alias);
+            return certificate;
+        }
+
         try {
             CryptoManager cm = CryptoManager.getInstance();
             X509Certificate cert = cm.findCertByNickname(alias);
@@ -316,7 +455,10 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
             InputStream is = new ByteArrayInputStream(bytes);
 
             CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-            return certFactory.generateCertificate(is);
+            certificate = certFactory.generateCertificate(is);
+
+            index.certificates.put(alias, certificate);
+            return certificate;
 
         } catch (ObjectNotFoundException e) {
             logger.debug("JSSKeyStoreSpi: cert not found: " + alias);
@@ -437,30 +579,53 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
 
             CryptoStore store = token.getCryptoStore();
 
-            logger.debug("JSSKeyStoreSpi: searching for private key");
+            String prefix = getTokenPrefix(cm, token);
+            AliasIndex index = getIndex(AliasIndex.alias(prefix, nickname));
 
-            for (PrivateKey privateKey : store.getPrivateKeys()) {
+            if (index.hasToken(prefix)) {
+                // all keys of the token are in the index
+                String keyAlias = AliasIndex.alias(prefix, nickname);
 
-                // convert key ID into hexadecimal
-                String keyID = DatatypeConverter.printHexBinary(privateKey.getUniqueID()).toLowerCase();
-                logger.debug("JSSKeyStoreSpi: - " + keyID);
-
-                if (nickname.equals(keyID)) {
-                    logger.debug("JSSKeyStoreSpi: found private key: " + nickname);
-                    return privateKey;
+                if (index.hasPrivateKey(keyAlias)) {
+                    PrivateKey privateKey = index.getPrivateKey(keyAlias);
+                    if (privateKey == null) {
+                        privateKey = findPrivateKey(store, nickname);
+                        if (privateKey != null) {
+                            index.addPrivateKey(keyAlias, privateKey);
+                        }
+                    }
+                    if (privateKey != null) {
+                        logger.debug("JSSKeyStoreSpi: found private key: " + nickname);
+                        return privateKey;
+                    }
                 }
-            }
 
-            logger.debug("JSSKeyStoreSpi: searching for symmetric key");
+                if (index.hasSymmetricKey(keyAlias)) {
+                    SymmetricKey symmetricKey = index.getSymmetricKey(keyAlias);
+                    if (symmetricKey == null) {
+                        symmetricKey = findSymmetricKey(store, nickname);
+                        if (symmetricKey != null) {
+                            index.addSymmetricKey(keyAlias, symmetricKey);
+                        }
+                    }
+                    if (symmetricKey != null) {
+                        logger.debug("JSSKeyStoreSpi: found symmetric key: " + nickname);
+                        return new SecretKeyFacade(symmetricKey);
+                    }
+                }
 
-            for (SymmetricKey symmetricKey : store.getSymmetricKeys()) {
+                logger.debug("JSSKeyStoreSpi: key not found: " + nickname);
+                return null;
+            }
 
-                logger.debug("JSSKeyStoreSpi: - " + symmetricKey.getNickName());
+            PrivateKey privateKey = findPrivateKey(store, nickname);
+            if (privateKey != null) {
+                return privateKey;
+            }
 
-                if (nickname.equals(symmetricKey.getNickName())) {
-                    logger.debug("JSSKeyStoreSpi: found symmetric key: " + nickname);
-                    return new SecretKeyFacade(symmetricKey);
-                }
+            SymmetricKey symmetricKey = findSymmetricKey(store, nickname);
+            if (symmetricKey != null) {
+                return new SecretKeyFacade(symmetricKey);
             }
 
             logger.debug("JSSKeyStoreSpi: key not found: " + nickname);
@@ -485,6 +650,11 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
 
         logger.debug("JSSKeyStoreSpi: engineIsCertificateEntry(" + alias + ")");
 
+        if (getIndex().certificates.containsKey(alias)) {
+            logger.debug("JSSKeyStoreSpi: cert found in cache: " + alias);
+            return true;
+        }
+
         try {
             CryptoManager cm = CryptoManager.getInstance();
             cm.findCertByNickname(alias);
@@ -512,14 +682,26 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
 
         logger.debug("JSSKeyStoreSpi: engineIsKeyEntry(" + alias + ")");
 
-        /* this is somewhat wasteful but we can speed it up later */
-        return engineGetKey(alias, null) != null;
+        AliasIndex index = getIndex(alias);
+        if (index.hasPrivateKey(alias) || index.hasSymmetricKey(alias)) {
+            return true;
+        }
+
+        Boolean hasKey = index.hasKey.get(alias);
+        if (hasKey == null) {
+            hasKey = engineGetKey(alias, null) != null;
+            index.hasKey.put(alias, hasKey);
+        }
+
+        return hasKey;
     }
 
     public void engineLoad(InputStream stream, char[] password)
         throws IOException
     {
         logger.debug("JSSKeyStoreSpi: engineLoad(stream, password)");
+
+        index = null;
     }
 
     public void engineLoad(KeyStore.LoadStoreParameter param)
@@ -533,6 +715,8 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
 
         JSSLoadStoreParameter jssParam = (JSSLoadStoreParameter) param;
         token = jssParam.getToken();
+        aliasCacheTimeout = jssParam.getAliasCacheTimeout();
+        index = null;
 
         try {
             logger.debug("JSSKeyStoreSpi: token: " + token.getName());
@@ -577,8 +761,64 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
         if( key instanceof SecretKeyFacade ) {
             SecretKeyFacade skf = (SecretKeyFacade)key;
             engineSetKeyEntryNative(alias, skf.key, password, chain);
+            keyEntryAdded(alias, skf.key);
         } else {
             engineSetKeyEntryNative(alias, key, password, chain);
+            keyEntryAdded(alias, key);
+        }
+    }
+
+    /**
+     * Updates the alias index after a key was copied to its token. The
+     * handle of the copy is looked up when it is first needed.
+     *
+     * The alias is indexed under the keystore's token. If the keystore
+     * spans all tokens, or the key was stored on another token, the index
+     * is dropped and rebuilt on the next lookup instead.
+     */
+    void keyEntryAdded(String alias, Object key) {
+
+        AliasIndex index = this.index;
+        if (index == null) {
+            return;
+        }
+
+        index.certificates.remove(alias);
+        index.hasKey.remove(alias);
+
+        try {
+            CryptoManager cm = CryptoManager.getInstance();
+
+            if (token == null) {
+                logger.debug("JSSKeyStoreSpi: no keystore token, rebuilding alias index");
+                this.index = null;
+
+            } else if (key instanceof PrivateKey) {
+                PrivateKey privateKey = (PrivateKey) key;
+                if (!token.equals(privateKey.getOwningToken())) {
+                    this.index = null;
+                    return;
+                }
+                String prefix = getTokenPrefix(cm, token);
+                index.addPrivateKey(AliasIndex.alias(prefix, getKeyID(privateKey)), null);
+
+            } else if (key instanceof SymmetricKey) {
+                SymmetricKey symmetricKey = (SymmetricKey) key;
+                if (!token.equals(symmetricKey.getOwningToken())) {
+                    this.index = null;
+                    return;
+                }
+                String prefix = getTokenPrefix(cm, token);
+                index.addSymmetricKey(AliasIndex.alias(prefix, alias), null);
+            }
+
+        } catch (NotInitializedException e) {
+            logger.debug("JSSKeyStoreSpi: unable to update alias index: " + e.getMessage());
+            this.index = null;
+
+        } catch (TokenException e) {
+            logger.debug("JSSKeyStoreSpi: unable to update alias index: " + e.getMessage());
+            this.index = null;
         }
     }
 
@@ -589,7 +829,7 @@ public class JSSKeyStoreSpi extends java.security.KeyStoreSpi {
 
         logger.debug("JSSKeyStoreSpi: engineSize()");
 
-        return getAliases().size();
+        return getIndex().size();
     }
 
     public void engineStore(OutputStream stream, char[] password)
@@ -11,7 +11,14 @@ import org.mozilla.jss.crypto.CryptoToken;
 
 public class JSSLoadStoreParameter implements LoadStoreParameter {
 
+    /**
+     * Default time in milliseconds before the keystore scans its tokens
+     * again for aliases: no caching.
+     */
+    public static final long DEFAULT_ALIAS_CACHE_TIMEOUT = 0;
+
     CryptoToken token;
+    long aliasCacheTimeout = DEFAULT_ALIAS_CACHE_TIMEOUT;
 
     public JSSLoadStoreParameter(CryptoToken token) {
         this.token = token;
@@ -25,4 +32,25 @@ public class JSSLoadStoreParameter implements LoadStoreParameter {
     public CryptoToken getToken() {
         return token;
     }
+
+    public long getAliasCacheTimeout() {
+        return aliasCacheTimeout;
+    }
+
+    /**
+     * Sets how long in milliseconds the keystore uses its alias index
+     * before it scans the tokens again. Zero, the default, scans the
+     * tokens on every lookup.
+     * <p>
+     * Otherwise an alias missing from the index still makes the keystore
+     * scan the tokens before reporting it absent, but entries deleted,
+     * and the alias list and size changed, other than through the
+     * keystore are not seen until the index expires.
+     */
+    public void setAliasCacheTimeout(long aliasCacheTimeout) {
+        if (aliasCacheTimeout < 0) {
+            throw new IllegalArgumentException("Invalid alias cache timeout: " + aliasCacheTimeout);
+        }
+        this.aliasCacheTimeout = aliasCacheTimeout;
+    }
 }
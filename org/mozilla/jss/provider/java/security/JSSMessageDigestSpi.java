@@ -16,21 +16,30 @@ import org.mozilla.jss.crypto.TokenException;
 import org.mozilla.jss.crypto.TokenRuntimeException;
 import org.mozilla.jss.crypto.TokenSupplierManager;
 
-public abstract class JSSMessageDigestSpi extends MessageDigestSpi {
+public abstract class JSSMessageDigestSpi extends MessageDigestSpi
+    implements Cloneable
+{
 
     private JSSMessageDigest digest;
 
+    /**
+     * The last thread token seen on this thread, and the token that
+     * digests are done on for it. Saves going through CryptoManager
+     * each time a MessageDigest is created.
+     */
+    private static final ThreadLocal<CryptoToken[]> digestTokens =
+        new ThreadLocal<CryptoToken[]>() {
+            protected CryptoToken[] initialValue() {
+                return new CryptoToken[2];
+            }
+        };
+
     protected JSSMessageDigestSpi(DigestAlgorithm alg) {
         super();
         CryptoToken token =
             TokenSupplierManager.getTokenSupplier().getThreadToken();
         try {
-            CryptoManager cm = CryptoManager.getInstance();
-            CryptoToken ikst = cm.getInternalKeyStorageToken();
-            if( token.equals(ikst) ) {
-                // InternalKeyStorageToken doesn't support message digesting
-                token = cm.getInternalCryptoToken();
-            }
+            token = getDigestToken(token);
             try {
               digest = token.getDigestContext(alg);
             } catch(java.security.NoSuchAlgorithmException e) {
@@ -47,8 +56,32 @@ public abstract class JSSMessageDigestSpi extends MessageDigestSpi {
         }
     }
 
+    private static CryptoToken getDigestToken(CryptoToken token)
+        throws NotInitializedException
+    {
+        CryptoToken[] cached = digestTokens.get();
+        if( cached[0] == token ) {
+            return cached[1];
+        }
+        CryptoToken digestToken = token;
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken ikst = cm.getInternalKeyStorageToken();
+        if( token.equals(ikst) ) {
+            // InternalKeyStorageToken doesn't support message digesting
+            digestToken = cm.getInternalCryptoToken();
+        }
+        cached[0] = token;
+        cached[1] = digestToken;
+        return digestToken;
+    }
+
+    /**
+     * Returns a copy of this digest, including all input digested so far.
+     */
     public Object clone() throws CloneNotSupportedException {
-        throw new CloneNotSupportedException();
+        JSSMessageDigestSpi copy = (JSSMessageDigestSpi) super.clone();
+        copy.digest = digest.clone();
+        return copy;
     }
 
     public byte[] engineDigest() {
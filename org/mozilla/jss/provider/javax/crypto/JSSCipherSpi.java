@@ -4,6 +4,7 @@
 
 package org.mozilla.jss.provider.javax.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -21,6 +22,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.RC2ParameterSpec;
 
@@ -217,7 +219,10 @@ class JSSCipherSpi extends javax.crypto.CipherSpi {
             if (algFamily.compareToIgnoreCase("RC2") == 0) {
                 gp = givenParams.getParameterSpec(
                     javax.crypto.spec.RC2ParameterSpec.class );
-            } else if (algMode.compareToIgnoreCase("CBC") == 0) {
+            } else if ("GCM".equalsIgnoreCase(algMode)) {
+                 gp = givenParams.getParameterSpec(GCMParameterSpec.class);
+            } else if ("CBC".equalsIgnoreCase(algMode) ||
+                       "CTR".equalsIgnoreCase(algMode)) {
                  gp = givenParams.getParameterSpec(
                              javax.crypto.spec.IvParameterSpec.class );
             }
@@ -250,8 +255,10 @@ class JSSCipherSpi extends javax.crypto.CipherSpi {
             // no parameters are needed
             return null;
         }
-        // generate an IV
-        byte[] iv = new byte[blockSize];
+        // generate an IV; GCM takes the recommended 12 bytes
+        boolean gcm = paramClasses.length > 0 &&
+            paramClasses[0].equals(GCMParameterSpec.class);
+        byte[] iv = new byte[gcm ? 12 : blockSize];
         try {
             SecureRandom random = SecureRandom.getInstance("pkcs11prng",
                                                        "Mozilla-JSS");
@@ -260,6 +267,9 @@ class JSSCipherSpi extends javax.crypto.CipherSpi {
             throw new RuntimeException(e);
         }
 
+        if( gcm ) {
+            return new GCMParameterSpec(128, iv);
+        }
         for (int i = 0; i < paramClasses.length; i ++) {
             if( paramClasses[i].equals( javax.crypto.spec.IvParameterSpec.class ) ) {
                 algParSpec = new javax.crypto.spec.IvParameterSpec(iv);
@@ -288,6 +298,8 @@ class JSSCipherSpi extends javax.crypto.CipherSpi {
             return ((IvParameterSpec)params).getIV();
         } else if( params instanceof RC2ParameterSpec ) {
             return ((RC2ParameterSpec)params).getIV();
+        } else if( params instanceof GCMParameterSpec ) {
+            return ((GCMParameterSpec)params).getIV();
         } else {
             return null;
         }
@@ -300,6 +312,9 @@ class JSSCipherSpi extends javax.crypto.CipherSpi {
                || ( params instanceof RC2ParameterSpec )) {
                 algParams = AlgorithmParameters.getInstance(algFamily);
                 algParams.init(params);
+            } else if( params instanceof GCMParameterSpec ) {
+                algParams = AlgorithmParameters.getInstance("GCM");
+                algParams.init(params);
             }
           } catch(NoSuchAlgorithmException e) {
               throw new RuntimeException("Unable to get parameters: " + e.getMessage(), e);
@@ -310,6 +325,9 @@ class JSSCipherSpi extends javax.crypto.CipherSpi {
     }
 
     public int engineGetOutputSize(int inputLen) {
+        if( cipher != null ) {
+            return cipher.getOutputSize(inputLen);
+        }
         int total = (blockSize-1) + inputLen;
         return ((total / blockSize) + 1) * blockSize;
     }
@@ -330,13 +348,52 @@ class JSSCipherSpi extends javax.crypto.CipherSpi {
     public int engineUpdate(byte[] input, int inputOffset, int inputLen,
         byte[] output, int outputOffset) throws ShortBufferException
     {
-        byte[] bytes = engineUpdate(input, inputOffset, inputLen);
-        if( bytes.length > output.length-outputOffset ) {
-            throw new ShortBufferException(bytes.length +  " needed, " +
-                (output.length-outputOffset) + " supplied");
+        if(cipher == null) {
+            throw new IllegalStateException();
+        }
+        try {
+            return cipher.update(input, inputOffset, inputLen,
+                        output, outputOffset);
+        } catch(TokenException te) {
+            throw new TokenRuntimeException(te.getMessage());
+        }
+    }
+
+    public int engineUpdate(ByteBuffer input, ByteBuffer output)
+        throws ShortBufferException
+    {
+        if(cipher == null) {
+            throw new IllegalStateException();
+        }
+        try {
+            return cipher.update(input, output);
+        } catch(TokenException te) {
+            throw new TokenRuntimeException(te.getMessage());
+        }
+    }
+
+    public void engineUpdateAAD(byte[] src, int offset, int len) {
+        if(cipher == null) {
+            throw new IllegalStateException();
+        }
+        try {
+            cipher.updateAAD(src, offset, len);
+        } catch(TokenException te) {
+            throw new TokenRuntimeException(te.getMessage());
+        }
+    }
+
+    public void engineUpdateAAD(ByteBuffer src) {
+        int len = src.remaining();
+        if( src.hasArray() ) {
+            engineUpdateAAD(src.array(), src.arrayOffset() + src.position(),
+                len);
+            src.position(src.limit());
+        } else {
+            byte[] aad = new byte[len];
+            src.get(aad);
+            engineUpdateAAD(aad, 0, len);
         }
-        System.arraycopy(bytes, 0, output, outputOffset, bytes.length);
-        return bytes.length;
     }
 
     public byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
@@ -367,13 +424,42 @@ class JSSCipherSpi extends javax.crypto.CipherSpi {
             throws ShortBufferException, IllegalBlockSizeException,
             BadPaddingException
     {
-        byte[] bytes = engineDoFinal(input, inputOffset, inputLen);
-        if( bytes.length > output.length-outputOffset ) {
-            throw new ShortBufferException(bytes.length +  " needed, " +
-                (output.length-outputOffset) + " supplied");
+        if( cipher == null ) {
+            throw new IllegalStateException();
+        }
+        try {
+            if( input == null ) {
+                input = new byte[0];
+                inputOffset = 0;
+                inputLen = 0;
+            }
+            return cipher.doFinal(input, inputOffset, inputLen,
+                        output, outputOffset);
+        } catch(IllegalStateException ise) {
+            throw ise;
+        } catch(org.mozilla.jss.crypto.IllegalBlockSizeException ibse) {
+            throw new IllegalBlockSizeException(ibse.getMessage());
+        } catch(TokenException te) {
+            throw new TokenRuntimeException(te.getMessage());
+        }
+    }
+
+    public int engineDoFinal(ByteBuffer input, ByteBuffer output)
+            throws ShortBufferException, IllegalBlockSizeException,
+            BadPaddingException
+    {
+        if( cipher == null ) {
+            throw new IllegalStateException();
+        }
+        try {
+            return cipher.doFinal(input, output);
+        } catch(IllegalStateException ise) {
+            throw ise;
+        } catch(org.mozilla.jss.crypto.IllegalBlockSizeException ibse) {
+            throw new IllegalBlockSizeException(ibse.getMessage());
+        } catch(TokenException te) {
+            throw new TokenRuntimeException(te.getMessage());
         }
-        System.arraycopy(bytes, 0, output, outputOffset, bytes.length);
-        return bytes.length;
     }
 
     public byte[] engineWrap(Key key)
@@ -18,7 +18,7 @@ import org.mozilla.jss.crypto.SecretKeyFacade;
 import org.mozilla.jss.crypto.TokenRuntimeException;
 import org.mozilla.jss.crypto.TokenSupplierManager;
 
-class JSSMacSpi extends javax.crypto.MacSpi {
+class JSSMacSpi extends javax.crypto.MacSpi implements Cloneable {
 
     private JSSMessageDigest digest=null;
     private HMACAlgorithm alg;
@@ -88,8 +88,16 @@ class JSSMacSpi extends javax.crypto.MacSpi {
       }
     }
 
+    /**
+     * Returns a copy of this MAC, including its key and all input
+     * processed so far.
+     */
     public Object clone() throws CloneNotSupportedException {
-        throw new CloneNotSupportedException();
+        JSSMacSpi copy = (JSSMacSpi) super.clone();
+        if( digest != null ) {
+            copy.digest = digest.clone();
+        }
+        return copy;
     }
 
     public static class HmacSHA1 extends JSSMacSpi {
@@ -0,0 +1,22 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+/**
+ * Holds the native state of a JSSEngine: the NSS SSL layer and the
+ * memory buffers it reads from and writes to.
+ */
+class EngineProxy extends org.mozilla.jss.util.NativeProxy {
+
+    public EngineProxy(byte[] pointer) {
+        super(pointer);
+    }
+
+    protected native void releaseNativeResources();
+
+    protected void finalize() throws Throwable {
+        super.finalize();
+    }
+}
@@ -0,0 +1,863 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+/*
+ * Native side of JSSEngine. Instead of binding NSS to an operating system
+ * socket, the SSL layer is pushed on top of an NSPR I/O layer that reads
+ * from and writes to two memory buffers. The Java code feeds ciphertext
+ * received from the peer into the incoming buffer and drains ciphertext
+ * to be sent from the outgoing buffer; NSS never blocks, it reports
+ * PR_WOULD_BLOCK_ERROR when it needs more input.
+ */
+
+#include <nspr.h>
+#include <jni.h>
+#include <string.h>
+#include <pk11func.h>
+#include <keyhi.h>
+#include <ssl.h>
+#include <sslerr.h>
+#include <sslproto.h>
+
+#include <jssutil.h>
+#include <jss_exceptions.h>
+#include <java_ids.h>
+#include <pk11util.h>
+#include "jssl.h"
+
+#define JSS_ENGINE_PROXY_FIELD "engineProxy"
+#define JSS_ENGINE_PROXY_SIG "Lorg/mozilla/jss/ssl/EngineProxy;"
+
+/*
+ * The most ciphertext held in the incoming buffer: one full TLS record.
+ * This must match JSSEngine.MAX_RECORD_LENGTH.
+ */
+#define JSSL_ENGINE_MAX_INCOMING (16384 + 2048 + 5)
+
+typedef struct {
+    PRUint8 *data;
+    PRInt32 len;    /* number of valid bytes */
+    PRInt32 cap;    /* allocated size */
+} JSSL_MemBuffer;
+
+typedef struct {
+    PRFileDesc *fd;             /* SSL layer on top of the memory layer */
+    JSSL_MemBuffer incoming;    /* ciphertext received from the peer */
+    JSSL_MemBuffer outgoing;    /* ciphertext to be sent to the peer */
+    PRBool inboundClosed;       /* the peer will not send any more data */
+    PRBool handshakeComplete;
+    PRNetAddr peerAddr;
+    jobject certApprovalCallback; /* global ref */
+    jobject clientCertSelectionCallback; /* global ref */
+} JSSL_EngineData;
+
+#define ENGINE_DATA(fd) ((JSSL_EngineData *) (fd)->secret)
+
+/*
+ * Appends len bytes to the buffer, growing it as needed.
+ */
+static PRStatus
+JSSL_bufferAppend(JSSL_MemBuffer *buf, const void *data, PRInt32 len)
+{
+    if( buf->len + len > buf->cap ) {
+        PRInt32 newCap = (buf->cap == 0) ? 2 * 16384 : buf->cap;
+        PRUint8 *newData;
+
+        while( newCap < buf->len + len ) {
+            newCap *= 2;
+        }
+        newData = (PRUint8 *) PR_Realloc(buf->data, newCap);
+        if( newData == NULL ) {
+            PR_SetError(PR_OUT_OF_MEMORY_ERROR, 0);
+            return PR_FAILURE;
+        }
+        buf->data = newData;
+        buf->cap = newCap;
+    }
+    memcpy(buf->data + buf->len, data, len);
+    buf->len += len;
+    return PR_SUCCESS;
+}
+
+/*
+ * Removes up to len bytes from the front of the buffer, copying them to
+ * dest. Returns the number of bytes removed.
+ */
+static PRInt32
+JSSL_bufferTake(JSSL_MemBuffer *buf, void *dest, PRInt32 len)
+{
+    if( len > buf->len ) {
+        len = buf->len;
+    }
+    memcpy(dest, buf->data, len);
+    buf->len -= len;
+    if( buf->len > 0 ) {
+        memmove(buf->data, buf->data + len, buf->len);
+    }
+    return len;
+}
+
+static void
+JSSL_bufferFree(JSSL_MemBuffer *buf)
+{
+    if( buf->data != NULL ) {
+        PR_Free(buf->data);
+    }
+    buf->data = NULL;
+    buf->len = buf->cap = 0;
+}
+
+/*************************************************************************
+ * Memory-buffer NSPR I/O layer
+ */
+
+static PRIntn
+memInvalidInt()
+{
+    PR_ASSERT(!"memInvalidInt called");
+    PR_SetError(PR_NOT_IMPLEMENTED_ERROR, 0);
+    return -1;
+}
+
+static PRInt32
+mem_recv(PRFileDesc *fd, void *buf, PRInt32 amount, PRIntn flags,
+    PRIntervalTime timeout)
+{
+    JSSL_EngineData *engine = ENGINE_DATA(fd);
+
+    if( engine->incoming.len == 0 ) {
+        if( engine->inboundClosed ) {
+            return 0; /* EOF */
+        }
+        PR_SetError(PR_WOULD_BLOCK_ERROR, 0);
+        return -1;
+    }
+    return JSSL_bufferTake(&engine->incoming, buf, amount);
+}
+
+static PRInt32
+mem_read(PRFileDesc *fd, void *buf, PRInt32 amount)
+{
+    return mem_recv(fd, buf, amount, 0, PR_INTERVAL_NO_WAIT);
+}
+
+static PRInt32
+mem_send(PRFileDesc *fd, const void *buf, PRInt32 amount, PRIntn flags,
+    PRIntervalTime timeout)
+{
+    JSSL_EngineData *engine = ENGINE_DATA(fd);
+
+    if( JSSL_bufferAppend(&engine->outgoing, buf, amount) != PR_SUCCESS ) {
+        return -1;
+    }
+    return amount;
+}
+
+static PRInt32
+mem_write(PRFileDesc *fd, const void *buf, PRInt32 amount)
+{
+    return mem_send(fd, buf, amount, 0, PR_INTERVAL_NO_WAIT);
+}
+
+static PRInt32
+mem_writev(PRFileDesc *fd, const PRIOVec *iov, PRInt32 iov_size,
+    PRIntervalTime timeout)
+{
+    JSSL_EngineData *engine = ENGINE_DATA(fd);
+    PRInt32 total = 0;
+    PRInt32 i;
+
+    for( i = 0; i < iov_size; i++ ) {
+        if( JSSL_bufferAppend(&engine->outgoing, iov[i].iov_base,
+                iov[i].iov_len) != PR_SUCCESS ) {
+            return -1;
+        }
+        total += iov[i].iov_len;
+    }
+    return total;
+}
+
+static PRStatus
+mem_getPeerName(PRFileDesc *fd, PRNetAddr *addr)
+{
+    *addr = ENGINE_DATA(fd)->peerAddr;
+    return PR_SUCCESS;
+}
+
+static PRStatus
+mem_getSockOpt(PRFileDesc *fd, PRSocketOptionData *data)
+{
+    switch(data->option) {
+      case PR_SockOpt_Nonblocking:
+        data->value.non_blocking = PR_TRUE;
+        return PR_SUCCESS;
+      case PR_SockOpt_NoDelay:
+        data->value.no_delay = PR_TRUE;
+        return PR_SUCCESS;
+      default:
+        PR_SetError(PR_NOT_IMPLEMENTED_ERROR, 0);
+        return PR_FAILURE;
+    }
+}
+
+static PRStatus
+mem_setSockOpt(PRFileDesc *fd, PRSocketOptionData *data)
+{
+    /* there is no real socket underneath, so options are ignored */
+    return PR_SUCCESS;
+}
+
+static PRStatus
+mem_shutdown(PRFileDesc *fd, PRShutdownHow how)
+{
+    return PR_SUCCESS;
+}
+
+static PRStatus
+mem_close(PRFileDesc *fd)
+{
+    /* The JSSL_EngineData is owned by the EngineProxy, which frees it
+     * after closing the SSL layer. Only the descriptor is freed here. */
+    fd->secret = NULL;
+    fd->dtor(fd);
+    return PR_SUCCESS;
+}
+
+static PRInt16
+mem_poll(PRFileDesc *fd, PRInt16 in_flags, PRInt16 *out_flags)
+{
+    *out_flags = 0;
+    return in_flags;
+}
+
+static const PRIOMethods memMethods = {
+    PR_DESC_SOCKET_TCP,
+    (PRCloseFN) mem_close,
+    (PRReadFN) mem_read,
+    (PRWriteFN) mem_write,
+    (PRAvailableFN) memInvalidInt,
+    (PRAvailable64FN) memInvalidInt,
+    (PRFsyncFN) memInvalidInt,
+    (PRSeekFN) memInvalidInt,
+    (PRSeek64FN) memInvalidInt,
+    (PRFileInfoFN) memInvalidInt,
+    (PRFileInfo64FN) memInvalidInt,
+    (PRWritevFN) mem_writev,
+    (PRConnectFN) memInvalidInt,
+    (PRAcceptFN) memInvalidInt,
+    (PRBindFN) memInvalidInt,
+    (PRListenFN) memInvalidInt,
+    (PRShutdownFN) mem_shutdown,
+    (PRRecvFN) mem_recv,
+    (PRSendFN) mem_send,
+    (PRRecvfromFN) memInvalidInt,
+    (PRSendtoFN) memInvalidInt,
+    (PRPollFN) mem_poll,
+    (PRAcceptreadFN) memInvalidInt,
+    (PRTransmitfileFN) memInvalidInt,
+    (PRGetsocknameFN) mem_getPeerName,
+    (PRGetpeernameFN) mem_getPeerName,
+    (PRReservedFN) memInvalidInt,
+    (PRReservedFN) memInvalidInt,
+    (PRGetsocketoptionFN) mem_getSockOpt,
+    (PRSetsocketoptionFN) mem_setSockOpt,
+    (PRSendfileFN) memInvalidInt,
+    (PRConnectcontinueFN) memInvalidInt,
+    (PRReservedFN) memInvalidInt,
+    (PRReservedFN) memInvalidInt,
+    (PRReservedFN) memInvalidInt,
+    (PRReservedFN) memInvalidInt
+};
+
+static void
+memDestructor(PRFileDesc *fd)
+{
+    PR_Free(fd);
+}
+
+/*
+ * Handshake callback: records that the handshake has completed.
+ */
+static void
+JSSL_EngineHandshakeCallback(PRFileDesc *fd, void *arg)
+{
+    JSSL_EngineData *engine = (JSSL_EngineData *) arg;
+
+    PR_ASSERT(engine != NULL);
+    engine->handshakeComplete = PR_TRUE;
+}
+
+static void
+JSSL_DestroyEngineData(JNIEnv *env, JSSL_EngineData *engine)
+{
+    PR_ASSERT(engine != NULL);
+
+    if( engine->fd != NULL ) {
+        PR_Close(engine->fd);
+    }
+    if( engine->certApprovalCallback != NULL ) {
+        (*env)->DeleteGlobalRef(env, engine->certApprovalCallback);
+    }
+    if( engine->clientCertSelectionCallback != NULL ) {
+        (*env)->DeleteGlobalRef(env, engine->clientCertSelectionCallback);
+    }
+    JSSL_bufferFree(&engine->incoming);
+    JSSL_bufferFree(&engine->outgoing);
+    PR_Free(engine);
+}
+
+static PRStatus
+JSSL_getEngineData(JNIEnv *env, jobject self, JSSL_EngineData **engine)
+{
+    return JSS_getPtrFromProxyOwner(env, self, JSS_ENGINE_PROXY_FIELD,
+        JSS_ENGINE_PROXY_SIG, (void**)engine);
+}
+
+/*************************************************************************
+ * JSSEngine native methods
+ */
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_engineCreate(JNIEnv *env, jobject self,
+    jboolean client, jstring host, jint port,
+    jobject certApprovalCallback, jobject clientCertSelectionCallback)
+{
+    JSSL_EngineData *engine = NULL;
+    PRFileDesc *memFD = NULL;
+    PRFileDesc *sslFD = NULL;
+    jbyteArray engineArray = NULL;
+    SECStatus status;
+
+    engine = PR_NEWZAP(JSSL_EngineData);
+    if( engine == NULL ) {
+        JSS_throw(env, OUT_OF_MEMORY_ERROR);
+        goto finish;
+    }
+    PR_InitializeNetAddr(PR_IpAddrAny, (PRUint16) port, &engine->peerAddr);
+
+    memFD = PR_NEWZAP(PRFileDesc);
+    if( memFD == NULL ) {
+        JSS_throw(env, OUT_OF_MEMORY_ERROR);
+        goto finish;
+    }
+    memFD->methods = &memMethods;
+    memFD->secret = (PRFilePrivate *) engine;
+    memFD->dtor = memDestructor;
+    memFD->identity = PR_NSPR_IO_LAYER;
+
+    /* enable SSL on the memory layer */
+    sslFD = SSL_ImportFD(NULL, memFD);
+    if( sslFD == NULL ) {
+        JSSL_throwSSLSocketException(env, "SSL_ImportFD() returned NULL");
+        goto finish;
+    }
+    memFD = NULL; /* now owned by sslFD */
+    engine->fd = sslFD;
+
+    if( host != NULL ) {
+        const char *chars;
+        int retval;
+        chars = (*env)->GetStringUTFChars(env, host, NULL);
+        if( chars == NULL ) goto finish;
+        retval = SSL_SetURL(engine->fd, chars);
+        (*env)->ReleaseStringUTFChars(env, host, chars);
+        if( retval ) {
+            JSSL_throwSSLSocketException(env,
+                "Failed to set SSL domain name");
+            goto finish;
+        }
+    }
+
+    status = SSL_OptionSet(engine->fd, SSL_SECURITY, PR_TRUE);
+    if( status != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+            "Unable to enable SSL security on engine");
+        goto finish;
+    }
+
+    status = SSL_OptionSet(engine->fd, SSL_HANDSHAKE_AS_CLIENT, client);
+    if( status == SECSuccess ) {
+        status = SSL_OptionSet(engine->fd, SSL_HANDSHAKE_AS_SERVER, !client);
+    }
+    if( status != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+            "Unable to set handshake mode on engine");
+        goto finish;
+    }
+
+    status = SSL_HandshakeCallback(engine->fd, JSSL_EngineHandshakeCallback,
+                                    engine);
+    if( status != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+            "Unable to install handshake callback");
+        goto finish;
+    }
+
+    /* setup the cert authentication callback */
+    if( certApprovalCallback != NULL ) {
+        engine->certApprovalCallback =
+            (*env)->NewGlobalRef(env, certApprovalCallback);
+        if( engine->certApprovalCallback == NULL ) goto finish;
+
+        status = SSL_AuthCertificateHook(
+            engine->fd, JSSL_JavaCertAuthCallback,
+            (void*) engine->certApprovalCallback);
+    } else {
+        status = SSL_AuthCertificateHook(
+                    engine->fd, JSSL_DefaultCertAuthCallback, NULL);
+    }
+    if( status != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+            "Unable to install certificate authentication callback");
+        goto finish;
+    }
+
+    /* setup the client cert selection callback */
+    if( clientCertSelectionCallback != NULL ) {
+        engine->clientCertSelectionCallback =
+            (*env)->NewGlobalRef(env, clientCertSelectionCallback);
+        if( engine->clientCertSelectionCallback == NULL ) goto finish;
+
+        status = SSL_GetClientAuthDataHook(
+            engine->fd, JSSL_CallCertSelectionCallback,
+            (void*) engine->clientCertSelectionCallback);
+        if( status != SECSuccess ) {
+            JSSL_throwSSLSocketException(env,
+                "Unable to install client certificate selection callback");
+            goto finish;
+        }
+    }
+
+    if( SSL_ResetHandshake(engine->fd, !client) != SECSuccess ) {
+        JSSL_throwSSLSocketException(env, "Unable to reset handshake");
+        goto finish;
+    }
+
+    engineArray = JSS_ptrToByteArray(env, (void*) engine);
+
+finish:
+    if( (*env)->ExceptionOccurred(env) != NULL ) {
+        if( engine != NULL ) {
+            JSSL_DestroyEngineData(env, engine);
+        }
+        if( memFD != NULL ) {
+            PR_Free(memFD);
+        }
+        engineArray = NULL;
+    }
+    return engineArray;
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_EngineProxy_releaseNativeResources
+    (JNIEnv *env, jobject this)
+{
+    JSSL_EngineData *engine;
+
+    if( JSS_getPtrFromProxy(env, this, (void**)&engine) == PR_SUCCESS ) {
+        JSSL_DestroyEngineData(env, engine);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_setServerCertNative(JNIEnv *env,
+    jobject self, jobject certObj)
+{
+    JSSL_EngineData *engine;
+    CERTCertificate *cert = NULL;
+    PK11SlotInfo *slot = NULL;
+    SECKEYPrivateKey *privKey = NULL;
+    SECStatus status;
+
+    if( certObj == NULL ) {
+        JSS_throw(env, NULL_POINTER_EXCEPTION);
+        goto finish;
+    }
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    if( JSS_PK11_getCertPtr(env, certObj, &cert) != PR_SUCCESS ) {
+        goto finish;
+    }
+    if( JSS_PK11_getCertSlotPtr(env, certObj, &slot) != PR_SUCCESS ) {
+        goto finish;
+    }
+
+    privKey = PK11_FindPrivateKeyFromCert(slot, cert, NULL);
+    if( privKey == NULL ) {
+        JSSL_throwSSLSocketException(env, "Failed to locate private key");
+        goto finish;
+    }
+    status = SSL_ConfigSecureServer(engine->fd, cert, privKey,
+                NSS_FindCertKEAType(cert));
+    if( status != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+            "Failed to configure secure server certificate and key");
+        goto finish;
+    }
+
+finish:
+    if( privKey != NULL ) {
+        SECKEY_DestroyPrivateKey(privKey);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_setClientAuthNative(JNIEnv *env,
+    jobject self, jboolean request, jboolean require)
+{
+    JSSL_EngineData *engine;
+    SECStatus status;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    status = SSL_OptionSet(engine->fd, SSL_REQUEST_CERTIFICATE, request);
+    if( status == SECSuccess ) {
+        status = SSL_OptionSet(engine->fd, SSL_REQUIRE_CERTIFICATE,
+                    require ? SSL_REQUIRE_ALWAYS : SSL_REQUIRE_NEVER);
+    }
+    if( status != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+            "Failed to set client authentication options on engine");
+        goto finish;
+    }
+
+finish:
+    return;
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_setCipherPreferenceNative(JNIEnv *env,
+    jobject self, jint cipher, jboolean enable)
+{
+    JSSL_EngineData *engine;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    if( SSL_CipherPrefSet(engine->fd, cipher, enable) != SECSuccess ) {
+        char buf[128];
+        PR_snprintf(buf, 128, "Failed to %s cipher 0x%lx\n",
+            (enable ? "enable" : "disable"), cipher);
+        JSSL_throwSSLSocketException(env, buf);
+        goto finish;
+    }
+
+finish:
+    return;
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_setVersionRangeNative(JNIEnv *env,
+    jobject self, jint min, jint max)
+{
+    JSSL_EngineData *engine;
+    SSLVersionRange vrange;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    if( min < 0 || min >= JSSL_enums_size ||
+        max < 0 || max >= JSSL_enums_size ) {
+        JSS_throwMsg(env, ILLEGAL_ARGUMENT_EXCEPTION,
+            "Invalid SSL version range");
+        goto finish;
+    }
+
+    /* translate the JSS enums into NSS version numbers */
+    vrange.min = (PRUint16) JSSL_enums[min];
+    vrange.max = (PRUint16) JSSL_enums[max];
+    if( SSL_VersionRangeSet(engine->fd, &vrange) != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+            "Failed to set SSL version range on engine");
+        goto finish;
+    }
+
+finish:
+    return;
+}
+
+/*
+ * Appends ciphertext received from the peer to the incoming buffer, up to
+ * JSSL_ENGINE_MAX_INCOMING bytes in total. Returns the number of bytes
+ * accepted.
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_feedNative(JNIEnv *env, jobject self,
+    jbyteArray bufBA, jint off, jint len)
+{
+    JSSL_EngineData *engine;
+    jbyte *buf = NULL;
+    jint accepted = 0;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    if( off < 0 || len < 0 ||
+        (off+len) > (*env)->GetArrayLength(env, bufBA) ) {
+        JSS_throw(env, INDEX_OUT_OF_BOUNDS_EXCEPTION);
+        goto finish;
+    }
+
+    /* never buffer more than one record's worth of unread ciphertext */
+    accepted = JSSL_ENGINE_MAX_INCOMING - engine->incoming.len;
+    if( accepted > len ) {
+        accepted = len;
+    }
+    if( accepted <= 0 ) {
+        accepted = 0;
+        goto finish;
+    }
+
+    buf = (*env)->GetByteArrayElements(env, bufBA, NULL);
+    if( buf == NULL ) {
+        accepted = 0;
+        goto finish;
+    }
+    if( JSSL_bufferAppend(&engine->incoming, buf+off, accepted)
+            != PR_SUCCESS ) {
+        JSS_throw(env, OUT_OF_MEMORY_ERROR);
+        accepted = 0;
+        goto finish;
+    }
+
+finish:
+    if( buf != NULL ) {
+        (*env)->ReleaseByteArrayElements(env, bufBA, buf, JNI_ABORT);
+    }
+    return accepted;
+}
+
+/*
+ * Marks the end of the incoming ciphertext stream.
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_closeInboundNative(JNIEnv *env,
+    jobject self)
+{
+    JSSL_EngineData *engine;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) return;
+    engine->inboundClosed = PR_TRUE;
+}
+
+/*
+ * Drives the handshake as far as the buffered input allows.
+ * Returns JNI_TRUE once the handshake has completed, JNI_FALSE if NSS is
+ * waiting for more data from the peer.
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_handshakeNative(JNIEnv *env,
+    jobject self)
+{
+    JSSL_EngineData *engine;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) {
+        return JNI_FALSE;
+    }
+
+    if( SSL_ForceHandshake(engine->fd) != SECSuccess ) {
+        if( PR_GetError() == PR_WOULD_BLOCK_ERROR ) {
+            return JNI_FALSE;
+        }
+        JSSL_throwSSLSocketException(env, "SSL handshake failed");
+        return JNI_FALSE;
+    }
+    return engine->handshakeComplete ? JNI_TRUE : JNI_FALSE;
+}
+
+/*
+ * Decrypts application data from the buffered input.
+ * Returns the number of bytes read, 0 if more input is needed, or -1 if
+ * the peer has closed the connection.
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_readNative(JNIEnv *env, jobject self,
+    jbyteArray bufBA, jint off, jint len)
+{
+    JSSL_EngineData *engine;
+    jbyte *buf = NULL;
+    jint nread = 0;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    if( off < 0 || len < 0 ||
+        (off+len) > (*env)->GetArrayLength(env, bufBA) ) {
+        JSS_throw(env, INDEX_OUT_OF_BOUNDS_EXCEPTION);
+        goto finish;
+    }
+
+    buf = (*env)->GetByteArrayElements(env, bufBA, NULL);
+    if( buf == NULL ) goto finish;
+
+    nread = PR_Recv(engine->fd, buf+off, len, 0 /*flags*/,
+                PR_INTERVAL_NO_WAIT);
+    if( nread < 0 ) {
+        if( PR_GetError() == PR_WOULD_BLOCK_ERROR ) {
+            nread = 0;
+        } else {
+            JSSL_throwSSLSocketException(env, "Error reading from engine");
+        }
+    } else if( nread == 0 ) {
+        /* close_notify received or end of input */
+        nread = -1;
+    }
+
+finish:
+    if( buf != NULL ) {
+        (*env)->ReleaseByteArrayElements(env, bufBA, buf,
+            (nread>0) ? 0 /*copy and free*/ : JNI_ABORT /*free, no copy*/);
+    }
+    return nread;
+}
+
+/*
+ * Encrypts application data into the outgoing buffer.
+ * Returns the number of bytes consumed.
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_writeNative(JNIEnv *env, jobject self,
+    jbyteArray bufBA, jint off, jint len)
+{
+    JSSL_EngineData *engine;
+    jbyte *buf = NULL;
+    jint numwrit = 0;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    if( off < 0 || len < 0 ||
+        (off+len) > (*env)->GetArrayLength(env, bufBA) ) {
+        JSS_throw(env, INDEX_OUT_OF_BOUNDS_EXCEPTION);
+        goto finish;
+    }
+
+    buf = (*env)->GetByteArrayElements(env, bufBA, NULL);
+    if( buf == NULL ) goto finish;
+
+    numwrit = PR_Send(engine->fd, buf+off, len, 0 /*flags*/,
+                PR_INTERVAL_NO_WAIT);
+    if( numwrit < 0 ) {
+        if( PR_GetError() == PR_WOULD_BLOCK_ERROR ) {
+            numwrit = 0;
+        } else {
+            JSSL_throwSSLSocketException(env, "Error writing to engine");
+        }
+    }
+
+finish:
+    if( buf != NULL ) {
+        (*env)->ReleaseByteArrayElements(env, bufBA, buf, JNI_ABORT);
+    }
+    return numwrit;
+}
+
+/*
+ * Copies up to len bytes of pending ciphertext out of the outgoing buffer.
+ * Returns the number of bytes copied.
+ */
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_drainNative(JNIEnv *env, jobject self,
+    jbyteArray bufBA, jint off, jint len)
+{
+    JSSL_EngineData *engine;
+    jbyte *buf;
+    jint ncopied = 0;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    if( off < 0 || len < 0 ||
+        (off+len) > (*env)->GetArrayLength(env, bufBA) ) {
+        JSS_throw(env, INDEX_OUT_OF_BOUNDS_EXCEPTION);
+        goto finish;
+    }
+
+    buf = (*env)->GetPrimitiveArrayCritical(env, bufBA, NULL);
+    if( buf == NULL ) goto finish;
+    ncopied = JSSL_bufferTake(&engine->outgoing, buf+off, len);
+    (*env)->ReleasePrimitiveArrayCritical(env, bufBA, buf, 0);
+
+finish:
+    return ncopied;
+}
+
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_pendingOutputNative(JNIEnv *env,
+    jobject self)
+{
+    JSSL_EngineData *engine;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) return 0;
+    return engine->outgoing.len;
+}
+
+JNIEXPORT jint JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_pendingInputNative(JNIEnv *env,
+    jobject self)
+{
+    JSSL_EngineData *engine;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) return 0;
+    return engine->incoming.len + SSL_DataPending(engine->fd);
+}
+
+/*
+ * Queues a close_notify alert in the outgoing buffer.
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_shutdownNative(JNIEnv *env, jobject self)
+{
+    JSSL_EngineData *engine;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) return;
+
+    if( PR_Shutdown(engine->fd, PR_SHUTDOWN_SEND) != PR_SUCCESS ) {
+        JSSL_throwSSLSocketException(env, "Failed to shut down engine");
+    }
+}
+
+/*
+ * Returns { protocol version, cipher suite, session resumed (0/1) }.
+ */
+JNIEXPORT jintArray JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_getChannelInfoNative(JNIEnv *env,
+    jobject self)
+{
+    JSSL_EngineData *engine;
+    SSLChannelInfo info;
+    jint values[3];
+    jintArray result = NULL;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    if( SSL_GetChannelInfo(engine->fd, &info, sizeof(info)) != SECSuccess ) {
+        JSSL_throwSSLSocketException(env, "Failed to get channel info");
+        goto finish;
+    }
+    values[0] = info.protocolVersion;
+    values[1] = info.cipherSuite;
+    values[2] = info.resumed ? 1 : 0;
+
+    result = (*env)->NewIntArray(env, 3);
+    if( result == NULL ) goto finish;
+    (*env)->SetIntArrayRegion(env, result, 0, 3, values);
+
+finish:
+    return result;
+}
+
+JNIEXPORT jobject JNICALL
+Java_org_mozilla_jss_ssl_JSSEngine_getPeerCertificateNative(JNIEnv *env,
+    jobject self)
+{
+    JSSL_EngineData *engine;
+    CERTCertificate *peerCert;
+    jobject certObj = NULL;
+
+    if( JSSL_getEngineData(env, self, &engine) != PR_SUCCESS ) goto finish;
+
+    peerCert = SSL_PeerCertificate(engine->fd);
+    if( peerCert != NULL ) {
+        /* this call will wipe out peerCert */
+        certObj = JSS_PK11_wrapCert(env, &peerCert);
+    }
+
+finish:
+    return certObj;
+}
@@ -0,0 +1,817 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSession;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.NotInitializedException;
+import org.mozilla.jss.crypto.ObjectNotFoundException;
+import org.mozilla.jss.crypto.TokenException;
+import org.mozilla.jss.crypto.X509Certificate;
+
+/**
+ * A non-blocking SSL/TLS engine backed by NSS.
+ *
+ * <p>Unlike SSLSocket, JSSEngine is not bound to a network socket. NSS
+ * reads and writes TLS records through in-memory buffers: ciphertext
+ * received from the peer is passed to <code>unwrap</code>, and ciphertext
+ * to send to the peer is produced by <code>wrap</code>. This allows JSS
+ * TLS to be driven from NIO selectors or other event loops, without a
+ * thread per connection.
+ *
+ * <p>All cryptographic work is done inline during wrap and unwrap, so
+ * {@link #getDelegatedTask()} always returns null. Renegotiation is not
+ * supported.
+ *
+ * <p>Configuration methods such as {@link #setUseClientMode},
+ * {@link #setServerCert} and {@link #setEnabledCipherSuites} must be
+ * called before the handshake begins.
+ */
+public class JSSEngine extends SSLEngine {
+
+    /**
+     * The largest amount of application data carried by one TLS record.
+     */
+    static final int MAX_PLAINTEXT_LENGTH = 16384;
+
+    /**
+     * The largest TLS record, including the record header and the
+     * expansion allowed for compression, padding and MAC. This is also
+     * the most unread ciphertext the engine buffers; it must match
+     * JSSL_ENGINE_MAX_INCOMING in JSSEngine.c.
+     */
+    static final int MAX_RECORD_LENGTH = MAX_PLAINTEXT_LENGTH + 2048 + 5;
+
+    private static final String[] PROTOCOL_NAMES =
+        { "SSLv3", "TLSv1", "TLSv1.1", "TLSv1.2" };
+    private static final int[] PROTOCOL_ENUMS = {
+        SocketBase.SSL_LIBRARY_VERSION_3_0,
+        SocketBase.SSL_LIBRARY_VERSION_TLS_1_0,
+        SocketBase.SSL_LIBRARY_VERSION_TLS_1_1,
+        SocketBase.SSL_LIBRARY_VERSION_TLS_1_2
+    };
+
+    // Used by native code; must be named "engineProxy".
+    private EngineProxy engineProxy;
+
+    private boolean clientMode = true;
+    private boolean wantClientAuth = false;
+    private boolean needClientAuth = false;
+    private boolean enableSessionCreation = true;
+    private String[] enabledCipherSuites;
+    private String[] enabledProtocols;
+    private X509Certificate serverCert;
+    private SSLCertificateApprovalCallback certApprovalCallback;
+    private SSLClientCertificateSelectionCallback clientCertSelectionCallback;
+
+    private boolean handshakeComplete = false;
+    private boolean finishedPending = false;
+    private boolean inboundDone = false;
+    private boolean outboundClosed = false;
+    private boolean closeNotifyReceived = false;
+    private SSLException failure;
+    private JSSEngineSession session;
+
+    // scratch space for direct buffers
+    private byte[] scratch;
+
+    /**
+     * Creates an engine with no hints for an internal session reuse
+     * strategy.
+     */
+    public JSSEngine() {
+        super();
+    }
+
+    /**
+     * Creates an engine for the given peer. On the client side, the host
+     * name is used for server name indication and to check the server's
+     * certificate.
+     */
+    public JSSEngine(String peerHost, int peerPort) {
+        super(peerHost, peerPort);
+    }
+
+    /**
+     * Creates an engine for the given peer.
+     *
+     * @param certApprovalCallback Will get called to approve the peer's
+     *      certificate. If null, the default NSS verification is used.
+     * @param clientCertSelectionCallback Will get called to select the
+     *      client certificate, if the server requests one. May be null.
+     */
+    public JSSEngine(String peerHost, int peerPort,
+            SSLCertificateApprovalCallback certApprovalCallback,
+            SSLClientCertificateSelectionCallback clientCertSelectionCallback)
+    {
+        super(peerHost, peerPort);
+        this.certApprovalCallback = certApprovalCallback;
+        this.clientCertSelectionCallback = clientCertSelectionCallback;
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Configuration
+    ////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets the certificate to use for server authentication.
+     */
+    public synchronized void setServerCert(X509Certificate cert) {
+        checkNotStarted();
+        serverCert = cert;
+    }
+
+    /**
+     * Sets the certificate to use for server authentication.
+     */
+    public void setServerCertNickname(String nick) throws SSLException {
+        try {
+            setServerCert(CryptoManager.getInstance().findCertByNickname(nick));
+        } catch(NotInitializedException nie) {
+            throw new SSLException("CryptoManager not initialized");
+        } catch(ObjectNotFoundException onfe) {
+            throw new SSLException("Object not found: " + onfe);
+        } catch(TokenException te) {
+            throw new SSLException("Token Exception: " + te);
+        }
+    }
+
+    /**
+     * Sets the callback used to approve the peer's certificate.
+     */
+    public synchronized void setCertApprovalCallback(
+            SSLCertificateApprovalCallback callback) {
+        checkNotStarted();
+        certApprovalCallback = callback;
+    }
+
+    /**
+     * Sets the callback used to select a client certificate.
+     */
+    public synchronized void setClientCertSelectionCallback(
+            SSLClientCertificateSelectionCallback callback) {
+        checkNotStarted();
+        clientCertSelectionCallback = callback;
+    }
+
+    public synchronized void setUseClientMode(boolean mode) {
+        checkNotStarted();
+        clientMode = mode;
+    }
+
+    public synchronized boolean getUseClientMode() {
+        return clientMode;
+    }
+
+    public synchronized void setNeedClientAuth(boolean need) {
+        checkNotStarted();
+        needClientAuth = need;
+        wantClientAuth = need;
+    }
+
+    public synchronized boolean getNeedClientAuth() {
+        return needClientAuth;
+    }
+
+    public synchronized void setWantClientAuth(boolean want) {
+        checkNotStarted();
+        wantClientAuth = want;
+        needClientAuth = false;
+    }
+
+    public synchronized boolean getWantClientAuth() {
+        return wantClientAuth;
+    }
+
+    public synchronized void setEnableSessionCreation(boolean flag) {
+        enableSessionCreation = flag;
+    }
+
+    public synchronized boolean getEnableSessionCreation() {
+        return enableSessionCreation;
+    }
+
+    public String[] getSupportedCipherSuites() {
+        List<String> names = new ArrayList<>();
+        for( int id : SSLSocket.getImplementedCipherSuites() ) {
+            SSLCipher cipher = SSLCipher.valueOf(id);
+            if( cipher != null ) {
+                names.add(cipher.name());
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    public synchronized String[] getEnabledCipherSuites() {
+        if( enabledCipherSuites != null ) {
+            return enabledCipherSuites.clone();
+        }
+        List<String> names = new ArrayList<>();
+        for( int id : SSLSocket.getImplementedCipherSuites() ) {
+            SSLCipher cipher = SSLCipher.valueOf(id);
+            try {
+                if( cipher != null &&
+                    SSLSocket.getCipherPreferenceDefault(id) ) {
+                    names.add(cipher.name());
+                }
+            } catch(SocketException e) {
+                // not enabled
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    public synchronized void setEnabledCipherSuites(String[] suites) {
+        checkNotStarted();
+        for( String suite : suites ) {
+            // throws IllegalArgumentException for unknown names
+            SSLCipher.valueOf(suite);
+        }
+        enabledCipherSuites = suites.clone();
+    }
+
+    public String[] getSupportedProtocols() {
+        return PROTOCOL_NAMES.clone();
+    }
+
+    public synchronized String[] getEnabledProtocols() {
+        if( enabledProtocols != null ) {
+            return enabledProtocols.clone();
+        }
+        return new String[] { "TLSv1", "TLSv1.1", "TLSv1.2" };
+    }
+
+    public synchronized void setEnabledProtocols(String[] protocols) {
+        checkNotStarted();
+        for( String protocol : protocols ) {
+            protocolEnum(protocol);
+        }
+        enabledProtocols = protocols.clone();
+    }
+
+    private static int protocolEnum(String protocol) {
+        for( int i = 0; i < PROTOCOL_NAMES.length; i++ ) {
+            if( PROTOCOL_NAMES[i].equals(protocol) ) {
+                return PROTOCOL_ENUMS[i];
+            }
+        }
+        throw new IllegalArgumentException("Unsupported protocol: " +
+            protocol);
+    }
+
+    private void checkNotStarted() {
+        if( engineProxy != null ) {
+            throw new IllegalStateException(
+                "Cannot change engine configuration after the handshake " +
+                "has started");
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Handshake
+    ////////////////////////////////////////////////////////////////////
+
+    public synchronized void beginHandshake() throws SSLException {
+        if( handshakeComplete ) {
+            throw new SSLException("Renegotiation is not supported");
+        }
+        ensureStarted();
+    }
+
+    /**
+     * Creates the native engine and applies the configuration. On the
+     * client side this queues the ClientHello.
+     */
+    private void ensureStarted() throws SSLException {
+        if( engineProxy != null ) {
+            return;
+        }
+        if( outboundClosed || inboundDone ) {
+            throw new SSLException("Engine has been closed");
+        }
+        if( ! enableSessionCreation ) {
+            throw new SSLException("Session creation is not enabled");
+        }
+        if( ! clientMode && serverCert == null ) {
+            throw new SSLException("No server certificate set");
+        }
+        boolean configured = false;
+        try {
+            // the natives below find the engine through engineProxy
+            engineProxy = new EngineProxy(engineCreate(clientMode,
+                getPeerHost(), getPeerPort(), certApprovalCallback,
+                clientCertSelectionCallback));
+
+            if( ! clientMode ) {
+                setServerCertNative(serverCert);
+                setClientAuthNative(wantClientAuth, needClientAuth);
+            }
+            if( enabledCipherSuites != null ) {
+                List<String> enabled = Arrays.asList(enabledCipherSuites);
+                for( int id : SSLSocket.getImplementedCipherSuites() ) {
+                    SSLCipher cipher = SSLCipher.valueOf(id);
+                    setCipherPreferenceNative(id,
+                        cipher != null && enabled.contains(cipher.name()));
+                }
+            }
+            if( enabledProtocols != null && enabledProtocols.length > 0 ) {
+                int min = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                for( String protocol : enabledProtocols ) {
+                    int e = protocolEnum(protocol);
+                    min = Math.min(min, e);
+                    max = Math.max(max, e);
+                }
+                setVersionRangeNative(min, max);
+            }
+            configured = true;
+        } catch(SocketException e) {
+            throw new SSLException(e.getMessage(), e);
+        } finally {
+            if( ! configured && engineProxy != null ) {
+                engineProxy.close();
+                engineProxy = null;
+            }
+        }
+        stepHandshake();
+    }
+
+    /**
+     * Drives the handshake with the input buffered so far.
+     */
+    private void stepHandshake() throws SSLException {
+        if( handshakeComplete || failure != null ) {
+            return;
+        }
+        try {
+            if( handshakeNative() ) {
+                handshakeComplete = true;
+                finishedPending = true;
+                session = null;
+            }
+        } catch(SocketException e) {
+            SSLHandshakeException she =
+                new SSLHandshakeException(e.getMessage());
+            she.initCause(e);
+            failure = she;
+            // the alert, if any, can still be flushed by wrap()
+            inboundDone = true;
+            outboundClosed = true;
+            throw she;
+        }
+    }
+
+    public synchronized HandshakeStatus getHandshakeStatus() {
+        return handshakeStatus();
+    }
+
+    private HandshakeStatus handshakeStatus() {
+        if( engineProxy == null ) {
+            return HandshakeStatus.NOT_HANDSHAKING;
+        }
+        if( pendingOutput() > 0 ) {
+            return HandshakeStatus.NEED_WRAP;
+        }
+        if( handshakeComplete || failure != null || inboundDone ) {
+            return HandshakeStatus.NOT_HANDSHAKING;
+        }
+        return HandshakeStatus.NEED_UNWRAP;
+    }
+
+    /**
+     * Returns FINISHED once, after the handshake has completed and its
+     * last message has been handed to the caller.
+     */
+    private HandshakeStatus resultHandshakeStatus() {
+        HandshakeStatus hs = handshakeStatus();
+        if( finishedPending && hs == HandshakeStatus.NOT_HANDSHAKING ) {
+            finishedPending = false;
+            return HandshakeStatus.FINISHED;
+        }
+        return hs;
+    }
+
+    public Runnable getDelegatedTask() {
+        return null;
+    }
+
+    public synchronized SSLSession getSession() {
+        if( session == null ) {
+            session = new JSSEngineSession(this);
+        }
+        return session;
+    }
+
+    /**
+     * Returns the negotiated protocol version, cipher suite and whether
+     * the session was resumed, or null if the handshake has not completed.
+     */
+    synchronized int[] getChannelInfo() {
+        if( ! handshakeComplete || engineProxy == null ||
+            engineProxy.isReleased() ) {
+            return null;
+        }
+        try {
+            return getChannelInfoNative();
+        } catch(SocketException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the peer's certificate, or null if it did not present one.
+     */
+    synchronized X509Certificate getPeerCertificate() {
+        if( ! handshakeComplete || engineProxy == null ||
+            engineProxy.isReleased() ) {
+            return null;
+        }
+        return getPeerCertificateNative();
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // wrap / unwrap
+    ////////////////////////////////////////////////////////////////////
+
+    public synchronized SSLEngineResult wrap(ByteBuffer[] srcs, int offset,
+            int length, ByteBuffer dst) throws SSLException {
+        if( offset < 0 || length < 0 || offset > srcs.length - length ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if( dst.isReadOnly() ) {
+            throw new ReadOnlyBufferException();
+        }
+        if( engineProxy == null && ! outboundClosed ) {
+            ensureStarted();
+        }
+        if( engineProxy == null ) {
+            return new SSLEngineResult(Status.CLOSED,
+                HandshakeStatus.NOT_HANDSHAKING, 0, 0);
+        }
+
+        int consumed = 0;
+        if( pendingOutput() == 0 && handshakeComplete &&
+            ! outboundClosed && hasRemaining(srcs, offset, length) )
+        {
+            if( dst.remaining() < MAX_RECORD_LENGTH ) {
+                return new SSLEngineResult(Status.BUFFER_OVERFLOW,
+                    handshakeStatus(), 0, 0);
+            }
+            consumed = encrypt(srcs, offset, length);
+        }
+
+        int pending = pendingOutput();
+        if( pending > 0 && ! dst.hasRemaining() ) {
+            return new SSLEngineResult(Status.BUFFER_OVERFLOW,
+                handshakeStatus(), consumed, 0);
+        }
+        int produced = drain(dst);
+
+        Status status = Status.OK;
+        if( outboundClosed && pendingOutput() == 0 ) {
+            status = Status.CLOSED;
+        }
+        return new SSLEngineResult(status, resultHandshakeStatus(),
+            consumed, produced);
+    }
+
+    public synchronized SSLEngineResult unwrap(ByteBuffer src,
+            ByteBuffer[] dsts, int offset, int length) throws SSLException {
+        if( offset < 0 || length < 0 || offset > dsts.length - length ) {
+            throw new IndexOutOfBoundsException();
+        }
+        for( int i = offset; i < offset + length; i++ ) {
+            if( dsts[i].isReadOnly() ) {
+                throw new ReadOnlyBufferException();
+            }
+        }
+        if( inboundDone ) {
+            return new SSLEngineResult(Status.CLOSED, handshakeStatus(), 0, 0);
+        }
+        ensureStarted();
+
+        if( handshakeComplete && pendingInputNative() > 0 &&
+            ! hasRemaining(dsts, offset, length) ) {
+            // no room for what is already buffered; take nothing more
+            return new SSLEngineResult(Status.BUFFER_OVERFLOW,
+                handshakeStatus(), 0, 0);
+        }
+
+        int consumed = feed(src);
+
+        if( ! handshakeComplete ) {
+            stepHandshake();
+            while( ! handshakeComplete && src.hasRemaining() ) {
+                int n = feed(src);
+                if( n == 0 ) {
+                    break;
+                }
+                consumed += n;
+                stepHandshake();
+            }
+            if( ! handshakeComplete ) {
+                Status status = (consumed == 0) ?
+                    Status.BUFFER_UNDERFLOW : Status.OK;
+                return new SSLEngineResult(status, handshakeStatus(),
+                    consumed, 0);
+            }
+        }
+
+        int produced = decrypt(dsts, offset, length);
+
+        Status status = Status.OK;
+        if( closeNotifyReceived ) {
+            status = Status.CLOSED;
+        } else if( produced == 0 ) {
+            if( pendingInputNative() > 0 &&
+                ! hasRemaining(dsts, offset, length) ) {
+                status = Status.BUFFER_OVERFLOW;
+            } else if( consumed == 0 ) {
+                status = Status.BUFFER_UNDERFLOW;
+            }
+        }
+        return new SSLEngineResult(status, resultHandshakeStatus(),
+            consumed, produced);
+    }
+
+    /**
+     * Hands bytes of src to NSS, as many as fit in the incoming buffer.
+     * At most one record's worth of unread ciphertext is buffered.
+     */
+    private int feed(ByteBuffer src) {
+        int len = Math.min(src.remaining(), MAX_RECORD_LENGTH);
+        if( len == 0 ) {
+            return 0;
+        }
+        int n;
+        if( src.hasArray() ) {
+            n = feedNative(src.array(), src.arrayOffset() + src.position(),
+                len);
+        } else {
+            byte[] b = scratch(len);
+            src.duplicate().get(b, 0, len);
+            n = feedNative(b, 0, len);
+        }
+        src.position(src.position() + n);
+        return n;
+    }
+
+    /**
+     * Encrypts at most one record's worth of application data.
+     */
+    private int encrypt(ByteBuffer[] srcs, int offset, int length)
+        throws SSLException
+    {
+        byte[] b;
+        int off;
+        int len;
+
+        ByteBuffer first = firstWithRemaining(srcs, offset, length);
+        if( first.hasArray() && first.remaining() >= MAX_PLAINTEXT_LENGTH ) {
+            // common bulk case: no need to gather
+            b = first.array();
+            off = first.arrayOffset() + first.position();
+            len = MAX_PLAINTEXT_LENGTH;
+        } else {
+            b = scratch(MAX_PLAINTEXT_LENGTH);
+            off = 0;
+            len = 0;
+            for( int i = offset; i < offset + length &&
+                    len < MAX_PLAINTEXT_LENGTH; i++ ) {
+                ByteBuffer src = srcs[i].duplicate();
+                int n = Math.min(src.remaining(), MAX_PLAINTEXT_LENGTH - len);
+                src.get(b, len, n);
+                len += n;
+            }
+        }
+
+        int consumed;
+        try {
+            consumed = writeNative(b, off, len);
+        } catch(SocketException e) {
+            throw new SSLException(e.getMessage(), e);
+        }
+
+        int remaining = consumed;
+        for( int i = offset; i < offset + length && remaining > 0; i++ ) {
+            int n = Math.min(srcs[i].remaining(), remaining);
+            srcs[i].position(srcs[i].position() + n);
+            remaining -= n;
+        }
+        return consumed;
+    }
+
+    /**
+     * Decrypts buffered records into dsts until they are full or no
+     * complete record is left.
+     */
+    private int decrypt(ByteBuffer[] dsts, int offset, int length)
+        throws SSLException
+    {
+        int produced = 0;
+        for( int i = offset; i < offset + length; i++ ) {
+            ByteBuffer dst = dsts[i];
+            while( dst.hasRemaining() ) {
+                int n;
+                try {
+                    if( dst.hasArray() ) {
+                        n = readNative(dst.array(),
+                            dst.arrayOffset() + dst.position(),
+                            dst.remaining());
+                        if( n > 0 ) {
+                            dst.position(dst.position() + n);
+                        }
+                    } else {
+                        byte[] b = scratch(Math.min(dst.remaining(),
+                            MAX_PLAINTEXT_LENGTH));
+                        n = readNative(b, 0,
+                            Math.min(dst.remaining(), b.length));
+                        if( n > 0 ) {
+                            dst.put(b, 0, n);
+                        }
+                    }
+                } catch(SocketException e) {
+                    inboundDone = true;
+                    throw new SSLException(e.getMessage(), e);
+                }
+                if( n == -1 ) {
+                    // close_notify: answer with our own
+                    closeNotifyReceived = true;
+                    inboundDone = true;
+                    closeOutbound();
+                    return produced;
+                }
+                if( n == 0 ) {
+                    return produced;
+                }
+                produced += n;
+            }
+        }
+        return produced;
+    }
+
+    /**
+     * Copies pending ciphertext into dst.
+     */
+    private int drain(ByteBuffer dst) {
+        int len = Math.min(dst.remaining(), pendingOutput());
+        if( len == 0 ) {
+            return 0;
+        }
+        int n;
+        if( dst.hasArray() ) {
+            n = drainNative(dst.array(), dst.arrayOffset() + dst.position(),
+                len);
+            dst.position(dst.position() + n);
+        } else {
+            byte[] b = scratch(len);
+            n = drainNative(b, 0, len);
+            dst.put(b, 0, n);
+        }
+        return n;
+    }
+
+    private int pendingOutput() {
+        if( engineProxy == null || engineProxy.isReleased() ) {
+            return 0;
+        }
+        return pendingOutputNative();
+    }
+
+    private byte[] scratch(int size) {
+        if( scratch == null || scratch.length < size ) {
+            scratch = new byte[Math.max(size, MAX_PLAINTEXT_LENGTH)];
+        }
+        return scratch;
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] bufs, int offset,
+        int length) {
+        return firstWithRemaining(bufs, offset, length) != null;
+    }
+
+    private static ByteBuffer firstWithRemaining(ByteBuffer[] bufs,
+        int offset, int length) {
+        for( int i = offset; i < offset + length; i++ ) {
+            if( bufs[i].hasRemaining() ) {
+                return bufs[i];
+            }
+        }
+        return null;
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Closure
+    ////////////////////////////////////////////////////////////////////
+
+    public synchronized void closeInbound() throws SSLException {
+        if( inboundDone ) {
+            return;
+        }
+        inboundDone = true;
+        if( engineProxy != null ) {
+            closeInboundNative();
+        }
+        closeOutbound();
+        if( handshakeComplete && ! closeNotifyReceived ) {
+            throw new SSLException(
+                "Inbound closed before receiving peer's close_notify");
+        }
+    }
+
+    public synchronized boolean isInboundDone() {
+        return inboundDone;
+    }
+
+    public synchronized void closeOutbound() {
+        if( outboundClosed ) {
+            return;
+        }
+        outboundClosed = true;
+        if( engineProxy != null && handshakeComplete ) {
+            try {
+                shutdownNative();
+            } catch(SocketException e) {
+                // nothing more can be sent
+            }
+        }
+    }
+
+    public synchronized boolean isOutboundDone() {
+        return outboundClosed &&
+            pendingOutput() == 0;
+    }
+
+    /**
+     * Frees the native resources of this engine. The engine cannot be
+     * used afterwards.
+     */
+    public synchronized void release() {
+        inboundDone = true;
+        outboundClosed = true;
+        if( engineProxy != null ) {
+            engineProxy.close();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Native methods
+    ////////////////////////////////////////////////////////////////////
+
+    private native byte[] engineCreate(boolean client, String peerHost,
+        int peerPort, SSLCertificateApprovalCallback certApprovalCallback,
+        SSLClientCertificateSelectionCallback clientCertSelectionCallback)
+        throws SocketException;
+
+    private native void setServerCertNative(X509Certificate cert)
+        throws SocketException;
+
+    private native void setClientAuthNative(boolean request, boolean require)
+        throws SocketException;
+
+    private native void setCipherPreferenceNative(int cipher, boolean enable)
+        throws SocketException;
+
+    private native void setVersionRangeNative(int min, int max)
+        throws SocketException;
+
+    private native int feedNative(byte[] b, int off, int len);
+
+    private native void closeInboundNative();
+
+    private native boolean handshakeNative() throws SocketException;
+
+    private native int readNative(byte[] b, int off, int len)
+        throws SocketException;
+
+    private native int writeNative(byte[] b, int off, int len)
+        throws SocketException;
+
+    private native int drainNative(byte[] b, int off, int len);
+
+    private native int pendingOutputNative();
+
+    private native int pendingInputNative();
+
+    private native void shutdownNative() throws SocketException;
+
+    private native int[] getChannelInfoNative() throws SocketException;
+
+    private native X509Certificate getPeerCertificateNative();
+}
@@ -0,0 +1,188 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+import java.io.ByteArrayInputStream;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionBindingEvent;
+import javax.net.ssl.SSLSessionBindingListener;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * The SSLSession view of a {@link JSSEngine}. Only the peer's leaf
+ * certificate is available.
+ */
+class JSSEngineSession implements SSLSession {
+
+    private final JSSEngine engine;
+    private final long creationTime = System.currentTimeMillis();
+    private final Map<String, Object> values = new HashMap<>();
+    private boolean valid = true;
+
+    JSSEngineSession(JSSEngine engine) {
+        this.engine = engine;
+    }
+
+    public byte[] getId() {
+        return new byte[0];
+    }
+
+    public SSLSessionContext getSessionContext() {
+        return null;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public long getLastAccessedTime() {
+        return creationTime;
+    }
+
+    public synchronized void invalidate() {
+        valid = false;
+    }
+
+    public synchronized boolean isValid() {
+        return valid;
+    }
+
+    public synchronized void putValue(String name, Object value) {
+        Object old = values.put(name, value);
+        if( old instanceof SSLSessionBindingListener ) {
+            ((SSLSessionBindingListener) old).valueUnbound(
+                new SSLSessionBindingEvent(this, name));
+        }
+        if( value instanceof SSLSessionBindingListener ) {
+            ((SSLSessionBindingListener) value).valueBound(
+                new SSLSessionBindingEvent(this, name));
+        }
+    }
+
+    public synchronized Object getValue(String name) {
+        return values.get(name);
+    }
+
+    public synchronized void removeValue(String name) {
+        Object old = values.remove(name);
+        if( old instanceof SSLSessionBindingListener ) {
+            ((SSLSessionBindingListener) old).valueUnbound(
+                new SSLSessionBindingEvent(this, name));
+        }
+    }
+
+    public synchronized String[] getValueNames() {
+        return values.keySet().toArray(new String[values.size()]);
+    }
+
+    public Certificate[] getPeerCertificates()
+        throws SSLPeerUnverifiedException
+    {
+        org.mozilla.jss.crypto.X509Certificate cert =
+            engine.getPeerCertificate();
+        if( cert == null ) {
+            throw new SSLPeerUnverifiedException("Peer not authenticated");
+        }
+        try {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            return new Certificate[] { cf.generateCertificate(
+                new ByteArrayInputStream(cert.getEncoded())) };
+        } catch(CertificateEncodingException e) {
+            throw new SSLPeerUnverifiedException(e.toString());
+        } catch(CertificateException e) {
+            throw new SSLPeerUnverifiedException(e.toString());
+        }
+    }
+
+    public Certificate[] getLocalCertificates() {
+        return null;
+    }
+
+    /**
+     * Returns the peer's certificate as a javax.security.cert certificate,
+     * for callers that still use the older API.
+     *
+     * @deprecated Use {@link #getPeerCertificates} instead.
+     */
+    @Deprecated
+    public javax.security.cert.X509Certificate[] getPeerCertificateChain()
+        throws SSLPeerUnverifiedException
+    {
+        Certificate[] certs = getPeerCertificates();
+        javax.security.cert.X509Certificate[] chain =
+            new javax.security.cert.X509Certificate[certs.length];
+        try {
+            for( int i = 0; i < certs.length; i++ ) {
+                chain[i] = javax.security.cert.X509Certificate.getInstance(
+                    certs[i].getEncoded());
+            }
+        } catch(CertificateEncodingException e) {
+            throw new SSLPeerUnverifiedException(e.toString());
+        } catch(javax.security.cert.CertificateException e) {
+            throw new SSLPeerUnverifiedException(e.toString());
+        }
+        return chain;
+    }
+
+    public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+        Certificate[] certs = getPeerCertificates();
+        return ((java.security.cert.X509Certificate) certs[0])
+            .getSubjectX500Principal();
+    }
+
+    public Principal getLocalPrincipal() {
+        return null;
+    }
+
+    public String getCipherSuite() {
+        int[] info = engine.getChannelInfo();
+        if( info == null ) {
+            return "SSL_NULL_WITH_NULL_NULL";
+        }
+        SSLCipher cipher = SSLCipher.valueOf(info[1]);
+        return (cipher == null) ? "0x" + Integer.toHexString(info[1])
+            : cipher.name();
+    }
+
+    public String getProtocol() {
+        int[] info = engine.getChannelInfo();
+        if( info == null ) {
+            return "NONE";
+        }
+        switch( info[0] ) {
+          case 0x0300: return "SSLv3";
+          case 0x0301: return "TLSv1";
+          case 0x0302: return "TLSv1.1";
+          case 0x0303: return "TLSv1.2";
+          case 0x0304: return "TLSv1.3";
+          default: return "0x" + Integer.toHexString(info[0]);
+        }
+    }
+
+    public String getPeerHost() {
+        return engine.getPeerHost();
+    }
+
+    public int getPeerPort() {
+        return engine.getPeerPort();
+    }
+
+    public int getPacketBufferSize() {
+        return JSSEngine.MAX_RECORD_LENGTH;
+    }
+
+    public int getApplicationBufferSize() {
+        return JSSEngine.MAX_PLAINTEXT_LENGTH;
+    }
+}
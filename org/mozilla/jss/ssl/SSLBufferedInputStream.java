@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+import java.io.IOException;
+
+/**
+ * An input stream that reads whole TLS records into a Java buffer, so
+ * single-byte and small reads do not each cross into NSS. After a
+ * blocking read, any data NSS has already decrypted is prefetched
+ * without blocking.
+ */
+class SSLBufferedInputStream extends java.io.InputStream {
+
+    SSLBufferedInputStream(SSLSocket sock, int size) {
+        if( size <= 0 ) {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+        this.sock = sock;
+        this.buf = new byte[size];
+    }
+
+    public synchronized int available() throws IOException {
+        return (count - pos) + sock.socketAvailable();
+    }
+
+    public void close() throws IOException {
+        sock.close();
+    }
+
+    public synchronized int read() throws IOException {
+        if( pos == count && fill() <= 0 ) {
+            return -1;
+        }
+        return ((int) buf[pos++]) & (0xff);
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public synchronized int read(byte[] b, int off, int len)
+        throws IOException {
+        if( off < 0 || len < 0 || off > b.length - len ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if( len == 0 ) {
+            return 0;
+        }
+        if( pos == count ) {
+            if( len >= buf.length ) {
+                /* large read: no point copying through the buffer */
+                return sock.read(b, off, len);
+            }
+            if( fill() <= 0 ) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, count - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public synchronized long skip(long n) throws IOException {
+        long numSkipped = 0;
+        while( n > 0 ) {
+            if( pos == count && fill() <= 0 ) {
+                break;
+            }
+            int size = (int) Math.min(n, count - pos);
+            pos += size;
+            numSkipped += size;
+            n -= size;
+        }
+        return numSkipped;
+    }
+
+    /**
+     * Refills the empty buffer: blocks for the first record, then takes
+     * whatever NSS already has available, up to the buffer size.
+     *
+     * @return the number of bytes buffered, or -1 at end of stream.
+     */
+    private int fill() throws IOException {
+        pos = 0;
+        count = 0;
+        int nread = sock.read(buf, 0, buf.length);
+        if( nread <= 0 ) {
+            return nread;
+        }
+        count = nread;
+        while( count < buf.length ) {
+            int avail = sock.socketAvailable();
+            if( avail <= 0 ) {
+                break;
+            }
+            nread = sock.read(buf, count,
+                Math.min(avail, buf.length - count));
+            if( nread <= 0 ) {
+                break;
+            }
+            count += nread;
+        }
+        return count;
+    }
+
+    private SSLSocket sock;
+    private byte[] buf;
+    private int pos;
+    private int count;
+}
@@ -0,0 +1,79 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+import java.io.IOException;
+
+/**
+ * An output stream that coalesces small writes into TLS records.
+ * Data is sent when the buffer fills up, or when flush() or close()
+ * is called.
+ */
+class SSLBufferedOutputStream extends java.io.OutputStream {
+
+    SSLBufferedOutputStream(SSLSocket sock, int size) {
+        if( size <= 0 ) {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+        this.sock = sock;
+        this.buf = new byte[size];
+    }
+
+    public synchronized void write(int b) throws IOException {
+        if( count == buf.length ) {
+            flushBuffer();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    public void write(byte[] b) throws IOException {
+        write( b, 0, b.length);
+    }
+
+    public synchronized void write(byte[] b, int off, int len)
+        throws IOException {
+        if( off < 0 || len < 0 || off > b.length - len ) {
+            throw new IndexOutOfBoundsException();
+        }
+        if( len >= buf.length ) {
+            /* large write: send it directly, after what is buffered */
+            flushBuffer();
+            sock.write(b, off, len);
+            return;
+        }
+        if( len > buf.length - count ) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    public synchronized void flush() throws IOException {
+        flushBuffer();
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            sock.close();
+        }
+    }
+
+    /**
+     * Sends the buffered data. If the write fails the data stays
+     * buffered, so it is neither lost nor reported as sent.
+     */
+    private void flushBuffer() throws IOException {
+        if( count > 0 ) {
+            sock.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    private SSLSocket sock;
+    private byte[] buf;
+    private int count;
+}
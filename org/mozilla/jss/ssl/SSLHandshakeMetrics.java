@@ -0,0 +1,160 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+import java.util.EventObject;
+
+/**
+ * Timing and traffic figures of one completed handshake.
+ *
+ * <p>The handshake duration runs from the first handshake byte sent or
+ * received to the handshake completion callback, so time spent waiting
+ * for the application to start I/O is not included. Byte and record
+ * counts are taken at the transport, below the SSL layer. All times are
+ * in microseconds.
+ */
+public class SSLHandshakeMetrics extends EventObject {
+    private static final long serialVersionUID = 1L;
+
+    // Order of the values returned by the native code.
+    private static final int DURATION = 0;
+    private static final int BYTES_SENT = 1;
+    private static final int BYTES_RECEIVED = 2;
+    private static final int RECORDS_SENT = 3;
+    private static final int RECORDS_RECEIVED = 4;
+    private static final int RESUMED = 5;
+    private static final int PROTOCOL_VERSION = 6;
+    private static final int CIPHER_SUITE = 7;
+    private static final int CERT_VERIFY_TIME = 8;
+    private static final int CERT_APPROVAL_TIME = 9;
+    private static final int CLIENT_CERT_SELECTION_TIME = 10;
+    private static final int START_TIME = 11;
+    private static final int END_TIME = 12;
+
+    private final long[] values;
+
+    SSLHandshakeMetrics(SSLSocket socket, long[] values) {
+        super(socket);
+        this.values = values;
+    }
+
+    /**
+     * Returns the socket on which the handshake occurred.
+     */
+    public SSLSocket getSocket() {
+        return (SSLSocket) getSource();
+    }
+
+    /**
+     * Returns how long the handshake took, in microseconds.
+     */
+    public long getDurationMicros() {
+        return values[DURATION];
+    }
+
+    /**
+     * Returns when the handshake started, in microseconds since the epoch.
+     */
+    public long getStartTimeMicros() {
+        return values[START_TIME];
+    }
+
+    /**
+     * Returns when the handshake completed, in microseconds since the
+     * epoch.
+     */
+    public long getEndTimeMicros() {
+        return values[END_TIME];
+    }
+
+    /**
+     * Returns the number of bytes sent during the handshake.
+     */
+    public long getBytesSent() {
+        return values[BYTES_SENT];
+    }
+
+    /**
+     * Returns the number of bytes received during the handshake.
+     */
+    public long getBytesReceived() {
+        return values[BYTES_RECEIVED];
+    }
+
+    /**
+     * Returns the number of TLS records sent during the handshake.
+     */
+    public long getRecordsSent() {
+        return values[RECORDS_SENT];
+    }
+
+    /**
+     * Returns the number of TLS records received during the handshake.
+     */
+    public long getRecordsReceived() {
+        return values[RECORDS_RECEIVED];
+    }
+
+    /**
+     * Returns true if a previous session was resumed.
+     */
+    public boolean isResumed() {
+        return values[RESUMED] != 0;
+    }
+
+    /**
+     * Returns the negotiated protocol version, e.g. 0x0303 for TLS 1.2.
+     */
+    public int getProtocolVersion() {
+        return (int) values[PROTOCOL_VERSION];
+    }
+
+    /**
+     * Returns the negotiated cipher suite ID.
+     *
+     * @see SSLCipher#valueOf(int)
+     */
+    public int getCipherSuite() {
+        return (int) values[CIPHER_SUITE];
+    }
+
+    /**
+     * Returns the time spent verifying the peer's certificate chain, in
+     * microseconds. On a server this is the client certificate
+     * verification time.
+     */
+    public long getCertVerifyMicros() {
+        return values[CERT_VERIFY_TIME];
+    }
+
+    /**
+     * Returns the time spent in the SSLCertificateApprovalCallback, in
+     * microseconds.
+     */
+    public long getCertApprovalCallbackMicros() {
+        return values[CERT_APPROVAL_TIME];
+    }
+
+    /**
+     * Returns the time spent in the
+     * SSLClientCertificateSelectionCallback, in microseconds.
+     */
+    public long getClientCertSelectionMicros() {
+        return values[CLIENT_CERT_SELECTION_TIME];
+    }
+
+    public String toString() {
+        return "SSLHandshakeMetrics[duration=" + getDurationMicros() +
+            "us, sent=" + getBytesSent() + "B/" + getRecordsSent() +
+            " records, received=" + getBytesReceived() + "B/" +
+            getRecordsReceived() + " records, resumed=" + isResumed() +
+            ", protocol=0x" + Integer.toHexString(getProtocolVersion()) +
+            ", cipher=0x" + Integer.toHexString(getCipherSuite()) +
+            ", certVerify=" + getCertVerifyMicros() +
+            "us, certApproval=" + getCertApprovalCallbackMicros() +
+            "us, clientCertSelection=" + getClientCertSelectionMicros() +
+            "us]";
+    }
+}
@@ -0,0 +1,22 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+import java.util.EventListener;
+
+/**
+ * This interface is used when you want timing and traffic figures for
+ * each completed handshake, for example to export them to a monitoring
+ * system.
+ *
+ * <p>The listener is called on the thread that completed the handshake,
+ * before the SSLHandshakeCompletedListeners. It should return quickly.
+ *
+ * @see SSLSocket#setHandshakeMetricsListener
+ * @see SSLServerSocket#setHandshakeMetricsListener
+ */
+public interface SSLHandshakeMetricsListener extends EventListener {
+    public void handshakeMetrics(SSLHandshakeMetrics metrics);
+}
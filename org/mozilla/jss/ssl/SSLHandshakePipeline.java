@@ -0,0 +1,411 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accepts connections on an SSLServerSocket and completes their TLS
+ * handshakes on a pool of handshake threads, so the accepting thread never
+ * performs private key operations. The application receives only sockets
+ * whose handshake has finished, or the handshake failures.
+ *
+ * <pre>
+ * SSLHandshakePipeline pipeline = new SSLHandshakePipeline(serverSock, 8, 256);
+ * pipeline.start();
+ * while (running) {
+ *     SSLSocket sock;
+ *     try {
+ *         sock = pipeline.accept();   // waits for a finished handshake
+ *     } catch (IOException e) {
+ *         continue;                   // that handshake failed
+ *     }
+ *     workers.execute(new Connection(sock));
+ * }
+ * </pre>
+ *
+ * <p>The number of connections that have been accepted but not yet taken
+ * by the application is bounded. When the bound is reached, the pipeline
+ * stops accepting, and new connections wait in the listen queue.
+ *
+ * <p>A socket whose handshake fails, or does not finish within the
+ * handshake timeout, is closed, and the failure is delivered as an
+ * exceptionally completed future, in completion order with the
+ * successful ones.
+ */
+public class SSLHandshakePipeline implements Closeable {
+
+    private final SSLServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final Semaphore pending;
+
+    /**
+     * The default handshake timeout, in milliseconds.
+     */
+    public static final int DEFAULT_HANDSHAKE_TIMEOUT = 30000;
+
+    private volatile int handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+
+    // completed results not yet taken, and callers waiting for one;
+    // at most one of the two is non-empty. Guarded by this.
+    private final ArrayDeque<CompletableFuture<SSLSocket>> results =
+        new ArrayDeque<>();
+    private final ArrayDeque<CompletableFuture<SSLSocket>> waiters =
+        new ArrayDeque<>();
+
+    // sockets whose handshake is running. Guarded by this.
+    private final HashSet<SSLSocket> inFlight = new HashSet<>();
+
+    private Thread acceptThread;
+    private volatile boolean closed = false;
+    private IOException acceptFailure;
+
+    /**
+     * Creates a pipeline with its own pool of handshake threads.
+     *
+     * @param serverSocket The socket to accept connections on.
+     * @param handshakeThreads The number of handshake threads, typically
+     *      the number of cores.
+     * @param maxPending The maximum number of connections accepted but
+     *      not yet taken by the application.
+     */
+    public SSLHandshakePipeline(SSLServerSocket serverSocket,
+        int handshakeThreads, int maxPending)
+    {
+        this(serverSocket, Executors.newFixedThreadPool(handshakeThreads,
+            new HandshakeThreadFactory()), maxPending, true);
+    }
+
+    /**
+     * Creates a pipeline that runs handshakes on the given executor.
+     * The executor is not shut down when the pipeline is closed.
+     *
+     * @param serverSocket The socket to accept connections on.
+     * @param executor The executor that runs the handshakes.
+     * @param maxPending The maximum number of connections accepted but
+     *      not yet taken by the application.
+     */
+    public SSLHandshakePipeline(SSLServerSocket serverSocket,
+        ExecutorService executor, int maxPending)
+    {
+        this(serverSocket, executor, maxPending, false);
+    }
+
+    private SSLHandshakePipeline(SSLServerSocket serverSocket,
+        ExecutorService executor, int maxPending, boolean ownExecutor)
+    {
+        if( maxPending <= 0 ) {
+            throw new IllegalArgumentException("maxPending must be > 0");
+        }
+        this.serverSocket = serverSocket;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Sets how long a handshake may take, in milliseconds. A peer that
+     * has not completed its handshake in this time is disconnected.
+     * Zero means no limit. Applies to handshakes started afterwards.
+     */
+    public void setHandshakeTimeout(int millis) {
+        if( millis < 0 ) {
+            throw new IllegalArgumentException("Timeout must be >= 0");
+        }
+        handshakeTimeout = millis;
+    }
+
+    /**
+     * Returns the handshake timeout in milliseconds; zero means no limit.
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * Starts the accepting thread.
+     */
+    public synchronized void start() {
+        if( acceptThread != null ) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        acceptThread = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "SSLHandshakePipeline-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Returns a future that completes with the next socket whose handshake
+     * has finished, or exceptionally with its handshake failure. If the
+     * pipeline is closed, or accept() on the server socket fails, pending
+     * and later futures complete exceptionally with an IOException.
+     */
+    public CompletableFuture<SSLSocket> acceptAsync() {
+        synchronized (this) {
+            CompletableFuture<SSLSocket> result = results.poll();
+            if( result == null ) {
+                CompletableFuture<SSLSocket> waiter = new CompletableFuture<>();
+                if( closed || acceptFailure != null ) {
+                    waiter.completeExceptionally(closedException());
+                } else {
+                    waiters.add(waiter);
+                }
+                return waiter;
+            }
+            pending.release();
+            return result;
+        }
+    }
+
+    /**
+     * Waits for the next socket whose handshake has finished.
+     *
+     * @throws IOException If its handshake failed, or the pipeline
+     *      has been closed.
+     */
+    public SSLSocket accept() throws IOException, InterruptedException {
+        return await(acceptAsync());
+    }
+
+    /**
+     * Waits up to the given time for the next socket whose handshake has
+     * finished.
+     *
+     * @return The socket, or null if none arrived in time.
+     * @throws IOException If its handshake failed, or the pipeline
+     *      has been closed.
+     */
+    public SSLSocket accept(long timeout, TimeUnit unit)
+        throws IOException, InterruptedException
+    {
+        CompletableFuture<SSLSocket> future = acceptAsync();
+        try {
+            future.get(timeout, unit);
+        } catch (TimeoutException e) {
+            /* give up our place, unless a result raced in */
+            if( cancelWaiter(future) ) {
+                return null;
+            }
+        } catch (ExecutionException e) {
+            // reported by await()
+        }
+        return await(future);
+    }
+
+    /**
+     * Stops accepting, closes the server socket, and fails all waiting
+     * futures. Sockets that were already handshaken but not yet taken are
+     * closed, and handshakes in progress are aborted. If the pipeline
+     * created its own handshake threads, they are shut down.
+     */
+    public void close() throws IOException {
+        ArrayDeque<CompletableFuture<SSLSocket>> undelivered;
+        ArrayDeque<CompletableFuture<SSLSocket>> waiting;
+        ArrayDeque<SSLSocket> handshaking;
+        Thread acceptor;
+        synchronized (this) {
+            if( closed ) {
+                return;
+            }
+            closed = true;
+            undelivered = new ArrayDeque<>(results);
+            waiting = new ArrayDeque<>(waiters);
+            handshaking = new ArrayDeque<>(inFlight);
+            acceptor = acceptThread;
+            results.clear();
+            waiters.clear();
+            inFlight.clear();
+        }
+        try {
+            serverSocket.close();
+        } finally {
+            if( acceptor != null ) {
+                /* it may be waiting in pending.acquire() */
+                acceptor.interrupt();
+            }
+            for( CompletableFuture<SSLSocket> f : waiting ) {
+                f.completeExceptionally(closedException());
+            }
+            for( CompletableFuture<SSLSocket> f : undelivered ) {
+                if( ! f.isCompletedExceptionally() ) {
+                    closeQuietly(f.getNow(null));
+                }
+            }
+            for( SSLSocket s : handshaking ) {
+                /* makes forceHandshake() fail in the handshake thread */
+                closeQuietly(s);
+            }
+            if( ownExecutor ) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while( ! closed ) {
+            SSLSocket s;
+            try {
+                pending.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                s = (SSLSocket) serverSocket.accept();
+            } catch (IOException e) {
+                pending.release();
+                if( ! closed ) {
+                    failAll(e);
+                }
+                return;
+            }
+            final SSLSocket sock = s;
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        handshake(sock);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                closeQuietly(sock);
+                pending.release();
+            }
+        }
+    }
+
+    private void handshake(SSLSocket sock) {
+        synchronized (this) {
+            if( closed ) {
+                closeQuietly(sock);
+                pending.release();
+                return;
+            }
+            inFlight.add(sock);
+        }
+        CompletableFuture<SSLSocket> result = new CompletableFuture<>();
+        try {
+            int timeout = sock.getSoTimeout();
+            sock.setSoTimeout(handshakeTimeout);
+            sock.forceHandshake();
+            sock.setSoTimeout(timeout);
+            result.complete(sock);
+        } catch (IOException e) {
+            closeQuietly(sock);
+            result.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            closeQuietly(sock);
+            result.completeExceptionally(e);
+        }
+        synchronized (this) {
+            inFlight.remove(sock);
+        }
+        deliver(result);
+    }
+
+    private void deliver(CompletableFuture<SSLSocket> result) {
+        CompletableFuture<SSLSocket> waiter;
+        synchronized (this) {
+            if( closed ) {
+                if( ! result.isCompletedExceptionally() ) {
+                    closeQuietly(result.getNow(null));
+                }
+                pending.release();
+                return;
+            }
+            waiter = waiters.poll();
+            if( waiter == null ) {
+                results.add(result);
+                return;
+            }
+        }
+        pending.release();
+        /* complete outside the lock, dependent actions may run here */
+        try {
+            waiter.complete(result.get());
+        } catch (ExecutionException e) {
+            waiter.completeExceptionally(e.getCause());
+        } catch (InterruptedException e) {
+            // cannot happen, result is complete
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void failAll(IOException e) {
+        ArrayDeque<CompletableFuture<SSLSocket>> waiting;
+        synchronized (this) {
+            acceptFailure = e;
+            waiting = new ArrayDeque<>(waiters);
+            waiters.clear();
+        }
+        for( CompletableFuture<SSLSocket> f : waiting ) {
+            f.completeExceptionally(closedException());
+        }
+    }
+
+    private synchronized boolean cancelWaiter(
+        CompletableFuture<SSLSocket> future) {
+        return waiters.remove(future);
+    }
+
+    private synchronized IOException closedException() {
+        if( acceptFailure != null ) {
+            return new IOException("accept failed: " + acceptFailure,
+                acceptFailure);
+        }
+        return new IOException("SSLHandshakePipeline has been closed");
+    }
+
+    private static SSLSocket await(CompletableFuture<SSLSocket> future)
+        throws IOException, InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException ) {
+                throw (IOException) cause;
+            }
+            if( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void closeQuietly(SSLSocket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private static class HandshakeThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,
+                "SSLHandshakePipeline-handshake-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
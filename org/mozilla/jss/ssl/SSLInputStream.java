@@ -21,12 +21,13 @@ class SSLInputStream extends java.io.InputStream {
     }
 
     public int read() throws IOException {
-        byte[] b = new byte[1];
-        int nread = read(b, 0, 1);
-        if( nread == -1 ) {
-            return nread;
-        } else {
-            return ((int) b[0]) & (0xff);
+        synchronized (oneByte) {
+            int nread = read(oneByte, 0, 1);
+            if( nread == -1 ) {
+                return nread;
+            } else {
+                return ((int) oneByte[0]) & (0xff);
+            }
         }
     }
 
@@ -41,10 +42,11 @@ class SSLInputStream extends java.io.InputStream {
     public long skip(long n) throws IOException {
         long numSkipped = 0;
 
-        int size = (int) (n < 2048 ? n : 2048);
-        byte[] trash = new byte[size];
+        if( trash == null && n > 0 ) {
+            trash = new byte[2048];
+        }
         while( n > 0) {
-            size = (int) (n < 2048 ? n : 2048);
+            int size = (int) (n < 2048 ? n : 2048);
             int nread = read(trash, 0, size);
             if( nread <= 0 ) {
                 break;
@@ -56,4 +58,6 @@ class SSLInputStream extends java.io.InputStream {
     }
 
     private SSLSocket sock;
+    private final byte[] oneByte = new byte[1];
+    private byte[] trash;
 }
@@ -13,7 +13,10 @@ class SSLOutputStream extends java.io.OutputStream {
     }
 
     public void write(int b) throws IOException {
-        write( new byte[] {(byte)b}, 0, 1 );
+        synchronized (oneByte) {
+            oneByte[0] = (byte) b;
+            write( oneByte, 0, 1 );
+        }
     }
 
     public void write(byte[] b) throws IOException {
@@ -29,4 +32,5 @@ class SSLOutputStream extends java.io.OutputStream {
     }
 
     private SSLSocket sock;
+    private final byte[] oneByte = new byte[1];
 }
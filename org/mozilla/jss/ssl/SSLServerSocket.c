@@ -198,6 +198,117 @@ finish:
     }
 }
 
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_SSLServerSocket_shutdownServerSessionIDCache(
+    JNIEnv *env, jclass myClass)
+{
+    if( SSL_ShutdownServerSessionIDCache() != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+                       "Failed to shut down server session ID cache");
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_SSLServerSocket_configMPServerSessionIDCache(
+    JNIEnv *env, jclass myClass, jint maxEntries, jint ssl2Timeout,
+    jint ssl3Timeout, jstring nameString)
+{
+    const char* dirName = NULL;
+    SECStatus status;
+
+    if (nameString != NULL) {
+        dirName = (*env)->GetStringUTFChars(env, nameString, NULL);
+        if (dirName == NULL) goto finish;
+    }
+
+    status = SSL_ConfigMPServerSIDCache(
+                maxEntries, ssl2Timeout, ssl3Timeout, dirName);
+    if (status != SECSuccess) {
+        JSSL_throwSSLSocketException(env,
+                "Failed to configure shared server session ID cache");
+        goto finish;
+    }
+
+finish:
+    if(dirName != NULL) {
+        (*env)->ReleaseStringUTFChars(env, nameString, dirName);
+    }
+}
+
+/* Environment variable set by SSL_ConfigMPServerSIDCache */
+#ifndef SSL_ENV_VAR_NAME
+#define SSL_ENV_VAR_NAME "SSL_INHERITANCE"
+#endif
+
+JNIEXPORT jstring JNICALL
+Java_org_mozilla_jss_ssl_SSLServerSocket_getMPServerSessionIDCacheEnv(
+    JNIEnv *env, jclass myClass)
+{
+    const char *value = PR_GetEnv(SSL_ENV_VAR_NAME);
+
+    if( value == NULL ) {
+        return NULL;
+    }
+    return (*env)->NewStringUTF(env, value);
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_SSLServerSocket_inheritMPServerSessionIDCache(
+    JNIEnv *env, jclass myClass, jstring envString)
+{
+    const char* envValue = NULL;
+
+    if (envString != NULL) {
+        envValue = (*env)->GetStringUTFChars(env, envString, NULL);
+        if (envValue == NULL) goto finish;
+    }
+
+    if( SSL_InheritMPServerSIDCache(envValue) != SECSuccess ) {
+        JSSL_throwSSLSocketException(env,
+                "Failed to inherit shared server session ID cache");
+        goto finish;
+    }
+
+finish:
+    if(envValue != NULL) {
+        (*env)->ReleaseStringUTFChars(env, envString, envValue);
+    }
+}
+
+/*
+ * Returns the SSL3Statistics counters in the order expected by
+ * org.mozilla.jss.ssl.SessionCacheStats.
+ */
+JNIEXPORT jlongArray JNICALL
+Java_org_mozilla_jss_ssl_SSLServerSocket_getSessionCacheStatsNative(
+    JNIEnv *env, jclass myClass)
+{
+    SSL3Statistics *stats = SSL_GetStatistics();
+    jlong values[13];
+    jlongArray result;
+
+    values[0] = stats->sch_sid_cache_hits;
+    values[1] = stats->sch_sid_cache_misses;
+    values[2] = stats->sch_sid_cache_not_ok;
+    values[3] = stats->hsh_sid_cache_hits;
+    values[4] = stats->hsh_sid_cache_misses;
+    values[5] = stats->hsh_sid_cache_not_ok;
+    values[6] = stats->hch_sid_cache_hits;
+    values[7] = stats->hch_sid_cache_misses;
+    values[8] = stats->hch_sid_cache_not_ok;
+    values[9] = stats->sch_sid_stateless_resumes;
+    values[10] = stats->hsh_sid_stateless_resumes;
+    values[11] = stats->hch_sid_stateless_resumes;
+    values[12] = stats->hch_sid_ticket_parse_failures;
+
+    result = (*env)->NewLongArray(env, 13);
+    if( result == NULL ) {
+        return NULL;
+    }
+    (*env)->SetLongArrayRegion(env, result, 0, 13, values);
+    return result;
+}
+
 /*
  * This is here for backwards binary compatibility: I didn't want to remove
  * the symbol from the DLL. This would only get called if someone were using
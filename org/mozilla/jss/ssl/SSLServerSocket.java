@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import org.mozilla.jss.CryptoManager;
 import org.mozilla.jss.NotInitializedException;
 import org.mozilla.jss.crypto.ObjectNotFoundException;
@@ -22,18 +24,24 @@ public class SSLServerSocket extends java.net.ServerSocket {
     /*
      * Locking rules of SSLServerSocket
      *
-     * isClosed and inAccept must be accessed with the object locked.
+     * The closed and in-accept flags are bits of the atomic state word,
+     * updated with compare-and-set as in SSLSocket.
      *
      * acceptLock must be locked throughout the accept method.  It is
-     * used to serialize accept calls on the object.
+     * used to serialize accept calls on the object. It is a
+     * java.util.concurrent lock rather than a monitor, so a virtual
+     * thread waiting to acquire it does not pin its carrier. The native
+     * accept itself still occupies the carrier while it blocks.
      */
 
+    private static final int STATE_CLOSED = 0x1;
+    private static final int STATE_IN_ACCEPT = 0x2;
+
     private SocketProxy sockProxy = null;
     private boolean handshakeAsClient = false;
     private SocketBase base = new SocketBase();
-    private boolean isClosed = false;
-    private boolean inAccept = false;
-    private java.lang.Object acceptLock = new java.lang.Object();
+    private final AtomicInteger state = new AtomicInteger();
+    private final ReentrantLock acceptLock = new ReentrantLock();
 
     /**
      * The default size of the listen queue.
@@ -146,14 +154,16 @@ public class SSLServerSocket extends java.net.ServerSocket {
      * @throws SSLSocketException  JSS subclass of java.net.SocketException
      */
     public Socket accept() throws IOException {
-        synchronized (acceptLock) {
-            synchronized (this) {
-                if (isClosed) {
+        acceptLock.lock();
+        try {
+            int prev;
+            do {
+                prev = state.get();
+                if ((prev & STATE_CLOSED) != 0) {
                     throw new IOException(
                     "SSLServerSocket has been closed, and cannot be reused.");
                 }
-                inAccept = true;
-            }
+            } while (!state.compareAndSet(prev, prev | STATE_IN_ACCEPT));
             SSLSocket s = new SSLSocket();
             try {
                 /*
@@ -167,15 +177,32 @@ public class SSLServerSocket extends java.net.ServerSocket {
                     handshakeAsClient);
                 SocketProxy sp = new SocketProxy(socketPointer);
                 s.setSockProxy(sp);
-            } finally {
-                synchronized (this) {
-                    inAccept=false;
+                SSLHandshakeMetricsListener ml = handshakeMetricsListener;
+                if (ml != null) {
+                    s.setHandshakeMetricsListener(ml);
                 }
+            } finally {
+                state.addAndGet(-STATE_IN_ACCEPT);
             }
             return s;
+        } finally {
+            acceptLock.unlock();
         }
     }
 
+    /**
+     * Sets a listener that receives handshake metrics for every socket
+     * accepted from now on, or removes it if <code>null</code>.
+     *
+     * @see SSLSocket#setHandshakeMetricsListener
+     */
+    public void setHandshakeMetricsListener(
+        SSLHandshakeMetricsListener listener) {
+        handshakeMetricsListener = listener;
+    }
+
+    private volatile SSLHandshakeMetricsListener handshakeMetricsListener;
+
     /**
      * Sets the SO_TIMEOUT socket option.
      * @param timeout The timeout time in milliseconds.
@@ -216,29 +243,43 @@ public class SSLServerSocket extends java.net.ServerSocket {
         return base.getLocalPort();
     }
 
+    /**
+     * @return true if this socket has been closed.
+     */
+    public boolean isClosed() {
+        return (state.get() & STATE_CLOSED) != 0;
+    }
+
     /**
      * Closes this socket.
      */
     public void close() throws IOException {
-        synchronized (this) {
-            if( isClosed ) {
+        int prev;
+        do {
+            prev = state.get();
+            if( (prev & STATE_CLOSED) != 0 ) {
                 /* finalize calls close or user calls close more than once */
                 return;
             }
-            isClosed = true;
+        } while( ! state.compareAndSet(prev, prev | STATE_CLOSED) );
+
+        synchronized (this) {
             if( sockProxy == null ) {
                 /* nothing to do */
                 return;
             }
-            if( inAccept ) {
+            if( (prev & STATE_IN_ACCEPT) != 0 ) {
                 abortAccept();
             }
         }
         /* Lock acceptLock to ensure that accept has been aborted. */
-        synchronized (acceptLock) {
+        acceptLock.lock();
+        try {
             base.close();
             sockProxy = null;
             base.setProxy(null);
+        } finally {
+            acceptLock.unlock();
         }
     }
 
@@ -266,6 +307,74 @@ public class SSLServerSocket extends java.net.ServerSocket {
         int ssl2EntryTimeout, int ssl3EntryTimeout, String cacheFileDirectory)
         throws SocketException;
 
+    /**
+     * Replaces the server session ID cache with a new one using the given
+     * settings. All cached sessions are discarded. This must only be
+     * called while no SSLServerSocket is accepting or handshaking.
+     * The parameters are the same as for
+     * {@link #configServerSessionIDCache}.
+     */
+    public static synchronized void reconfigServerSessionIDCache(
+        int maxSidEntries, int ssl2EntryTimeout, int ssl3EntryTimeout,
+        String cacheFileDirectory) throws SocketException
+    {
+        shutdownServerSessionIDCache();
+        configServerSessionIDCache(maxSidEntries, ssl2EntryTimeout,
+            ssl3EntryTimeout, cacheFileDirectory);
+    }
+
+    /**
+     * Releases the server session ID cache. A new cache must be configured
+     * before any further server sockets are created.
+     */
+    public static native void shutdownServerSessionIDCache()
+        throws SocketException;
+
+    /**
+     * Configures a server session ID cache in shared memory, which can be
+     * inherited by child processes so that a pool of server processes
+     * shares resumption state. The parameters are the same as for
+     * {@link #configServerSessionIDCache}.
+     *
+     * <p>NSS publishes the location of the cache in the
+     * <code>SSL_INHERITANCE</code> environment variable of this process.
+     * Since a JVM cannot pass native environment changes to the
+     * processes it starts, use {@link #getMPServerSessionIDCacheEnv} and
+     * hand the value to the child, which passes it to
+     * {@link #inheritMPServerSessionIDCache}.
+     */
+    public static native void configMPServerSessionIDCache(int maxSidEntries,
+        int ssl2EntryTimeout, int ssl3EntryTimeout, String cacheFileDirectory)
+        throws SocketException;
+
+    /**
+     * Returns the value a child process needs to attach to the shared
+     * session ID cache created by {@link #configMPServerSessionIDCache},
+     * or null if there is none.
+     */
+    public static native String getMPServerSessionIDCacheEnv();
+
+    /**
+     * Attaches to a shared-memory session ID cache created by a parent
+     * process with {@link #configMPServerSessionIDCache}. This replaces
+     * configServerSessionIDCache in the child.
+     *
+     * @param envString The value returned by
+     *  {@link #getMPServerSessionIDCacheEnv} in the parent. If null, it
+     *  is read from the <code>SSL_INHERITANCE</code> environment variable.
+     */
+    public static native void inheritMPServerSessionIDCache(String envString)
+        throws SocketException;
+
+    /**
+     * Returns a snapshot of the session cache counters of this process.
+     */
+    public static SessionCacheStats getSessionCacheStats() {
+        return new SessionCacheStats(getSessionCacheStatsNative());
+    }
+
+    private static native long[] getSessionCacheStatsNative();
+
     /**
      * Sets the certificate to use for server authentication.
      */
@@ -201,27 +201,6 @@ Java_org_mozilla_jss_ssl_SSLSocket_getSSLDefaultOption(JNIEnv *env,
     }
 #endif
 
-JNIEXPORT void JNICALL
-Java_org_mozilla_jss_ssl_SSLSocket_forceHandshake(JNIEnv *env, jobject self)
-{
-    JSSL_SocketData *sock = NULL;
-    int rv;
-
-    /* get my fd */
-    if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) goto finish;
-
-    /* do the work */
-    rv = SSL_ForceHandshake(sock->fd);
-    if( rv != SECSuccess ) {
-        JSSL_throwSSLSocketException(env, "SSL_ForceHandshake failed");
-        goto finish;
-    }
-
-finish:
-    EXCEPTION_CHECK(env, sock)
-    return;
-}
-
 /*
  * linger
  *      The linger time, in seconds.
@@ -847,6 +826,207 @@ finish:
     return enabled;
 }
 
+/*
+ * Marks the current thread as the reader or writer of the socket, so that
+ * abortReadWrite can interrupt it. slot points to sock->reader or
+ * sock->writer. Throws and returns PR_FAILURE if a close is pending.
+ */
+static PRStatus
+JSSL_beginIO(JNIEnv *env, JSSL_SocketData *sock, PRThread **slot,
+    char *abortMessage)
+{
+    PR_Lock(sock->lock);
+    if ( sock->closePending ) {
+       PR_Unlock(sock->lock);
+       JSSL_throwSSLSocketException(env, abortMessage);
+       return PR_FAILURE;
+    }
+    PR_ASSERT(*slot == NULL);
+    *slot = PR_GetCurrentThread();
+    PR_Unlock(sock->lock);
+    return PR_SUCCESS;
+}
+
+static void
+JSSL_endIO(JSSL_SocketData *sock, PRThread **slot)
+{
+    PR_Lock(sock->lock);
+    PR_ASSERT(*slot == PR_GetCurrentThread());
+    *slot = NULL;
+    PR_Unlock(sock->lock);
+}
+
+/*
+ * Throws the appropriate exception after a failed PR_Recv, PR_Send or
+ * PR_Writev on the socket.
+ */
+static void
+JSSL_throwIOError(JNIEnv *env, JSSL_SocketData *sock, char *abortMessage,
+    char *failureMessage)
+{
+    PRErrorCode err = PR_GetError();
+
+    if( err == PR_PENDING_INTERRUPT_ERROR ) {
+#ifdef WINNT
+        /* Clean up after PR_interrupt called by abortReadWrite. */
+        PR_NT_CancelIo(sock->fd);
+#endif 
+        JSSL_throwSSLSocketException(env, abortMessage);
+    } else if( err == PR_IO_TIMEOUT_ERROR ) {
+#ifdef WINNT
+        /*
+         * if timeout was set, and the I/O timed out,
+         * then cancel the I/O on the socket, otherwise PR_Recv() and
+         * PR_Send() will always return PR_IO_PENDING_ERROR on subsequent
+         * calls
+         */
+        PR_NT_CancelIo(sock->fd);
+#endif
+        JSSL_throwSSLSocketException(env, "Operation timed out");
+    } else {
+        JSSL_throwSSLSocketException(env, failureMessage);
+    }
+}
+
+/*
+ * Reads up to len bytes into buf. Returns the number of bytes read,
+ * -1 on EOF, or -1 with an exception thrown on error.
+ */
+static jint
+JSSL_recv(JNIEnv *env, JSSL_SocketData *sock, void *buf, jint len,
+    jint timeout)
+{
+    PRIntervalTime ivtimeout;
+    jint nread;
+
+    ivtimeout = (timeout > 0) ? PR_MillisecondsToInterval(timeout)
+                              : PR_INTERVAL_NO_TIMEOUT;
+
+    if( JSSL_beginIO(env, sock, &sock->reader, "Read operation interrupted")
+            != PR_SUCCESS ) {
+        return -1;
+    }
+
+    nread = PR_Recv(sock->fd, buf, len, 0 /*flags*/, ivtimeout);
+
+    JSSL_endIO(sock, &sock->reader);
+
+    if( nread < 0 ) {
+        JSSL_throwIOError(env, sock, "Read operation interrupted",
+            "Error reading from socket");
+        return -1;
+    }
+
+    if( nread == 0 ) {
+        /* EOF in Java is -1 */
+        nread = -1;
+    }
+    return nread;
+}
+
+/*
+ * Writes len bytes from buf, blocking until everything has been sent.
+ * Throws an exception on error.
+ */
+static void
+JSSL_send(JNIEnv *env, JSSL_SocketData *sock, void *buf, jint len,
+    jint timeout)
+{
+    PRIntervalTime ivtimeout;
+    PRInt32 numwrit;
+
+    ivtimeout = (timeout > 0) ? PR_MillisecondsToInterval(timeout)
+                              : PR_INTERVAL_NO_TIMEOUT;
+
+    if( JSSL_beginIO(env, sock, &sock->writer, "Write operation interrupted")
+            != PR_SUCCESS ) {
+        return;
+    }
+
+    numwrit = PR_Send(sock->fd, buf, len, 0 /*flags*/, ivtimeout);
+
+    JSSL_endIO(sock, &sock->writer);
+
+    if( numwrit < 0 ) {
+        JSSL_throwIOError(env, sock, "Write operation interrupted",
+            "Failed to write to socket");
+        return;
+    }
+    /* PR_Send is supposed to block until it sends everything */
+    PR_ASSERT(numwrit == len);
+}
+
+/*
+ * Completes the handshake, waiting at most timeout milliseconds if
+ * timeout > 0. The calling thread is registered as the writer, so
+ * abortReadWrite can interrupt it.
+ */
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_SSLSocket_forceHandshakeNative(JNIEnv *env,
+    jobject self, jint timeout)
+{
+    JSSL_SocketData *sock = NULL;
+    PRIntervalTime ivtimeout;
+    SECStatus rv;
+
+    /* get my fd */
+    if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) goto finish;
+
+    ivtimeout = (timeout > 0) ? PR_MillisecondsToInterval(timeout)
+                              : PR_INTERVAL_NO_TIMEOUT;
+
+    if( JSSL_beginIO(env, sock, &sock->writer, "Handshake interrupted")
+            != PR_SUCCESS ) {
+        goto finish;
+    }
+
+    /* do the work */
+    rv = SSL_ForceHandshakeWithTimeout(sock->fd, ivtimeout);
+
+    JSSL_endIO(sock, &sock->writer);
+
+    if( rv != SECSuccess ) {
+        JSSL_throwIOError(env, sock, "Handshake interrupted",
+            "SSL_ForceHandshake failed");
+        goto finish;
+    }
+
+finish:
+    EXCEPTION_CHECK(env, sock)
+    return;
+}
+
+/*
+ * Returns the address of the region [off, off+len) of a direct ByteBuffer,
+ * or NULL with an exception thrown.
+ */
+static jbyte *
+JSSL_getDirectBufferRegion(JNIEnv *env, jobject byteBuffer, jint off,
+    jint len)
+{
+    jbyte *addr;
+    jlong capacity;
+
+    if( byteBuffer == NULL ) {
+        JSS_throw(env, NULL_POINTER_EXCEPTION);
+        return NULL;
+    }
+
+    addr = (jbyte *) (*env)->GetDirectBufferAddress(env, byteBuffer);
+    capacity = (*env)->GetDirectBufferCapacity(env, byteBuffer);
+    if( addr == NULL || capacity < 0 ) {
+        JSS_throwMsg(env, ILLEGAL_ARGUMENT_EXCEPTION,
+            "ByteBuffer is not a direct buffer");
+        return NULL;
+    }
+
+    if( off < 0 || len < 0 || ((jlong)off + len) > capacity ) {
+        JSS_throw(env, INDEX_OUT_OF_BOUNDS_EXCEPTION);
+        return NULL;
+    }
+    return addr + off;
+}
+
 JNIEXPORT jint JNICALL 
 Java_org_mozilla_jss_ssl_SSLSocket_socketRead(JNIEnv *env, jobject self, 
     jbyteArray bufBA, jint off, jint len, jint timeout)
@@ -854,8 +1034,6 @@ Java_org_mozilla_jss_ssl_SSLSocket_socketRead(JNIEnv *env, jobject self,
     JSSL_SocketData *sock = NULL;
     jbyte *buf = NULL;
     jint size;
-    PRIntervalTime ivtimeout;
-    PRThread *me;
     jint nread = -1;
     
     size = (*env)->GetArrayLength(env, bufBA);
@@ -869,68 +1047,48 @@ Java_org_mozilla_jss_ssl_SSLSocket_socketRead(JNIEnv *env, jobject self,
         goto finish;
     }
 
-    ivtimeout = (timeout > 0) ? PR_MillisecondsToInterval(timeout)
-                              : PR_INTERVAL_NO_TIMEOUT;
-
     /* get the socket */
     if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) {
         goto finish;
     }
 
-    /* set the current thread doing the read */
-    me = PR_GetCurrentThread();
-    PR_Lock(sock->lock);
-    if ( sock->closePending ) {
-       PR_Unlock(sock->lock);
-       JSSL_throwSSLSocketException(env, "Read operation interrupted");
-       goto finish;
-    }
-    PR_ASSERT(sock->reader == NULL);
-    sock->reader = me;
-    PR_Unlock(sock->lock);
-
-    nread = PR_Recv(sock->fd, buf+off, len, 0 /*flags*/, ivtimeout);
+    nread = JSSL_recv(env, sock, buf+off, len, timeout);
 
-    PR_Lock(sock->lock);
-    PR_ASSERT(sock->reader == me);
-    sock->reader = NULL; 
-    PR_Unlock(sock->lock);
+finish:
+    EXCEPTION_CHECK(env, sock)
+    if( buf != NULL ) {
+        (*env)->ReleaseByteArrayElements(env, bufBA, buf,
+            (nread>0) ? 0 /*copy and free*/ : JNI_ABORT /*free, no copy*/);
+    }
+    return nread;
+}
 
-    if( nread < 0 ) {
-        PRErrorCode err = PR_GetError();
+/*
+ * Reads directly into the native memory of a direct ByteBuffer, without
+ * pinning or copying a Java array.
+ */
+JNIEXPORT jint JNICALL 
+Java_org_mozilla_jss_ssl_SSLSocket_socketReadBuffer(JNIEnv *env,
+    jobject self, jobject byteBuffer, jint off, jint len, jint timeout)
+{
+    JSSL_SocketData *sock = NULL;
+    jbyte *buf;
+    jint nread = -1;
 
-        if( err == PR_PENDING_INTERRUPT_ERROR ) {
-#ifdef WINNT
-            /* Clean up after PR_interrupt called by abortReadWrite. */
-            PR_NT_CancelIo(sock->fd);
-#endif 
-            JSSL_throwSSLSocketException(env, "Read operation interrupted");
-        } else if( err == PR_IO_TIMEOUT_ERROR ) {
-#ifdef WINNT
-            /*
-             * if timeout was set, and the PR_Recv timed out,
-             * then cancel the I/O on the socket, otherwise PR_Recv()
-             * will always return PR_IO_PENDING_ERROR on subsequent
-             * calls
-             */
-            PR_NT_CancelIo(sock->fd);
-#endif
-            JSSL_throwSSLSocketException(env, "Operation timed out");
-        } else {
-            JSSL_throwSSLSocketException(env, "Error reading from socket");
-        }
+    buf = JSSL_getDirectBufferRegion(env, byteBuffer, off, len);
+    if( buf == NULL ) {
         goto finish;
     }
 
-    if( nread == 0 ) {
-        /* EOF in Java is -1 */
-        nread = -1;
+    /* get the socket */
+    if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) {
+        goto finish;
     }
 
+    nread = JSSL_recv(env, sock, buf, len, timeout);
+
 finish:
     EXCEPTION_CHECK(env, sock)
-    (*env)->ReleaseByteArrayElements(env, bufBA, buf,
-        (nread>0) ? 0 /*copy and free*/ : JNI_ABORT /*free, no copy*/);
     return nread;
 }
 
@@ -960,9 +1118,6 @@ Java_org_mozilla_jss_ssl_SSLSocket_socketWrite(JNIEnv *env, jobject self,
     JSSL_SocketData *sock = NULL;
     jbyte *buf = NULL;
     jint size;
-    PRIntervalTime ivtimeout;
-    PRThread *me;
-    PRInt32 numwrit;
 
     if( bufBA == NULL ) {
         JSS_throw(env, NULL_POINTER_EXCEPTION);
@@ -980,63 +1135,136 @@ Java_org_mozilla_jss_ssl_SSLSocket_socketWrite(JNIEnv *env, jobject self,
         goto finish;
     }
 
-    ivtimeout = (timeout > 0) ? PR_MillisecondsToInterval(timeout)
-                              : PR_INTERVAL_NO_TIMEOUT;
+    /* get the socket */
+    if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) {
+        goto finish;
+    }
+
+    JSSL_send(env, sock, buf+off, len, timeout);
+
+finish:
+    if( buf != NULL ) {
+        (*env)->ReleaseByteArrayElements(env, bufBA, buf, JNI_ABORT);
+    }
+    EXCEPTION_CHECK(env, sock)
+}
+
+/*
+ * Writes directly from the native memory of a direct ByteBuffer, without
+ * pinning or copying a Java array.
+ */
+JNIEXPORT void JNICALL 
+Java_org_mozilla_jss_ssl_SSLSocket_socketWriteBuffer(JNIEnv *env,
+    jobject self, jobject byteBuffer, jint off, jint len, jint timeout)
+{
+    JSSL_SocketData *sock = NULL;
+    jbyte *buf;
+
+    buf = JSSL_getDirectBufferRegion(env, byteBuffer, off, len);
+    if( buf == NULL ) {
+        goto finish;
+    }
 
     /* get the socket */
     if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) {
         goto finish;
     }
-    /* set the current thread doing the write */
-    me = PR_GetCurrentThread();
-    PR_Lock(sock->lock);
-    if ( sock->closePending ) {
-       PR_Unlock(sock->lock);
-       JSSL_throwSSLSocketException(env, "Write operation interrupted");
-       goto finish;
+
+    JSSL_send(env, sock, buf, len, timeout);
+
+finish:
+    EXCEPTION_CHECK(env, sock)
+}
+
+/*
+ * Gathering write of up to PR_MAX_IOVECTOR_SIZE direct ByteBuffers in
+ * a single PR_Writev call. offsets and lengths give the region of each
+ * buffer to send.
+ */
+JNIEXPORT void JNICALL 
+Java_org_mozilla_jss_ssl_SSLSocket_socketWriteBuffers(JNIEnv *env,
+    jobject self, jobjectArray byteBuffers, jintArray offsetsIA,
+    jintArray lengthsIA, jint count, jint timeout)
+{
+    JSSL_SocketData *sock = NULL;
+    PRIOVec iov[PR_MAX_IOVECTOR_SIZE];
+    jint offsets[PR_MAX_IOVECTOR_SIZE];
+    jint lengths[PR_MAX_IOVECTOR_SIZE];
+    PRIntervalTime ivtimeout;
+    PRInt32 numwrit;
+    PRInt64 total = 0;
+    jint i;
+
+    if( byteBuffers == NULL || offsetsIA == NULL || lengthsIA == NULL ) {
+        JSS_throw(env, NULL_POINTER_EXCEPTION);
+        goto finish;
+    }
+    if( count < 0 || count > PR_MAX_IOVECTOR_SIZE ||
+        count > (*env)->GetArrayLength(env, byteBuffers) ||
+        count > (*env)->GetArrayLength(env, offsetsIA) ||
+        count > (*env)->GetArrayLength(env, lengthsIA) )
+    {
+        JSS_throw(env, INDEX_OUT_OF_BOUNDS_EXCEPTION);
+        goto finish;
     }
-    PR_ASSERT(sock->writer == NULL);
-    sock->writer = me;
-    PR_Unlock(sock->lock);
 
-    numwrit = PR_Send(sock->fd, buf+off, len, 0 /*flags*/, ivtimeout);
+    (*env)->GetIntArrayRegion(env, offsetsIA, 0, count, offsets);
+    (*env)->GetIntArrayRegion(env, lengthsIA, 0, count, lengths);
+    if( (*env)->ExceptionOccurred(env) ) {
+        goto finish;
+    }
 
-    PR_Lock(sock->lock);
-    PR_ASSERT(sock->writer == me);
-    sock->writer = NULL;
-    PR_Unlock(sock->lock);
+    for( i = 0; i < count; i++ ) {
+        jobject byteBuffer;
+        jbyte *buf;
 
-    if( numwrit < 0 ) {
-        PRErrorCode err = PR_GetError();
-        if( err == PR_PENDING_INTERRUPT_ERROR ) {
-#ifdef WINNT
-            /* clean up after PR_Interrupt called by abortReadWrite. */
-            PR_NT_CancelIo(sock->fd);
-#endif 
-            JSSL_throwSSLSocketException(env, "Write operation interrupted");
-        } else if( err == PR_IO_TIMEOUT_ERROR ) {
-#ifdef WINNT
-            /*
-             * if timeout was set, and the PR_Send() timed out,
-             * then cancel the I/O on the socket, otherwise PR_Send()
-             * will always return PR_IO_PENDING_ERROR on subsequent
-             * calls
-             */
-            PR_NT_CancelIo(sock->fd);
-#endif 
-            JSSL_throwSSLSocketException(env, "Operation timed out");
-        } else {
-            JSSL_throwSSLSocketException(env, "Failed to write to socket");
+        byteBuffer = (*env)->GetObjectArrayElement(env, byteBuffers, i);
+        buf = JSSL_getDirectBufferRegion(env, byteBuffer, offsets[i],
+                lengths[i]);
+        if( byteBuffer != NULL ) {
+            (*env)->DeleteLocalRef(env, byteBuffer);
+        }
+        if( buf == NULL ) {
+            goto finish;
         }
+        iov[i].iov_base = (char *) buf;
+        iov[i].iov_len = lengths[i];
+        total += lengths[i];
+    }
+
+    /* PR_Writev returns the number of bytes written as a PRInt32 */
+    if( total > PR_INT32_MAX ) {
+        JSS_throwMsg(env, ILLEGAL_ARGUMENT_EXCEPTION,
+            "Gathering write larger than 2GB");
         goto finish;
     }
-    /* PR_Send is supposed to block until it sends everything */
-    PR_ASSERT(numwrit == len);
 
-finish:
-    if( buf != NULL ) {
-        (*env)->ReleaseByteArrayElements(env, bufBA, buf, JNI_ABORT);
+    /* get the socket */
+    if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) {
+        goto finish;
+    }
+
+    ivtimeout = (timeout > 0) ? PR_MillisecondsToInterval(timeout)
+                              : PR_INTERVAL_NO_TIMEOUT;
+
+    if( JSSL_beginIO(env, sock, &sock->writer, "Write operation interrupted")
+            != PR_SUCCESS ) {
+        goto finish;
     }
+
+    numwrit = PR_Writev(sock->fd, iov, count, ivtimeout);
+
+    JSSL_endIO(sock, &sock->writer);
+
+    if( numwrit < 0 ) {
+        JSSL_throwIOError(env, sock, "Write operation interrupted",
+            "Failed to write to socket");
+        goto finish;
+    }
+    /* PR_Writev is supposed to block until it sends everything */
+    PR_ASSERT((PRInt64) numwrit == total);
+
+finish:
     EXCEPTION_CHECK(env, sock)
 }
 
@@ -1141,6 +1369,7 @@ Java_org_mozilla_jss_ssl_SSLSocket_resetHandshakeNative(
         JSSL_throwSSLSocketException(env, "Failed to redo handshake");
         goto finish;
     }
+    JSSL_handshakeMetricsReset(sock->metrics);
 
 finish:
     EXCEPTION_CHECK(env, sock)
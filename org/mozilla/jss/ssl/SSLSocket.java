@@ -11,8 +11,11 @@ import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * SSL client socket.
@@ -319,21 +322,31 @@ public class SSLSocket extends java.net.Socket {
     /*
      * Locking strategy of SSLSocket
      *
-     * isClosed, inRead, and inWrite must be accessed with the object
-     * locked.
+     * The closed, in-read and in-write flags are bits of the atomic
+     * state word. They are updated with compare-and-set, so a reader
+     * and a writer never contend on the object monitor. close() sets
+     * STATE_CLOSED; whichever of close() and beginRead/beginWrite wins
+     * the race decides whether the I/O is refused or aborted.
      *
      * readLock must be locked throughout the read method.  It is used
      * to serialize read calls.
      *
      * writeLock must be locked throughout the write method. It is used
      * to serialize write calls.
+     *
+     * readLock and writeLock are java.util.concurrent locks rather than
+     * monitors, so a virtual thread waiting to acquire one does not pin
+     * its carrier. The native read and write themselves still occupy
+     * the carrier for as long as they block.
      */
 
-    private java.lang.Object readLock = new java.lang.Object();
-    private java.lang.Object writeLock = new java.lang.Object();
-    private boolean isClosed = false;
-    private boolean inRead = false;
-    private boolean inWrite = false;
+    private static final int STATE_CLOSED = 0x1;
+    private static final int STATE_IN_READ = 0x2;
+    private static final int STATE_IN_WRITE = 0x4;
+
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicInteger state = new AtomicInteger();
     private InetAddress inetAddress;
     private int port;
     private SocketProxy sockProxy = null;
@@ -582,36 +595,30 @@ public class SSLSocket extends java.net.Socket {
      * @return The remote peer's IP address or null if the SSLSocket is closed.
      */
     public InetAddress getInetAddress() {
-        synchronized (this) {
-            if( isClosed ) {
-                return null;
-            }
-            else return base.getInetAddress();
+        if( isClosed() ) {
+            return null;
         }
+        return base.getInetAddress();
     }
 
     /**
      * @return The local IP address or null if the SSLSocket is closed.
      */
     public InetAddress getLocalAddress() {
-        synchronized (this) {
-            if( isClosed ) {
-                return null;
-            }
-            else return base.getLocalAddress();
+        if( isClosed() ) {
+            return null;
         }
+        return base.getLocalAddress();
     }
 
     /**
      * @return The local port or -1 if the SSLSocket is closed.
      */
     public int getLocalPort() {
-        synchronized (this) {
-            if( isClosed ) {
-                return -1;
-            }
-            else  return base.getLocalPort();
+        if( isClosed() ) {
+            return -1;
         }
+        return base.getLocalPort();
     }
 
     /**
@@ -633,6 +640,50 @@ public class SSLSocket extends java.net.Socket {
         return new SSLOutputStream(this);
     }
 
+    /**
+     * Size of the buffers used by the buffered streams: the maximum
+     * amount of application data in one TLS record.
+     */
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 16384;
+
+    /**
+     * Returns a buffered input stream for reading from this socket.
+     * Decrypted records are read into a Java buffer, so single-byte and
+     * small reads are served without a native call. Data that NSS has
+     * already received is prefetched without blocking.
+     */
+    public InputStream getBufferedInputStream() throws IOException {
+        return getBufferedInputStream(DEFAULT_STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a buffered input stream for reading from this socket.
+     *
+     * @param size The size of the buffer, in bytes.
+     */
+    public InputStream getBufferedInputStream(int size) throws IOException {
+        return new SSLBufferedInputStream(this, size);
+    }
+
+    /**
+     * Returns a buffered output stream for writing to this socket.
+     * Small writes are coalesced, up to one TLS record, and are only
+     * sent when the buffer fills or when <code>flush()</code> or
+     * <code>close()</code> is called.
+     */
+    public OutputStream getBufferedOutputStream() throws IOException {
+        return getBufferedOutputStream(DEFAULT_STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a buffered output stream for writing to this socket.
+     *
+     * @param size The size of the buffer, in bytes.
+     */
+    public OutputStream getBufferedOutputStream(int size) throws IOException {
+        return new SSLBufferedOutputStream(this, size);
+    }
+
     /**
      * Enables or disables the TCP_NO_DELAY socket option. Enabling this
      * option will <i>disable</i> the Nagle algorithm.
@@ -718,26 +769,37 @@ public class SSLSocket extends java.net.Socket {
      */
     public native int getReceiveBufferSize() throws SocketException;
 
+    /**
+     * @return true if this socket has been closed.
+     */
+    public boolean isClosed() {
+        return (state.get() & STATE_CLOSED) != 0;
+    }
+
     /**
      * Closes this socket.
      */
     public void close() throws IOException {
-        synchronized (this) {
-            if( isClosed ) {
+        int prev;
+        do {
+            prev = state.get();
+            if( (prev & STATE_CLOSED) != 0 ) {
                 /* finalize calls close or user calls close more than once */
                 return;
             }
-            isClosed = true;
+        } while( ! state.compareAndSet(prev, prev | STATE_CLOSED) );
+
+        synchronized (this) {
             if( sockProxy == null ) {
                 /* nothing to do */
                 return;
             }
             /*
              * If a read or write is occurring, abort the I/O.  Any
-             * further attempts to read/write will fail since isClosed
-             * is true
+             * further attempts to read/write will fail since the closed
+             * bit is set.
              */
-            if ( inRead || inWrite ) {
+            if ( (prev & (STATE_IN_READ | STATE_IN_WRITE)) != 0 ) {
                 abortReadWrite();
             }
         }
@@ -745,12 +807,18 @@ public class SSLSocket extends java.net.Socket {
          * Lock readLock and writeLock to ensure that read and write
          * have been aborted.
          */
-        synchronized (readLock) {
-            synchronized (writeLock) {
+        readLock.lock();
+        try {
+            writeLock.lock();
+            try {
                 base.close();
                 sockProxy = null;
                 base.setProxy(null);
+            } finally {
+                writeLock.unlock();
             }
+        } finally {
+            readLock.unlock();
         }
     }
 
@@ -797,7 +865,36 @@ public class SSLSocket extends java.net.Socket {
         handshakeCompletedListeners.remove(listener);
     }
 
+    /**
+     * Sets a listener that receives timing and traffic figures for each
+     * handshake on this socket, or removes it if <code>null</code>.
+     * This must be called before the handshake starts.
+     * Metrics collection costs nothing on sockets without a listener.
+     */
+    public void setHandshakeMetricsListener(
+        SSLHandshakeMetricsListener listener) throws SocketException {
+        if( listener != null ) {
+            enableHandshakeMetricsNative();
+        }
+        handshakeMetricsListener = listener;
+    }
+
+    private volatile SSLHandshakeMetricsListener handshakeMetricsListener;
+
+    private native void enableHandshakeMetricsNative() throws SocketException;
+
+    private native long[] getHandshakeMetricsNative();
+
     private void notifyAllHandshakeListeners() {
+        SSLHandshakeMetricsListener metricsListener = handshakeMetricsListener;
+        if( metricsListener != null ) {
+            long[] values = getHandshakeMetricsNative();
+            if( values != null ) {
+                metricsListener.handshakeMetrics(
+                    new SSLHandshakeMetrics(this, values));
+            }
+        }
+
         SSLHandshakeCompletedEvent event = new SSLHandshakeCompletedEvent(this);
 
         for (SSLHandshakeCompletedListener listener : handshakeCompletedListeners) {
@@ -1235,9 +1332,31 @@ public class SSLSocket extends java.net.Socket {
 
     /**
      * Force an already started SSL handshake to complete.
-     * This method should block until the handshake has completed.
+     * This method should block until the handshake has completed, or
+     * until the SO_TIMEOUT expires if one is set. Closing the socket from
+     * another thread aborts the handshake.
      */
-    public native void forceHandshake() throws SocketException;
+    public void forceHandshake() throws SocketException {
+        /* counted as a write, so a concurrent reader is not held up */
+        writeLock.lock();
+        try {
+            try {
+                beginWrite();
+            } catch (IOException e) {
+                throw new SocketException(e.getMessage());
+            }
+            try {
+                forceHandshakeNative(base.getTimeout());
+            } finally {
+                endWrite();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private native void forceHandshakeNative(int timeout)
+        throws SocketException;
 
     /**
      * Determines whether this end of the socket is the client or the server
@@ -1458,14 +1577,9 @@ public class SSLSocket extends java.net.Socket {
 
     int read(byte[] b, int off, int len)
         throws IOException, SocketTimeoutException {
-        synchronized (readLock) {
-            synchronized (this) {
-                if ( isClosed ) { /* abort read if socket is closed */
-                    throw new IOException(
-                        "Socket has been closed, and cannot be reused.");
-                }
-                inRead = true;
-            }
+        readLock.lock();
+        try {
+            beginRead();
             int iRet;
             try {
                 iRet = socketRead(b, off, len, base.getTimeout());
@@ -1476,24 +1590,19 @@ public class SSLSocket extends java.net.Socket {
                 throw new IOException(
                     "SocketException cannot read on socket");
             } finally {
-                synchronized (this) {
-                    inRead = false;
-                }
+                endRead();
             }
             return iRet;
+        } finally {
+            readLock.unlock();
         }
     }
 
     void write(byte[] b, int off, int len)
         throws IOException, SocketTimeoutException {
-        synchronized (writeLock) {
-            synchronized (this) {
-                if ( isClosed ) { /* abort write if socket is closed */
-                    throw new IOException(
-                        "Socket has been closed, and cannot be reused.");
-                }
-                inWrite = true;
-            }
+        writeLock.lock();
+        try {
+            beginWrite();
             try {
                 socketWrite(b, off, len, base.getTimeout());
             } catch (SocketTimeoutException ste) {
@@ -1503,19 +1612,274 @@ public class SSLSocket extends java.net.Socket {
                 throw new IOException(
                     "SocketException cannot write on socket");
             } finally {
-                synchronized (this) {
-                    inWrite = false;
+                endWrite();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads data from the socket into the given buffer, starting at its
+     * current position. If the buffer is direct, the data is decrypted
+     * straight into its native memory without an intermediate Java array.
+     *
+     * @param dst The buffer to read into.
+     * @return The number of bytes read, or -1 at end of stream.
+     */
+    public int read(ByteBuffer dst)
+        throws IOException, SocketTimeoutException {
+        int pos = dst.position();
+        int len = dst.remaining();
+        int nread;
+
+        if( dst.isReadOnly() ) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        if( len == 0 ) {
+            return 0;
+        }
+        if( dst.isDirect() ) {
+            readLock.lock();
+            try {
+                beginRead();
+                try {
+                    nread = socketReadBuffer(dst, pos, len,
+                        base.getTimeout());
+                } catch (SocketTimeoutException ste) {
+                    throw new SocketTimeoutException(
+                        "SocketTimeoutException cannot read on socket");
+                } catch (IOException ioe) {
+                    throw new IOException(
+                        "SocketException cannot read on socket");
+                } finally {
+                    endRead();
                 }
+            } finally {
+                readLock.unlock();
             }
+        } else {
+            nread = read(dst.array(), dst.arrayOffset() + pos, len);
+        }
+        if( nread > 0 ) {
+            dst.position(pos + nread);
         }
+        return nread;
     }
 
+    /**
+     * Writes all remaining bytes of the given buffer to the socket.
+     * If the buffer is direct, the data is encrypted straight from its
+     * native memory without an intermediate Java array.
+     *
+     * @param src The buffer to write from.
+     * @return The number of bytes written.
+     */
+    public int write(ByteBuffer src)
+        throws IOException, SocketTimeoutException {
+        int pos = src.position();
+        int len = src.remaining();
+
+        if( src.isDirect() ) {
+            writeLock.lock();
+            try {
+                beginWrite();
+                try {
+                    socketWriteBuffer(src, pos, len, base.getTimeout());
+                } catch (SocketTimeoutException ste) {
+                    throw new SocketTimeoutException(
+                        "SocketTimeoutException cannot write on socket");
+                } catch (IOException ioe) {
+                    throw new IOException(
+                        "SocketException cannot write on socket");
+                } finally {
+                    endWrite();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } else if( src.hasArray() ) {
+            write(src.array(), src.arrayOffset() + pos, len);
+        } else {
+            // read-only heap buffer, its array is not accessible
+            byte[] b = new byte[len];
+            src.duplicate().get(b);
+            write(b, 0, len);
+        }
+        src.position(pos + len);
+        return len;
+    }
+
+    /**
+     * Gathering write: writes all remaining bytes of the given buffers
+     * to the socket, in order.
+     *
+     * @param srcs The buffers to write from.
+     * @return The number of bytes written.
+     * @see #write(ByteBuffer[], int, int)
+     */
+    public long write(ByteBuffer[] srcs)
+        throws IOException, SocketTimeoutException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Gathering write: writes all remaining bytes of
+     * <code>srcs[offset]</code> through <code>srcs[offset+length-1]</code>
+     * to the socket, in order. Consecutive direct buffers are handed to
+     * NSS in a single vectored write, so several small buffers can share
+     * one TLS record.
+     *
+     * @param srcs The buffers to write from.
+     * @param offset Index of the first buffer to write.
+     * @param length Number of buffers to write.
+     * @return The number of bytes written.
+     */
+    public long write(ByteBuffer[] srcs, int offset, int length)
+        throws IOException, SocketTimeoutException {
+        if( offset < 0 || length < 0 || offset > srcs.length - length ) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ByteBuffer[] batch = new ByteBuffer[MAX_IOVECTOR_SIZE];
+        int[] offsets = new int[MAX_IOVECTOR_SIZE];
+        int[] lengths = new int[MAX_IOVECTOR_SIZE];
+        int count = 0;
+        long batchBytes = 0;
+        long total = 0;
+
+        writeLock.lock();
+        try {
+            for( int i = offset; i < offset + length; i++ ) {
+                ByteBuffer src = srcs[i];
+                if( ! src.hasRemaining() ) {
+                    continue;
+                }
+                if( ! src.isDirect() ) {
+                    total += writeBuffers(batch, offsets, lengths, count);
+                    count = 0;
+                    batchBytes = 0;
+                    total += write(src);
+                    continue;
+                }
+                // PR_Writev reports its result as a 32-bit count
+                if( batchBytes + src.remaining() > Integer.MAX_VALUE ) {
+                    total += writeBuffers(batch, offsets, lengths, count);
+                    count = 0;
+                    batchBytes = 0;
+                }
+                batch[count] = src;
+                offsets[count] = src.position();
+                lengths[count] = src.remaining();
+                batchBytes += lengths[count];
+                count++;
+                if( count == MAX_IOVECTOR_SIZE ) {
+                    total += writeBuffers(batch, offsets, lengths, count);
+                    count = 0;
+                    batchBytes = 0;
+                }
+            }
+            total += writeBuffers(batch, offsets, lengths, count);
+        } finally {
+            writeLock.unlock();
+        }
+        return total;
+    }
+
+    /**
+     * Sends the first <code>count</code> buffers of a gathering write and
+     * advances their positions. writeLock must be held.
+     *
+     * @return The number of bytes written.
+     */
+    private long writeBuffers(ByteBuffer[] batch, int[] offsets,
+        int[] lengths, int count)
+        throws IOException, SocketTimeoutException {
+        long written = 0;
+        if( count == 0 ) {
+            return written;
+        }
+        beginWrite();
+        try {
+            socketWriteBuffers(batch, offsets, lengths, count,
+                base.getTimeout());
+        } catch (SocketTimeoutException ste) {
+            throw new SocketTimeoutException(
+                "SocketTimeoutException cannot write on socket");
+        } catch (IOException ioe) {
+            throw new IOException(
+                "SocketException cannot write on socket");
+        } finally {
+            endWrite();
+        }
+        for( int i = 0; i < count; i++ ) {
+            batch[i].position(offsets[i] + lengths[i]);
+            batch[i] = null;
+            written += lengths[i];
+        }
+        return written;
+    }
+
+    /**
+     * Marks a read as in progress. readLock must be held.
+     */
+    private void beginRead() throws IOException {
+        beginIO(STATE_IN_READ);
+    }
+
+    private void endRead() {
+        state.addAndGet(-STATE_IN_READ);
+    }
+
+    /**
+     * Marks a write as in progress. writeLock must be held.
+     */
+    private void beginWrite() throws IOException {
+        beginIO(STATE_IN_WRITE);
+    }
+
+    private void endWrite() {
+        state.addAndGet(-STATE_IN_WRITE);
+    }
+
+    /**
+     * Sets the given in-progress bit, unless the socket is closed.
+     * The bit is clear on entry because its lock is held, so endRead and
+     * endWrite can clear it by subtraction.
+     */
+    private void beginIO(int bit) throws IOException {
+        int prev;
+        do {
+            prev = state.get();
+            if ( (prev & STATE_CLOSED) != 0 ) {
+                /* abort I/O if socket is closed */
+                throw new IOException(
+                    "Socket has been closed, and cannot be reused.");
+            }
+        } while( ! state.compareAndSet(prev, prev | bit) );
+    }
+
+    /**
+     * Maximum number of buffers passed to a single vectored write.
+     * Must match PR_MAX_IOVECTOR_SIZE in NSPR.
+     */
+    private static final int MAX_IOVECTOR_SIZE = 16;
+
     private native int socketRead(byte[] b, int off, int len, int timeout)
         throws IOException;
 
     private native void socketWrite(byte[] b, int off, int len, int timeout)
         throws IOException;
 
+    private native int socketReadBuffer(ByteBuffer b, int off, int len,
+        int timeout) throws IOException;
+
+    private native void socketWriteBuffer(ByteBuffer b, int off, int len,
+        int timeout) throws IOException;
+
+    private native void socketWriteBuffers(ByteBuffer[] b, int[] offsets,
+        int[] lengths, int count, int timeout) throws IOException;
+
     /**
      * Removes the current session from the session cache.
      */
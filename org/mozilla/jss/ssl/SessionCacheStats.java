@@ -0,0 +1,208 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.jss.ssl;
+
+/**
+ * A snapshot of the NSS SSL session cache counters
+ * (<code>SSL_GetStatistics</code>).
+ *
+ * <p>The counters are cumulative for the life of the process and cover
+ * all sockets in it. To measure an interval, take two snapshots and
+ * call {@link #since}. When the cache is shared between processes, each
+ * process only sees its own handshakes.
+ *
+ * <p>NSS does not count cache evictions.
+ *
+ * @see SSLServerSocket#getSessionCacheStats()
+ */
+public class SessionCacheStats {
+
+    // Order of the values returned by the native code.
+    static final int CLIENT_CACHE_HITS = 0;
+    static final int CLIENT_CACHE_MISSES = 1;
+    static final int CLIENT_CACHE_NOT_OK = 2;
+    static final int CLIENT_RESUME_ACCEPTED = 3;
+    static final int CLIENT_RESUME_REJECTED = 4;
+    static final int CLIENT_RESUME_NOT_OK = 5;
+    static final int SERVER_CACHE_HITS = 6;
+    static final int SERVER_CACHE_MISSES = 7;
+    static final int SERVER_CACHE_NOT_OK = 8;
+    static final int CLIENT_TICKET_OFFERS = 9;
+    static final int CLIENT_TICKET_RESUMES = 10;
+    static final int SERVER_TICKET_RESUMES = 11;
+    static final int SERVER_TICKET_PARSE_FAILURES = 12;
+    static final int NUM_COUNTERS = 13;
+
+    private final long[] counters;
+
+    SessionCacheStats(long[] counters) {
+        if( counters.length != NUM_COUNTERS ) {
+            throw new IllegalArgumentException(
+                "Expected " + NUM_COUNTERS + " counters, got " +
+                counters.length);
+        }
+        this.counters = counters;
+    }
+
+    /**
+     * Returns the difference between this snapshot and an earlier one.
+     */
+    public SessionCacheStats since(SessionCacheStats earlier) {
+        long[] diff = new long[NUM_COUNTERS];
+        for( int i = 0; i < NUM_COUNTERS; i++ ) {
+            diff[i] = counters[i] - earlier.counters[i];
+        }
+        return new SessionCacheStats(diff);
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Server side (ClientHello processing)
+    ////////////////////////////////////////////////////////////////////
+
+    /**
+     * Number of ClientHellos whose session ID was found in the server
+     * cache.
+     */
+    public long getServerCacheHits() {
+        return counters[SERVER_CACHE_HITS];
+    }
+
+    /**
+     * Number of ClientHellos whose session ID, if any, was not found in
+     * the server cache.
+     */
+    public long getServerCacheMisses() {
+        return counters[SERVER_CACHE_MISSES];
+    }
+
+    /**
+     * Number of ClientHellos whose cached session was found but could
+     * not be resumed, for example because it had expired or used a
+     * different cipher suite.
+     */
+    public long getServerCacheNotOk() {
+        return counters[SERVER_CACHE_NOT_OK];
+    }
+
+    /**
+     * Number of server handshakes resumed from a session ticket.
+     */
+    public long getServerTicketResumes() {
+        return counters[SERVER_TICKET_RESUMES];
+    }
+
+    /**
+     * Number of session tickets from clients that could not be parsed
+     * or decrypted.
+     */
+    public long getServerTicketParseFailures() {
+        return counters[SERVER_TICKET_PARSE_FAILURES];
+    }
+
+    /**
+     * Number of server handshakes that resumed a session, from the
+     * cache or from a ticket.
+     */
+    public long getServerResumedHandshakes() {
+        return getServerCacheHits() + getServerTicketResumes();
+    }
+
+    /**
+     * Number of server handshakes that did not resume a session.
+     */
+    public long getServerFullHandshakes() {
+        return getServerCacheMisses() + getServerCacheNotOk();
+    }
+
+    /**
+     * Fraction of server handshakes that resumed a session, between 0
+     * and 1. Returns 0 if there were no handshakes.
+     */
+    public double getServerResumptionRatio() {
+        long resumed = getServerResumedHandshakes();
+        long total = resumed + getServerFullHandshakes();
+        return (total == 0) ? 0.0 : (double) resumed / total;
+    }
+
+    /**
+     * Fraction of server cache lookups that found a usable session,
+     * between 0 and 1. Ticket resumptions are not cache lookups and are
+     * not counted. Returns 0 if there were no lookups.
+     */
+    public double getServerCacheHitRate() {
+        long hits = getServerCacheHits();
+        long total = hits + getServerFullHandshakes();
+        return (total == 0) ? 0.0 : (double) hits / total;
+    }
+
+    ////////////////////////////////////////////////////////////////////
+    // Client side
+    ////////////////////////////////////////////////////////////////////
+
+    /**
+     * Number of ClientHellos that offered a cached session.
+     */
+    public long getClientCacheHits() {
+        return counters[CLIENT_CACHE_HITS];
+    }
+
+    /**
+     * Number of ClientHellos sent with no cached session for the server.
+     */
+    public long getClientCacheMisses() {
+        return counters[CLIENT_CACHE_MISSES];
+    }
+
+    /**
+     * Number of ClientHellos whose cached session could not be offered.
+     */
+    public long getClientCacheNotOk() {
+        return counters[CLIENT_CACHE_NOT_OK];
+    }
+
+    /**
+     * Number of client handshakes in which the server accepted the
+     * offered session.
+     */
+    public long getClientResumesAccepted() {
+        return counters[CLIENT_RESUME_ACCEPTED];
+    }
+
+    /**
+     * Number of client handshakes in which the server declined the
+     * offered session.
+     */
+    public long getClientResumesRejected() {
+        return counters[CLIENT_RESUME_REJECTED] +
+            counters[CLIENT_RESUME_NOT_OK];
+    }
+
+    /**
+     * Number of ClientHellos that offered a session ticket.
+     */
+    public long getClientTicketOffers() {
+        return counters[CLIENT_TICKET_OFFERS];
+    }
+
+    /**
+     * Number of client handshakes resumed from a session ticket.
+     */
+    public long getClientTicketResumes() {
+        return counters[CLIENT_TICKET_RESUMES];
+    }
+
+    public String toString() {
+        return "SessionCacheStats[server: hits=" + getServerCacheHits() +
+            ", misses=" + getServerCacheMisses() +
+            ", notOk=" + getServerCacheNotOk() +
+            ", ticketResumes=" + getServerTicketResumes() +
+            ", ticketParseFailures=" + getServerTicketParseFailures() +
+            "; client: hits=" + getClientCacheHits() +
+            ", misses=" + getClientCacheMisses() +
+            ", resumesAccepted=" + getClientResumesAccepted() +
+            ", resumesRejected=" + getClientResumesRejected() +
+            ", ticketResumes=" + getClientTicketResumes() + "]";
+    }
+}
@@ -106,6 +106,10 @@ class SocketBase {
 
     void close() throws IOException {
         socketClose();
+        if( sockProxy != null ) {
+            // the native socket is gone; mark the proxy as released
+            sockProxy.close();
+        }
     }
 
     // SSLServerSocket and SSLSocket close methods
@@ -9,6 +9,7 @@
 #include <jss_exceptions.h>
 #include <secitem.h>
 #include <jssutil.h>
+#include <jss_jnicache.h>
 #include <certt.h>
 #include <keythi.h>
 #include <keyhi.h>
@@ -117,10 +118,11 @@ JSSL_CallCertSelectionCallback(    void * arg,
     jstring chosen_nickname;
     char *chosen_nickname_for_c;
     jboolean chosen_nickname_cleanup;
-    jclass clientcertselectionclass;
     jmethodID clientcertselectionclass_select;
     JNIEnv *env;
     int debug_cc=0;
+    JSSL_HandshakeMetrics *metrics = JSSL_getHandshakeMetrics(fd);
+    PRTime start = PR_Now();
 
     if((*JSS_javaVM)->AttachCurrentThread(JSS_javaVM, (void**)&env, NULL) != 0){
         PR_ASSERT(PR_FALSE);
@@ -129,29 +131,29 @@ JSSL_CallCertSelectionCallback(    void * arg,
     PR_ASSERT(env != NULL);
     
 
-    clientcertselectionclass = (*env)->GetObjectClass(env,nicknamecallback);
-
-    clientcertselectionclass_select = (*env)->GetMethodID(
+    clientcertselectionclass_select = JSS_getObjectMethodID(
             env,
-            clientcertselectionclass,
+            JSS_jni.clientCertSelectionCallbackSelect,
+            nicknamecallback,
             "select",
             "(Ljava/util/Vector;)Ljava/lang/String;" );
 
     /* get java bits and piece ready to create a new vector */
 
-    vectorclass = (*env)->FindClass(
-            env, "java/util/Vector");
+    vectorclass = JSS_getClass(
+            env, JSS_jni.vectorClass, "java/util/Vector");
 
     if (debug_cc) { PR_fprintf(PR_STDOUT,"  got vectorclass: %lx\n",vectorclass); }
 
-    vectorcons = (*env)->GetMethodID(
-            env,
+    vectorcons = JSS_getMethodID(
+            env, JSS_jni.vectorConstructor,
             vectorclass,"<init>","()V");
 
     if (debug_cc) { PR_fprintf(PR_STDOUT,"  got vectorcons: %lx\n",vectorcons); }
 
-    vector_add = (*env)->GetMethodID(
+    vector_add = JSS_getMethodID(
             env,
+            JSS_jni.vectorAddElement,
             vectorclass,
             "addElement",
             "(Ljava/lang/Object;)V");
@@ -268,6 +270,7 @@ JSSL_CallCertSelectionCallback(    void * arg,
     rv = SECSuccess;
 
 loser:
+    if (metrics) metrics->clientCertSelectionTime += PR_Now() - start;
     return rv;
 }
 
@@ -278,7 +281,7 @@ JSSL_AlertReceivedCallback(const PRFileDesc *fd, void *arg, const SSLAlert *aler
 
     jint rc;
     JNIEnv *env;
-    jclass socketClass, eventClass;
+    jclass eventClass;
     jmethodID eventConstructor, eventSetLevel, eventSetDescription;
     jobject event;
     jmethodID fireEvent;
@@ -292,13 +295,12 @@ JSSL_AlertReceivedCallback(const PRFileDesc *fd, void *arg, const SSLAlert *aler
 
     /* SSLAlertEvent event = new SSLAlertEvent(socket); */
 
-    socketClass = (*env)->FindClass(env, SSLSOCKET_CLASS);
-    PR_ASSERT(socketClass != NULL);
-
-    eventClass = (*env)->FindClass(env, SSL_ALERT_EVENT_CLASS);
+    eventClass = JSS_getClass(env, JSS_jni.sslAlertEventClass,
+        SSL_ALERT_EVENT_CLASS);
     PR_ASSERT(eventClass != NULL);
 
-    eventConstructor = (*env)->GetMethodID(env, eventClass, "<init>", "(L" SSLSOCKET_CLASS ";)V");
+    eventConstructor = JSS_getMethodID(env, JSS_jni.sslAlertEventConstructor,
+        eventClass, "<init>", "(L" SSLSOCKET_CLASS ";)V");
     PR_ASSERT(eventConstructor != NULL);
 
     event = (*env)->NewObject(env, eventClass, eventConstructor, socket->socketObject);
@@ -306,22 +308,26 @@ JSSL_AlertReceivedCallback(const PRFileDesc *fd, void *arg, const SSLAlert *aler
 
     /* event.setLevel(level); */
 
-    eventSetLevel = (*env)->GetMethodID(env, eventClass, "setLevel", "(I)V");
+    eventSetLevel = JSS_getMethodID(env, JSS_jni.sslAlertEventSetLevel,
+        eventClass, "setLevel", "(I)V");
     PR_ASSERT(eventSetLevel != NULL);
 
     (*env)->CallVoidMethod(env, event, eventSetLevel, (int)alert->level);
 
     /* event.setDescription(description); */
 
-    eventSetDescription = (*env)->GetMethodID(env, eventClass, "setDescription", "(I)V");
+    eventSetDescription = JSS_getMethodID(env,
+        JSS_jni.sslAlertEventSetDescription,
+        eventClass, "setDescription", "(I)V");
     PR_ASSERT(eventSetDescription != NULL);
 
     (*env)->CallVoidMethod(env, event, eventSetDescription, alert->description);
 
     /* socket.fireAlertReceivedEvent(event); */
 
-    fireEvent = (*env)->GetMethodID(env,
-        socketClass,
+    fireEvent = JSS_getObjectMethodID(env,
+        JSS_jni.sslSocketFireAlertReceived,
+        socket->socketObject,
         "fireAlertReceivedEvent",
         "(L" SSL_ALERT_EVENT_CLASS ";)V");
     PR_ASSERT(fireEvent != NULL);
@@ -338,7 +344,7 @@ JSSL_AlertSentCallback(const PRFileDesc *fd, void *arg, const SSLAlert *alert)
 
     jint rc;
     JNIEnv *env;
-    jclass socketClass, eventClass;
+    jclass eventClass;
     jmethodID eventConstructor, eventSetLevel, eventSetDescription;
     jobject event;
     jmethodID fireEvent;
@@ -352,13 +358,12 @@ JSSL_AlertSentCallback(const PRFileDesc *fd, void *arg, const SSLAlert *alert)
 
     /* SSLAlertEvent event = new SSLAlertEvent(socket); */
 
-    socketClass = (*env)->FindClass(env, SSLSOCKET_CLASS);
-    PR_ASSERT(socketClass != NULL);
-
-    eventClass = (*env)->FindClass(env, SSL_ALERT_EVENT_CLASS);
+    eventClass = JSS_getClass(env, JSS_jni.sslAlertEventClass,
+        SSL_ALERT_EVENT_CLASS);
     PR_ASSERT(eventClass != NULL);
 
-    eventConstructor = (*env)->GetMethodID(env, eventClass, "<init>", "(L" SSLSOCKET_CLASS ";)V");
+    eventConstructor = JSS_getMethodID(env, JSS_jni.sslAlertEventConstructor,
+        eventClass, "<init>", "(L" SSLSOCKET_CLASS ";)V");
     PR_ASSERT(eventConstructor != NULL);
 
     event = (*env)->NewObject(env, eventClass, eventConstructor, socket->socketObject);
@@ -366,22 +371,26 @@ JSSL_AlertSentCallback(const PRFileDesc *fd, void *arg, const SSLAlert *alert)
 
     /* event.setLevel(level); */
 
-    eventSetLevel = (*env)->GetMethodID(env, eventClass, "setLevel", "(I)V");
+    eventSetLevel = JSS_getMethodID(env, JSS_jni.sslAlertEventSetLevel,
+        eventClass, "setLevel", "(I)V");
     PR_ASSERT(eventSetLevel != NULL);
 
     (*env)->CallVoidMethod(env, event, eventSetLevel, (int)alert->level);
 
     /* event.setDescription(description); */
 
-    eventSetDescription = (*env)->GetMethodID(env, eventClass, "setDescription", "(I)V");
+    eventSetDescription = JSS_getMethodID(env,
+        JSS_jni.sslAlertEventSetDescription,
+        eventClass, "setDescription", "(I)V");
     PR_ASSERT(eventSetDescription != NULL);
 
     (*env)->CallVoidMethod(env, event, eventSetDescription, alert->description);
 
     /* socket.fireAlertSentEvent(event); */
 
-    fireEvent = (*env)->GetMethodID(env,
-        socketClass,
+    fireEvent = JSS_getObjectMethodID(env,
+        JSS_jni.sslSocketFireAlertSent,
+        socket->socketObject,
         "fireAlertSentEvent",
         "(L" SSL_ALERT_EVENT_CLASS ";)V");
     PR_ASSERT(fireEvent != NULL);
@@ -395,12 +404,13 @@ void
 JSSL_HandshakeCallback(PRFileDesc *fd, void *arg)
 {
     JSSL_SocketData *sock = (JSSL_SocketData*) arg;
-    jclass sockClass;
     jmethodID notifierID;
     JNIEnv *env;
 
     PR_ASSERT(sock!=NULL);
 
+    JSSL_handshakeMetricsDone(sock->metrics);
+
     /* get the JNI environment */
     if((*JSS_javaVM)->AttachCurrentThread(JSS_javaVM, (void**)&env, NULL) != 0){
         PR_ASSERT(PR_FALSE);
@@ -410,8 +420,8 @@ JSSL_HandshakeCallback(PRFileDesc *fd, void *arg)
 
     /* get the handshake notification method ID */
     PR_ASSERT(sock->socketObject!=NULL);
-    sockClass = (*env)->GetObjectClass(env, sock->socketObject);
-    notifierID = (*env)->GetMethodID(env, sockClass,
+    notifierID = JSS_getObjectMethodID(env,
+        JSS_jni.sslSocketHandshakeNotifier, sock->socketObject,
         SSLSOCKET_HANDSHAKE_NOTIFIER_NAME, SSLSOCKET_HANDSHAKE_NOTIFIER_SIG);
     if(notifierID == NULL) goto finish;
 
@@ -435,6 +445,9 @@ JSSL_DefaultCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
     SECCertUsage      certUsage;
     CERTCertificate   *peerCert=NULL;
 
+    JSSL_HandshakeMetrics *metrics = JSSL_getHandshakeMetrics(fd);
+    PRTime start = 0;
+
     certUsage = isServer ? certUsageSSLClient : certUsageSSLServer;
  
 
@@ -444,8 +457,10 @@ JSSL_DefaultCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
     peerCert   = SSL_PeerCertificate(fd);
 
     if (peerCert) {
+        if (metrics) start = PR_Now();
         rv = CERT_VerifyCertNow(CERT_GetDefaultCertDB(), peerCert,
                 checkSig, certUsage, NULL /*pinarg*/);
+        if (metrics) metrics->certVerifyTime += PR_Now() - start;
     }
 
     /* if we're a server, then we don't need to check the CN of the
@@ -550,10 +565,14 @@ JSSL_JavaCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
     char *hostname=NULL;
     SECStatus retval = SECFailure;
     SECStatus verificationResult;
+    JSSL_HandshakeMetrics *metrics;
+    PRTime start = 0;
 
     PR_ASSERT(arg != NULL);
     PR_ASSERT(fd != NULL);
 
+    metrics = JSSL_getHandshakeMetrics(fd);
+
     /* initialize logging structures */
     log.arena = PORT_NewArena(DER_DEFAULT_CHUNKSIZE);
     if( log.arena == NULL ) return SECFailure;
@@ -581,6 +600,7 @@ JSSL_JavaCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
      * logging parameter)
      */
 
+    if (metrics) start = PR_Now();
     verificationResult = CERT_VerifyCert(   CERT_GetDefaultCertDB(),
                             peerCert,
                             checkSig,
@@ -588,6 +608,7 @@ JSSL_JavaCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
                             PR_Now(),
                             NULL /*pinarg*/,
                             &log);
+    if (metrics) metrics->certVerifyTime += PR_Now() - start;
 
     if (verificationResult == SECSuccess && log.count > 0) {
         verificationResult = SECFailure;
@@ -616,10 +637,11 @@ JSSL_JavaCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
         jclass clazz;
         jmethodID cons;
 
-        clazz = (*env)->FindClass(env, SSLCERT_APP_CB_VALIDITY_STATUS_CLASS);
+        clazz = JSS_getClass(env, JSS_jni.validityStatusClass,
+                        SSLCERT_APP_CB_VALIDITY_STATUS_CLASS);
         if( clazz == NULL ) goto finish;
 
-        cons = (*env)->GetMethodID(env, clazz,
+        cons = JSS_getMethodID(env, JSS_jni.validityStatusConstructor, clazz,
                         PLAIN_CONSTRUCTOR, PLAIN_CONSTRUCTOR_SIG);
         if( cons == NULL ) goto finish;
 
@@ -629,7 +651,8 @@ JSSL_JavaCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
         }
 
         /* get the addReason methodID while we're at it */
-        addReasonMethod = (*env)->GetMethodID(env, clazz,
+        addReasonMethod = JSS_getMethodID(env,
+            JSS_jni.validityStatusAddReason, clazz,
             SSLCERT_APP_CB_VALIDITY_STATUS_ADD_REASON_NAME,
             SSLCERT_APP_CB_VALIDITY_STATUS_ADD_REASON_SIG);
         if( addReasonMethod == NULL ) {
@@ -670,15 +693,14 @@ JSSL_JavaCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
      */
     {
         jobject approvalCallbackObj;
-        jclass approvalCallbackClass;
         jobject peerninjacert;
 
         approvalCallbackObj = (jobject) arg;
 
-        approvalCallbackClass = (*env)->GetObjectClass(env,approvalCallbackObj);
-        approveMethod = (*env)->GetMethodID(
+        approveMethod = JSS_getObjectMethodID(
             env,
-            approvalCallbackClass,
+            JSS_jni.certApprovalCallbackApprove,
+            approvalCallbackObj,
             SSLCERT_APP_CB_APPROVE_NAME,
             SSLCERT_APP_CB_APPROVE_SIG);
         if( approveMethod == NULL ) {
@@ -691,8 +713,10 @@ JSSL_JavaCertAuthCallback(void *arg, PRFileDesc *fd, PRBool checkSig,
             PR_ASSERT(PR_FALSE);
             goto finish;
         }
+        if (metrics) start = PR_Now();
         result = (*env)->CallBooleanMethod(env, approvalCallbackObj,
             approveMethod, peerninjacert, validityStatus);
+        if (metrics) metrics->certApprovalTime += PR_Now() - start;
         if( result == JNI_TRUE ) {
             retval = SECSuccess;
         }
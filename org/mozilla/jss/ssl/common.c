@@ -282,6 +282,7 @@ JSSL_CreateSocketData(JNIEnv *env, jobject sockObj, PRFileDesc* newFD,
     sockdata->writer = NULL;
     sockdata->accepter = NULL;
     sockdata->closePending = PR_FALSE;
+    sockdata->metrics = NULL;
 
     sockdata->lock = PR_NewLock();
     if( sockdata->lock == NULL ) {
@@ -364,6 +365,9 @@ JSSL_DestroySocketData(JNIEnv *env, JSSL_SocketData *sd)
     if( sd->lock != NULL ) {
         PR_DestroyLock(sd->lock);
     }
+    if( sd->metrics != NULL ) {
+        PR_Free(sd->metrics);
+    }
     PR_Free(sd);
 }
 
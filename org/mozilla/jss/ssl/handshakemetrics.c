@@ -0,0 +1,318 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+/*
+ * Per-connection handshake metrics.
+ *
+ * When metrics are enabled on a socket, a thin NSPR I/O layer is inserted
+ * directly below the SSL layer. While a handshake is in progress it counts
+ * the bytes and TLS records crossing it and notes when the first byte was
+ * exchanged. The handshake callback stops the counting, so once the
+ * handshake is done the layer only forwards calls.
+ *
+ * Handshake I/O is serialized by NSS's handshake lock, so the counters are
+ * not otherwise protected.
+ */
+
+#include <nspr.h>
+#include <jni.h>
+#include <string.h>
+#include <ssl.h>
+
+#include <jssutil.h>
+#include <jss_exceptions.h>
+#include <java_ids.h>
+#include "jssl.h"
+
+/* Length of a TLS record header: type(1) version(2) length(2) */
+#define RECORD_HEADER_LEN 5
+
+static PRDescIdentity metricsLayerId = PR_INVALID_IO_LAYER;
+static PRIOMethods metricsMethods;
+static PRCallOnceType metricsOnce;
+
+/*
+ * Counts the TLS records in a stream that is seen in arbitrary chunks.
+ */
+static void
+countRecords(JSSL_RecordCounter *rc, const unsigned char *buf, PRInt32 len)
+{
+    while( len > 0 ) {
+        if( rc->remaining > 0 ) {
+            PRInt32 skip = (len < rc->remaining) ? len : rc->remaining;
+            rc->remaining -= skip;
+            buf += skip;
+            len -= skip;
+        } else {
+            rc->header[rc->headerLen++] = *buf++;
+            len--;
+            if( rc->headerLen == RECORD_HEADER_LEN ) {
+                rc->remaining = (rc->header[3] << 8) | rc->header[4];
+                rc->headerLen = 0;
+                rc->records++;
+            }
+        }
+    }
+}
+
+static void
+countSent(JSSL_HandshakeMetrics *m, const void *buf, PRInt32 n)
+{
+    if( !m->counting ) return;
+    if( m->start == 0 ) {
+        m->start = PR_Now();
+    }
+    if( n > 0 ) {
+        m->bytesSent += n;
+        countRecords(&m->sent, (const unsigned char*) buf, n);
+    }
+}
+
+static void
+countReceived(JSSL_HandshakeMetrics *m, const void *buf, PRInt32 n)
+{
+    if( !m->counting || n <= 0 ) return;
+    if( m->start == 0 ) {
+        m->start = PR_Now();
+    }
+    m->bytesReceived += n;
+    countRecords(&m->received, (const unsigned char*) buf, n);
+}
+
+#define METRICS(fd) ((JSSL_HandshakeMetrics*) (fd)->secret)
+
+static PRInt32 PR_CALLBACK
+metrics_recv(PRFileDesc *fd, void *buf, PRInt32 amount, PRIntn flags,
+    PRIntervalTime timeout)
+{
+    PRInt32 n = fd->lower->methods->recv(fd->lower, buf, amount, flags,
+                    timeout);
+    countReceived(METRICS(fd), buf, n);
+    return n;
+}
+
+static PRInt32 PR_CALLBACK
+metrics_read(PRFileDesc *fd, void *buf, PRInt32 amount)
+{
+    PRInt32 n = fd->lower->methods->read(fd->lower, buf, amount);
+    countReceived(METRICS(fd), buf, n);
+    return n;
+}
+
+static PRInt32 PR_CALLBACK
+metrics_send(PRFileDesc *fd, const void *buf, PRInt32 amount, PRIntn flags,
+    PRIntervalTime timeout)
+{
+    PRInt32 n = fd->lower->methods->send(fd->lower, buf, amount, flags,
+                    timeout);
+    countSent(METRICS(fd), buf, n);
+    return n;
+}
+
+static PRInt32 PR_CALLBACK
+metrics_write(PRFileDesc *fd, const void *buf, PRInt32 amount)
+{
+    PRInt32 n = fd->lower->methods->write(fd->lower, buf, amount);
+    countSent(METRICS(fd), buf, n);
+    return n;
+}
+
+static PRInt32 PR_CALLBACK
+metrics_writev(PRFileDesc *fd, const PRIOVec *iov, PRInt32 iov_size,
+    PRIntervalTime timeout)
+{
+    PRInt32 n = fd->lower->methods->writev(fd->lower, iov, iov_size,
+                    timeout);
+    PRInt32 left = n;
+    int i;
+
+    for( i = 0; i < iov_size && left > 0; i++ ) {
+        PRInt32 len = (iov[i].iov_len < left) ? iov[i].iov_len : left;
+        countSent(METRICS(fd), iov[i].iov_base, len);
+        left -= len;
+    }
+    return n;
+}
+
+static PRStatus PR_CALLBACK
+metrics_close(PRFileDesc *fd)
+{
+    PRFileDesc *lower = fd->lower;
+
+    /* the metrics belong to the JSSL_SocketData, don't free them here */
+    fd->secret = NULL;
+    fd->dtor(fd);
+    return lower->methods->close(lower);
+}
+
+static PRStatus
+initMetricsLayer(void)
+{
+    const PRIOMethods *defaults = PR_GetDefaultIOMethods();
+
+    metricsLayerId = PR_GetUniqueIdentity("JSS handshake metrics");
+    if( metricsLayerId == PR_INVALID_IO_LAYER ) {
+        return PR_FAILURE;
+    }
+    metricsMethods = *defaults;
+    metricsMethods.recv = metrics_recv;
+    metricsMethods.read = metrics_read;
+    metricsMethods.send = metrics_send;
+    metricsMethods.write = metrics_write;
+    metricsMethods.writev = metrics_writev;
+    metricsMethods.close = metrics_close;
+    return PR_SUCCESS;
+}
+
+static void
+resetMetrics(JSSL_HandshakeMetrics *m)
+{
+    memset(m, 0, sizeof(*m));
+    m->counting = PR_TRUE;
+}
+
+/*
+ * Returns the metrics of the socket that fd belongs to, or NULL if metrics
+ * are not enabled on it. Used by the certificate callbacks, which are not
+ * given the JSSL_SocketData.
+ */
+JSSL_HandshakeMetrics*
+JSSL_getHandshakeMetrics(PRFileDesc *fd)
+{
+    PRFileDesc *layer;
+
+    if( metricsLayerId == PR_INVALID_IO_LAYER ) {
+        return NULL;
+    }
+    layer = PR_GetIdentitiesLayer(fd, metricsLayerId);
+    return (layer != NULL) ? METRICS(layer) : NULL;
+}
+
+/*
+ * Stops counting; called from the handshake callback.
+ */
+void
+JSSL_handshakeMetricsDone(JSSL_HandshakeMetrics *m)
+{
+    if( m != NULL && m->counting ) {
+        m->end = PR_Now();
+        m->counting = PR_FALSE;
+    }
+}
+
+/*
+ * Restarts counting for the next handshake; called when the handshake
+ * is reset.
+ */
+void
+JSSL_handshakeMetricsReset(JSSL_HandshakeMetrics *m)
+{
+    if( m != NULL ) {
+        resetMetrics(m);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_org_mozilla_jss_ssl_SSLSocket_enableHandshakeMetricsNative(JNIEnv *env,
+    jobject self)
+{
+    JSSL_SocketData *sock = NULL;
+    PRFileDesc *layer = NULL;
+
+    if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) goto finish;
+
+    if( sock->metrics != NULL ) {
+        /* already enabled */
+        goto finish;
+    }
+    if( PR_CallOnce(&metricsOnce, initMetricsLayer) != PR_SUCCESS ) {
+        JSSL_throwSSLSocketException(env,
+            "Failed to create handshake metrics layer");
+        goto finish;
+    }
+
+    sock->metrics = PR_NEW(JSSL_HandshakeMetrics);
+    if( sock->metrics == NULL ) {
+        JSS_throw(env, OUT_OF_MEMORY_ERROR);
+        goto finish;
+    }
+    resetMetrics(sock->metrics);
+
+    layer = PR_CreateIOLayerStub(metricsLayerId, &metricsMethods);
+    if( layer == NULL ) {
+        JSSL_throwSSLSocketException(env,
+            "Failed to create handshake metrics layer");
+        goto finish;
+    }
+    layer->secret = (PRFilePrivate*) sock->metrics;
+
+    /* insert it right below the SSL layer, which is on top */
+    if( PR_PushIOLayer(sock->fd, sock->fd->lower->identity, layer)
+            != PR_SUCCESS ) {
+        JSSL_throwSSLSocketException(env,
+            "Failed to push handshake metrics layer");
+        goto finish;
+    }
+    layer = NULL;
+
+finish:
+    if( layer != NULL ) {
+        layer->secret = NULL;
+        layer->dtor(layer);
+    }
+    if( (*env)->ExceptionOccurred(env) != NULL && sock != NULL &&
+            sock->metrics != NULL ) {
+        PR_Free(sock->metrics);
+        sock->metrics = NULL;
+    }
+    EXCEPTION_CHECK(env, sock)
+}
+
+/*
+ * Returns the metrics of the last completed handshake, in the order
+ * expected by org.mozilla.jss.ssl.SSLHandshakeMetrics, or NULL if metrics
+ * are not enabled.
+ */
+JNIEXPORT jlongArray JNICALL
+Java_org_mozilla_jss_ssl_SSLSocket_getHandshakeMetricsNative(JNIEnv *env,
+    jobject self)
+{
+    JSSL_SocketData *sock = NULL;
+    JSSL_HandshakeMetrics *m;
+    SSLChannelInfo info;
+    jlong values[13];
+    jlongArray result = NULL;
+
+    if( JSSL_getSockData(env, self, &sock) != PR_SUCCESS ) goto finish;
+
+    m = sock->metrics;
+    if( m == NULL ) goto finish;
+
+    if( SSL_GetChannelInfo(sock->fd, &info, sizeof(info)) != SECSuccess ) {
+        memset(&info, 0, sizeof(info));
+    }
+
+    values[0] = (m->start != 0 && m->end >= m->start) ?
+                    (m->end - m->start) : 0;
+    values[1] = m->bytesSent;
+    values[2] = m->bytesReceived;
+    values[3] = m->sent.records;
+    values[4] = m->received.records;
+    values[5] = info.resumed ? 1 : 0;
+    values[6] = info.protocolVersion;
+    values[7] = info.cipherSuite;
+    values[8] = m->certVerifyTime;
+    values[9] = m->certApprovalTime;
+    values[10] = m->clientCertSelectionTime;
+    values[11] = m->start;
+    values[12] = m->end;
+
+    result = (*env)->NewLongArray(env, 13);
+    if( result == NULL ) goto finish;
+    (*env)->SetLongArrayRegion(env, result, 0, 13, values);
+
+finish:
+    EXCEPTION_CHECK(env, sock)
+    return result;
+}
@@ -14,6 +14,7 @@
 
 #include <jssutil.h>
 #include <java_ids.h>
+#include <jss_jnicache.h>
 
 static PRIntn
 invalidInt()
@@ -58,7 +59,6 @@ static PRInt32
 writebuf(JNIEnv *env, PRFileDesc *fd, jobject sockObj, jbyteArray byteArray)
 {
     jmethodID getOutputStream, writeMethod;
-    jclass sockClass, osClass;
     jobject outputStream;
     jint arrayLen=-1;
     PRInt32 retval;
@@ -70,9 +70,8 @@ writebuf(JNIEnv *env, PRFileDesc *fd, jobject sockObj, jbyteArray byteArray)
     /*
      * get the OutputStream
      */
-    sockClass = (*env)->GetObjectClass(env, sockObj);
-    PR_ASSERT(sockClass != NULL);
-    getOutputStream = (*env)->GetMethodID(env, sockClass, 
+    getOutputStream = JSS_getObjectMethodID(env,
+        JSS_jni.socketGetOutputStream, sockObj,
         SOCKET_GET_OUTPUT_STREAM_NAME,
         SOCKET_GET_OUTPUT_STREAM_SIG);
     if(getOutputStream == NULL) {
@@ -88,8 +87,8 @@ writebuf(JNIEnv *env, PRFileDesc *fd, jobject sockObj, jbyteArray byteArray)
     /*
      * get OutputStream.write
      */
-    osClass = (*env)->GetObjectClass(env, outputStream);
-    writeMethod = (*env)->GetMethodID(env, osClass,
+    writeMethod = JSS_getObjectMethodID(env, JSS_jni.outputStreamWrite,
+        outputStream,
         OSTREAM_WRITE_NAME,
         OSTREAM_WRITE_SIG);
     if( writeMethod == NULL ) {
@@ -130,7 +129,6 @@ static PRStatus
 processTimeout(JNIEnv *env, PRFileDesc *fd, jobject sockObj,
         PRIntervalTime timeout)
 {
-    jclass socketClass;
     jmethodID setSoTimeoutMethod;
     jint javaTimeout;
 
@@ -142,12 +140,8 @@ processTimeout(JNIEnv *env, PRFileDesc *fd, jobject sockObj,
     /*
      * Call setSoTimeout on the Java socket
      */
-    socketClass = (*env)->GetObjectClass(env, sockObj);
-    if( socketClass == NULL ) {
-        ASSERT_OUTOFMEM(env);
-        goto finish;
-    }
-    setSoTimeoutMethod = (*env)->GetMethodID(env, socketClass,
+    setSoTimeoutMethod = JSS_getObjectMethodID(env,
+        JSS_jni.socketSetSoTimeout, sockObj,
         SET_SO_TIMEOUT_NAME, SET_SO_TIMEOUT_SIG);
     if( setSoTimeoutMethod == NULL ) {
         ASSERT_OUTOFMEM(env);
@@ -276,25 +270,28 @@ getInetAddress(PRFileDesc *fd, PRNetAddr *addr, LocalOrPeer localOrPeer)
      * get the InetAddress and port
      */
     {
-        jclass sockClass = (*env)->GetObjectClass(env, sockObj);
         jmethodID getInetAddrMethod;
         jmethodID getPortMethod;
+        jmethodID cachedAddrMethod;
+        jmethodID cachedPortMethod;
         const char *getAddrMethodName;
         const char *getPortMethodName;
 
         if( localOrPeer == LOCAL_NAME ) {
             getAddrMethodName = GET_LOCAL_ADDR_NAME;
             getPortMethodName = GET_LOCAL_PORT_NAME;
+            cachedAddrMethod = JSS_jni.socketGetLocalAddress;
+            cachedPortMethod = JSS_jni.socketGetLocalPort;
         } else {
             PR_ASSERT(localOrPeer == PEER_NAME);
             getAddrMethodName = GET_INET_ADDR_NAME;
             getPortMethodName = GET_PORT_NAME;
+            cachedAddrMethod = JSS_jni.socketGetInetAddress;
+            cachedPortMethod = JSS_jni.socketGetPort;
         }
 
-        PR_ASSERT( sockClass != NULL );
-
-        getInetAddrMethod = (*env)->GetMethodID(env, sockClass,
-            getAddrMethodName, GET_INET_ADDR_SIG);
+        getInetAddrMethod = JSS_getObjectMethodID(env, cachedAddrMethod,
+            sockObj, getAddrMethodName, GET_INET_ADDR_SIG);
         if( getInetAddrMethod == NULL ) {
             ASSERT_OUTOFMEM(env);
             goto finish;
@@ -307,8 +304,8 @@ getInetAddress(PRFileDesc *fd, PRNetAddr *addr, LocalOrPeer localOrPeer)
         }
         if( (*env)->ExceptionOccurred(env) ) goto finish;
 
-        getPortMethod = (*env)->GetMethodID(env, sockClass,
-            getPortMethodName, GET_PORT_SIG);
+        getPortMethod = JSS_getObjectMethodID(env, cachedPortMethod,
+            sockObj, getPortMethodName, GET_PORT_SIG);
         if( getPortMethod == NULL ) {
             ASSERT_OUTOFMEM(env);
             goto finish;
@@ -322,12 +319,10 @@ getInetAddress(PRFileDesc *fd, PRNetAddr *addr, LocalOrPeer localOrPeer)
      * get the address as a byte array
      */
     {
-        jclass inetAddrClass = (*env)->GetObjectClass(env, inetAddress);
         jmethodID getAddressMethod;
 
-        PR_ASSERT(inetAddrClass != NULL);
-
-        getAddressMethod = (*env)->GetMethodID(env, inetAddrClass,
+        getAddressMethod = JSS_getObjectMethodID(env,
+            JSS_jni.inetAddressGetAddress, inetAddress,
             GET_ADDR_NAME, GET_ADDR_SIG);
         if( getAddressMethod == NULL ) {
             ASSERT_OUTOFMEM(env);
@@ -492,15 +487,10 @@ jsock_recv(PRFileDesc *fd, void *buf, PRInt32 amount,
      * get InputStream
      */
     {
-        jclass sockClass = (*env)->GetObjectClass(env, sockObj);
         jmethodID getInputStreamMethod;
 
-        if( sockClass == NULL ) {
-            ASSERT_OUTOFMEM(env);
-            goto finish;
-        }
-
-        getInputStreamMethod = (*env)->GetMethodID(env, sockClass,
+        getInputStreamMethod = JSS_getObjectMethodID(env,
+            JSS_jni.socketGetInputStream, sockObj,
             SOCKET_GET_INPUT_STREAM_NAME, SOCKET_GET_INPUT_STREAM_SIG);
         if( getInputStreamMethod == NULL ) {
             ASSERT_OUTOFMEM(env);
@@ -526,15 +516,10 @@ jsock_recv(PRFileDesc *fd, void *buf, PRInt32 amount,
      * call read()
      */
     {
-        jclass isClass = (*env)->GetObjectClass(env, inputStream);
         jmethodID readMethod;
 
-        if( isClass == NULL ) {
-            ASSERT_OUTOFMEM(env);
-            goto finish;
-        }
-        readMethod = (*env)->GetMethodID(env, isClass,
-            ISTREAM_READ_NAME, ISTREAM_READ_SIG);
+        readMethod = JSS_getObjectMethodID(env, JSS_jni.inputStreamRead,
+            inputStream, ISTREAM_READ_NAME, ISTREAM_READ_SIG);
         if( readMethod == NULL ) {
             ASSERT_OUTOFMEM(env);
             goto finish;
@@ -822,7 +807,6 @@ jsock_close(PRFileDesc *fd)
     PRStatus retval = PR_FAILURE;
     JNIEnv *env;
     jobject sockObj;
-    jclass sockClass;
     jmethodID closeMethod;
     jthrowable excep;
 
@@ -837,12 +821,7 @@ jsock_close(PRFileDesc *fd)
     /*
      * Get the close method
      */
-    sockClass = (*env)->GetObjectClass(env, sockObj);
-    if( sockClass == NULL ) {
-        ASSERT_OUTOFMEM(env);
-        goto finish;
-    }
-    closeMethod = (*env)->GetMethodID(env, sockClass,
+    closeMethod = JSS_getObjectMethodID(env, JSS_jni.socketClose, sockObj,
         SOCKET_CLOSE_NAME, SOCKET_CLOSE_SIG);
     if( closeMethod == NULL ) {
         ASSERT_OUTOFMEM(env);
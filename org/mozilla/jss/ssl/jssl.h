@@ -7,6 +7,32 @@
 
 #include <ssl.h>
 
+/*
+ * Tracks TLS record boundaries in one direction of a byte stream.
+ */
+typedef struct {
+    unsigned char header[5];
+    int headerLen;
+    PRInt32 remaining;   /* body bytes left in the current record */
+    PRInt64 records;
+} JSSL_RecordCounter;
+
+/*
+ * Handshake metrics of one socket. Times are in microseconds.
+ */
+typedef struct {
+    PRBool counting;     /* a handshake is in progress */
+    PRTime start;        /* first handshake byte sent or received */
+    PRTime end;          /* handshake callback */
+    PRInt64 bytesSent;
+    PRInt64 bytesReceived;
+    JSSL_RecordCounter sent;
+    JSSL_RecordCounter received;
+    PRTime certVerifyTime;          /* verifying the peer's chain */
+    PRTime certApprovalTime;        /* Java approval callback */
+    PRTime clientCertSelectionTime; /* Java client cert selection */
+} JSSL_HandshakeMetrics;
+
 struct JSSL_SocketData {
     PRFileDesc *fd;
     jobject socketObject; /* weak global ref */
@@ -20,6 +46,7 @@ struct JSSL_SocketData {
     PRThread *writer;
     PRThread *accepter;
     PRBool closePending;
+    JSSL_HandshakeMetrics *metrics; /* NULL unless metrics are enabled */
 };
 typedef struct JSSL_SocketData JSSL_SocketData;
 
@@ -120,4 +147,13 @@ JSS_SSL_processExceptions(JNIEnv *env, PRFilePrivate *priv);
 
 void JSSL_throwSSLSocketException(JNIEnv *env, char *message);
 
+JSSL_HandshakeMetrics*
+JSSL_getHandshakeMetrics(PRFileDesc *fd);
+
+void
+JSSL_handshakeMetricsDone(JSSL_HandshakeMetrics *m);
+
+void
+JSSL_handshakeMetricsReset(JSSL_HandshakeMetrics *m);
+
 #endif
@@ -0,0 +1,156 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.mozilla.jss.asn1.ANY;
+import org.mozilla.jss.asn1.ASN1Util;
+import org.mozilla.jss.asn1.ASN1Value;
+import org.mozilla.jss.asn1.EXPLICIT;
+import org.mozilla.jss.asn1.INTEGER;
+import org.mozilla.jss.asn1.OBJECT_IDENTIFIER;
+import org.mozilla.jss.asn1.OCTET_STRING;
+import org.mozilla.jss.asn1.SEQUENCE;
+import org.mozilla.jss.asn1.SET;
+import org.mozilla.jss.asn1.Tag;
+import org.mozilla.jss.util.Assert;
+
+/**
+ * Checks that decoding from a byte array region or a ByteBuffer gives the
+ * same values as decoding from a stream. Does not need an NSS database.
+ */
+public class ASN1DecodeTest {
+
+    // a context-specific tag too large for the short form
+    private static final Tag BIG_TAG = new Tag(Tag.Class.CONTEXT_SPECIFIC, 1000);
+
+    public static void main(String[] args) throws Exception {
+        SEQUENCE.Template template = template();
+        byte[] der = ASN1Util.encode(value());
+
+        // stream path
+        SEQUENCE expected = (SEQUENCE) ASN1Util.decode(template, der);
+        Assert._assert(Arrays.equals(der, ASN1Util.encode(expected)));
+
+        // array region, with bytes before and after it
+        byte[] padded = new byte[der.length + 7];
+        System.arraycopy(der, 0, padded, 3, der.length);
+        SEQUENCE fromArray = (SEQUENCE) template.decode(padded, 3, der.length + 4);
+        check(expected, fromArray, der);
+
+        // heap buffer
+        ByteBuffer heap = ByteBuffer.wrap(padded, 3, der.length + 4);
+        SEQUENCE fromHeap = (SEQUENCE) template.decode(heap);
+        check(expected, fromHeap, der);
+        Assert._assert(heap.position() == 3 + der.length);
+
+        // direct buffer
+        ByteBuffer direct = ByteBuffer.allocateDirect(der.length);
+        direct.put(der);
+        direct.flip();
+        SEQUENCE fromDirect = (SEQUENCE) template.decode(direct);
+        check(expected, fromDirect, der);
+        Assert._assert(!direct.hasRemaining());
+
+        // OCTET_STRING and ANY values refer to the array
+        OCTET_STRING os = (OCTET_STRING) fromArray.elementAt(1);
+        ByteBuffer contents = os.toByteBuffer();
+        Assert._assert(contents.isReadOnly());
+        byte first = contents.get(0);
+        byte[] head = new byte[16];
+        contents.duplicate().get(head);
+        int index = indexOf(padded, head);
+        padded[index]++;
+        Assert._assert(os.toByteBuffer().get(0) == (byte) (first + 1));
+
+        // truncated input is rejected
+        try {
+            template.decode(der, 0, der.length - 1);
+            Assert.notReached("truncated encoding accepted");
+        } catch (java.io.IOException e) {
+        }
+
+        System.out.println("ASN1DecodeTest passed");
+    }
+
+    private static SEQUENCE.Template template() {
+        SEQUENCE.Template inner = new SEQUENCE.Template();
+        inner.addElement(OBJECT_IDENTIFIER.getTemplate());
+        inner.addElement(ANY.getTemplate());
+
+        SEQUENCE.Template t = new SEQUENCE.Template();
+        t.addElement(INTEGER.getTemplate());
+        t.addElement(OCTET_STRING.getTemplate());
+        t.addElement(new SEQUENCE.OF_Template(inner));
+        t.addElement(new SET.OF_Template(INTEGER.getTemplate()));
+        t.addElement(BIG_TAG, OCTET_STRING.getTemplate());
+        t.addOptionalElement(new EXPLICIT.Template(new Tag(0),
+                                                   INTEGER.getTemplate()));
+        return t;
+    }
+
+    private static SEQUENCE value() {
+        byte[] big = new byte[70000];
+        for (int i = 0; i < big.length; i++)
+            big[i] = (byte) i;
+
+        SEQUENCE list = new SEQUENCE();
+        for (int i = 0; i < 50; i++) {
+            SEQUENCE inner = new SEQUENCE();
+            inner.addElement(new OBJECT_IDENTIFIER(new long[] { 1, 2, 840, i }));
+            inner.addElement(new OCTET_STRING(new byte[] { (byte) i, 1, 2 }));
+            list.addElement(inner);
+        }
+
+        SET set = new SET();
+        for (int i = 0; i < 5; i++)
+            set.addElement(new INTEGER(i * 1000));
+
+        SEQUENCE seq = new SEQUENCE();
+        seq.addElement(new INTEGER(123456789L));
+        seq.addElement(new OCTET_STRING(big));
+        seq.addElement(list);
+        seq.addElement(set);
+        seq.addElement(BIG_TAG, new OCTET_STRING(new byte[] { 9, 9 }));
+        seq.addElement(new EXPLICIT(new Tag(0), new INTEGER(-5)));
+        return seq;
+    }
+
+    private static void check(SEQUENCE expected, SEQUENCE actual, byte[] der) {
+        Assert._assert(actual.size() == expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ASN1Value e = expected.elementAt(i);
+            ASN1Value a = actual.elementAt(i);
+            Assert._assert(a.getClass() == e.getClass());
+            Assert._assert(Arrays.equals(ASN1Util.encode(e), ASN1Util.encode(a)));
+        }
+        Assert._assert(Arrays.equals(der, ASN1Util.encode(actual)));
+
+        // an ANY from a slice decodes like one from a copy
+        SEQUENCE inner = (SEQUENCE) ((SEQUENCE) actual.elementAt(2)).elementAt(7);
+        ANY any = (ANY) inner.elementAt(1);
+        try {
+            OCTET_STRING os = (OCTET_STRING) any.decodeWith(
+                    OCTET_STRING.getTemplate());
+            Assert._assert(Arrays.equals(os.toByteArray(),
+                                         new byte[] { 7, 1, 2 }));
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
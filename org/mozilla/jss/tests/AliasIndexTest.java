@@ -0,0 +1,116 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.crypto.KeyGenAlgorithm;
+import org.mozilla.jss.crypto.KeyGenerator;
+import org.mozilla.jss.crypto.KeyPairAlgorithm;
+import org.mozilla.jss.crypto.KeyPairGenerator;
+import org.mozilla.jss.crypto.SecretKeyFacade;
+import org.mozilla.jss.crypto.SymmetricKey;
+import org.mozilla.jss.provider.java.security.JSSLoadStoreParameter;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Checks the alias index of the Mozilla-JSS KeyStore: lookups agree with
+ * the aliases listed, a key created behind the keystore's back is found
+ * even when the index is cached, and keys added or deleted through the
+ * keystore are reflected at once.
+ */
+public class AliasIndexTest {
+
+    private static final String SYMKEY_ALIAS = "AliasIndexTest AES";
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 2 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "AliasIndexTest <dbdir> <passwordFile>");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+        cm.setThreadToken(tok);
+
+        // a keystore whose index is kept, and one that does not cache,
+        // which is the default
+        JSSLoadStoreParameter cached = new JSSLoadStoreParameter(tok);
+        cached.setAliasCacheTimeout(60 * 60 * 1000);
+        KeyStore ks = KeyStore.getInstance("Mozilla-JSS");
+        ks.load(cached);
+        JSSLoadStoreParameter uncached = new JSSLoadStoreParameter(tok);
+        Assert._assert(uncached.getAliasCacheTimeout() == 0);
+        KeyStore fresh = KeyStore.getInstance("Mozilla-JSS");
+        fresh.load(uncached);
+
+        // lookup
+        Set<String> before = aliases(ks);
+        Assert._assert(ks.size() == before.size());
+        Assert._assert(before.equals(aliases(fresh)));
+        for (String alias : before) {
+            Assert._assert(ks.containsAlias(alias));
+        }
+        Assert._assert(!ks.containsAlias("AliasIndexTest no such alias"));
+
+        // a key pair generated directly on the token
+        KeyPairGenerator kpg = tok.getKeyPairGenerator(KeyPairAlgorithm.RSA);
+        kpg.initialize(2048);
+        kpg.genKeyPair();
+
+        Set<String> after = aliases(fresh);
+        Assert._assert(after.size() == before.size() + 1);
+        after.removeAll(before);
+        String keyAlias = after.iterator().next();
+        Assert._assert(fresh.isKeyEntry(keyAlias));
+        Assert._assert(fresh.getKey(keyAlias, null) != null);
+
+        // the cached keystore scans the tokens again rather than report
+        // the alias missing
+        Assert._assert(ks.containsAlias(keyAlias));
+        Assert._assert(ks.isKeyEntry(keyAlias));
+        Assert._assert(ks.getKey(keyAlias, null) != null);
+        Assert._assert(ks.size() == before.size() + 1);
+
+        // a key added through the keystore is indexed at once
+        KeyGenerator kg = tok.getKeyGenerator(KeyGenAlgorithm.AES);
+        kg.initialize(128);
+        kg.temporaryKeys(true);
+        SymmetricKey symKey = kg.generate();
+        Assert._assert(!ks.isKeyEntry(SYMKEY_ALIAS));
+        ks.setKeyEntry(SYMKEY_ALIAS, new SecretKeyFacade(symKey), null, null);
+        Assert._assert(ks.isKeyEntry(SYMKEY_ALIAS));
+        Assert._assert(ks.getKey(SYMKEY_ALIAS, null) != null);
+        Assert._assert(fresh.isKeyEntry(SYMKEY_ALIAS));
+
+        // and a key deleted through the keystore is gone at once
+        ks.deleteEntry(keyAlias);
+        Assert._assert(!ks.containsAlias(keyAlias));
+        Assert._assert(!ks.isKeyEntry(keyAlias));
+        Assert._assert(ks.size() == before.size());
+        Assert._assert(!fresh.containsAlias(keyAlias));
+        Assert._assert(aliases(ks).equals(before));
+
+        ks.deleteEntry(SYMKEY_ALIAS);
+        Assert._assert(!ks.isKeyEntry(SYMKEY_ALIAS));
+        Assert._assert(ks.getKey(SYMKEY_ALIAS, null) == null);
+        Assert._assert(!fresh.isKeyEntry(SYMKEY_ALIAS));
+
+        System.out.println("AliasIndexTest passed");
+        System.exit(0);
+    }
+
+    private static Set<String> aliases(KeyStore ks) throws Exception {
+        return new HashSet<String>(Collections.list(ks.aliases()));
+    }
+}
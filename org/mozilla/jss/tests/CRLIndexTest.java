@@ -0,0 +1,124 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.cert.X509CRLEntry;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.mozilla.jss.netscape.security.util.DerOutputStream;
+import org.mozilla.jss.netscape.security.util.DerValue;
+import org.mozilla.jss.netscape.security.x509.AlgorithmId;
+import org.mozilla.jss.netscape.security.x509.RevokedCertImpl;
+import org.mozilla.jss.netscape.security.x509.RevokedCertificate;
+import org.mozilla.jss.netscape.security.x509.X500Name;
+import org.mozilla.jss.netscape.security.x509.X509CRLImpl;
+import org.mozilla.jss.util.Assert;
+
+/**
+ * Checks that a CRL parsed from a ByteBuffer, which indexes its entries,
+ * answers the same as one parsed from a byte array.
+ * Does not need an NSS database.
+ */
+public class CRLIndexTest {
+
+    // deliberately not in order
+    private static final long[] REVOKED = {
+        5, 1, 70000, 300, 128, 2, 0x7fffffffffL, 255, 3
+    };
+
+    private static final long[] NOT_REVOKED = {
+        0, 4, 6, 127, 256, 69999, 0x8000000000L, -1, -3
+    };
+
+    public static void main(String[] args) throws Exception {
+        byte[] crl = buildCRL();
+
+        X509CRLImpl reference = new X509CRLImpl(crl);
+        compare(reference, new X509CRLImpl(ByteBuffer.wrap(crl)));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(crl.length);
+        direct.put(crl);
+        direct.flip();
+        compare(reference, new X509CRLImpl(direct));
+
+        X509CRLImpl empty = new X509CRLImpl(ByteBuffer.wrap(
+                buildCRL(new RevokedCertificate[0])));
+        Assert._assert(empty.getNumberOfRevokedCertificates() == 0);
+        Assert._assert(empty.getRevokedCertificates() == null);
+        Assert._assert(!empty.isRevoked(BigInteger.ONE));
+
+        System.out.println("CRLIndexTest passed");
+    }
+
+    private static void compare(X509CRLImpl reference, X509CRLImpl indexed)
+            throws Exception {
+        Assert._assert(indexed.getNumberOfRevokedCertificates() ==
+                       REVOKED.length);
+        Assert._assert(indexed.getIssuerDN().equals(reference.getIssuerDN()));
+        Assert._assert(indexed.getThisUpdate().equals(
+                       reference.getThisUpdate()));
+        Assert._assert(indexed.getNextUpdate().equals(
+                       reference.getNextUpdate()));
+
+        for (long serial : REVOKED) {
+            BigInteger sn = BigInteger.valueOf(serial);
+            Assert._assert(indexed.isRevoked(sn));
+            X509CRLEntry expected = reference.getRevokedCertificate(sn);
+            X509CRLEntry actual = indexed.getRevokedCertificate(sn);
+            Assert._assert(actual != null);
+            Assert._assert(actual.getSerialNumber().equals(sn));
+            Assert._assert(actual.getRevocationDate().equals(
+                           expected.getRevocationDate()));
+        }
+
+        for (long serial : NOT_REVOKED) {
+            BigInteger sn = BigInteger.valueOf(serial);
+            Assert._assert(!indexed.isRevoked(sn));
+            Assert._assert(indexed.getRevokedCertificate(sn) == null);
+        }
+
+        Assert._assert(indexed.getRevokedCertificates().size() ==
+                       REVOKED.length);
+        Assert._assert(indexed.getListOfRevokedCertificates().keySet().equals(
+                       reference.getListOfRevokedCertificates().keySet()));
+        Assert._assert(Arrays.equals(indexed.getEncoded(),
+                       reference.getEncoded()));
+        Assert._assert(Arrays.equals(indexed.getTBSCertList(),
+                       reference.getTBSCertList()));
+    }
+
+    private static byte[] buildCRL() throws Exception {
+        RevokedCertificate[] badCerts = new RevokedCertificate[REVOKED.length];
+        for (int i = 0; i < REVOKED.length; i++) {
+            badCerts[i] = new RevokedCertImpl(BigInteger.valueOf(REVOKED[i]),
+                    new Date(1500000000000L + i * 1000L));
+        }
+        return buildCRL(badCerts);
+    }
+
+    /**
+     * Encodes an unsigned CRL; the signature is a dummy bit string, which
+     * is enough for parsing.
+     */
+    private static byte[] buildCRL(RevokedCertificate[] badCerts)
+            throws Exception {
+        AlgorithmId algId = AlgorithmId.get("SHA256withRSA");
+        Date thisUpdate = new Date(1500000000000L);
+        Date nextUpdate = new Date(1500086400000L);
+        X509CRLImpl crl = new X509CRLImpl(new X500Name("CN=CRL Index Test"),
+                algId, thisUpdate, nextUpdate, badCerts, null);
+
+        DerOutputStream tmp = new DerOutputStream();
+        crl.encodeInfo(tmp);
+        algId.encode(tmp);
+        tmp.putBitString(new byte[] { 1, 2, 3, 4 });
+
+        DerOutputStream out = new DerOutputStream();
+        out.write(DerValue.tag_Sequence, tmp);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,84 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.mozilla.jss.netscape.security.x509.CRLExtensions;
+import org.mozilla.jss.netscape.security.x509.CRLNumberExtension;
+import org.mozilla.jss.netscape.security.x509.CRLStreamEncoder;
+import org.mozilla.jss.netscape.security.x509.RevokedCertImpl;
+import org.mozilla.jss.netscape.security.x509.RevokedCertificate;
+import org.mozilla.jss.netscape.security.x509.X500Name;
+import org.mozilla.jss.netscape.security.x509.X509CRLImpl;
+import org.mozilla.jss.util.Assert;
+
+/**
+ * Checks that CRLStreamEncoder produces the same signed CRL as
+ * X509CRLImpl.sign(). Uses the default JDK providers, so it does not
+ * need an NSS database.
+ */
+public class CRLStreamEncoderTest {
+
+    public static void main(String[] args) throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(2048);
+        KeyPair pair = kpg.generateKeyPair();
+
+        X500Name issuer = new X500Name("CN=CRL Stream Encoder Test");
+        Date thisUpdate = new Date(1500000000000L);
+        Date nextUpdate = new Date(1500086400000L);
+
+        // no entries, v1
+        test(pair, issuer, thisUpdate, null, new RevokedCertificate[0], null);
+
+        // many entries and a CRL number, so the lengths need several octets
+        RevokedCertificate[] badCerts = new RevokedCertificate[5000];
+        for (int i = 0; i < badCerts.length; i++) {
+            badCerts[i] = new RevokedCertImpl(BigInteger.valueOf(i * 7919L),
+                    new Date(1500000000000L + i * 1000L));
+        }
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLNumberExtension.NAME,
+                 new CRLNumberExtension(BigInteger.valueOf(42)));
+        test(pair, issuer, thisUpdate, nextUpdate, badCerts, exts);
+
+        System.out.println("CRLStreamEncoderTest passed");
+    }
+
+    private static void test(KeyPair pair, X500Name issuer, Date thisUpdate,
+            Date nextUpdate, RevokedCertificate[] badCerts, CRLExtensions exts)
+            throws Exception {
+        X509CRLImpl reference = new X509CRLImpl(issuer, thisUpdate,
+                nextUpdate, badCerts, exts);
+        reference.sign(pair.getPrivate(), "SHA256withRSA");
+        byte[] expected = reference.getEncoded();
+
+        // write the entries in the order X509CRLImpl did
+        List<RevokedCertificate> entries = new ArrayList<>();
+        if (reference.getRevokedCertificates() != null)
+            entries.addAll(reference.getRevokedCertificates());
+
+        CRLStreamEncoder encoder = new CRLStreamEncoder(issuer, thisUpdate,
+                nextUpdate, entries, exts);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length = encoder.sign(pair.getPrivate(), "SHA256withRSA", out);
+        byte[] actual = out.toByteArray();
+
+        Assert._assert(length == actual.length);
+        Assert._assert(Arrays.equals(expected, actual));
+
+        X509CRLImpl parsed = new X509CRLImpl(actual);
+        parsed.verify(pair.getPublic(), "SunRsaSign");
+        Assert._assert(parsed.getNumberOfRevokedCertificates() ==
+                       badCerts.length);
+    }
+}
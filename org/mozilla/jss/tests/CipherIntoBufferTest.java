@@ -0,0 +1,229 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.crypto.ShortBufferException;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.Cipher;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.crypto.EncryptionAlgorithm;
+import org.mozilla.jss.crypto.IVParameterSpec;
+import org.mozilla.jss.crypto.KeyGenAlgorithm;
+import org.mozilla.jss.crypto.KeyGenerator;
+import org.mozilla.jss.crypto.SymmetricKey;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Checks that the Cipher methods which write into a caller's array or
+ * ByteBuffer produce the same output as the allocating doFinal(), for
+ * separate, identical and overlapping input and output regions, with
+ * heap and direct buffers.
+ */
+public class CipherIntoBufferTest {
+
+    private static final EncryptionAlgorithm ALG =
+        EncryptionAlgorithm.AES_128_CBC_PAD;
+
+    private static Cipher cipher;
+    private static SymmetricKey key;
+    private static IVParameterSpec iv;
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 2 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "CipherIntoBufferTest <dbdir> <passwordFile>");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalCryptoToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        KeyGenerator kg = tok.getKeyGenerator(KeyGenAlgorithm.AES);
+        kg.initialize(128);
+        key = kg.generate();
+        iv = new IVParameterSpec(pattern(16, 7));
+        cipher = tok.getCipherContext(ALG);
+
+        // not a multiple of the block size, so update() holds some back
+        byte[] plain = pattern(37, 3);
+        cipher.initEncrypt(key, iv);
+        byte[] expected = cipher.doFinal(plain);
+        cipher.initDecrypt(key, iv);
+        Assert._assert(Arrays.equals(plain, cipher.doFinal(expected)));
+
+        checkArrays(plain, expected);
+        checkHeapBuffers(plain, expected);
+        checkDirectBuffers(plain, expected);
+        checkDecrypt(plain, expected);
+        checkShortBuffer(plain);
+        checkLarge();
+
+        System.out.println("CipherIntoBufferTest passed");
+        System.exit(0);
+    }
+
+    private static void checkArrays(byte[] plain, byte[] expected)
+            throws Exception {
+        // separate arrays, in two steps
+        cipher.initEncrypt(key, iv);
+        byte[] out = new byte[cipher.getOutputSize(plain.length)];
+        int n = cipher.update(plain, 0, 20, out, 0);
+        n += cipher.doFinal(plain, 20, plain.length - 20, out, n);
+        Assert._assert(n == expected.length);
+        Assert._assert(Arrays.equals(expected, Arrays.copyOf(out, n)));
+
+        // in place, and with the output before and after the input
+        for (int shift = -5; shift <= 5; shift += 5) {
+            cipher.initEncrypt(key, iv);
+            byte[] buf = new byte[cipher.getOutputSize(plain.length) + 10];
+            int inOff = 5;
+            System.arraycopy(plain, 0, buf, inOff, plain.length);
+            n = cipher.doFinal(buf, inOff, plain.length, buf, inOff + shift);
+            Assert._assert(n == expected.length);
+            Assert._assert(Arrays.equals(expected,
+                Arrays.copyOfRange(buf, inOff + shift, inOff + shift + n)));
+        }
+    }
+
+    private static void checkHeapBuffers(byte[] plain, byte[] expected)
+            throws Exception {
+        cipher.initEncrypt(key, iv);
+        ByteBuffer in = ByteBuffer.wrap(plain);
+        ByteBuffer out = ByteBuffer.allocate(
+            cipher.getOutputSize(plain.length));
+        int n = cipher.doFinal(in, out);
+        Assert._assert(n == expected.length);
+        Assert._assert(!in.hasRemaining());
+        Assert._assert(out.position() == n);
+        Assert._assert(Arrays.equals(expected,
+            Arrays.copyOf(out.array(), n)));
+
+        // in place
+        cipher.initEncrypt(key, iv);
+        ByteBuffer buf = ByteBuffer.allocate(
+            cipher.getOutputSize(plain.length));
+        buf.put(plain).flip();
+        out = buf.duplicate();
+        out.clear();
+        n = cipher.doFinal(buf, out);
+        Assert._assert(n == expected.length);
+        Assert._assert(Arrays.equals(expected,
+            Arrays.copyOf(buf.array(), n)));
+    }
+
+    private static void checkDirectBuffers(byte[] plain, byte[] expected)
+            throws Exception {
+        cipher.initEncrypt(key, iv);
+        ByteBuffer in = ByteBuffer.allocateDirect(plain.length);
+        in.put(plain).flip();
+        ByteBuffer out = ByteBuffer.allocateDirect(
+            cipher.getOutputSize(plain.length));
+        int n = cipher.update(in, out);
+        n += cipher.doFinal(in, out);
+        Assert._assert(n == expected.length);
+        Assert._assert(!in.hasRemaining());
+        Assert._assert(Arrays.equals(expected, contents(out)));
+
+        // in place, and with the output before and after the input
+        for (int shift = -5; shift <= 5; shift += 5) {
+            cipher.initEncrypt(key, iv);
+            ByteBuffer buf = ByteBuffer.allocateDirect(
+                cipher.getOutputSize(plain.length) + 10);
+            int inPos = 5;
+            buf.position(inPos);
+            buf.put(plain);
+            in = buf.duplicate();
+            in.limit(inPos + plain.length).position(inPos);
+            out = buf.duplicate();
+            out.clear().position(inPos + shift);
+            n = cipher.doFinal(in, out);
+            Assert._assert(n == expected.length);
+            out.limit(out.position()).position(inPos + shift);
+            Assert._assert(Arrays.equals(expected, remaining(out)));
+        }
+    }
+
+    private static void checkDecrypt(byte[] plain, byte[] expected)
+            throws Exception {
+        // into an array, in place
+        cipher.initDecrypt(key, iv);
+        byte[] buf = expected.clone();
+        int n = cipher.doFinal(buf, 0, buf.length, buf, 0);
+        Assert._assert(n == plain.length);
+        Assert._assert(Arrays.equals(plain, Arrays.copyOf(buf, n)));
+
+        // through direct buffers
+        cipher.initDecrypt(key, iv);
+        ByteBuffer in = ByteBuffer.allocateDirect(expected.length);
+        in.put(expected).flip();
+        ByteBuffer out = ByteBuffer.allocateDirect(
+            cipher.getOutputSize(expected.length));
+        n = cipher.doFinal(in, out);
+        Assert._assert(n == plain.length);
+        Assert._assert(Arrays.equals(plain, contents(out)));
+    }
+
+    private static void checkShortBuffer(byte[] plain) throws Exception {
+        // a finalization with nowhere to put the padding block
+        cipher.initEncrypt(key, iv);
+        byte[] out = new byte[plain.length];
+        int n = cipher.update(plain, 0, 32, out, 0);
+        try {
+            cipher.doFinal(plain, 32, plain.length - 32, out, n);
+            Assert.notReached("short output buffer should fail");
+        } catch (ShortBufferException e) {
+            // expected
+        }
+    }
+
+    private static void checkLarge() throws Exception {
+        // several native chunks, with the output well into the input
+        byte[] plain = pattern(10000, 5);
+        cipher.initEncrypt(key, iv);
+        byte[] expected = cipher.doFinal(plain);
+
+        for (int shift : new int[] { -3000, 0, 100, 3000 }) {
+            cipher.initEncrypt(key, iv);
+            int inOff = Math.max(-shift, 0);
+            byte[] buf = new byte[inOff + Math.max(shift, 0) +
+                cipher.getOutputSize(plain.length)];
+            System.arraycopy(plain, 0, buf, inOff, plain.length);
+            int n = cipher.doFinal(buf, inOff, plain.length,
+                buf, inOff + shift);
+            Assert._assert(n == expected.length);
+            Assert._assert(Arrays.equals(expected,
+                Arrays.copyOfRange(buf, inOff + shift, inOff + shift + n)));
+        }
+    }
+
+    /**
+     * Returns the bytes written to a buffer, from 0 to its position.
+     */
+    private static byte[] contents(ByteBuffer buf) {
+        ByteBuffer dup = buf.duplicate();
+        dup.flip();
+        return remaining(dup);
+    }
+
+    private static byte[] remaining(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] pattern(int len, int seed) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,609 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.crypto.DigestAlgorithm;
+import org.mozilla.jss.crypto.EncryptionAlgorithm;
+import org.mozilla.jss.crypto.HMACAlgorithm;
+import org.mozilla.jss.crypto.IVParameterSpec;
+import org.mozilla.jss.crypto.JSSMessageDigest;
+import org.mozilla.jss.crypto.KeyWrapAlgorithm;
+import org.mozilla.jss.crypto.KeyWrapper;
+import org.mozilla.jss.crypto.SecretKeyFacade;
+import org.mozilla.jss.crypto.SignatureAlgorithm;
+import org.mozilla.jss.crypto.SymmetricKey;
+
+/**
+ * Throughput benchmarks for bulk ciphers, HMAC, digests, signatures and
+ * key wrapping. Each operation is measured through the JCA with the
+ * Mozilla-JSS provider, through the JSS API directly (PK11Cipher,
+ * PK11Signature, ...), and where available through the JDK's own
+ * providers for comparison, at several message sizes and thread counts.
+ *
+ * Each thread has its own Cipher/Mac/Signature instance; the keys are
+ * shared. Run it against a database created by SetupDBs:
+ *
+ * <pre>
+ * java org.mozilla.jss.tests.SetupDBs /tmp/benchdb passwords
+ * java org.mozilla.jss.tests.CryptoBenchmark /tmp/benchdb passwords \
+ *     3 64,1024,16384 1,8 aes
+ * </pre>
+ *
+ * The optional last argument selects the benchmarks whose name contains
+ * it. Output is one line per benchmark, size and thread count, so two
+ * runs can be compared with diff or a spreadsheet.
+ */
+public class CryptoBenchmark {
+
+    static final String JSS = "Mozilla-JSS";
+
+    /**
+     * One operation, run repeatedly by a single thread.
+     */
+    interface Op {
+        void run() throws Exception;
+    }
+
+    /**
+     * Creates a thread's Op for a message size.
+     */
+    interface OpFactory {
+        Op create(int size) throws Exception;
+    }
+
+    static class Bench {
+        final String name;
+        final boolean sized; // false: measured once, size is ignored
+        final OpFactory factory;
+
+        Bench(String name, boolean sized, OpFactory factory) {
+            this.name = name;
+            this.sized = sized;
+            this.factory = factory;
+        }
+    }
+
+    private static final byte[] IV = new byte[16];
+    private static final byte[] IV8 = new byte[8];
+    private static final int SIGNED_DATA_SIZE = 256;
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 2 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "CryptoBenchmark <dbdir> <passwordFile> [seconds] " +
+                "[sizes] [threads] [filter]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        cm.setPasswordCallback(new FilePasswordCallback(args[1]));
+        CryptoToken token = cm.getInternalKeyStorageToken();
+        cm.setThreadToken(token);
+
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+        int[] sizes = parseList((args.length > 3) ? args[3] : "64,1024,16384");
+        int[] threads = parseList((args.length > 4) ? args[4] : "1,8");
+        String filter = (args.length > 5) ? args[5] : "";
+
+        List<Bench> benches = new ArrayList<>();
+        addCipherBenches(benches, token);
+        addMacAndDigestBenches(benches);
+        addSignatureBenches(benches, token);
+        addWrapBenches(benches, token);
+
+        System.out.printf("%-32s %7s %7s %14s %10s%n",
+            "benchmark", "size", "threads", "ops/s", "MB/s");
+        for ( Bench b : benches ) {
+            if ( !b.name.contains(filter) ) {
+                continue;
+            }
+            int[] benchSizes = b.sized ? sizes : new int[] { SIGNED_DATA_SIZE };
+            for ( int size : benchSizes ) {
+                for ( int n : threads ) {
+                    double ops;
+                    try {
+                        run(b, size, n, 1); // warm up
+                        ops = run(b, size, n, seconds);
+                    } catch ( GeneralSecurityException e ) {
+                        System.out.printf("%-32s skipped: %s%n", b.name, e);
+                        break;
+                    }
+                    System.out.printf("%-32s %7s %7d %,14.0f %10s%n",
+                        b.name, b.sized ? size : "-", n, ops,
+                        b.sized ? String.format("%.1f",
+                            ops * size / (1024 * 1024)) : "-");
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Bulk ciphers
+    ///////////////////////////////////////////////////////////////////////
+
+    private static void addCipherBenches(List<Bench> benches,
+        final CryptoToken token) throws Exception
+    {
+        final SecretKey aesJss = genKey("AES", 128, JSS);
+        final SecretKey des3Jss = genKey("DESede", 168, JSS);
+        final SecretKey aesSun = new SecretKeySpec(randomBytes(16), "AES");
+        final SecretKey des3Sun =
+            new SecretKeySpec(randomBytes(24), "DESede");
+
+        addJcaCipher(benches, "jca-jss-aes128-cbc", "AES/CBC/PKCS5Padding",
+            JSS, aesJss, IV);
+        addJcaCipher(benches, "jca-sun-aes128-cbc", "AES/CBC/PKCS5Padding",
+            "SunJCE", aesSun, IV);
+        addJcaCipher(benches, "jca-jss-des3-cbc", "DESede/CBC/PKCS5Padding",
+            JSS, des3Jss, IV8);
+        addJcaCipher(benches, "jca-sun-des3-cbc", "DESede/CBC/PKCS5Padding",
+            "SunJCE", des3Sun, IV8);
+
+        addNativeCipher(benches, "jss-aes128-cbc", token,
+            EncryptionAlgorithm.AES_128_CBC_PAD,
+            ((SecretKeyFacade) aesJss).key, IV);
+        addNativeCipher(benches, "jss-des3-cbc", token,
+            EncryptionAlgorithm.DES3_CBC_PAD,
+            ((SecretKeyFacade) des3Jss).key, IV8);
+    }
+
+    private static void addJcaCipher(List<Bench> benches, String name,
+        final String transformation, final String provider,
+        final SecretKey key, final byte[] iv)
+    {
+        benches.add(new Bench(name + "-enc", true, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final Cipher c = Cipher.getInstance(transformation, provider);
+                c.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+                final byte[] in = randomBytes(size);
+                final byte[] out = new byte[c.getOutputSize(size)];
+                return new Op() {
+                    public void run() throws Exception {
+                        c.doFinal(in, 0, in.length, out, 0);
+                    }
+                };
+            }
+        }));
+        benches.add(new Bench(name + "-dec", true, new OpFactory() {
+            public Op create(int size) throws Exception {
+                Cipher enc = Cipher.getInstance(transformation, provider);
+                enc.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+                final byte[] in = enc.doFinal(randomBytes(size));
+                final Cipher c = Cipher.getInstance(transformation, provider);
+                c.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+                final byte[] out = new byte[c.getOutputSize(in.length)];
+                return new Op() {
+                    public void run() throws Exception {
+                        c.doFinal(in, 0, in.length, out, 0);
+                    }
+                };
+            }
+        }));
+    }
+
+    private static void addNativeCipher(List<Bench> benches, String name,
+        final CryptoToken token, final EncryptionAlgorithm alg,
+        final SymmetricKey key, final byte[] iv)
+    {
+        benches.add(new Bench(name + "-enc", true, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final org.mozilla.jss.crypto.Cipher c =
+                    token.getCipherContext(alg);
+                final byte[] in = randomBytes(size);
+                final byte[] out = new byte[c.getOutputSize(size)];
+                return new Op() {
+                    public void run() throws Exception {
+                        c.initEncrypt(key, new IVParameterSpec(iv));
+                        c.doFinal(in, 0, in.length, out, 0);
+                    }
+                };
+            }
+        }));
+        benches.add(new Bench(name + "-dec", true, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final org.mozilla.jss.crypto.Cipher c =
+                    token.getCipherContext(alg);
+                c.initEncrypt(key, new IVParameterSpec(iv));
+                final byte[] in = c.doFinal(randomBytes(size));
+                final byte[] out = new byte[c.getOutputSize(in.length)];
+                return new Op() {
+                    public void run() throws Exception {
+                        c.initDecrypt(key, new IVParameterSpec(iv));
+                        c.doFinal(in, 0, in.length, out, 0);
+                    }
+                };
+            }
+        }));
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // HMAC and digests
+    ///////////////////////////////////////////////////////////////////////
+
+    private static void addMacAndDigestBenches(List<Bench> benches)
+        throws Exception
+    {
+        // as in HMACTest, JSS HMAC keys come from a PBE key factory
+        PBEKeySpec spec = new PBEKeySpec("password".toCharArray(),
+            randomBytes(8), 7);
+        final SecretKeyFacade hmacJss = (SecretKeyFacade)
+            SecretKeyFactory.getInstance("PBEWithSHA1AndDES3", JSS)
+                .generateSecret(spec);
+        final SecretKey hmacSun =
+            new SecretKeySpec(randomBytes(32), "HmacSHA256");
+
+        addJcaMac(benches, "jca-jss-hmac-sha256", JSS, hmacJss);
+        addJcaMac(benches, "jca-sun-hmac-sha256", "SunJCE", hmacSun);
+        benches.add(new Bench("jss-hmac-sha256-oneshot", true,
+            new OpFactory() {
+            public Op create(int size) {
+                final byte[] in = randomBytes(size);
+                final byte[] out = new byte[HMACAlgorithm.SHA256.getOutputSize()];
+                return new Op() {
+                    public void run() throws Exception {
+                        HMACAlgorithm.SHA256.digest(hmacJss.key, in, 0,
+                            in.length, out, 0);
+                    }
+                };
+            }
+        }));
+
+        String[] digests = { "SHA-1", "SHA-256", "SHA-512" };
+        final DigestAlgorithm[] algs = { DigestAlgorithm.SHA1,
+            DigestAlgorithm.SHA256, DigestAlgorithm.SHA512 };
+        for ( int i = 0; i < digests.length; i++ ) {
+            String id = digests[i].toLowerCase().replace("-", "");
+            addJcaDigest(benches, "jca-jss-" + id, digests[i], JSS);
+            addJcaDigest(benches, "jca-sun-" + id, digests[i], "SUN");
+
+            final DigestAlgorithm alg = algs[i];
+            benches.add(new Bench("jss-" + id + "-context", true,
+                new OpFactory() {
+                public Op create(int size) throws Exception {
+                    final JSSMessageDigest md =
+                        CryptoManager.getInstance().getInternalCryptoToken()
+                            .getDigestContext(alg);
+                    final byte[] in = randomBytes(size);
+                    final byte[] out = new byte[alg.getOutputSize()];
+                    return new Op() {
+                        public void run() throws Exception {
+                            md.update(in, 0, in.length);
+                            md.digest(out, 0, out.length);
+                        }
+                    };
+                }
+            }));
+            benches.add(new Bench("jss-" + id + "-oneshot", true,
+                new OpFactory() {
+                public Op create(int size) {
+                    final byte[] in = randomBytes(size);
+                    final byte[] out = new byte[alg.getOutputSize()];
+                    return new Op() {
+                        public void run() throws Exception {
+                            alg.digest(in, 0, in.length, out, 0);
+                        }
+                    };
+                }
+            }));
+        }
+    }
+
+    private static void addJcaMac(List<Bench> benches, String name,
+        final String provider, final SecretKey key)
+    {
+        benches.add(new Bench(name, true, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final Mac mac = Mac.getInstance("HmacSHA256", provider);
+                mac.init(key);
+                final byte[] in = randomBytes(size);
+                final byte[] out = new byte[mac.getMacLength()];
+                return new Op() {
+                    public void run() throws Exception {
+                        mac.update(in);
+                        mac.doFinal(out, 0);
+                    }
+                };
+            }
+        }));
+    }
+
+    private static void addJcaDigest(List<Bench> benches, String name,
+        final String alg, final String provider)
+    {
+        benches.add(new Bench(name, true, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final MessageDigest md = MessageDigest.getInstance(alg,
+                    provider);
+                final byte[] in = randomBytes(size);
+                final byte[] out = new byte[md.getDigestLength()];
+                return new Op() {
+                    public void run() throws Exception {
+                        md.update(in);
+                        md.digest(out, 0, out.length);
+                    }
+                };
+            }
+        }));
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Signatures
+    ///////////////////////////////////////////////////////////////////////
+
+    private static void addSignatureBenches(List<Bench> benches,
+        final CryptoToken token) throws Exception
+    {
+        KeyPair rsaJss = genKeyPair("RSA", JSS, 2048);
+        KeyPair ecJss = genKeyPair("EC", JSS, 256);
+        KeyPair rsaSun = genKeyPair("RSA", "SunRsaSign", 2048);
+        KeyPair ecSun = genKeyPair("EC", "SunEC", 256);
+
+        addJcaSignature(benches, "jca-jss-rsa2048-sha256", "SHA256withRSA",
+            JSS, rsaJss);
+        addJcaSignature(benches, "jca-sun-rsa2048-sha256", "SHA256withRSA",
+            "SunRsaSign", rsaSun);
+        addJcaSignature(benches, "jca-jss-ecp256-sha256", "SHA256withEC",
+            JSS, ecJss);
+        addJcaSignature(benches, "jca-sun-ecp256-sha256", "SHA256withECDSA",
+            "SunEC", ecSun);
+
+        addNativeSignature(benches, "jss-rsa2048-sha256", token,
+            SignatureAlgorithm.RSASignatureWithSHA256Digest, rsaJss);
+        addNativeSignature(benches, "jss-ecp256-sha256", token,
+            SignatureAlgorithm.ECSignatureWithSHA256Digest, ecJss);
+    }
+
+    private static void addJcaSignature(List<Bench> benches, String name,
+        final String alg, final String provider, final KeyPair pair)
+    {
+        if ( pair == null ) {
+            return;
+        }
+        benches.add(new Bench(name + "-sign", false, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final Signature sig = Signature.getInstance(alg, provider);
+                final byte[] data = randomBytes(size);
+                return new Op() {
+                    public void run() throws Exception {
+                        sig.initSign(pair.getPrivate());
+                        sig.update(data);
+                        sig.sign();
+                    }
+                };
+            }
+        }));
+        benches.add(new Bench(name + "-verify", false, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final Signature sig = Signature.getInstance(alg, provider);
+                final byte[] data = randomBytes(size);
+                sig.initSign(pair.getPrivate());
+                sig.update(data);
+                final byte[] signature = sig.sign();
+                return new Op() {
+                    public void run() throws Exception {
+                        sig.initVerify(pair.getPublic());
+                        sig.update(data);
+                        if ( !sig.verify(signature) ) {
+                            throw new Exception("verification failed");
+                        }
+                    }
+                };
+            }
+        }));
+    }
+
+    private static void addNativeSignature(List<Bench> benches, String name,
+        final CryptoToken token, final SignatureAlgorithm alg,
+        final KeyPair pair)
+    {
+        if ( pair == null ) {
+            return;
+        }
+        final org.mozilla.jss.crypto.PrivateKey priv =
+            (org.mozilla.jss.crypto.PrivateKey) pair.getPrivate();
+        benches.add(new Bench(name + "-sign", false, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final org.mozilla.jss.crypto.Signature sig =
+                    token.getSignatureContext(alg);
+                final byte[] data = randomBytes(size);
+                return new Op() {
+                    public void run() throws Exception {
+                        sig.initSign(priv);
+                        sig.update(data);
+                        sig.sign();
+                    }
+                };
+            }
+        }));
+        benches.add(new Bench(name + "-verify", false, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final org.mozilla.jss.crypto.Signature sig =
+                    token.getSignatureContext(alg);
+                final byte[] data = randomBytes(size);
+                sig.initSign(priv);
+                sig.update(data);
+                final byte[] signature = sig.sign();
+                return new Op() {
+                    public void run() throws Exception {
+                        sig.initVerify(pair.getPublic());
+                        sig.update(data);
+                        if ( !sig.verify(signature) ) {
+                            throw new Exception("verification failed");
+                        }
+                    }
+                };
+            }
+        }));
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Key wrapping
+    ///////////////////////////////////////////////////////////////////////
+
+    private static void addWrapBenches(List<Bench> benches,
+        final CryptoToken token) throws Exception
+    {
+        final SecretKey kekJss = genKey("AES", 128, JSS);
+        final SecretKey keyJss = genKey("AES", 128, JSS);
+        final SecretKey kekSun = new SecretKeySpec(randomBytes(16), "AES");
+        final SecretKey keySun = new SecretKeySpec(randomBytes(16), "AES");
+
+        addJcaWrap(benches, "jca-jss-wrap-aes128-cbc", JSS, kekJss, keyJss);
+        addJcaWrap(benches, "jca-sun-wrap-aes128-cbc", "SunJCE", kekSun,
+            keySun);
+
+        final SymmetricKey kek = ((SecretKeyFacade) kekJss).key;
+        final SymmetricKey key = ((SecretKeyFacade) keyJss).key;
+        benches.add(new Bench("jss-wrap-aes128-cbc", false, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final KeyWrapper wrapper =
+                    token.getKeyWrapper(KeyWrapAlgorithm.AES_CBC_PAD);
+                return new Op() {
+                    public void run() throws Exception {
+                        wrapper.initWrap(kek, new IVParameterSpec(IV));
+                        wrapper.wrap(key);
+                    }
+                };
+            }
+        }));
+    }
+
+    private static void addJcaWrap(List<Bench> benches, String name,
+        final String provider, final SecretKey kek, final SecretKey key)
+    {
+        benches.add(new Bench(name, false, new OpFactory() {
+            public Op create(int size) throws Exception {
+                final Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding",
+                    provider);
+                return new Op() {
+                    public void run() throws Exception {
+                        c.init(Cipher.WRAP_MODE, kek,
+                            new IvParameterSpec(IV));
+                        c.wrap(key);
+                    }
+                };
+            }
+        }));
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Measurement
+    ///////////////////////////////////////////////////////////////////////
+
+    private static double run(Bench b, int size, int threads, int seconds)
+        throws Exception
+    {
+        final Op[] ops = new Op[threads];
+        for ( int i = 0; i < threads; i++ ) {
+            ops[i] = b.factory.create(size);
+        }
+
+        final AtomicLong total = new AtomicLong();
+        final Exception[] failure = new Exception[1];
+        final CountDownLatch start = new CountDownLatch(1);
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        Thread[] workers = new Thread[threads];
+
+        for ( int i = 0; i < threads; i++ ) {
+            final Op op = ops[i];
+            workers[i] = new Thread() {
+                public void run() {
+                    long n = 0;
+                    try {
+                        start.await();
+                        while ( System.nanoTime() < deadline ) {
+                            op.run();
+                            n++;
+                        }
+                    } catch ( Exception e ) {
+                        synchronized ( failure ) {
+                            failure[0] = e;
+                        }
+                    }
+                    total.addAndGet(n);
+                }
+            };
+            workers[i].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for ( Thread t : workers ) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        synchronized ( failure ) {
+            if ( failure[0] != null ) {
+                throw failure[0];
+            }
+        }
+        return total.get() / elapsed;
+    }
+
+    private static SecretKey genKey(String alg, int bits, String provider)
+        throws GeneralSecurityException
+    {
+        KeyGenerator kg = KeyGenerator.getInstance(alg, provider);
+        kg.init(bits);
+        return kg.generateKey();
+    }
+
+    private static KeyPair genKeyPair(String alg, String provider, int bits)
+    {
+        try {
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance(alg, provider);
+            if ( alg.equals("EC") && !provider.equals(JSS) ) {
+                kpg.initialize(new ECGenParameterSpec("secp256r1"));
+            } else {
+                kpg.initialize(bits);
+            }
+            return kpg.generateKeyPair();
+        } catch ( GeneralSecurityException e ) {
+            System.out.println("No " + alg + " keys from " + provider +
+                ": " + e);
+            return null;
+        }
+    }
+
+    private static final Random random = new Random(1);
+
+    private static synchronized byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        random.nextBytes(b);
+        return b;
+    }
+
+    private static int[] parseList(String s) {
+        String[] parts = s.split(",");
+        int[] values = new int[parts.length];
+        for ( int i = 0; i < parts.length; i++ ) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,160 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CRLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.mozilla.jss.netscape.security.x509.CRLExtensions;
+import org.mozilla.jss.netscape.security.x509.CRLNumberExtension;
+import org.mozilla.jss.netscape.security.x509.CRLReasonExtension;
+import org.mozilla.jss.netscape.security.x509.DeltaCRLEngine;
+import org.mozilla.jss.netscape.security.x509.RevokedCertImpl;
+import org.mozilla.jss.netscape.security.x509.RevokedCertificate;
+import org.mozilla.jss.netscape.security.x509.X500Name;
+import org.mozilla.jss.netscape.security.x509.X509CRLImpl;
+import org.mozilla.jss.util.Assert;
+
+/**
+ * Generates a delta CRL against a base CRL and applies it back, checking
+ * the merged result. Uses the default JDK providers, so it does not need
+ * an NSS database.
+ */
+public class DeltaCRLTest {
+
+    private static final Date REVOKED = new Date(1500000000000L);
+    private static final Date LATER = new Date(1500050000000L);
+
+    public static void main(String[] args) throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(2048);
+        KeyPair pair = kpg.generateKeyPair();
+        X500Name issuer = new X500Name("CN=Delta CRL Test");
+
+        // base CRL number 10 revoking 10, 20, ..., 100
+        RevokedCertificate[] baseCerts = new RevokedCertificate[10];
+        for (int i = 0; i < baseCerts.length; i++)
+            baseCerts[i] = entry(10 * (i + 1), REVOKED, null);
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLNumberExtension.NAME,
+                 new CRLNumberExtension(BigInteger.TEN));
+        X509CRLImpl full = new X509CRLImpl(issuer, REVOKED, LATER,
+                baseCerts, exts);
+        full.sign(pair.getPrivate(), "SHA256withRSA");
+        byte[] baseBytes = full.getEncoded();
+
+        // parsed both ways, the engine must give the same answers
+        check(pair, new X509CRLImpl(baseBytes));
+        check(pair, new X509CRLImpl(ByteBuffer.wrap(baseBytes)));
+
+        System.out.println("DeltaCRLTest passed");
+    }
+
+    private static void check(KeyPair pair, X509CRLImpl base) throws Exception {
+        DeltaCRLEngine engine = new DeltaCRLEngine(base);
+
+        List<RevokedCertificate> changes = new ArrayList<>();
+        changes.add(entry(5, LATER, null));              // new
+        changes.add(entry(10, REVOKED, null));           // unchanged
+        changes.add(entry(30, REVOKED,
+                CRLReasonExtension.REMOVE_FROM_CRL));    // removed
+        changes.add(entry(35, LATER,
+                CRLReasonExtension.REMOVE_FROM_CRL));    // not in base
+        changes.add(entry(50, REVOKED,
+                CRLReasonExtension.KEY_COMPROMISE));     // reason added
+        changes.add(entry(150, LATER, null));            // new
+
+        X509CRLImpl delta = engine.generate(changes.iterator(),
+                BigInteger.valueOf(11), LATER, null);
+        delta.sign(pair.getPrivate(), "SHA256withRSA");
+        delta = new X509CRLImpl(delta.getEncoded());
+
+        Assert._assert(delta.isDeltaCRL());
+        Assert._assert(delta.getDeltaBaseCRLNumber().equals(BigInteger.TEN));
+        Assert._assert(delta.getCRLNumber().equals(BigInteger.valueOf(11)));
+        Assert._assert(delta.getNumberOfRevokedCertificates() == 4);
+        Assert._assert(delta.isRevoked(BigInteger.valueOf(5)));
+        Assert._assert(!delta.isRevoked(BigInteger.TEN));
+        Assert._assert(delta.isRevoked(BigInteger.valueOf(30)));
+        Assert._assert(!delta.isRevoked(BigInteger.valueOf(35)));
+
+        long[] expected = { 5, 10, 20, 40, 50, 60, 70, 80, 90, 100, 150 };
+        // iterate twice, the merged view is recomputed each time
+        Iterable<RevokedCertificate> merged = engine.apply(delta);
+        for (int pass = 0; pass < 2; pass++) {
+            List<Long> serials = new ArrayList<>();
+            for (RevokedCertificate cert : merged) {
+                serials.add(cert.getSerialNumber().longValue());
+                Assert._assert(!DeltaCRLEngine.isRemoval(cert));
+                if (cert.getSerialNumber().intValue() == 50)
+                    Assert._assert(cert.hasExtensions());
+            }
+            long[] actual = new long[serials.size()];
+            for (int i = 0; i < actual.length; i++)
+                actual[i] = serials.get(i);
+            Assert._assert(Arrays.equals(expected, actual));
+        }
+
+        // changes out of order
+        List<RevokedCertificate> unsorted = new ArrayList<>();
+        unsorted.add(entry(7, LATER, null));
+        unsorted.add(entry(6, LATER, null));
+        try {
+            engine.diff(unsorted.iterator());
+            Assert.notReached("unsorted changes accepted");
+        } catch (CRLException e) {
+        }
+
+        // a full CRL is not a delta
+        try {
+            engine.apply(base);
+            Assert.notReached("full CRL applied as a delta");
+        } catch (CRLException e) {
+        }
+
+        // a delta numbered no later than the base
+        X509CRLImpl stale = engine.generate(changes.iterator(),
+                BigInteger.TEN, LATER, null);
+        stale.sign(pair.getPrivate(), "SHA256withRSA");
+        try {
+            engine.apply(new X509CRLImpl(stale.getEncoded()));
+            Assert.notReached("delta with the base CRL number applied");
+        } catch (CRLException e) {
+        }
+
+        // a delta against a newer base
+        CRLExtensions exts = new CRLExtensions();
+        exts.set(CRLNumberExtension.NAME,
+                 new CRLNumberExtension(BigInteger.valueOf(12)));
+        X509CRLImpl newer = new X509CRLImpl((X500Name) base.getIssuerDN(),
+                LATER, null, new RevokedCertificate[0], exts);
+        newer.sign(pair.getPrivate(), "SHA256withRSA");
+        X509CRLImpl ahead = new DeltaCRLEngine(
+                new X509CRLImpl(newer.getEncoded())).generate(
+                changes.iterator(), BigInteger.valueOf(13), LATER, null);
+        ahead.sign(pair.getPrivate(), "SHA256withRSA");
+        try {
+            engine.apply(new X509CRLImpl(ahead.getEncoded()));
+            Assert.notReached("delta against a newer base applied");
+        } catch (CRLException e) {
+        }
+    }
+
+    private static RevokedCertificate entry(long serial, Date date,
+            CRLReasonExtension reason) throws Exception {
+        CRLExtensions exts = null;
+        if (reason != null) {
+            exts = new CRLExtensions();
+            exts.set(CRLReasonExtension.NAME, reason);
+        }
+        return new RevokedCertImpl(BigInteger.valueOf(serial), date, exts);
+    }
+}
@@ -9,6 +9,7 @@ import java.security.Provider;
 import java.security.Security;
 
 import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.DigestAlgorithm;
 
 public class DigestTest {
 
@@ -89,6 +90,65 @@ public class DigestTest {
         return true;
     }
 
+    /**
+     * Digests a common prefix once, clones the digest, and checks that
+     * each copy completes like a digest computed from scratch. Also
+     * checks that a digest reused after reset() gives the same output.
+     */
+    public static void testJSSDigestClone(String alg, byte[] toBeDigested)
+    throws Exception {
+        int half = toBeDigested.length / 2;
+
+        MessageDigest prefix = MessageDigest.getInstance(alg,
+                MOZ_PROVIDER_NAME);
+        prefix.update(toBeDigested, 0, half);
+
+        MessageDigest copy = (MessageDigest) prefix.clone();
+        copy.update(toBeDigested, half, toBeDigested.length - half);
+        byte[] cloned = copy.digest();
+
+        // the original is unaffected by the copy
+        prefix.update(toBeDigested, half, toBeDigested.length - half);
+        byte[] original = prefix.digest();
+
+        byte[] fresh = MessageDigest.getInstance(alg, MOZ_PROVIDER_NAME)
+                .digest(toBeDigested);
+
+        // the original has been reset by digest(), and is reused
+        byte[] reused = prefix.digest(toBeDigested);
+
+        if( !MessageDigest.isEqual(cloned, fresh) ||
+            !MessageDigest.isEqual(original, fresh) ||
+            !MessageDigest.isEqual(reused, fresh) ) {
+            throw new Exception("ERROR: cloned or reused " + alg +
+                                " digest differs");
+        }
+        System.out.println(alg + " clone and reuse give same digest");
+    }
+
+    /**
+     * Checks the one-shot DigestAlgorithm API, single and batched,
+     * against MessageDigest.
+     */
+    public static void testOneShotDigest(DigestAlgorithm alg,
+            byte[] toBeDigested) throws Exception {
+        byte[] expected = MessageDigest.getInstance(alg.toString(),
+                MOZ_PROVIDER_NAME).digest(toBeDigested);
+
+        byte[] single = alg.digest(toBeDigested);
+
+        byte[][] batch = alg.digest(new byte[][] {
+                new byte[0], toBeDigested, toBeDigested });
+
+        if( !MessageDigest.isEqual(single, expected) ||
+            !MessageDigest.isEqual(batch[1], expected) ||
+            !MessageDigest.isEqual(batch[2], expected) ) {
+            throw new Exception("ERROR: one-shot " + alg +
+                                " digest differs");
+        }
+        System.out.println(alg + " one-shot and batch give same digest");
+    }
+
 
     public static void main(String []argv) {
 
@@ -127,6 +187,14 @@ public class DigestTest {
                     // no provider to compare results with
                     testJSSDigest(JSS_Digest_Algs[i], toBeDigested);
                 }
+                testJSSDigestClone(JSS_Digest_Algs[i], toBeDigested);
+            }
+
+            DigestAlgorithm[] oneShotAlgs = { DigestAlgorithm.MD5,
+                DigestAlgorithm.SHA1, DigestAlgorithm.SHA256,
+                DigestAlgorithm.SHA384, DigestAlgorithm.SHA512 };
+            for (int i = 0; i < oneShotAlgs.length; i++) {
+                testOneShotDigest(oneShotAlgs[i], toBeDigested);
             }
 
             //HMAC examples in org.mozilla.jss.tests.HMACTest
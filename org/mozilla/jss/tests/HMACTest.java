@@ -10,6 +10,7 @@ import java.security.Provider;
 import javax.crypto.*;
 import javax.crypto.spec.*;
 import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.crypto.HMACAlgorithm;
 import org.mozilla.jss.crypto.SecretKeyFacade;
 import org.mozilla.jss.util.PasswordCallback;
 
@@ -33,6 +34,12 @@ public class HMACTest {
     static final String JSS_HMAC_Algs[] = {"HmacSHA1", "HmacSHA256",
         "HmacSHA384", "HmacSHA512"
     };
+    /**
+     * The HMACAlgorithm for each entry of JSS_HMAC_Algs.
+     */
+    static final HMACAlgorithm JSS_HMAC_Objs[] = {HMACAlgorithm.SHA1,
+        HMACAlgorithm.SHA256, HMACAlgorithm.SHA384, HMACAlgorithm.SHA512
+    };
 
     public HMACTest(String[] argv) throws Exception {
         if (argv.length < 1) {
@@ -116,6 +123,119 @@ public class HMACTest {
         }
     }
 
+    /**
+     * Checks that a clone taken part way through carries on from the same
+     * state, independently of the original, and that an uninitialized
+     * Mac can be cloned.
+     */
+    public void cloneHMAC(String alg, SecretKeyFacade sk, String clearText)
+            throws Exception {
+        byte[] data = clearText.getBytes();
+        int half = data.length / 2;
+
+        Mac mozillaHmac = Mac.getInstance(alg, MOZ_PROVIDER_NAME);
+        Mac uninitialized = (Mac) mozillaHmac.clone();
+        mozillaHmac.init(sk);
+        byte[] expected = mozillaHmac.doFinal(data);
+
+        mozillaHmac.update(data, 0, half);
+        Mac copy = (Mac) mozillaHmac.clone();
+        mozillaHmac.update(data, half, data.length - half);
+        byte[] original = mozillaHmac.doFinal();
+        // the clone must not have seen the original's second half
+        copy.update(data, half, data.length - half);
+        byte[] cloned = copy.doFinal();
+
+        uninitialized.init(sk);
+        byte[] fresh = uninitialized.doFinal(data);
+
+        if (!MessageDigest.isEqual(expected, original) ||
+            !MessageDigest.isEqual(expected, cloned) ||
+            !MessageDigest.isEqual(expected, fresh)) {
+            throw new Exception("ERROR: cloned " + alg +
+                    " gives a different result");
+        }
+        System.out.println(MOZ_PROVIDER_NAME + " clones " + alg);
+    }
+
+    /**
+     * Checks the one-shot and batch HMACAlgorithm.digest methods against
+     * javax.crypto.Mac: another provider's if one supports the algorithm,
+     * otherwise Mozilla-JSS's.
+     */
+    public void knownAnswerHMAC(String alg, HMACAlgorithm hmacAlg,
+            SecretKeyFacade sk) throws Exception {
+        Mac reference = Mac.getInstance(alg, MOZ_PROVIDER_NAME);
+        Provider[] providers = Security.getProviders("Mac." + alg);
+        if (!fipsMode() && providers != null) {
+            for (int i = 0; i < providers.length; ++i) {
+                if (!providers[i].getName().equals(MOZ_PROVIDER_NAME)) {
+                    reference = Mac.getInstance(alg, providers[i]);
+                    break;
+                }
+            }
+        }
+        reference.init(sk);
+
+        byte[][] inputs = new byte[4][];
+        inputs[0] = new byte[0];
+        inputs[1] = "FireFox and Thunderbird rule".getBytes();
+        inputs[2] = new byte[200];
+        inputs[3] = new byte[5000];
+        for (int i = 0; i < inputs[3].length; i++) {
+            inputs[3][i] = (byte) (i * 31 + 7);
+            if (i < inputs[2].length) {
+                inputs[2][i] = (byte) i;
+            }
+        }
+        byte[][] expected = new byte[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            expected[i] = reference.doFinal(inputs[i]);
+        }
+        int size = hmacAlg.getOutputSize();
+
+        // one at a time
+        for (int i = 0; i < inputs.length; i++) {
+            checkEqual(alg, expected[i], hmacAlg.digest(sk.key, inputs[i]));
+        }
+
+        // part of an array, stored at an offset
+        byte[] out = new byte[size + 3];
+        int n = hmacAlg.digest(sk.key, inputs[3], 100, 1000, out, 3);
+        if (n != size) {
+            throw new Exception("ERROR: " + alg + " stored " + n +
+                    " bytes, expected " + size);
+        }
+        reference.update(inputs[3], 100, 1000);
+        checkEqual(alg, reference.doFinal(), copyOf(out, 3, size));
+
+        // batches
+        byte[][] batch = hmacAlg.digest(sk.key, inputs);
+        byte[] all = new byte[3 + inputs.length * size];
+        hmacAlg.digest(sk.key, inputs, all, 3);
+        for (int i = 0; i < inputs.length; i++) {
+            checkEqual(alg, expected[i], batch[i]);
+            checkEqual(alg, expected[i], copyOf(all, 3 + i * size, size));
+        }
+
+        System.out.println("HMACAlgorithm " + alg + " matches " +
+                reference.getProvider().getName());
+    }
+
+    private static byte[] copyOf(byte[] bytes, int offset, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, offset, copy, 0, length);
+        return copy;
+    }
+
+    private static void checkEqual(String alg, byte[] expected,
+            byte[] actual) throws Exception {
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new Exception("ERROR: HMACAlgorithm and Mac give " +
+                    "different " + alg);
+        }
+    }
+
     public boolean fipsMode() {
         return cm.FIPSEnabled();
     }
@@ -174,6 +294,12 @@ public class HMACTest {
                         hmacTest.doHMAC(JSS_HMAC_Algs[i], sk, clearText);
                     }
                 }
+                if (!hmacTest.fipsMode() ||
+                        !JSS_HMAC_Algs[i].equals("HmacSHA512")) {
+                    hmacTest.cloneHMAC(JSS_HMAC_Algs[i], sk, clearText);
+                    hmacTest.knownAnswerHMAC(JSS_HMAC_Algs[i],
+                            JSS_HMAC_Objs[i], sk);
+                }
             }
 
         } catch (Exception e) {
@@ -0,0 +1,178 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.crypto.X509Certificate;
+import org.mozilla.jss.ssl.SSLAlertEvent;
+import org.mozilla.jss.ssl.SSLCertificateApprovalCallback;
+import org.mozilla.jss.ssl.SSLHandshakeCompletedEvent;
+import org.mozilla.jss.ssl.SSLHandshakeMetrics;
+import org.mozilla.jss.ssl.SSLHandshakeMetricsListener;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.ssl.SSLSocket;
+import org.mozilla.jss.ssl.SSLSocketListener;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Measures the per-handshake cost of the native-to-Java callbacks made
+ * during a TLS session: certificate approval, handshake completion,
+ * alerts, and the Java socket I/O underneath them.
+ *
+ * Full handshakes are run one after another against a loopback
+ * SSLServerSocket, with the session cache disabled. The first pass
+ * registers only the certificate approval callback; the second also
+ * registers a socket listener, so each handshake adds a completion
+ * notification and alert events on close. Run it against two builds of
+ * the library to compare them.
+ */
+public class HandshakeCallbackBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "HandshakeCallbackBenchmark <dbdir> <passwordFile>" +
+                " <serverCertNick> [port] [handshakes]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        String nick = args[2];
+        final int port = (args.length > 3) ? Integer.parseInt(args[3]) : 29757;
+        final int handshakes =
+            (args.length > 4) ? Integer.parseInt(args[4]) : 2000;
+
+        SSLServerSocket.configServerSessionIDCache(10, 100, 100, null);
+        final SSLServerSocket serverSock =
+            new SSLServerSocket(port, 50, null, null, true);
+        serverSock.setServerCertNickname(nick);
+
+        Thread server = new Thread() {
+            public void run() {
+                while ( ! serverSock.isClosed() ) {
+                    try {
+                        echoByte((SSLSocket) serverSock.accept());
+                    } catch (Exception e) {
+                        if ( ! serverSock.isClosed() ) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        };
+        server.start();
+
+        // warm up
+        run(port, handshakes / 10 + 1, true, new Counters());
+
+        Counters plain = new Counters();
+        double plainRate = run(port, handshakes, false, plain);
+        report("approval callback only", handshakes, plainRate, plain);
+
+        Counters all = new Counters();
+        double allRate = run(port, handshakes, true, all);
+        report("with socket listener", handshakes, allRate, all);
+
+        serverSock.close();
+        server.join();
+        System.exit(0);
+    }
+
+    private static class Counters implements SSLCertificateApprovalCallback,
+        SSLSocketListener, SSLHandshakeMetricsListener
+    {
+        final AtomicLong approvals = new AtomicLong();
+        final AtomicLong completions = new AtomicLong();
+        final AtomicLong alerts = new AtomicLong();
+        final AtomicLong handshakeMicros = new AtomicLong();
+        final AtomicLong approvalMicros = new AtomicLong();
+
+        public boolean approve(X509Certificate cert, ValidityStatus status) {
+            approvals.incrementAndGet();
+            return true;
+        }
+
+        public void handshakeCompleted(SSLHandshakeCompletedEvent event) {
+            completions.incrementAndGet();
+        }
+
+        public void alertReceived(SSLAlertEvent event) {
+            alerts.incrementAndGet();
+        }
+
+        public void alertSent(SSLAlertEvent event) {
+            alerts.incrementAndGet();
+        }
+
+        public void handshakeMetrics(SSLHandshakeMetrics metrics) {
+            handshakeMicros.addAndGet(metrics.getDurationMicros());
+            approvalMicros.addAndGet(metrics.getCertApprovalCallbackMicros());
+        }
+    }
+
+    /**
+     * Runs the given number of full handshakes.
+     * @return handshakes per second.
+     */
+    private static double run(int port, int handshakes, boolean listen,
+        Counters counters) throws Exception
+    {
+        byte[] buf = new byte[1];
+        long start = System.nanoTime();
+        for ( int i = 0; i < handshakes; i++ ) {
+            SSLSocket sock = new SSLSocket("localhost", port, null, 0,
+                counters, null);
+            try {
+                sock.useCache(false);
+                sock.setHandshakeMetricsListener(counters);
+                if ( listen ) {
+                    sock.addSocketListener(counters);
+                }
+                OutputStream out = sock.getOutputStream();
+                InputStream in = sock.getInputStream();
+                out.write(buf);
+                if ( in.read(buf) < 0 ) {
+                    throw new Exception("Unexpected end of stream");
+                }
+            } finally {
+                sock.close();
+            }
+        }
+        return handshakes / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void echoByte(SSLSocket sock) throws Exception {
+        try {
+            InputStream in = sock.getInputStream();
+            OutputStream out = sock.getOutputStream();
+            int b = in.read();
+            if ( b >= 0 ) {
+                out.write(b);
+            }
+        } finally {
+            sock.close();
+        }
+    }
+
+    private static void report(String name, int handshakes, double rate,
+        Counters c)
+    {
+        System.out.printf("%-24s %8.1f handshakes/s  handshake %6.1f us" +
+            "  approval callback %5.1f us%n", name, rate,
+            c.handshakeMicros.get() / (double) handshakes,
+            c.approvalMicros.get() / (double) handshakes);
+        System.out.println("    callbacks: " + c.approvals.get() +
+            " approvals, " + c.completions.get() + " completions, " +
+            c.alerts.get() + " alerts");
+    }
+}
@@ -19,6 +19,7 @@ import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.RC2ParameterSpec;
 
@@ -392,6 +393,58 @@ public class JCASymKeyGen {
         }
     }
 
+    /**
+     * Encrypts with AES/GCM in several parts with additional authenticated
+     * data, decrypts in one part, and checks that a modified tag is
+     * rejected.
+     */
+    public void testGCM(javax.crypto.SecretKey sKey,
+            String providerForEncrypt, String providerForDecrypt)
+            throws Exception {
+        byte[] aad = "header".getBytes();
+        byte[] iv = new byte[12];
+        SecureRandom random = SecureRandom.getInstance("pkcs11prng",
+                MOZ_PROVIDER_NAME);
+        random.nextBytes(iv);
+        GCMParameterSpec spec = new GCMParameterSpec(128, iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding",
+                providerForEncrypt);
+        cipher.init(Cipher.ENCRYPT_MODE, sKey, spec);
+        cipher.updateAAD(aad);
+        byte[] ciphertext = new byte[cipher.getOutputSize(
+                plainText.length + plainTextB.length)];
+        int cLen = cipher.update(plainText, 0, plainText.length,
+                ciphertext, 0);
+        cLen += cipher.update(plainTextB, 0, plainTextB.length,
+                ciphertext, cLen);
+        cLen += cipher.doFinal(ciphertext, cLen);
+
+        cipher = Cipher.getInstance("AES/GCM/NoPadding", providerForDecrypt);
+        cipher.init(Cipher.DECRYPT_MODE, sKey, spec);
+        cipher.updateAAD(aad);
+        byte[] recovered = cipher.doFinal(ciphertext, 0, cLen);
+
+        byte[] expected = new byte[plainText.length + plainTextB.length];
+        System.arraycopy(plainText, 0, expected, 0, plainText.length);
+        System.arraycopy(plainTextB, 0, expected, plainText.length,
+                plainTextB.length);
+        if (!java.util.Arrays.equals(expected, recovered)) {
+            throw new Exception("ERROR: " + providerForEncrypt +
+                    " and " + providerForDecrypt + " failed for AES/GCM");
+        }
+
+        ciphertext[cLen - 1] ^= 1;
+        cipher.init(Cipher.DECRYPT_MODE, sKey, spec);
+        cipher.updateAAD(aad);
+        try {
+            cipher.doFinal(ciphertext, 0, cLen);
+            throw new Exception("ERROR: " + providerForDecrypt +
+                    " accepted a modified AES/GCM tag");
+        } catch (javax.crypto.AEADBadTagException expectedException) {
+        }
+    }
+
     public static void main(String args[]) {
 
         String certDbLoc             = ".";
@@ -405,7 +458,8 @@ public class JCASymKeyGen {
             {"DESede", "DESede/ECB/NoPadding", "DESede/CBC/PKCS5Padding",
                               "DESede/CBC/NoPadding" },
             {"AES", "AES/ECB/NoPadding",  "AES/CBC/NoPadding",
-                                 "AES/CBC/PKCS5Padding"},
+                                 "AES/CBC/PKCS5Padding", "AES/CTR/NoPadding",
+                                 "AES/KW/NoPadding", "AES/KW/PKCS5Padding"},
             {"RC2", "RC2/CBC/NoPadding", "RC2/CBC/PKCS5Padding"},
             //{"RC4", "RC4"}, todo
             //{"PBAHmacSHA1"},
@@ -513,6 +567,15 @@ public class JCASymKeyGen {
                             otherProvider + " tested " + symKeyTable[i][a]);
                     }
                 }
+                if (symKeyTable[i][0].equals("AES")) {
+                    skg.testGCM(mozKey, MOZ_PROVIDER_NAME, MOZ_PROVIDER_NAME);
+                    if (!bFipsMode) {
+                        skg.testGCM(mozKey, MOZ_PROVIDER_NAME, otherProvider);
+                        skg.testGCM(mozKey, otherProvider, MOZ_PROVIDER_NAME);
+                    }
+                    System.out.println(MOZ_PROVIDER_NAME + " tested " +
+                        "AES/GCM/NoPadding");
+                }
             }
         } catch(Exception e) {
             e.printStackTrace();
@@ -0,0 +1,190 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.ssl.JSSEngine;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Connects a client and a server JSSEngine back to back in memory: runs
+ * the handshake, sends application data both ways, checks that unwrap
+ * buffers at most one packet of ciphertext and reports BUFFER_OVERFLOW
+ * when there is no room for plaintext, and closes the connection.
+ */
+public class JSSEngineTest {
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "JSSEngineTest <dbdir> <passwordFile> <serverCertNick>");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        SSLServerSocket.configServerSessionIDCache(10, 100, 100, null);
+
+        JSSEngine client = new JSSEngine("localhost", 443,
+            new TestCertificateApprovalCallback(), null);
+        client.setUseClientMode(true);
+        JSSEngine server = new JSSEngine();
+        server.setUseClientMode(false);
+        server.setServerCertNickname(args[2]);
+
+        int packetSize = client.getSession().getPacketBufferSize();
+        int appSize = client.getSession().getApplicationBufferSize();
+
+        // network buffers larger than one packet, so unwrap is offered
+        // more than it may take at once
+        ByteBuffer clientToServer = ByteBuffer.allocate(4 * packetSize);
+        ByteBuffer serverToClient = ByteBuffer.allocate(4 * packetSize);
+
+        // handshake
+        client.beginHandshake();
+        server.beginHandshake();
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer sink = ByteBuffer.allocate(appSize);
+        boolean clientFinished = false;
+        boolean serverFinished = false;
+        for (int i = 0; i < 50 && !(clientFinished && serverFinished); i++) {
+            SSLEngineResult r;
+            r = client.wrap(empty, clientToServer);
+            clientFinished |= r.getHandshakeStatus() == HandshakeStatus.FINISHED;
+            r = server.wrap(empty, serverToClient);
+            serverFinished |= r.getHandshakeStatus() == HandshakeStatus.FINISHED;
+
+            clientToServer.flip();
+            serverToClient.flip();
+            r = client.unwrap(serverToClient, sink);
+            clientFinished |= r.getHandshakeStatus() == HandshakeStatus.FINISHED;
+            r = server.unwrap(clientToServer, sink);
+            serverFinished |= r.getHandshakeStatus() == HandshakeStatus.FINISHED;
+            clientToServer.compact();
+            serverToClient.compact();
+        }
+        Assert._assert(clientFinished && serverFinished);
+        Assert._assert(client.getHandshakeStatus() ==
+            HandshakeStatus.NOT_HANDSHAKING);
+        Assert._assert(server.getHandshakeStatus() ==
+            HandshakeStatus.NOT_HANDSHAKING);
+        Assert._assert(client.getSession().getCipherSuite().equals(
+            server.getSession().getCipherSuite()));
+        Assert._assert(client.getSession().getPeerCertificates().length == 1);
+        System.out.println("Handshake complete: " +
+            client.getSession().getProtocol() + " " +
+            client.getSession().getCipherSuite());
+
+        javax.security.cert.X509Certificate[] chain =
+            client.getSession().getPeerCertificateChain();
+        Assert._assert(chain.length == 1);
+        Assert._assert(Arrays.equals(chain[0].getEncoded(),
+            client.getSession().getPeerCertificates()[0].getEncoded()));
+
+        // several records from client to server
+        roundTrip(client, server, 3 * appSize + 100, packetSize);
+
+        // and back
+        roundTrip(server, client, 1000, packetSize);
+
+        // no room for the plaintext: nothing more is consumed
+        byte[] data = pattern(1000, 3);
+        ByteBuffer net = ByteBuffer.allocate(4 * packetSize);
+        wrapAll(server, ByteBuffer.wrap(data), net);
+        wrapAll(server, ByteBuffer.wrap(data), net);
+        net.flip();
+        int total = net.remaining();
+        SSLEngineResult r = client.unwrap(net, ByteBuffer.allocate(0));
+        Assert._assert(r.getStatus() == Status.BUFFER_OVERFLOW ||
+            r.getStatus() == Status.OK);
+        r = client.unwrap(net, ByteBuffer.allocate(0));
+        Assert._assert(r.getStatus() == Status.BUFFER_OVERFLOW);
+        Assert._assert(r.bytesConsumed() == 0);
+        ByteBuffer received = ByteBuffer.allocate(2 * data.length);
+        unwrapAll(client, net, received, 2 * data.length);
+        Assert._assert(net.position() == total);
+
+        // closure
+        client.closeOutbound();
+        net.clear();
+        r = client.wrap(empty, net);
+        Assert._assert(r.getStatus() == Status.CLOSED);
+        Assert._assert(r.bytesProduced() > 0);
+        Assert._assert(client.isOutboundDone());
+        net.flip();
+        r = server.unwrap(net, ByteBuffer.allocate(appSize));
+        Assert._assert(r.getStatus() == Status.CLOSED);
+        Assert._assert(server.isInboundDone());
+
+        client.release();
+        server.release();
+
+        System.out.println("JSSEngineTest passed");
+        System.exit(0);
+    }
+
+    /**
+     * Sends len bytes from one engine to the other and checks that they
+     * arrive intact, and that no single unwrap takes more than one
+     * packet of ciphertext.
+     */
+    private static void roundTrip(JSSEngine from, JSSEngine to, int len,
+            int packetSize) throws Exception {
+        byte[] expected = pattern(len, len);
+        ByteBuffer net = ByteBuffer.allocate(len + 8 * packetSize);
+        wrapAll(from, ByteBuffer.wrap(expected), net);
+        net.flip();
+
+        ByteBuffer received = ByteBuffer.allocate(len);
+        while (received.hasRemaining()) {
+            int before = net.position();
+            SSLEngineResult r = to.unwrap(net, received);
+            Assert._assert(r.getStatus() == Status.OK);
+            Assert._assert(r.bytesConsumed() <= packetSize);
+            Assert._assert(net.position() - before == r.bytesConsumed());
+            Assert._assert(r.bytesConsumed() > 0 || r.bytesProduced() > 0);
+        }
+        Assert._assert(!net.hasRemaining());
+        Assert._assert(Arrays.equals(expected, received.array()));
+    }
+
+    private static void wrapAll(JSSEngine engine, ByteBuffer src,
+            ByteBuffer net) throws Exception {
+        while (src.hasRemaining()) {
+            SSLEngineResult r = engine.wrap(src, net);
+            Assert._assert(r.getStatus() == Status.OK);
+            Assert._assert(r.bytesConsumed() > 0);
+        }
+    }
+
+    private static void unwrapAll(JSSEngine engine, ByteBuffer net,
+            ByteBuffer dst, int len) throws Exception {
+        while (dst.position() < len) {
+            SSLEngineResult r = engine.unwrap(net, dst);
+            Assert._assert(r.getStatus() == Status.OK);
+            Assert._assert(r.bytesConsumed() > 0 || r.bytesProduced() > 0);
+        }
+    }
+
+    private static byte[] pattern(int len, int seed) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,122 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.NativeProxy;
+
+/**
+ * Checks that NativeProxy releases native resources exactly once, whether
+ * it is closed several times, closed and then finalized, or created and
+ * closed on many threads, and that the registry and the per-class
+ * counters follow. Uses a proxy without native resources, so it does
+ * not need NSS.
+ */
+public class NativeProxyTest {
+
+    static class TestProxy extends NativeProxy {
+        int releases;
+
+        TestProxy() {
+            super(new byte[] { 1, 2, 3, 4 });
+        }
+
+        protected synchronized void releaseNativeResources() {
+            releases++;
+        }
+
+        synchronized int getReleases() {
+            return releases;
+        }
+
+        void runFinalizer() throws Throwable {
+            finalize();
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+
+        Assert._assert(NativeProxy.getLiveCount(TestProxy.class) == 0);
+        Assert._assert(NativeProxy.getReleasedCount(TestProxy.class) == 0);
+
+        // double close
+        TestProxy proxy = new TestProxy();
+        Assert._assert(NativeProxy.getProxyClasses().contains(TestProxy.class));
+        Assert._assert(NativeProxy.getLiveCount(TestProxy.class) == 1);
+        Assert._assert(Collections.list(NativeProxy.getRegistryIndices())
+                .contains(proxy.getRegistryIndex()));
+        Assert._assert(!proxy.isReleased());
+
+        proxy.close();
+        proxy.close();
+        Assert._assert(proxy.isReleased());
+        Assert._assert(proxy.getReleases() == 1);
+        Assert._assert(NativeProxy.getLiveCount(TestProxy.class) == 0);
+        Assert._assert(NativeProxy.getReleasedCount(TestProxy.class) == 1);
+        Assert._assert(!Collections.list(NativeProxy.getRegistryIndices())
+                .contains(proxy.getRegistryIndex()));
+
+        // close, then finalize
+        proxy = new TestProxy();
+        proxy.close();
+        proxy.runFinalizer();
+        Assert._assert(proxy.getReleases() == 1);
+        Assert._assert(NativeProxy.getReleasedCount(TestProxy.class) == 2);
+
+        // finalize only
+        proxy = new TestProxy();
+        proxy.runFinalizer();
+        Assert._assert(proxy.isReleased());
+        Assert._assert(proxy.getReleases() == 1);
+        Assert._assert(NativeProxy.getLiveCount(TestProxy.class) == 0);
+        Assert._assert(NativeProxy.getReleasedCount(TestProxy.class) == 3);
+
+        // equal pointers
+        TestProxy a = new TestProxy();
+        TestProxy b = new TestProxy();
+        Assert._assert(a.equals(b));
+        Assert._assert(a.getRegistryIndex() != b.getRegistryIndex());
+        Assert._assert(NativeProxy.getLiveCount(TestProxy.class) == 2);
+        a.close();
+        b.close();
+
+        // many threads creating and closing, each proxy closed twice
+        final int threads = 8;
+        final int perThread = 1000;
+        final List<TestProxy> all =
+                Collections.synchronizedList(new ArrayList<TestProxy>());
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    for (int n = 0; n < perThread; n++) {
+                        TestProxy p = new TestProxy();
+                        all.add(p);
+                        p.close();
+                        p.close();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Assert._assert(all.size() == threads * perThread);
+        for (TestProxy p : all) {
+            Assert._assert(p.getReleases() == 1);
+        }
+        Assert._assert(NativeProxy.getLiveCount(TestProxy.class) == 0);
+        Assert._assert(NativeProxy.getReleasedCount(TestProxy.class) ==
+                5 + threads * perThread);
+
+        System.out.println("NativeProxyTest passed");
+        System.exit(0);
+    }
+}
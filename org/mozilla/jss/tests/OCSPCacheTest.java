@@ -0,0 +1,451 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.mozilla.jss.OCSPCacheStats;
+import org.mozilla.jss.OCSPCachedResponse;
+import org.mozilla.jss.OCSPResponseCache;
+import org.mozilla.jss.OCSPResponseStore;
+import org.mozilla.jss.netscape.security.extensions.AuthInfoAccessExtension;
+import org.mozilla.jss.netscape.security.util.DerOutputStream;
+import org.mozilla.jss.netscape.security.util.DerValue;
+import org.mozilla.jss.netscape.security.util.ObjectIdentifier;
+import org.mozilla.jss.netscape.security.x509.CertificateExtensions;
+import org.mozilla.jss.netscape.security.x509.CertificateIssuerName;
+import org.mozilla.jss.netscape.security.x509.GeneralName;
+import org.mozilla.jss.netscape.security.x509.URIName;
+import org.mozilla.jss.netscape.security.x509.X500Name;
+import org.mozilla.jss.netscape.security.x509.X509CertImpl;
+import org.mozilla.jss.netscape.security.x509.X509CertInfo;
+import org.mozilla.jss.util.Assert;
+
+/**
+ * Exercises OCSPResponseCache against a stub OCSP responder on the
+ * loopback interface: fetches, hits and misses, pre-fetch, stapled and
+ * expired responses, import and export, and the counters. The cache is
+ * not installed in CryptoManager, so no NSS database is needed and the
+ * stub does not sign its responses; they are therefore never verified
+ * and report no status. OCSPVerifyTest covers verification.
+ */
+public class OCSPCacheTest {
+
+    private static final byte[] DUMMY_SIGNATURE = new byte[64];
+
+    public static void main(String[] args) throws Exception {
+        StubResponder responder = new StubResponder();
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ocsp", responder);
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/ocsp";
+
+        try {
+            run(responder, url);
+        } finally {
+            server.stop(0);
+        }
+
+        System.out.println("OCSPCacheTest passed");
+        System.exit(0);
+    }
+
+    private static void run(StubResponder responder, String url)
+            throws Exception {
+
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(1024);
+        KeyPair caPair = kpg.generateKeyPair();
+        KeyPair pair = kpg.generateKeyPair();
+
+        X509CertImpl ca = createCert(caPair, caPair.getPrivate(), 1,
+                "CN=OCSP Test CA", null);
+        X509CertImpl leaf = createCert(pair, caPair.getPrivate(), 2,
+                "CN=OCSP Test 2", url);
+        X509CertImpl other = createCert(pair, caPair.getPrivate(), 3,
+                "CN=OCSP Test 3", null);
+        X509CertImpl revoked = createCert(pair, caPair.getPrivate(), 4,
+                "CN=OCSP Test 4", url);
+
+        OCSPResponseCache cache = new OCSPResponseCache(10);
+
+        // miss, then fetched from the responder in the AIA extension
+        Assert._assert(cache.get(leaf, ca) == null);
+        OCSPCachedResponse response = cache.fetch(leaf, ca);
+        Assert._assert(!response.isVerified());
+        try {
+            response.getCertStatus();
+            Assert.notReached("status of an unverified response reported");
+        } catch (IllegalStateException e) {
+        }
+        Assert._assert(response.getNextUpdate() != null);
+        Assert._assert(responder.requests.get() == 1);
+
+        // hit
+        Assert._assert(cache.fetch(leaf, ca) == response);
+        Assert._assert(cache.get(leaf, ca) == response);
+        Assert._assert(responder.requests.get() == 1);
+
+        OCSPCacheStats stats = cache.getStats();
+        Assert._assert(stats.getHits() == 2);
+        Assert._assert(stats.getMisses() == 2);
+        Assert._assert(stats.getFetches() == 1);
+        Assert._assert(stats.getStored() == 1);
+        Assert._assert(stats.getMaxFetchTime() > 0);
+        Assert._assert(stats.getSize() == 1);
+
+        // pre-fetch only what nears its next update
+        Assert._assert(cache.prefetch() == 0);
+        cache.setPrefetchWindow(2 * 60 * 60 * 1000L);
+        Assert._assert(cache.prefetch() == 1);
+        Assert._assert(responder.requests.get() == 2);
+        Assert._assert(cache.getStats().since(stats).getPrefetches() == 1);
+        cache.setPrefetchWindow(OCSPResponseCache.DEFAULT_PREFETCH_WINDOW);
+
+        // no responder known for the certificate, unless configured
+        try {
+            cache.fetch(other, ca);
+            Assert.notReached("fetched without a responder");
+        } catch (IOException e) {
+        }
+        cache.setResponderURL(url);
+        cache.fetch(other, ca);
+        Assert._assert(responder.requests.get() == 3);
+        cache.setResponderURL(null);
+
+        responder.certStatus = OCSPCachedResponse.REVOKED;
+        Assert._assert(!cache.fetch(revoked, ca).isVerified());
+        responder.certStatus = OCSPCachedResponse.GOOD;
+
+        // responder errors are not cached
+        stats = cache.getStats();
+        responder.responseStatus = 3; // tryLater
+        Assert._assert(cache.remove(leaf, ca));
+        try {
+            cache.fetch(leaf, ca);
+            Assert.notReached("tryLater accepted");
+        } catch (IOException e) {
+        }
+        Assert._assert(cache.getStats().since(stats).getFetchFailures() == 1);
+        Assert._assert(cache.get(leaf, ca) == null);
+        responder.responseStatus = 0;
+
+        // an expired stapled response is kept but not used
+        Date now = new Date();
+        byte[] certID = encodeCertID(leaf, ca);
+        stats = cache.getStats();
+        cache.put(leaf, ca, createResponse(0, certID,
+                OCSPCachedResponse.GOOD, new Date(now.getTime() - 7200000L),
+                new Date(now.getTime() - 3600000L)));
+        Assert._assert(cache.get(leaf, ca) == null);
+        Assert._assert(cache.getStats().since(stats).getExpired() == 1);
+
+        // a fresh one is
+        byte[] stapled = createResponse(0, certID, OCSPCachedResponse.GOOD,
+                now, new Date(now.getTime() + 3600000L));
+        cache.put(leaf, ca, stapled);
+        Assert._assert(cache.get(leaf, ca) != null);
+
+        // a response for another certificate is refused
+        try {
+            cache.put(other, ca, stapled);
+            Assert.notReached("response for another certificate accepted");
+        } catch (IOException e) {
+        }
+
+        // export and import
+        final List<OCSPCachedResponse> saved = new ArrayList<>();
+        OCSPResponseStore store = new OCSPResponseStore() {
+            public void save(Collection<OCSPCachedResponse> responses) {
+                saved.clear();
+                saved.addAll(responses);
+            }
+
+            public Collection<OCSPCachedResponse> load() {
+                return saved;
+            }
+        };
+        Assert._assert(cache.exportTo(store) == 3);
+
+        int requests = responder.requests.get();
+        OCSPResponseCache restored = new OCSPResponseCache();
+        Assert._assert(restored.importFrom(store) == 3);
+        Assert._assert(restored.fetch(leaf, ca) != null);
+        Assert._assert(restored.fetch(other, ca) != null);
+        Assert._assert(restored.getStats().getHits() == 2);
+        Assert._assert(responder.requests.get() == requests);
+
+        // eviction
+        OCSPResponseCache small = new OCSPResponseCache(1);
+        small.importFrom(store);
+        Assert._assert(small.size() == 1);
+        Assert._assert(small.getStats().getEvictions() == 2);
+
+        // concurrent lookups share one request to a slow responder
+        Assert._assert(cache.remove(leaf, ca));
+        responder.delay = 500;
+        requests = responder.requests.get();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final OCSPResponseCache shared = cache;
+            final X509CertImpl cert = leaf;
+            final X509CertImpl issuer = ca;
+            List<Callable<OCSPCachedResponse>> tasks = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                tasks.add(new Callable<OCSPCachedResponse>() {
+                    public OCSPCachedResponse call() throws Exception {
+                        return shared.fetch(cert, issuer);
+                    }
+                });
+            }
+            for (Future<OCSPCachedResponse> future : pool.invokeAll(tasks)) {
+                Assert._assert(future.get() != null);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Assert._assert(responder.requests.get() == requests + 1);
+        responder.delay = 0;
+
+        // background pre-fetch
+        requests = responder.requests.get();
+        cache.setPrefetchWindow(2 * 60 * 60 * 1000L);
+        ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor();
+        try {
+            cache.startPrefetch(scheduler, 20, TimeUnit.MILLISECONDS);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (responder.requests.get() == requests &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            cache.stopPrefetch();
+        } finally {
+            scheduler.shutdown();
+        }
+        Assert._assert(responder.requests.get() > requests);
+
+        System.out.println(cache.getStats());
+    }
+
+    private static X509CertImpl createCert(KeyPair pair, PrivateKey signer,
+            int serial, String subject, String ocspURL) throws Exception {
+        Date now = new Date();
+        X509CertInfo info = X509CertTest.createX509CertInfo(
+                X509CertTest.convertPublicKeyToX509Key(pair.getPublic()),
+                BigInteger.valueOf(serial),
+                new CertificateIssuerName(new X500Name("CN=OCSP Test CA")),
+                subject, now, new Date(now.getTime() + 86400000L),
+                "SHA256withRSA");
+        if (ocspURL != null) {
+            AuthInfoAccessExtension aia = new AuthInfoAccessExtension(false);
+            aia.addAccessDescription(AuthInfoAccessExtension.METHOD_OCSP,
+                    new GeneralName(new URIName(ocspURL)));
+            CertificateExtensions extensions = (CertificateExtensions)
+                    info.get(X509CertInfo.EXTENSIONS);
+            extensions.set(AuthInfoAccessExtension.NAME, aia);
+        }
+        X509CertImpl cert = new X509CertImpl(info);
+        cert.sign(signer, "SHA256withRSA");
+        return cert;
+    }
+
+    /**
+     * Encodes a SHA-1 CertID independently of the cache.
+     */
+    static byte[] encodeCertID(X509CertImpl cert, X509CertImpl issuer)
+            throws Exception {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        DerValue spki = new DerValue(issuer.getPublicKey().getEncoded());
+        spki.data.getDerValue();
+
+        DerOutputStream algorithm = new DerOutputStream();
+        algorithm.putOID(new ObjectIdentifier("1.3.14.3.2.26"));
+        algorithm.putNull();
+
+        DerOutputStream certID = new DerOutputStream();
+        certID.write(DerValue.tag_Sequence, algorithm);
+        certID.putOctetString(sha1.digest(
+                issuer.getSubjectX500Principal().getEncoded()));
+        certID.putOctetString(sha1.digest(spki.data.getBitString()));
+        certID.putUnsignedInteger(cert.getSerialNumber().toByteArray());
+
+        DerOutputStream out = new DerOutputStream();
+        out.write(DerValue.tag_Sequence, certID);
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds an unsigned OCSPResponse with one SingleResponse.
+     */
+    static byte[] createResponse(int responseStatus, byte[] certID,
+            int certStatus, Date thisUpdate, Date nextUpdate)
+            throws IOException {
+        try {
+            return createResponse(responseStatus, certID, certStatus,
+                    thisUpdate, nextUpdate, new byte[20], null);
+        } catch (GeneralSecurityException e) {
+            // nothing is signed
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Builds an OCSPResponse with one SingleResponse, signed with
+     * SHA256withRSA by the responder whose key hash is given, or with a
+     * dummy signature if signer is null.
+     */
+    static byte[] createResponse(int responseStatus, byte[] certID,
+            int certStatus, Date thisUpdate, Date nextUpdate,
+            byte[] responderKeyHash, PrivateKey signer)
+            throws IOException, GeneralSecurityException {
+
+        DerOutputStream ocspResponse = new DerOutputStream();
+        ocspResponse.putEnumerated(responseStatus);
+
+        if (responseStatus == 0) {
+            DerOutputStream single = new DerOutputStream();
+            single.write(certID);
+            if (certStatus == OCSPCachedResponse.REVOKED) {
+                DerOutputStream revokedInfo = new DerOutputStream();
+                revokedInfo.putGeneralizedTime(thisUpdate);
+                single.write(DerValue.createTag(DerValue.TAG_CONTEXT,
+                        true, (byte) 1), revokedInfo);
+            } else {
+                single.write(DerValue.createTag(DerValue.TAG_CONTEXT,
+                        false, (byte) certStatus), new byte[0]);
+            }
+            single.putGeneralizedTime(thisUpdate);
+            DerOutputStream next = new DerOutputStream();
+            next.putGeneralizedTime(nextUpdate);
+            single.write(DerValue.createTag(DerValue.TAG_CONTEXT,
+                    true, (byte) 0), next);
+
+            DerOutputStream singles = new DerOutputStream();
+            singles.write(DerValue.tag_Sequence, single);
+
+            DerOutputStream keyHash = new DerOutputStream();
+            keyHash.putOctetString(responderKeyHash);
+
+            DerOutputStream responseData = new DerOutputStream();
+            responseData.write(DerValue.createTag(DerValue.TAG_CONTEXT,
+                    true, (byte) 2), keyHash);
+            responseData.putGeneralizedTime(new Date());
+            responseData.write(DerValue.tag_Sequence, singles);
+
+            DerOutputStream algorithm = new DerOutputStream();
+            algorithm.putOID(new ObjectIdentifier("1.2.840.113549.1.1.11"));
+            algorithm.putNull();
+
+            DerOutputStream tbsResponseData = new DerOutputStream();
+            tbsResponseData.write(DerValue.tag_Sequence, responseData);
+            byte[] tbs = tbsResponseData.toByteArray();
+
+            byte[] signature = DUMMY_SIGNATURE;
+            if (signer != null) {
+                Signature sig = Signature.getInstance("SHA256withRSA");
+                sig.initSign(signer);
+                sig.update(tbs);
+                signature = sig.sign();
+            }
+
+            DerOutputStream basic = new DerOutputStream();
+            basic.write(tbs);
+            basic.write(DerValue.tag_Sequence, algorithm);
+            basic.putBitString(signature);
+
+            DerOutputStream basicResponse = new DerOutputStream();
+            basicResponse.write(DerValue.tag_Sequence, basic);
+
+            DerOutputStream responseBytes = new DerOutputStream();
+            responseBytes.putOID(new ObjectIdentifier("1.3.6.1.5.5.7.48.1.1"));
+            responseBytes.putOctetString(basicResponse.toByteArray());
+
+            DerOutputStream typed = new DerOutputStream();
+            typed.write(DerValue.tag_Sequence, responseBytes);
+            ocspResponse.write(DerValue.createTag(DerValue.TAG_CONTEXT,
+                    true, (byte) 0), typed);
+        }
+
+        DerOutputStream out = new DerOutputStream();
+        out.write(DerValue.tag_Sequence, ocspResponse);
+        return out.toByteArray();
+    }
+
+    /**
+     * Answers each request for the CertID it contains, valid for an hour.
+     */
+    static class StubResponder implements HttpHandler {
+        final AtomicInteger requests = new AtomicInteger();
+        volatile int responseStatus = 0;
+        volatile int certStatus = OCSPCachedResponse.GOOD;
+        volatile long delay = 0;
+
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, n);
+                }
+            }
+
+            // OCSPRequest / TBSRequest / requestList / Request / CertID
+            DerValue value = new DerValue(body.toByteArray());
+            for (int i = 0; i < 4; i++) {
+                value = value.data.getDerValue();
+            }
+
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            Date now = new Date();
+            byte[] response = createResponse(responseStatus,
+                    value.toByteArray(), certStatus, now,
+                    new Date(now.getTime() + 3600000L));
+
+            exchange.getResponseHeaders().set("Content-Type",
+                    "application/ocsp-response");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        }
+    }
+}
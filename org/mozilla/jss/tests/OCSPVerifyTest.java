@@ -0,0 +1,122 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.util.Date;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.OCSPCacheStats;
+import org.mozilla.jss.OCSPCachedResponse;
+import org.mozilla.jss.OCSPResponseCache;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.netscape.security.util.DerValue;
+import org.mozilla.jss.netscape.security.x509.X509CertImpl;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Hands OCSP responses signed by the test CA to an OCSPResponseCache
+ * installed in CryptoManager: good and revoked responses are verified
+ * by NSS and report their status, a badly signed one is rejected, and
+ * responses held before the cache was installed report no status until
+ * it is.
+ */
+public class OCSPVerifyTest {
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 2 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "OCSPVerifyTest <dbdir> <passwordFile>");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        org.mozilla.jss.crypto.X509Certificate nssCA =
+            cm.findCertByNickname("CA_RSA");
+        PrivateKey caKey = cm.findPrivKeyByCert(nssCA);
+        X509CertImpl ca = new X509CertImpl(nssCA.getEncoded());
+        X509CertImpl server = new X509CertImpl(
+            cm.findCertByNickname("Server_RSA").getEncoded());
+        X509CertImpl client = new X509CertImpl(
+            cm.findCertByNickname("Client_RSA").getEncoded());
+
+        // signed by the CA itself, identified by its key hash
+        DerValue spki = new DerValue(ca.getPublicKey().getEncoded());
+        spki.data.getDerValue();
+        byte[] keyHash = MessageDigest.getInstance("SHA-1").digest(
+            spki.data.getBitString());
+
+        Date now = new Date();
+        Date thisUpdate = new Date(now.getTime() - 60000L);
+        Date nextUpdate = new Date(now.getTime() + 3600000L);
+
+        byte[] revoked = OCSPCacheTest.createResponse(0,
+            OCSPCacheTest.encodeCertID(server, ca),
+            OCSPCachedResponse.REVOKED, thisUpdate, nextUpdate,
+            keyHash, caKey);
+        byte[] good = OCSPCacheTest.createResponse(0,
+            OCSPCacheTest.encodeCertID(client, ca),
+            OCSPCachedResponse.GOOD, thisUpdate, nextUpdate,
+            keyHash, caKey);
+        byte[] unsigned = OCSPCacheTest.createResponse(0,
+            OCSPCacheTest.encodeCertID(client, ca),
+            OCSPCachedResponse.GOOD, thisUpdate, nextUpdate);
+
+        // held before the cache is installed: no status yet
+        OCSPResponseCache cache = new OCSPResponseCache();
+        OCSPCachedResponse held = cache.put(client, ca, good);
+        Assert._assert(!held.isVerified());
+        try {
+            held.getCertStatus();
+            Assert.notReached("status of an unverified response reported");
+        } catch (IllegalStateException e) {
+        }
+
+        cm.setOCSPResponseCache(cache);
+        try {
+            Assert._assert(held.isVerified());
+            Assert._assert(held.getCertStatus() == OCSPCachedResponse.GOOD);
+
+            // NSS reports a revoked certificate as an error, but caches
+            // the response
+            OCSPCacheStats stats = cache.getStats();
+            OCSPCachedResponse response = cache.put(server, ca, revoked);
+            Assert._assert(response.isVerified());
+            Assert._assert(response.getCertStatus() ==
+                OCSPCachedResponse.REVOKED);
+            Assert._assert(cache.get(server, ca) == response);
+
+            response = cache.put(client, ca, good);
+            Assert._assert(response.isVerified());
+            Assert._assert(response.getCertStatus() ==
+                OCSPCachedResponse.GOOD);
+
+            // a response with a bad signature is not cached
+            Assert._assert(cache.remove(client, ca));
+            try {
+                cache.put(client, ca, unsigned);
+                Assert.notReached("badly signed response accepted");
+            } catch (CertificateException e) {
+            }
+            Assert._assert(cache.get(client, ca) == null);
+
+            stats = cache.getStats().since(stats);
+            Assert._assert(stats.getStored() == 2);
+            Assert._assert(stats.getRejected() == 1);
+
+        } finally {
+            cm.setOCSPResponseCache(null);
+        }
+
+        System.out.println("OCSPVerifyTest passed");
+        System.exit(0);
+    }
+}
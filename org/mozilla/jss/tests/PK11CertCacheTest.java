@@ -0,0 +1,88 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.TokenCertificate;
+import org.mozilla.jss.crypto.X509Certificate;
+import org.mozilla.jss.netscape.security.x509.X509CertImpl;
+import org.mozilla.jss.pkcs11.PK11Cert;
+import org.mozilla.jss.pkcs11.PK11CertCache;
+import org.mozilla.jss.util.Assert;
+
+/**
+ * Checks that certificate lookups share PK11Cert objects, that closing
+ * is idempotent and a shared object survives being closed by one of its
+ * users, and that the memoized attributes match the certificate.
+ */
+public class PK11CertCacheTest {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 2) {
+            System.out.println("Usage: PK11CertCacheTest <dbdir> <nickname>");
+            System.exit(1);
+        }
+
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        String nickname = args[1];
+
+        PK11Cert first = (PK11Cert) cm.findCertByNickname(nickname);
+        PK11Cert second = (PK11Cert) cm.findCertByNickname(nickname);
+        Assert._assert(first == second);
+
+        // attributes are copies of the memoized values
+        byte[] encoded = first.getEncoded();
+        encoded[0]++;
+        Assert._assert(!Arrays.equals(encoded, first.getEncoded()));
+        encoded[0]--;
+        Assert._assert(Arrays.equals(encoded, first.getEncoded()));
+
+        // each caller gets its own parsed copy
+        X509CertImpl impl = first.getX509CertImpl();
+        Assert._assert(Arrays.equals(encoded, impl.getEncoded()));
+        Assert._assert(impl != second.getX509CertImpl());
+        Assert._assert(first.getSerialNumber().equals(impl.getSerialNumber()));
+        Assert._assert(first.getPublicKey() == second.getPublicKey());
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        Assert._assert(Arrays.equals(md.digest(encoded),
+                first.getSHA256Fingerprint()));
+
+        // closing a shared object only drops it from the cache, once
+        first.close();
+        first.close();
+        Assert._assert(((TokenCertificate) second).getOwningToken() != null);
+        X509Certificate third = cm.findCertByNickname(nickname);
+        Assert._assert(third != second);
+        Assert._assert(cm.findCertByNickname(nickname) == third);
+        Assert._assert(Arrays.equals(encoded, third.getEncoded()));
+
+        // closing it again must not disturb the new entry
+        second.close();
+        Assert._assert(cm.findCertByNickname(nickname) == third);
+
+        // an object handed out once is released when closed
+        PK11CertCache.clear();
+        PK11Cert only = (PK11Cert) cm.findCertByNickname(nickname);
+        only.close();
+        only.close();
+        X509Certificate fourth = cm.findCertByNickname(nickname);
+        Assert._assert(fourth != only);
+        Assert._assert(Arrays.equals(encoded, fourth.getEncoded()));
+
+        // turned off
+        PK11CertCache.setMaximumSize(0);
+        Assert._assert(cm.findCertByNickname(nickname) !=
+                cm.findCertByNickname(nickname));
+        Assert._assert(PK11CertCache.size() == 0);
+
+        System.out.println("PK11CertCacheTest passed");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,116 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.ssl.SSLSocket;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Checks the buffered SSLSocket streams over a loopback connection:
+ * small writes are coalesced and arrive intact, and data whose flush
+ * failed stays buffered, so a later flush fails again instead of
+ * silently dropping it.
+ */
+public class SSLBufferedStreamTest {
+
+    private static final int TIMEOUT = 10000;
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "SSLBufferedStreamTest <dbdir> <passwordFile>" +
+                " <serverCertNick> [port]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        String nick = args[2];
+        int port = (args.length > 3) ? Integer.parseInt(args[3]) : 29757;
+
+        SSLServerSocket.configServerSessionIDCache(10, 100, 100, null);
+        final SSLServerSocket serverSock =
+            new SSLServerSocket(port, 5, null, null, true);
+        serverSock.setServerCertNickname(nick);
+
+        final SSLSocket[] accepted = new SSLSocket[1];
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    accepted[0] = (SSLSocket) serverSock.accept();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        acceptor.start();
+
+        SSLSocket client = new SSLSocket("localhost", port, null, 0,
+            new TestCertificateApprovalCallback(), null);
+        acceptor.join();
+        SSLSocket server = accepted[0];
+        Assert._assert(server != null);
+        client.setSoTimeout(TIMEOUT);
+        server.setSoTimeout(TIMEOUT);
+
+        // many small writes, one larger than the buffer
+        OutputStream out = client.getBufferedOutputStream(1024);
+        byte[] expected = new byte[10000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) (i * 31 + 5);
+        }
+        int off = 0;
+        for (int i = 0; off < expected.length; i++) {
+            int len = Math.min((i == 20) ? 3000 : (i % 7) + 1,
+                expected.length - off);
+            if (len == 1) {
+                out.write(expected[off]);
+            } else {
+                out.write(expected, off, len);
+            }
+            off += len;
+        }
+        out.flush();
+
+        InputStream in = server.getBufferedInputStream(512);
+        byte[] actual = new byte[expected.length];
+        int n = 0;
+        while (n < actual.length) {
+            int r = in.read(actual, n, actual.length - n);
+            Assert._assert(r > 0);
+            n += r;
+        }
+        Assert._assert(Arrays.equals(expected, actual));
+
+        // a failed flush keeps the data
+        out.write(expected, 0, 10);
+        client.close();
+        for (int i = 0; i < 2; i++) {
+            try {
+                out.flush();
+                Assert.notReached("flush after close should fail");
+            } catch (IOException e) {
+                // expected, both times
+            }
+        }
+
+        server.close();
+        serverSock.close();
+
+        System.out.println("SSLBufferedStreamTest passed");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,159 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.ssl.SSLSocket;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Exercises the ByteBuffer read and write paths of SSLSocket over a
+ * loopback connection: heap and direct buffers, gathering writes that
+ * mix both, and reads into a buffer with no space left.
+ */
+public class SSLByteBufferTest {
+
+    private static final int TIMEOUT = 10000;
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "SSLByteBufferTest <dbdir> <passwordFile> <serverCertNick>" +
+                " [port]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        String nick = args[2];
+        int port = (args.length > 3) ? Integer.parseInt(args[3]) : 29756;
+
+        SSLServerSocket.configServerSessionIDCache(10, 100, 100, null);
+        final SSLServerSocket serverSock =
+            new SSLServerSocket(port, 5, null, null, true);
+        serverSock.setServerCertNickname(nick);
+
+        final SSLSocket[] accepted = new SSLSocket[1];
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    accepted[0] = (SSLSocket) serverSock.accept();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        acceptor.start();
+
+        SSLSocket client = new SSLSocket("localhost", port, null, 0,
+            new TestCertificateApprovalCallback(), null);
+        acceptor.join();
+        SSLSocket server = accepted[0];
+        Assert._assert(server != null);
+        client.setSoTimeout(TIMEOUT);
+        server.setSoTimeout(TIMEOUT);
+        client.forceHandshake();
+        server.forceHandshake();
+
+        // a buffer with no space left reads nothing, without blocking
+        Assert._assert(server.read(ByteBuffer.allocate(0)) == 0);
+        Assert._assert(server.read(ByteBuffer.allocateDirect(0)) == 0);
+        ByteBuffer full = ByteBuffer.allocate(8);
+        full.position(8);
+        Assert._assert(server.read(full) == 0);
+        Assert._assert(full.position() == 8);
+
+        // heap to direct and direct to heap
+        roundTrip(client, server, ByteBuffer.allocate(5000),
+            ByteBuffer.allocateDirect(5000));
+        roundTrip(server, client, ByteBuffer.allocateDirect(5000),
+            ByteBuffer.allocate(5000));
+
+        // non-zero positions on both ends
+        ByteBuffer src = ByteBuffer.allocateDirect(1100);
+        src.position(100);
+        ByteBuffer dst = ByteBuffer.allocate(1200);
+        dst.position(200);
+        roundTrip(client, server, src, dst);
+
+        // gathering write mixing direct and heap buffers
+        byte[] expected = pattern(3 * 1000 + 20 * 10, 7);
+        ByteBuffer[] srcs = new ByteBuffer[23];
+        int off = 0;
+        for (int i = 0; i < srcs.length; i++) {
+            int len = (i < 3) ? 1000 : 10;
+            srcs[i] = (i == 1) ? ByteBuffer.allocate(len)
+                               : ByteBuffer.allocateDirect(len);
+            srcs[i].put(expected, off, len);
+            srcs[i].flip();
+            off += len;
+        }
+        Assert._assert(client.write(srcs, 0, srcs.length) == expected.length);
+        for (ByteBuffer b : srcs) {
+            Assert._assert(!b.hasRemaining());
+        }
+        ByteBuffer received = ByteBuffer.allocateDirect(expected.length);
+        readFully(server, received);
+        byte[] actual = new byte[expected.length];
+        received.flip();
+        received.get(actual);
+        Assert._assert(Arrays.equals(expected, actual));
+
+        client.close();
+        server.close();
+        serverSock.close();
+
+        System.out.println("SSLByteBufferTest passed");
+        System.exit(0);
+    }
+
+    /**
+     * Fills the remaining space of src, writes it from one end and reads
+     * it back on the other into dst, then compares the two.
+     */
+    private static void roundTrip(SSLSocket from, SSLSocket to,
+            ByteBuffer src, ByteBuffer dst) throws Exception {
+        int srcStart = src.position();
+        int dstStart = dst.position();
+        byte[] expected = pattern(src.remaining(), srcStart + 1);
+        src.put(expected);
+        src.position(srcStart);
+
+        Assert._assert(from.write(src) == expected.length);
+        Assert._assert(!src.hasRemaining());
+
+        dst.limit(dstStart + expected.length);
+        readFully(to, dst);
+
+        byte[] actual = new byte[expected.length];
+        dst.position(dstStart);
+        dst.get(actual);
+        Assert._assert(Arrays.equals(expected, actual));
+    }
+
+    private static void readFully(SSLSocket sock, ByteBuffer dst)
+            throws Exception {
+        while (dst.hasRemaining()) {
+            int n = sock.read(dst);
+            Assert._assert(n > 0);
+        }
+    }
+
+    private static byte[] pattern(int len, int seed) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+}
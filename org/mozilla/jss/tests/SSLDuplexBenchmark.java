@@ -0,0 +1,178 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.ssl.SSLSocket;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Measures full-duplex throughput of a loopback SSLSocket pair: on each
+ * end one thread writes while another reads, for a fixed time.
+ *
+ * Run it against two builds to compare read/write contention, e.g.
+ * with small records where per-call locking overhead dominates.
+ */
+public class SSLDuplexBenchmark {
+
+    private static final int TIMEOUT = 1000;
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "SSLDuplexBenchmark <dbdir> <passwordFile> <serverCertNick>" +
+                " [port] [seconds] [recordSize]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        String nick = args[2];
+        int port = (args.length > 3) ? Integer.parseInt(args[3]) : 29755;
+        int seconds = (args.length > 4) ? Integer.parseInt(args[4]) : 10;
+        int recordSize = (args.length > 5) ? Integer.parseInt(args[5]) : 64;
+
+        SSLServerSocket.configServerSessionIDCache(10, 100, 100, null);
+        final SSLServerSocket serverSock =
+            new SSLServerSocket(port, 5, null, null, true);
+        serverSock.setServerCertNickname(nick);
+
+        final SSLSocket[] accepted = new SSLSocket[1];
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    accepted[0] = (SSLSocket) serverSock.accept();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        acceptor.start();
+
+        SSLSocket client = new SSLSocket("localhost", port, null, 0,
+            new TestCertificateApprovalCallback(), null);
+        acceptor.join();
+        SSLSocket server = accepted[0];
+        if ( server == null ) {
+            System.out.println("Accept failed");
+            System.exit(1);
+        }
+        client.forceHandshake();
+        server.forceHandshake();
+        client.setSoTimeout(TIMEOUT);
+        server.setSoTimeout(TIMEOUT);
+
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+        Direction up = new Direction(client, server, recordSize, deadline);
+        Direction down = new Direction(server, client, recordSize, deadline);
+
+        long start = System.nanoTime();
+        up.start();
+        down.start();
+        up.join();
+        down.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        client.close();
+        server.close();
+        serverSock.close();
+
+        System.out.println("record size: " + recordSize + " bytes");
+        up.report("client->server", elapsed);
+        down.report("server->client", elapsed);
+        double total = (up.received.get() + down.received.get()) /
+            (1024.0 * 1024.0) / elapsed;
+        System.out.printf("aggregate:      %.2f MB/s%n", total);
+
+        if ( up.failed || down.failed ) {
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * One direction of the connection: a writer on one socket and a
+     * reader on the other, running at the same time as the opposite
+     * direction on the same sockets.
+     */
+    private static class Direction {
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        volatile boolean writerDone = false;
+        volatile boolean failed = false;
+        final Thread writer;
+        final Thread reader;
+
+        Direction(final SSLSocket from, final SSLSocket to,
+            final int recordSize, final long deadline) {
+            writer = new Thread() {
+                public void run() {
+                    byte[] buf = new byte[recordSize];
+                    try {
+                        OutputStream out = from.getOutputStream();
+                        while ( System.currentTimeMillis() < deadline ) {
+                            out.write(buf, 0, buf.length);
+                            sent.addAndGet(buf.length);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        failed = true;
+                    } finally {
+                        writerDone = true;
+                    }
+                }
+            };
+            reader = new Thread() {
+                public void run() {
+                    byte[] buf = new byte[16384];
+                    try {
+                        InputStream in = to.getInputStream();
+                        while ( ! writerDone ||
+                                received.get() < sent.get() ) {
+                            int n;
+                            try {
+                                n = in.read(buf, 0, buf.length);
+                            } catch (SocketTimeoutException e) {
+                                continue;
+                            }
+                            if ( n < 0 ) {
+                                break;
+                            }
+                            received.addAndGet(n);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        failed = true;
+                    }
+                }
+            };
+        }
+
+        void start() {
+            writer.start();
+            reader.start();
+        }
+
+        void join() throws InterruptedException {
+            writer.join();
+            reader.join();
+        }
+
+        void report(String name, double elapsed) {
+            double mb = received.get() / (1024.0 * 1024.0);
+            System.out.printf("%s: %.2f MB/s (%d bytes)%n",
+                name, mb / elapsed, received.get());
+        }
+    }
+}
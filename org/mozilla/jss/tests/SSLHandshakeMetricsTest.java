@@ -0,0 +1,172 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.ssl.SSLHandshakeMetrics;
+import org.mozilla.jss.ssl.SSLHandshakeMetricsListener;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.ssl.SSLSocket;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Makes a full and then a resumed handshake over loopback, with a
+ * handshake metrics listener on both ends, and checks that the metrics
+ * delivered for each handshake are filled in and agree with each other.
+ */
+public class SSLHandshakeMetricsTest {
+
+    private static final int TIMEOUT = 10000;
+
+    static class Collector implements SSLHandshakeMetricsListener {
+        final BlockingQueue<SSLHandshakeMetrics> metrics =
+            new LinkedBlockingQueue<SSLHandshakeMetrics>();
+
+        public void handshakeMetrics(SSLHandshakeMetrics m) {
+            metrics.add(m);
+        }
+
+        SSLHandshakeMetrics next() throws InterruptedException {
+            SSLHandshakeMetrics m = metrics.poll(TIMEOUT,
+                TimeUnit.MILLISECONDS);
+            Assert._assert(m != null);
+            return m;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "SSLHandshakeMetricsTest <dbdir> <passwordFile>" +
+                " <serverCertNick> [port]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        String nick = args[2];
+        int port = (args.length > 3) ? Integer.parseInt(args[3]) : 29759;
+
+        SSLServerSocket.configServerSessionIDCache(10, 100, 100, null);
+        SSLServerSocket serverSock =
+            new SSLServerSocket(port, 5, null, null, true);
+        serverSock.setServerCertNickname(nick);
+        Collector serverMetrics = new Collector();
+        serverSock.setHandshakeMetricsListener(serverMetrics);
+        Collector clientMetrics = new Collector();
+
+        // full handshake
+        SSLSocket[] pair = handshake(serverSock, port, clientMetrics);
+        SSLHandshakeMetrics client = clientMetrics.next();
+        SSLHandshakeMetrics server = serverMetrics.next();
+        System.out.println("client: " + client);
+        System.out.println("server: " + server);
+        Assert._assert(client.getSocket() == pair[0]);
+        Assert._assert(server.getSocket() == pair[1]);
+        check(client, server);
+        Assert._assert(!client.isResumed());
+        Assert._assert(!server.isResumed());
+        long fullBytes = client.getBytesReceived();
+        close(pair);
+
+        // resumed handshake
+        pair = handshake(serverSock, port, clientMetrics);
+        client = clientMetrics.next();
+        server = serverMetrics.next();
+        System.out.println("client: " + client);
+        System.out.println("server: " + server);
+        check(client, server);
+        Assert._assert(client.isResumed());
+        Assert._assert(server.isResumed());
+        // no certificate is sent when resuming
+        Assert._assert(client.getBytesReceived() < fullBytes);
+        close(pair);
+
+        // one set of metrics per handshake
+        Assert._assert(clientMetrics.metrics.isEmpty());
+        Assert._assert(serverMetrics.metrics.isEmpty());
+
+        serverSock.close();
+
+        System.out.println("SSLHandshakeMetricsTest passed");
+        System.exit(0);
+    }
+
+    private static void check(SSLHandshakeMetrics client,
+            SSLHandshakeMetrics server) {
+        SSLHandshakeMetrics[] both = { client, server };
+        for (SSLHandshakeMetrics m : both) {
+            Assert._assert(m.getDurationMicros() > 0);
+            Assert._assert(m.getStartTimeMicros() > 0);
+            Assert._assert(m.getEndTimeMicros() >= m.getStartTimeMicros());
+            Assert._assert(m.getBytesSent() > 0);
+            Assert._assert(m.getBytesReceived() > 0);
+            Assert._assert(m.getRecordsSent() > 0);
+            Assert._assert(m.getRecordsReceived() > 0);
+            // a record carries at least its 5-byte header
+            Assert._assert(m.getBytesSent() >= 5 * m.getRecordsSent());
+            Assert._assert(m.getBytesReceived() >= 5 * m.getRecordsReceived());
+            Assert._assert(m.getProtocolVersion() >= 0x0301);
+            Assert._assert(m.getCipherSuite() != 0);
+            Assert._assert(m.getCertVerifyMicros() >= 0);
+            Assert._assert(m.getCertApprovalCallbackMicros() >= 0);
+            Assert._assert(m.getClientCertSelectionMicros() >= 0);
+        }
+        Assert._assert(client.getProtocolVersion() ==
+            server.getProtocolVersion());
+        Assert._assert(client.getCipherSuite() == server.getCipherSuite());
+        // neither end can receive more handshake data than the other sent
+        Assert._assert(server.getBytesReceived() <= client.getBytesSent());
+        Assert._assert(client.getBytesReceived() <= server.getBytesSent());
+    }
+
+    /**
+     * Connects to the server socket and completes a handshake on both
+     * ends.
+     * @return the client and the server socket.
+     */
+    private static SSLSocket[] handshake(final SSLServerSocket serverSock,
+            int port, SSLHandshakeMetricsListener listener) throws Exception {
+        final SSLSocket[] accepted = new SSLSocket[1];
+        final Exception[] failure = new Exception[1];
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    SSLSocket s = (SSLSocket) serverSock.accept();
+                    s.setSoTimeout(TIMEOUT);
+                    s.forceHandshake();
+                    accepted[0] = s;
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        acceptor.start();
+
+        SSLSocket client = new SSLSocket("localhost", port, null, 0,
+            new TestCertificateApprovalCallback(), null);
+        client.setSoTimeout(TIMEOUT);
+        client.setHandshakeMetricsListener(listener);
+        client.forceHandshake();
+        acceptor.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return new SSLSocket[] { client, accepted[0] };
+    }
+
+    private static void close(SSLSocket[] pair) throws Exception {
+        pair[0].close();
+        pair[1].close();
+    }
+}
@@ -0,0 +1,198 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.ssl.SSLHandshakePipeline;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.ssl.SSLSocket;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Drives an SSLHandshakePipeline with loopback clients and checks that
+ * handshaken sockets are handed out in order, that no more than
+ * maxPending connections are accepted ahead of the application, that a
+ * stalled handshake times out, and that close() fails waiters and aborts
+ * handshakes in progress.
+ */
+public class SSLHandshakePipelineTest {
+
+    private static final int TIMEOUT = 10000;
+
+    /**
+     * A client that connects and handshakes on its own thread.
+     */
+    static class Client extends Thread {
+        final int port;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile SSLSocket sock;
+        volatile Exception failure;
+
+        Client(int port) {
+            this.port = port;
+            start();
+        }
+
+        public void run() {
+            try {
+                SSLSocket s = new SSLSocket("localhost", port, null, 0,
+                    new TestCertificateApprovalCallback(), null);
+                s.setSoTimeout(TIMEOUT);
+                sock = s;
+                s.forceHandshake();
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        boolean awaitHandshake(long millis) throws Exception {
+            if (!done.await(millis, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return true;
+        }
+
+        int localPort() {
+            return sock.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "SSLHandshakePipelineTest <dbdir> <passwordFile>" +
+                " <serverCertNick> [port]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        String nick = args[2];
+        int port = (args.length > 3) ? Integer.parseInt(args[3]) : 29760;
+
+        SSLServerSocket.configServerSessionIDCache(10, 100, 100, null);
+        SSLServerSocket serverSock =
+            new SSLServerSocket(port, 50, null, null, true);
+        serverSock.setServerCertNickname(nick);
+
+        SSLHandshakePipeline pipeline =
+            new SSLHandshakePipeline(serverSock, 1, 2);
+        Assert._assert(pipeline.getHandshakeTimeout() ==
+            SSLHandshakePipeline.DEFAULT_HANDSHAKE_TIMEOUT);
+        pipeline.start();
+
+        // sockets come out in the order their handshakes finished
+        Client a = new Client(port);
+        Assert._assert(a.awaitHandshake(TIMEOUT));
+        Client b = new Client(port);
+        Assert._assert(b.awaitHandshake(TIMEOUT));
+        expect(pipeline, a);
+        expect(pipeline, b);
+
+        // at most maxPending (2) connections are taken ahead of accept()
+        Client c = new Client(port);
+        Assert._assert(c.awaitHandshake(TIMEOUT));
+        Client d = new Client(port);
+        Assert._assert(d.awaitHandshake(TIMEOUT));
+        Client e = new Client(port);
+        Assert._assert(!e.awaitHandshake(1000));
+        expect(pipeline, c);
+        Assert._assert(e.awaitHandshake(TIMEOUT));
+        expect(pipeline, d);
+        expect(pipeline, e);
+
+        // nothing else is pending
+        Assert._assert(pipeline.accept(100, TimeUnit.MILLISECONDS) == null);
+
+        // a peer that never sends its ClientHello is dropped
+        pipeline.setHandshakeTimeout(500);
+        Socket silent = new Socket("localhost", port);
+        silent.setSoTimeout(TIMEOUT);
+        long start = System.currentTimeMillis();
+        try {
+            pipeline.accept();
+            Assert.notReached("stalled handshake should fail");
+        } catch (IOException ex) {
+            // expected
+        }
+        Assert._assert(System.currentTimeMillis() - start < TIMEOUT);
+        Assert._assert(disconnected(silent));
+
+        // close() aborts a handshake in progress and fails waiters
+        pipeline.setHandshakeTimeout(0);
+        silent = new Socket("localhost", port);
+        silent.setSoTimeout(TIMEOUT);
+        CompletableFuture<SSLSocket> waiter = pipeline.acceptAsync();
+        Thread.sleep(500);
+        Assert._assert(!waiter.isDone());
+        pipeline.close();
+        Assert._assert(disconnected(silent));
+        Assert._assert(failed(waiter));
+        Assert._assert(failed(pipeline.acceptAsync()));
+        Assert._assert(serverSock.isClosed());
+
+        for (Client client : new Client[] { a, b, c, d, e }) {
+            client.sock.close();
+        }
+
+        System.out.println("SSLHandshakePipelineTest passed");
+        System.exit(0);
+    }
+
+    /**
+     * Takes the next socket from the pipeline and checks that it is the
+     * server end of the given client's connection.
+     */
+    private static void expect(SSLHandshakePipeline pipeline, Client client)
+            throws Exception {
+        SSLSocket s = pipeline.accept(TIMEOUT, TimeUnit.MILLISECONDS);
+        Assert._assert(s != null);
+        Assert._assert(s.getPort() == client.localPort());
+        s.close();
+    }
+
+    /**
+     * Returns true if the server closed the connection.
+     */
+    private static boolean disconnected(Socket s) throws IOException {
+        try {
+            return s.getInputStream().read() == -1;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            // connection reset
+            return true;
+        } finally {
+            s.close();
+        }
+    }
+
+    private static boolean failed(CompletableFuture<SSLSocket> future)
+            throws Exception {
+        try {
+            future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            return false;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof IOException;
+        }
+    }
+}
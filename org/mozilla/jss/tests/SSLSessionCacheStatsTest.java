@@ -0,0 +1,118 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.ssl.SSLSocket;
+import org.mozilla.jss.ssl.SessionCacheStats;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Makes a full handshake and then a resumed one over loopback, with
+ * session tickets disabled so resumption goes through the session ID
+ * cache, and checks the session cache counters on both sides.
+ */
+public class SSLSessionCacheStatsTest {
+
+    private static final int TIMEOUT = 10000;
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "SSLSessionCacheStatsTest <dbdir> <passwordFile>" +
+                " <serverCertNick> [port]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        String nick = args[2];
+        int port = (args.length > 3) ? Integer.parseInt(args[3]) : 29758;
+
+        SSLSocket.enableSessionTicketsDefault(false);
+        SSLServerSocket.configServerSessionIDCache(10, 100, 100, null);
+        SSLServerSocket serverSock =
+            new SSLServerSocket(port, 5, null, null, true);
+        serverSock.setServerCertNickname(nick);
+
+        SessionCacheStats start = SSLServerSocket.getSessionCacheStats();
+
+        handshake(serverSock, port);
+        SessionCacheStats full =
+            SSLServerSocket.getSessionCacheStats().since(start);
+        System.out.println("after full handshake: " + full);
+        Assert._assert(full.getServerCacheHits() == 0);
+        Assert._assert(full.getServerFullHandshakes() == 1);
+        Assert._assert(full.getServerResumedHandshakes() == 0);
+        Assert._assert(full.getClientCacheHits() == 0);
+        Assert._assert(full.getClientCacheMisses() == 1);
+
+        handshake(serverSock, port);
+        SessionCacheStats both =
+            SSLServerSocket.getSessionCacheStats().since(start);
+        System.out.println("after resumed handshake: " + both);
+        Assert._assert(both.getServerCacheHits() == 1);
+        Assert._assert(both.getServerFullHandshakes() == 1);
+        Assert._assert(both.getServerResumedHandshakes() == 1);
+        Assert._assert(both.getServerTicketResumes() == 0);
+        Assert._assert(both.getServerResumptionRatio() == 0.5);
+        Assert._assert(both.getServerCacheHitRate() == 0.5);
+        Assert._assert(both.getClientCacheHits() == 1);
+        Assert._assert(both.getClientCacheMisses() == 1);
+        Assert._assert(both.getClientResumesAccepted() == 1);
+        Assert._assert(both.getClientResumesRejected() == 0);
+
+        // the interval between the two snapshots holds only the resumption
+        SessionCacheStats resumed = both.since(full);
+        Assert._assert(resumed.getServerCacheHits() == 1);
+        Assert._assert(resumed.getServerFullHandshakes() == 0);
+        Assert._assert(resumed.getServerResumptionRatio() == 1.0);
+
+        serverSock.close();
+
+        System.out.println("SSLSessionCacheStatsTest passed");
+        System.exit(0);
+    }
+
+    /**
+     * Connects to the server socket and completes a handshake on both
+     * ends, then closes the connection.
+     */
+    private static void handshake(final SSLServerSocket serverSock, int port)
+            throws Exception {
+        final SSLSocket[] accepted = new SSLSocket[1];
+        final Exception[] failure = new Exception[1];
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    SSLSocket s = (SSLSocket) serverSock.accept();
+                    s.setSoTimeout(TIMEOUT);
+                    s.forceHandshake();
+                    accepted[0] = s;
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        acceptor.start();
+
+        SSLSocket client = new SSLSocket("localhost", port, null, 0,
+            new TestCertificateApprovalCallback(), null);
+        client.setSoTimeout(TIMEOUT);
+        client.forceHandshake();
+        acceptor.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        client.close();
+        accepted[0].close();
+    }
+}
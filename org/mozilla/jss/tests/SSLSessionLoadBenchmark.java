@@ -0,0 +1,196 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.crypto.CryptoToken;
+import org.mozilla.jss.ssl.SSLServerSocket;
+import org.mozilla.jss.ssl.SSLSocket;
+import org.mozilla.jss.util.PasswordCallback;
+
+/**
+ * Runs many concurrent TLS sessions against a loopback SSLServerSocket.
+ * Each session connects, handshakes, sends a message, reads the echo
+ * and closes.
+ *
+ * The server handlers always run on a cached pool of platform threads.
+ * When the JVM supports virtual threads the client sessions run on
+ * them, otherwise on a second platform pool. A virtual thread blocked
+ * in the native handshake or socket read occupies its carrier, so at
+ * most one client per carrier makes progress at a time; running the
+ * server on virtual threads as well could leave every carrier held by
+ * a client waiting for a handler that cannot be scheduled.
+ */
+public class SSLSessionLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 3 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "SSLSessionLoadBenchmark <dbdir> <passwordFile>" +
+                " <serverCertNick> [port] [sessions] [messageSize]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        CryptoToken tok = cm.getInternalKeyStorageToken();
+        PasswordCallback cb = new FilePasswordCallback(args[1]);
+        tok.login(cb);
+
+        String nick = args[2];
+        final int port = (args.length > 3) ? Integer.parseInt(args[3]) : 29756;
+        final int sessions =
+            (args.length > 4) ? Integer.parseInt(args[4]) : 10000;
+        final int messageSize =
+            (args.length > 5) ? Integer.parseInt(args[5]) : 1024;
+
+        ExecutorService executor = newVirtualThreadExecutor();
+        boolean virtual = (executor != null);
+        if ( ! virtual ) {
+            executor = Executors.newCachedThreadPool();
+        }
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        System.out.println("client threads: " +
+            (virtual ? "virtual" : "platform"));
+
+        SSLServerSocket.configServerSessionIDCache(sessions, 100, 100, null);
+        final SSLServerSocket serverSock =
+            new SSLServerSocket(port, 1024, null, null, true);
+        serverSock.setServerCertNickname(nick);
+
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(sessions);
+
+        Thread acceptor = new Thread() {
+            public void run() {
+                for ( int i = 0; i < sessions; i++ ) {
+                    final SSLSocket s;
+                    try {
+                        s = (SSLSocket) serverSock.accept();
+                    } catch (Exception e) {
+                        if ( ! serverSock.isClosed() ) {
+                            e.printStackTrace();
+                        }
+                        return;
+                    }
+                    pool.execute(new Runnable() {
+                        public void run() {
+                            echo(s, messageSize, failures);
+                        }
+                    });
+                }
+            }
+        };
+        acceptor.start();
+
+        long start = System.nanoTime();
+        for ( int i = 0; i < sessions; i++ ) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        bytes.addAndGet(session(port, messageSize));
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        serverSock.close();
+        acceptor.join();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        System.out.println("sessions:   " + sessions +
+            " (" + failures.get() + " failed)");
+        System.out.printf("throughput: %.1f sessions/s, %.2f MB/s%n",
+            sessions / elapsed, bytes.get() / (1024.0 * 1024.0) / elapsed);
+
+        System.exit(failures.get() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Client side of one session.
+     * @return the number of bytes echoed back.
+     */
+    private static long session(int port, int messageSize) throws Exception {
+        SSLSocket sock = new SSLSocket("localhost", port, null, 0,
+            new TestCertificateApprovalCallback(), null);
+        try {
+            byte[] msg = new byte[messageSize];
+            OutputStream out = sock.getOutputStream();
+            InputStream in = sock.getInputStream();
+            out.write(msg);
+            long total = 0;
+            while ( total < messageSize ) {
+                int n = in.read(msg, 0, msg.length);
+                if ( n < 0 ) {
+                    throw new Exception("Unexpected end of stream");
+                }
+                total += n;
+            }
+            return total;
+        } finally {
+            sock.close();
+        }
+    }
+
+    /**
+     * Server side of one session.
+     */
+    private static void echo(SSLSocket sock, int messageSize,
+        AtomicInteger failures) {
+        try {
+            byte[] buf = new byte[messageSize];
+            InputStream in = sock.getInputStream();
+            OutputStream out = sock.getOutputStream();
+            int total = 0;
+            while ( total < messageSize ) {
+                int n = in.read(buf, 0, buf.length);
+                if ( n < 0 ) {
+                    break;
+                }
+                out.write(buf, 0, n);
+                total += n;
+            }
+        } catch (Exception e) {
+            failures.incrementAndGet();
+        } finally {
+            try {
+                sock.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    /**
+     * Returns Executors.newVirtualThreadPerTaskExecutor() if this JVM
+     * has it, else null.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod(
+                "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
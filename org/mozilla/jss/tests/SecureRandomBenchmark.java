@@ -0,0 +1,89 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.jss.CryptoManager;
+
+/**
+ * Measures SecureRandom.nextBytes throughput of the Mozilla-JSS
+ * "pkcs11prng" generator with 1, 8 and 64 threads sharing one instance.
+ *
+ * Small requests (16 bytes, the size of an IV or nonce) are served from
+ * per-thread buffers; requests above the buffering threshold go to NSS
+ * each time and give the unbuffered baseline.
+ */
+public class SecureRandomBenchmark {
+
+    private static final int[] THREADS = { 1, 8, 64 };
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 1 ) {
+            System.out.println("Usage: java org.mozilla.jss.tests." +
+                "SecureRandomBenchmark <dbdir> [seconds] [requestSize]");
+            System.exit(1);
+        }
+        CryptoManager.initialize(args[0]);
+
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        int size = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+
+        SecureRandom rng = SecureRandom.getInstance("pkcs11prng",
+            "Mozilla-JSS");
+
+        // warm up
+        run(rng, 1, size, 1);
+
+        for ( int threads : THREADS ) {
+            double ops = run(rng, threads, size, seconds);
+            System.out.printf("nextBytes(%d) threads=%-3d %,14.0f ops/s " +
+                "%,10.1f MB/s%n", size, threads, ops,
+                ops * size / (1024 * 1024));
+        }
+        System.exit(0);
+    }
+
+    private static double run(final SecureRandom rng, int threads,
+        final int size, int seconds) throws InterruptedException
+    {
+        final AtomicLong total = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        Thread[] workers = new Thread[threads];
+
+        for ( int i = 0; i < threads; i++ ) {
+            workers[i] = new Thread() {
+                public void run() {
+                    byte[] buf = new byte[size];
+                    long n = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while ( System.nanoTime() < deadline ) {
+                        // check the clock every 256 calls
+                        for ( int j = 0; j < 256; j++ ) {
+                            rng.nextBytes(buf);
+                        }
+                        n += 256;
+                    }
+                    total.addAndGet(n);
+                }
+            };
+            workers[i].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for ( Thread t : workers ) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        return total.get() / elapsed;
+    }
+}
@@ -0,0 +1,105 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.mozilla.jss.CertVerificationResult;
+import org.mozilla.jss.CryptoManager;
+import org.mozilla.jss.util.Assert;
+import org.mozilla.jss.util.NativeErrcodes;
+
+/**
+ * Verifies certificates in batches, by nickname and by encoding, in the
+ * calling thread and in a thread pool, and checks the results against
+ * verifyCertificate().
+ */
+public class VerifyCertBatchTest {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 2) {
+            System.out.println("Usage: VerifyCertBatchTest <dbdir> <nickname>");
+            System.exit(1);
+        }
+
+        CryptoManager.initialize(args[0]);
+        CryptoManager cm = CryptoManager.getInstance();
+        String nickname = args[1];
+
+        boolean valid = true;
+        try {
+            cm.verifyCertificate(nickname, true, null);
+        } catch (Exception e) {
+            valid = false;
+        }
+
+        List<String> nicknames = new ArrayList<>();
+        List<byte[]> encodings = new ArrayList<>();
+        byte[] encoded = cm.findCertByNickname(nickname).getEncoded();
+        for (int i = 0; i < 10; i++) {
+            nicknames.add(nickname);
+            encodings.add(encoded);
+        }
+        nicknames.add("VerifyCertBatchTest no such cert");
+        encodings.add(Arrays.copyOf(encoded, encoded.length / 2));
+
+        cm.setVerifyBatchSize(3);
+        check(cm.verifyCertificatesByNickname(nicknames, true, null, null),
+                valid, NativeErrcodes.SEC_ERROR_UNKNOWN_CERT);
+        check(cm.verifyCertificates(encodings, true, null, null),
+                valid, 0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            cm.setVerifyExecutor(pool);
+            check(cm.verifyCertificatesByNickname(nicknames, true, null,
+                    new Date()), valid, NativeErrcodes.SEC_ERROR_UNKNOWN_CERT);
+            check(cm.verifyCertificates(encodings, true, null, new Date()),
+                    valid, 0);
+        } finally {
+            cm.setVerifyExecutor(null);
+            pool.shutdown();
+        }
+        cm.setVerifyBatchSize(CryptoManager.DEFAULT_VERIFY_BATCH_SIZE);
+
+        // long expired
+        List<CertVerificationResult> results = cm.verifyCertificatesByNickname(
+                nicknames.subList(0, 1), true, null, new Date(0));
+        Assert._assert(!results.get(0).isValid());
+
+        Assert._assert(cm.verifyCertificates(
+                new ArrayList<byte[]>(), true, null, null).isEmpty());
+
+        System.out.println("VerifyCertBatchTest passed");
+        System.exit(0);
+    }
+
+    /**
+     * The last result is expected to fail, with the given error code
+     * unless it is 0; the others are expected to match verifyCertificate().
+     */
+    private static void check(List<CertVerificationResult> results,
+            boolean valid, int lastError) {
+        for (int i = 0; i < results.size(); i++) {
+            CertVerificationResult result = results.get(i);
+            System.out.println(result);
+            Assert._assert(result.getIndex() == i);
+            if (i < results.size() - 1) {
+                Assert._assert(result.isValid() == valid);
+            } else {
+                Assert._assert(!result.isValid());
+                Assert._assert(result.getErrorMessage() != null);
+                if (lastError != 0) {
+                    Assert._assert(result.getErrorCode() == lastError);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.jss.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CRL;
+import java.security.cert.CRLException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.mozilla.jss.netscape.security.pkcs.ContentInfo;
+import org.mozilla.jss.netscape.security.pkcs.PKCS7;
+import org.mozilla.jss.netscape.security.pkcs.SignerInfo;
+import org.mozilla.jss.netscape.security.provider.X509CertificateFactory;
+import org.mozilla.jss.netscape.security.util.Utils;
+import org.mozilla.jss.netscape.security.x509.AlgorithmId;
+import org.mozilla.jss.netscape.security.x509.CertificateIssuerName;
+import org.mozilla.jss.netscape.security.x509.RevokedCertImpl;
+import org.mozilla.jss.netscape.security.x509.RevokedCertificate;
+import org.mozilla.jss.netscape.security.x509.X500Name;
+import org.mozilla.jss.netscape.security.x509.X509CRLImpl;
+import org.mozilla.jss.netscape.security.x509.X509CertImpl;
+import org.mozilla.jss.netscape.security.x509.X509CertInfo;
+import org.mozilla.jss.util.Assert;
+
+/**
+ * Reads certificate and CRL bundles as DER, PEM and PKCS #7 through
+ * X509CertificateFactory, sequentially, in parallel and lazily. Uses the
+ * default JDK providers, so it does not need an NSS database.
+ */
+public class X509BundleTest {
+
+    private static final int CERT_COUNT =
+            X509CertificateFactory.PARALLEL_THRESHOLD + 44;
+
+    public static void main(String[] args) throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(1024);
+        KeyPair pair = kpg.generateKeyPair();
+
+        X500Name issuer = new X500Name("CN=Bundle Test CA");
+        Date now = new Date();
+        Date later = new Date(now.getTime() + 86400000L);
+
+        X509CertImpl[] certs = new X509CertImpl[CERT_COUNT];
+        for (int i = 0; i < certs.length; i++) {
+            X509CertInfo info = X509CertTest.createX509CertInfo(
+                    X509CertTest.convertPublicKeyToX509Key(pair.getPublic()),
+                    BigInteger.valueOf(i + 1), new CertificateIssuerName(issuer),
+                    "CN=Bundle Test " + i, now, later, "SHA256withRSA");
+            certs[i] = new X509CertImpl(info);
+            certs[i].sign(pair.getPrivate(), "SHA256withRSA");
+        }
+
+        X509CRLImpl[] crls = new X509CRLImpl[3];
+        for (int i = 0; i < crls.length; i++) {
+            RevokedCertificate[] revoked = {
+                new RevokedCertImpl(BigInteger.valueOf(i + 1), now)
+            };
+            crls[i] = new X509CRLImpl(issuer, now, later, revoked);
+            crls[i].sign(pair.getPrivate(), "SHA256withRSA");
+        }
+
+        // DER concatenation
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        for (X509CertImpl cert : certs)
+            der.write(cert.getEncoded());
+
+        // PEM with text around the blocks, as in CA bundles
+        StringBuilder pem = new StringBuilder();
+        for (int i = 0; i < certs.length; i++) {
+            pem.append("# Bundle Test ").append(i).append("\n\n");
+            pem.append("-----BEGIN CERTIFICATE-----\r\n");
+            pem.append(Utils.base64encode(certs[i].getEncoded(), true));
+            pem.append("-----END CERTIFICATE-----\r\n");
+        }
+
+        // PKCS #7 SignedData holding the certificates
+        PKCS7 pkcs7 = new PKCS7(new AlgorithmId[0],
+                new ContentInfo(new byte[0]),
+                certs, new SignerInfo[0]);
+        ByteArrayOutputStream p7 = new ByteArrayOutputStream();
+        pkcs7.encodeSignedData(p7);
+
+        X509CertificateFactory sequential = new X509CertificateFactory();
+        X509CertificateFactory parallel =
+                new X509CertificateFactory(new ForkJoinPool(4));
+
+        for (X509CertificateFactory factory : new X509CertificateFactory[] {
+                sequential, parallel }) {
+            checkCerts(certs, factory.engineGenerateCertificates(
+                    new ByteArrayInputStream(der.toByteArray())));
+            checkCerts(certs, factory.engineGenerateCertificates(
+                    new ByteArrayInputStream(pem.toString().getBytes("US-ASCII"))));
+            checkCerts(certs, factory.engineGenerateCertificates(
+                    new ByteArrayInputStream(p7.toByteArray())));
+        }
+
+        // lazily, stopping early
+        Iterator<Certificate> i = sequential.certificates(
+                new ByteArrayInputStream(der.toByteArray()));
+        for (int n = 0; n < 5; n++) {
+            Assert._assert(i.hasNext());
+            Assert._assert(Arrays.equals(certs[n].getEncoded(),
+                                         i.next().getEncoded()));
+        }
+
+        // PEM CRLs
+        StringBuilder crlPem = new StringBuilder();
+        for (X509CRLImpl crl : crls) {
+            crlPem.append("-----BEGIN X509 CRL-----\n");
+            crlPem.append(Utils.base64encode(crl.getEncoded(), true));
+            crlPem.append("-----END X509 CRL-----\n");
+        }
+        Collection<CRL> parsed = sequential.engineGenerateCRLs(
+                new ByteArrayInputStream(crlPem.toString().getBytes("US-ASCII")));
+        Assert._assert(parsed.size() == crls.length);
+        int n = 0;
+        for (CRL crl : parsed)
+            Assert._assert(Arrays.equals(crls[n++].getEncoded(),
+                                         ((X509CRL) crl).getEncoded()));
+
+        // no CRLs in the certificate-only PKCS #7
+        Assert._assert(!sequential.crls(
+                new ByteArrayInputStream(p7.toByteArray())).hasNext());
+
+        // empty bundle
+        Assert._assert(sequential.engineGenerateCertificates(
+                new ByteArrayInputStream(new byte[0])).isEmpty());
+
+        // truncated bundles
+        byte[] truncated = Arrays.copyOf(der.toByteArray(), der.size() - 1);
+        try {
+            parallel.engineGenerateCertificates(new ByteArrayInputStream(truncated));
+            Assert.notReached("truncated bundle accepted");
+        } catch (CertificateException e) {
+        }
+
+        // a malformed item among many, parsed in the pool
+        ByteArrayOutputStream bad = new ByteArrayOutputStream();
+        bad.write(der.toByteArray());
+        bad.write(new byte[] { 0x30, 0x03, 0x02, 0x01, 0x05 });
+        try {
+            parallel.engineGenerateCertificates(
+                    new ByteArrayInputStream(bad.toByteArray()));
+            Assert.notReached("malformed certificate accepted");
+        } catch (CertificateException e) {
+        }
+
+        byte[] badCRL = Arrays.copyOf(crls[0].getEncoded(), 40);
+        try {
+            sequential.engineGenerateCRLs(new ByteArrayInputStream(badCRL));
+            Assert.notReached("truncated CRL accepted");
+        } catch (CRLException e) {
+        }
+
+        System.out.println("X509BundleTest passed");
+        System.exit(0);
+    }
+
+    private static void checkCerts(X509CertImpl[] expected,
+            Collection<Certificate> actual) throws Exception {
+        Assert._assert(actual.size() == expected.length);
+        List<Certificate> list = new ArrayList<>(actual);
+        for (int i = 0; i < expected.length; i++) {
+            X509Certificate cert = (X509Certificate) list.get(i);
+            Assert._assert(Arrays.equals(expected[i].getEncoded(),
+                                         cert.getEncoded()));
+        }
+    }
+}
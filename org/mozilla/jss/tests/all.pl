@@ -454,6 +454,34 @@ $testname = "Test UTF-8 Converter";
 $command = "$java -cp $classpath org.mozilla.jss.tests.UTF8ConverterTest";
 run_test($testname, $command);
 
+$testname = "Test indexed CRL parsing";
+$command = "$java -cp $classpath org.mozilla.jss.tests.CRLIndexTest";
+run_test($testname, $command);
+
+$testname = "Test streaming CRL encoder";
+$command = "$java -cp $classpath org.mozilla.jss.tests.CRLStreamEncoderTest";
+run_test($testname, $command);
+
+$testname = "Test delta CRL generation and merge";
+$command = "$java -cp $classpath org.mozilla.jss.tests.DeltaCRLTest";
+run_test($testname, $command);
+
+$testname = "Test ASN.1 array and buffer decoding";
+$command = "$java -cp $classpath org.mozilla.jss.tests.ASN1DecodeTest";
+run_test($testname, $command);
+
+$testname = "Test X.509 certificate and CRL bundles";
+$command = "$java -cp $classpath org.mozilla.jss.tests.X509BundleTest";
+run_test($testname, $command);
+
+$testname = "Test OCSP response cache";
+$command = "$java -cp $classpath org.mozilla.jss.tests.OCSPCacheTest";
+run_test($testname, $command);
+
+$testname = "Test NativeProxy release and registry";
+$command = "$java -cp $classpath org.mozilla.jss.tests.NativeProxyTest";
+run_test($testname, $command);
+
 $testname = "Setup DBs";
 $command = "$java -cp $classpath org.mozilla.jss.tests.SetupDBs $testdir $pwfile";
 run_test($testname, $command);
@@ -500,6 +528,35 @@ $testname = "SSLClientAuth";
 $command = "$java -cp $classpath org.mozilla.jss.tests.SSLClientAuth $testdir $pwfile $serverPort $certSN";
 run_test($testname, $command);
 
+$serverPort = checkPort(++$serverPort);
+$testname = "SSLSocket ByteBuffer read and write";
+$command = "$java -cp $classpath org.mozilla.jss.tests.SSLByteBufferTest $testdir $pwfile Server_RSA $serverPort";
+run_test($testname, $command);
+
+$testname = "JSSEngine handshake and data in memory";
+$command = "$java -cp $classpath org.mozilla.jss.tests.JSSEngineTest $testdir $pwfile Server_RSA";
+run_test($testname, $command);
+
+$serverPort = checkPort(++$serverPort);
+$testname = "SSLSocket buffered streams";
+$command = "$java -cp $classpath org.mozilla.jss.tests.SSLBufferedStreamTest $testdir $pwfile Server_RSA $serverPort";
+run_test($testname, $command);
+
+$serverPort = checkPort(++$serverPort);
+$testname = "SSL session cache statistics";
+$command = "$java -cp $classpath org.mozilla.jss.tests.SSLSessionCacheStatsTest $testdir $pwfile Server_RSA $serverPort";
+run_test($testname, $command);
+
+$serverPort = checkPort(++$serverPort);
+$testname = "SSL handshake metrics";
+$command = "$java -cp $classpath org.mozilla.jss.tests.SSLHandshakeMetricsTest $testdir $pwfile Server_RSA $serverPort";
+run_test($testname, $command);
+
+$serverPort = checkPort(++$serverPort);
+$testname = "SSL handshake pipeline";
+$command = "$java -cp $classpath org.mozilla.jss.tests.SSLHandshakePipelineTest $testdir $pwfile Server_RSA $serverPort";
+run_test($testname, $command);
+
 
 $testname = "Key Generation";
 $command = "$java -cp $classpath org.mozilla.jss.tests.TestKeyGen $testdir $pwfile";
@@ -521,6 +578,10 @@ $testname = "HMAC Unwrap";
 $command = "$java -cp $classpath org.mozilla.jss.tests.HmacTest $testdir $pwfile";
 run_test($testname, $command);
 
+$testname = "Cipher Into Buffer";
+$command = "$java -cp $classpath org.mozilla.jss.tests.CipherIntoBufferTest $testdir $pwfile";
+run_test($testname, $command);
+
 $testname = "KeyWrapping ";
 $command = "$java -cp $classpath org.mozilla.jss.tests.JCAKeyWrap $testdir $pwfile";
 run_test($testname, $command);
@@ -545,10 +606,26 @@ $testname = "List cert by certnick";
 $command = "$java -cp $classpath org.mozilla.jss.tests.ListCerts $testdir Server_RSA";
 run_test($testname, $command);
 
+$testname = "Shared certificate objects";
+$command = "$java -cp $classpath org.mozilla.jss.tests.PK11CertCacheTest $testdir Server_RSA";
+run_test($testname, $command);
+
+$testname = "KeyStore alias index";
+$command = "$java -cp $classpath org.mozilla.jss.tests.AliasIndexTest $testdir $pwfile";
+run_test($testname, $command);
+
 $testname = "Verify cert by certnick";
 $command = "$java -cp $classpath org.mozilla.jss.tests.VerifyCert $testdir $pwfile Server_RSA";
 run_test($testname, $command);
 
+$testname = "Verify certs in batches";
+$command = "$java -cp $classpath org.mozilla.jss.tests.VerifyCertBatchTest $testdir Server_RSA";
+run_test($testname, $command);
+
+$testname = "Verify cached OCSP responses";
+$command = "$java -cp $classpath org.mozilla.jss.tests.OCSPVerifyTest $testdir $pwfile";
+run_test($testname, $command);
+
 $testname = "Secret Key Generation";
 $command = "$java -cp $classpath org.mozilla.jss.tests.SymKeyGen $testdir";
 run_test($testname, $command);
@@ -4,9 +4,13 @@
 
 package org.mozilla.jss.util;
 
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,10 +21,15 @@ import org.slf4j.LoggerFactory;
  * It contains some code to help make sure that native memory is getting
  * freed properly.
  *
+ * <p>A NativeProxy can be released deterministically by calling
+ * {@link #close()}; the native resources are freed at most once, either
+ * by the first call to close() or, for proxies that are never closed, by
+ * the finalizer.
+ *
  * @author nicolson
  * @version $Revision$ $Date$
  */
-public abstract class NativeProxy
+public abstract class NativeProxy implements AutoCloseable
 {
     public static Logger logger = LoggerFactory.getLogger(NativeProxy.class);
 
@@ -34,9 +43,9 @@ public abstract class NativeProxy
      * NativeProxy instance acts as a proxy for that native data structure.
      */
     public NativeProxy(byte[] pointer) {
-		Assert._assert(pointer!=null);
-        registryIndex = register();
+        Assert._assert(pointer!=null);
         mPointer = pointer;
+        registryIndex = register(getClass());
     }
 
     /**
@@ -68,14 +77,36 @@ public abstract class NativeProxy
      * Subclasses of NativeProxy must define this method to clean up
      * data structures in C code that are referenced by this proxy.
      * releaseNativeResources() will usually be implemented as a native method.
-     * <p>You don't call this method; NativeProxy.finalize() calls it for you.
-     * <p>You must declare a finalize() method which calls super.finalize().
+     * <p>You don't call this method; NativeProxy.close() calls it for you,
+     * and NativeProxy.finalize() does so for proxies that were never closed.
+     * It is guaranteed to be called at most once per proxy.
      */
     protected abstract void releaseNativeResources();
 
     /**
-     * Finalize this NativeProxy by releasing its native resources.
-     * The finalizer calls releaseNativeResources() so you don't have to.
+     * Releases the native resources used by this proxy immediately,
+     * instead of waiting for the garbage collector. Calling close() more
+     * than once has no effect. The proxy must not be used after it
+     * has been closed.
+     */
+    public void close() {
+        if( releasedUpdater.compareAndSet(this, 0, 1) ) {
+            unregister(registryIndex, getClass());
+            releaseNativeResources();
+        }
+    }
+
+    /**
+     * @return true if the native resources of this proxy have already
+     *      been released.
+     */
+    public boolean isReleased() {
+        return released != 0;
+    }
+
+    /**
+     * Finalize this NativeProxy by releasing its native resources, unless
+     * they have already been released by close().
      * This finalizer should be called from the finalize() method of all
      * subclasses:
      * class MyProxy extends NativeProxy {
@@ -89,8 +120,7 @@ public abstract class NativeProxy
      * }
      */
     protected void finalize() throws Throwable {
-        unregister(registryIndex);
-        releaseNativeResources();
+        close();
     }
 
     /**
@@ -98,42 +128,65 @@ public abstract class NativeProxy
      */
     private byte mPointer[];
 
+    /**
+     * Set to 1 once the native resources have been released.
+     */
+    private volatile int released;
+
+    private static final AtomicIntegerFieldUpdater<NativeProxy>
+        releasedUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(NativeProxy.class, "released");
+
     /**
      * <p><b>Native Proxy Registry</b>
-     * <p>In debug mode, we keep track of all NativeProxy objects in a
+     * <p>We keep track of all live NativeProxy objects in a
      * static registry.  Whenever a NativeProxy is constructed, it
-     * registers.  Whenever it finalizes, it unregisters.  At the end of
-     * the game, we should be able to garbage collect and then assert that
-     * the registry is empty. This could be done, for example, in the
-     * jssjava JVM after main() completes.
-     * This registration process verifies that people are calling
-     * NativeProxy.finalize() from their subclasses of NativeProxy, so that
-     * releaseNativeResources() gets called.
+     * registers.  Whenever it is closed or finalized, it unregisters.
+     * At the end of the game, we should be able to garbage collect and
+     * then assert that the registry is empty. This could be done, for
+     * example, in the jssjava JVM after main() completes.
+     * <p>The registry is a concurrent map keyed by a sequence number, so
+     * constructing proxies on many threads does not serialize on a
+     * single lock.
      */
     private long registryIndex;
-    static Hashtable<Long, Long> registry;
-    static Random indexGenerator;
+    static final Map<Long, Class<?>> registry = new ConcurrentHashMap<>();
+    static final AtomicLong indexGenerator = new AtomicLong();
+
+    /**
+     * Live and released proxy counters, per NativeProxy subclass.
+     */
+    private static final ConcurrentHashMap<Class<?>, Counters> counters =
+        new ConcurrentHashMap<>();
 
-    static {
-        registry = new Hashtable<>();
-        indexGenerator = new Random();
+    private static final class Counters {
+        final AtomicLong live = new AtomicLong();
+        final AtomicLong released = new AtomicLong();
+    }
+
+    private static Counters getCounters(Class<?> clazz) {
+        Counters c = counters.get(clazz);
+        if( c == null ) {
+            Counters newCounters = new Counters();
+            c = counters.putIfAbsent(clazz, newCounters);
+            if( c == null ) {
+                c = newCounters;
+            }
+        }
+        return c;
     }
 
     /**
      * Register a NativeProxy instance.
      *
+     * @param clazz The runtime class of the proxy being registered.
      * @return The unique index of this object in the registry.
      */
-    private synchronized static long register() {
-        Long index;
-
-        // Get a unique index
-        do {
-            index = new Long(indexGenerator.nextLong());
-        } while( registry.containsKey(index) );
-        registry.put(index, index);
-
-        return index.longValue();
+    private static long register(Class<?> clazz) {
+        long index = indexGenerator.incrementAndGet();
+        registry.put(index, clazz);
+        getCounters(clazz).live.incrementAndGet();
+        return index;
     }
 
     /**
@@ -141,21 +194,23 @@ public abstract class NativeProxy
      *
      * @param index The index of this object in the registry, as returned
      * from the previous call to register().
+     * @param clazz The runtime class of the proxy being unregistered.
      */
-    private synchronized static void unregister(long index) {
-        Long Lindex = new Long(index);
-        Long element;
-
-        element = registry.remove(Lindex);
+    private static void unregister(long index, Class<?> clazz) {
+        Class<?> element = registry.remove(index);
         Assert._assert(element != null);
+
+        Counters c = getCounters(clazz);
+        c.live.decrementAndGet();
+        c.released.incrementAndGet();
     }
 
     /**
      * @return A list of the indices in the registry. Each element is a Long.
      * @see NativeProxy#getRegistryIndex
      */
-    public synchronized static Enumeration<Long> getRegistryIndices() {
-        return registry.keys();
+    public static Enumeration<Long> getRegistryIndices() {
+        return Collections.enumeration(registry.keySet());
     }
 
     /**
@@ -166,17 +221,52 @@ public abstract class NativeProxy
         return registryIndex;
     }
 
+    /**
+     * @return The NativeProxy subclasses for which proxies have been
+     *      created so far.
+     */
+    public static Set<Class<?>> getProxyClasses() {
+        return Collections.unmodifiableSet(counters.keySet());
+    }
+
+    /**
+     * @param clazz A NativeProxy subclass.
+     * @return The number of proxies of the given class whose native
+     *      resources have not been released yet.
+     */
+    public static long getLiveCount(Class<?> clazz) {
+        Counters c = counters.get(clazz);
+        return c == null ? 0 : c.live.get();
+    }
+
+    /**
+     * @param clazz A NativeProxy subclass.
+     * @return The number of proxies of the given class whose native
+     *      resources have been released, either by close() or by the
+     *      finalizer.
+     */
+    public static long getReleasedCount(Class<?> clazz) {
+        Counters c = counters.get(clazz);
+        return c == null ? 0 : c.released.get();
+    }
+
     /**
      * Assert that the Registry is empty.  Only works in debug mode; in
      * ship mode, it is a no-op.  If the Registry is not empty when this
      * is called, an assertion (org.mozilla.jss.util.AssertionException)
      * is thrown.
      */
-    public synchronized static void assertRegistryEmpty() {
-			if(! registry.isEmpty()) {
-			    logger.warn(registry.size() + " NativeProxys are still registered.");
-			} else {
-			    logger.debug("NativeProxy registry is empty");
-			}
+    public static void assertRegistryEmpty() {
+        if(! registry.isEmpty()) {
+            logger.warn(registry.size() + " NativeProxys are still registered.");
+            for( Map.Entry<Class<?>, Counters> e : counters.entrySet() ) {
+                long live = e.getValue().live.get();
+                if( live > 0 ) {
+                    logger.warn("  " + e.getKey().getName() + ": " + live);
+                }
+            }
+        } else {
+            logger.debug("NativeProxy registry is empty");
+        }
     }
 }
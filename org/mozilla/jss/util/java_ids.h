@@ -158,6 +158,13 @@ PR_BEGIN_EXTERN_C
  */
 #define INTERNAL_TOKEN_CERT_CLASS_NAME "org/mozilla/jss/pkcs11/PK11InternalTokenCert"
 
+/*
+ * PK11CertCache
+ */
+#define CERT_CACHE_CLASS_NAME "org/mozilla/jss/pkcs11/PK11CertCache"
+#define CERT_CACHE_WRAP_NAME "wrap"
+#define CERT_CACHE_WRAP_SIG "([B[BLjava/lang/String;)Lorg/mozilla/jss/pkcs11/PK11InternalTokenCert;"
+
 /*
  * PK11DSAPublicKey
  */
@@ -13,6 +13,8 @@
 PR_BEGIN_EXTERN_C
 
 
+#define AEAD_BAD_TAG_EXCEPTION "javax/crypto/AEADBadTagException"
+
 #define ALREADY_INITIALIZED_EXCEPTION "org/mozilla/jss/crypto/AlreadyInitializedException"
 
 #define ARRAY_INDEX_OUT_OF_BOUNDS_EXCEPTION "java/lang/ArrayIndexOutOfBoundsException"
@@ -86,6 +88,8 @@ PR_BEGIN_EXTERN_C
 /* This is a RuntimeException */
 #define SECURITY_EXCEPTION "java/lang/SecurityException"
 
+#define SHORT_BUFFER_EXCEPTION "javax/crypto/ShortBufferException"
+
 #define SIGNATURE_EXCEPTION "java/security/SignatureException"
 
 #define SOCKET_EXCEPTION "java/net/SocketException"
@@ -98,6 +102,9 @@ PR_BEGIN_EXTERN_C
 
 #define TOKEN_NOT_INITIALIZED_EXCEPTION "org/mozilla/jss/pkcs11/PK11Token$NotInitializedException"
 
+/* This is a RuntimeException */
+#define TOKEN_RUNTIME_EXCEPTION "org/mozilla/jss/crypto/TokenRuntimeException"
+
 #define USER_CERT_CONFLICT_EXCEPTION "org/mozilla/jss/UserCertConflictException"
 
 PR_END_EXTERN_C
@@ -0,0 +1,436 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include <jni.h>
+#include <nspr.h>
+#include <plstr.h>
+#include <secitem.h>
+#include <string.h>
+#include "jssutil.h"
+#include "java_ids.h"
+#include "jss_jnicache.h"
+
+JSS_JNICache JSS_jni;
+
+/*
+ * Field IDs of NativeProxy members, see JSS_getProxyFieldID. These are
+ * filled in on first use rather than at load time, since looking up a
+ * field initializes the owning class, and most owners (certificates,
+ * keys, tokens) are not needed by every application. Entries are only
+ * appended, under proxyFieldLock, and published by bumping
+ * numProxyFields, so readers don't take the lock.
+ */
+#define MAX_PROXY_FIELDS 32
+
+typedef struct ProxyFieldStr {
+    jclass ownerClass;  /* weak global reference */
+    char *name;
+    char *sig;
+    jfieldID field;
+} ProxyField;
+
+static ProxyField proxyFields[MAX_PROXY_FIELDS];
+static PRInt32 numProxyFields = 0;
+static PRLock *proxyFieldLock = NULL;
+
+/*
+ * Load-time lookups are lenient: a failed lookup is cleared and leaves
+ * the entry NULL, and the accessors below look it up again when used.
+ */
+static jclass
+findClass(JNIEnv *env, const char *className)
+{
+    jclass clazz = (*env)->FindClass(env, className);
+    if( clazz == NULL ) {
+        (*env)->ExceptionClear(env);
+    }
+    return clazz;
+}
+
+static jclass
+cacheClass(JNIEnv *env, const char *className, PRBool weak)
+{
+    jclass local, ref;
+
+    local = findClass(env, className);
+    if( local == NULL ) {
+        return NULL;
+    }
+    if( weak ) {
+        ref = (*env)->NewWeakGlobalRef(env, local);
+    } else {
+        ref = (*env)->NewGlobalRef(env, local);
+    }
+    if( ref == NULL ) {
+        (*env)->ExceptionClear(env);
+    }
+    (*env)->DeleteLocalRef(env, local);
+    return ref;
+}
+
+static jmethodID
+cacheMethod(JNIEnv *env, jclass clazz, const char *name, const char *sig)
+{
+    jmethodID method;
+
+    if( clazz == NULL ) {
+        return NULL;
+    }
+    method = (*env)->GetMethodID(env, clazz, name, sig);
+    if( method == NULL ) {
+        (*env)->ExceptionClear(env);
+    }
+    return method;
+}
+
+static jmethodID
+cacheStaticMethod(JNIEnv *env, jclass clazz, const char *name,
+    const char *sig)
+{
+    jmethodID method;
+
+    if( clazz == NULL ) {
+        return NULL;
+    }
+    method = (*env)->GetStaticMethodID(env, clazz, name, sig);
+    if( method == NULL ) {
+        (*env)->ExceptionClear(env);
+    }
+    return method;
+}
+
+static jfieldID
+cacheField(JNIEnv *env, jclass clazz, const char *name, const char *sig)
+{
+    jfieldID field;
+
+    if( clazz == NULL ) {
+        return NULL;
+    }
+    field = (*env)->GetFieldID(env, clazz, name, sig);
+    if( field == NULL ) {
+        (*env)->ExceptionClear(env);
+    }
+    return field;
+}
+
+static void
+fillCache(JNIEnv *env, JSS_JNICache *c)
+{
+    jclass clazz;
+
+    /* java.net.Socket */
+    clazz = findClass(env, "java/net/Socket");
+    c->socketGetInputStream = cacheMethod(env, clazz,
+        SOCKET_GET_INPUT_STREAM_NAME, SOCKET_GET_INPUT_STREAM_SIG);
+    c->socketGetOutputStream = cacheMethod(env, clazz,
+        SOCKET_GET_OUTPUT_STREAM_NAME, SOCKET_GET_OUTPUT_STREAM_SIG);
+    c->socketGetInetAddress = cacheMethod(env, clazz,
+        GET_INET_ADDR_NAME, GET_INET_ADDR_SIG);
+    c->socketGetPort = cacheMethod(env, clazz, GET_PORT_NAME, GET_PORT_SIG);
+    c->socketGetLocalAddress = cacheMethod(env, clazz,
+        GET_LOCAL_ADDR_NAME, GET_INET_ADDR_SIG);
+    c->socketGetLocalPort = cacheMethod(env, clazz,
+        GET_LOCAL_PORT_NAME, GET_PORT_SIG);
+    c->socketSetSoTimeout = cacheMethod(env, clazz,
+        SET_SO_TIMEOUT_NAME, SET_SO_TIMEOUT_SIG);
+    c->socketClose = cacheMethod(env, clazz,
+        SOCKET_CLOSE_NAME, SOCKET_CLOSE_SIG);
+    if( clazz != NULL ) (*env)->DeleteLocalRef(env, clazz);
+
+    clazz = findClass(env, "java/io/InputStream");
+    c->inputStreamRead = cacheMethod(env, clazz,
+        ISTREAM_READ_NAME, ISTREAM_READ_SIG);
+    if( clazz != NULL ) (*env)->DeleteLocalRef(env, clazz);
+
+    clazz = findClass(env, "java/io/OutputStream");
+    c->outputStreamWrite = cacheMethod(env, clazz,
+        OSTREAM_WRITE_NAME, OSTREAM_WRITE_SIG);
+    if( clazz != NULL ) (*env)->DeleteLocalRef(env, clazz);
+
+    clazz = findClass(env, "java/net/InetAddress");
+    c->inetAddressGetAddress = cacheMethod(env, clazz,
+        GET_ADDR_NAME, GET_ADDR_SIG);
+    if( clazz != NULL ) (*env)->DeleteLocalRef(env, clazz);
+
+    /* java.util.Vector */
+    c->vectorClass = cacheClass(env, "java/util/Vector", PR_FALSE);
+    c->vectorConstructor = cacheMethod(env, c->vectorClass,
+        PLAIN_CONSTRUCTOR, PLAIN_CONSTRUCTOR_SIG);
+    c->vectorAddElement = cacheMethod(env, c->vectorClass,
+        VECTOR_ADD_ELEMENT_NAME, VECTOR_ADD_ELEMENT_SIG);
+
+    /* NativeProxy */
+    clazz = findClass(env, NATIVE_PROXY_CLASS_NAME);
+    c->nativeProxyPointer = cacheField(env, clazz,
+        NATIVE_PROXY_POINTER_FIELD, NATIVE_PROXY_POINTER_SIG);
+    if( clazz != NULL ) (*env)->DeleteLocalRef(env, clazz);
+
+    /* CipherContextProxy */
+    c->cipherContextProxyClass = cacheClass(env,
+        CIPHER_CONTEXT_PROXY_CLASS_NAME, PR_TRUE);
+    c->cipherContextProxyConstructor = cacheMethod(env,
+        c->cipherContextProxyClass, PLAIN_CONSTRUCTOR,
+        CIPHER_CONTEXT_PROXY_CONSTRUCTOR_SIG);
+
+    /* PK11CertCache */
+    c->certCacheClass = cacheClass(env, CERT_CACHE_CLASS_NAME, PR_TRUE);
+    c->certCacheWrap = cacheStaticMethod(env, c->certCacheClass,
+        CERT_CACHE_WRAP_NAME, CERT_CACHE_WRAP_SIG);
+
+    /* SSLSocket */
+    clazz = findClass(env, SSLSOCKET_CLASS);
+    c->sslSocketHandshakeNotifier = cacheMethod(env, clazz,
+        SSLSOCKET_HANDSHAKE_NOTIFIER_NAME, SSLSOCKET_HANDSHAKE_NOTIFIER_SIG);
+    c->sslSocketFireAlertReceived = cacheMethod(env, clazz,
+        "fireAlertReceivedEvent", "(L" SSL_ALERT_EVENT_CLASS ";)V");
+    c->sslSocketFireAlertSent = cacheMethod(env, clazz,
+        "fireAlertSentEvent", "(L" SSL_ALERT_EVENT_CLASS ";)V");
+    if( clazz != NULL ) (*env)->DeleteLocalRef(env, clazz);
+
+    /* SSLAlertEvent */
+    c->sslAlertEventClass = cacheClass(env, SSL_ALERT_EVENT_CLASS, PR_TRUE);
+    c->sslAlertEventConstructor = cacheMethod(env, c->sslAlertEventClass,
+        PLAIN_CONSTRUCTOR, "(L" SSLSOCKET_CLASS ";)V");
+    c->sslAlertEventSetLevel = cacheMethod(env, c->sslAlertEventClass,
+        "setLevel", "(I)V");
+    c->sslAlertEventSetDescription = cacheMethod(env, c->sslAlertEventClass,
+        "setDescription", "(I)V");
+
+    /* callback interfaces */
+    clazz = findClass(env,
+        "org/mozilla/jss/ssl/SSLCertificateApprovalCallback");
+    c->certApprovalCallbackApprove = cacheMethod(env, clazz,
+        SSLCERT_APP_CB_APPROVE_NAME, SSLCERT_APP_CB_APPROVE_SIG);
+    if( clazz != NULL ) (*env)->DeleteLocalRef(env, clazz);
+
+    clazz = findClass(env,
+        "org/mozilla/jss/ssl/SSLClientCertificateSelectionCallback");
+    c->clientCertSelectionCallbackSelect = cacheMethod(env, clazz,
+        "select", "(Ljava/util/Vector;)Ljava/lang/String;");
+    if( clazz != NULL ) (*env)->DeleteLocalRef(env, clazz);
+
+    /* ValidityStatus */
+    c->validityStatusClass = cacheClass(env,
+        SSLCERT_APP_CB_VALIDITY_STATUS_CLASS, PR_TRUE);
+    c->validityStatusConstructor = cacheMethod(env, c->validityStatusClass,
+        PLAIN_CONSTRUCTOR, PLAIN_CONSTRUCTOR_SIG);
+    c->validityStatusAddReason = cacheMethod(env, c->validityStatusClass,
+        SSLCERT_APP_CB_VALIDITY_STATUS_ADD_REASON_NAME,
+        SSLCERT_APP_CB_VALIDITY_STATUS_ADD_REASON_SIG);
+}
+
+static void
+deleteRef(JNIEnv *env, jclass ref, PRBool weak)
+{
+    if( ref == NULL ) {
+        return;
+    }
+    if( weak ) {
+        (*env)->DeleteWeakGlobalRef(env, ref);
+    } else {
+        (*env)->DeleteGlobalRef(env, ref);
+    }
+}
+
+/***********************************************************************
+ * JNI_OnLoad
+ *
+ * Called once when System.loadLibrary loads this library. Runs with the
+ * class loader of the loading class (CryptoManager), so JSS classes can
+ * be found here.
+ */
+JNIEXPORT jint JNICALL
+JNI_OnLoad(JavaVM *vm, void *reserved)
+{
+    JNIEnv *env;
+
+    if( (*vm)->GetEnv(vm, (void**)&env, JNI_VERSION_1_4) != JNI_OK ) {
+        return JNI_ERR;
+    }
+
+    /* callbacks may need the VM before CryptoManager.initialize runs */
+    JSS_javaVM = vm;
+
+    proxyFieldLock = PR_NewLock();
+
+    memset(&JSS_jni, 0, sizeof(JSS_jni));
+    fillCache(env, &JSS_jni);
+
+    return JNI_VERSION_1_4;
+}
+
+/***********************************************************************
+ * JNI_OnUnload
+ *
+ * Called when the class loader that loaded this library is collected.
+ */
+JNIEXPORT void JNICALL
+JNI_OnUnload(JavaVM *vm, void *reserved)
+{
+    JNIEnv *env;
+    int i;
+
+    if( (*vm)->GetEnv(vm, (void**)&env, JNI_VERSION_1_4) != JNI_OK ) {
+        return;
+    }
+
+    deleteRef(env, JSS_jni.vectorClass, PR_FALSE);
+    deleteRef(env, JSS_jni.cipherContextProxyClass, PR_TRUE);
+    deleteRef(env, JSS_jni.certCacheClass, PR_TRUE);
+    deleteRef(env, JSS_jni.sslAlertEventClass, PR_TRUE);
+    deleteRef(env, JSS_jni.validityStatusClass, PR_TRUE);
+    memset(&JSS_jni, 0, sizeof(JSS_jni));
+
+    for( i = 0; i < numProxyFields; i++ ) {
+        deleteRef(env, proxyFields[i].ownerClass, PR_TRUE);
+        PL_strfree(proxyFields[i].name);
+        PL_strfree(proxyFields[i].sig);
+    }
+    memset(proxyFields, 0, sizeof(proxyFields));
+    numProxyFields = 0;
+
+    if( proxyFieldLock != NULL ) {
+        PR_DestroyLock(proxyFieldLock);
+        proxyFieldLock = NULL;
+    }
+}
+
+jclass
+JSS_getClass(JNIEnv *env, jclass cached, const char *className)
+{
+    if( cached != NULL ) {
+        return cached;
+    }
+    return (*env)->FindClass(env, className);
+}
+
+jmethodID
+JSS_getMethodID(JNIEnv *env, jmethodID cached, jclass clazz,
+    const char *name, const char *sig)
+{
+    if( cached != NULL ) {
+        return cached;
+    }
+    return (*env)->GetMethodID(env, clazz, name, sig);
+}
+
+jmethodID
+JSS_getStaticMethodID(JNIEnv *env, jmethodID cached, jclass clazz,
+    const char *name, const char *sig)
+{
+    if( cached != NULL ) {
+        return cached;
+    }
+    return (*env)->GetStaticMethodID(env, clazz, name, sig);
+}
+
+jmethodID
+JSS_getObjectMethodID(JNIEnv *env, jmethodID cached, jobject obj,
+    const char *name, const char *sig)
+{
+    jclass clazz;
+    jmethodID method;
+
+    if( cached != NULL ) {
+        return cached;
+    }
+    clazz = (*env)->GetObjectClass(env, obj);
+    if( clazz == NULL ) {
+        return NULL;
+    }
+    method = (*env)->GetMethodID(env, clazz, name, sig);
+    (*env)->DeleteLocalRef(env, clazz);
+    return method;
+}
+
+/*
+ * Remembers the field ID of a NativeProxy member of ownerClass, unless
+ * the table is full or another thread got there first.
+ */
+static void
+addProxyField(JNIEnv *env, jclass ownerClass, const char *name,
+    const char *sig, jfieldID field)
+{
+    ProxyField *pf;
+    int i;
+
+    if( proxyFieldLock == NULL ) {
+        return;
+    }
+    PR_Lock(proxyFieldLock);
+
+    if( numProxyFields >= MAX_PROXY_FIELDS ) {
+        goto finish;
+    }
+    for( i = 0; i < numProxyFields; i++ ) {
+        pf = &proxyFields[i];
+        if( pf->field == field &&
+            (*env)->IsSameObject(env, pf->ownerClass, ownerClass) )
+        {
+            goto finish;
+        }
+    }
+
+    pf = &proxyFields[numProxyFields];
+    pf->ownerClass = (*env)->NewWeakGlobalRef(env, ownerClass);
+    if( pf->ownerClass == NULL ) {
+        (*env)->ExceptionClear(env);
+        goto finish;
+    }
+    pf->name = PL_strdup(name);
+    pf->sig = PL_strdup(sig);
+    if( pf->name == NULL || pf->sig == NULL ) {
+        PL_strfree(pf->name);
+        PL_strfree(pf->sig);
+        (*env)->DeleteWeakGlobalRef(env, pf->ownerClass);
+        memset(pf, 0, sizeof(*pf));
+        goto finish;
+    }
+    pf->field = field;
+
+    /* publish the entry */
+    PR_ATOMIC_SET(&numProxyFields, numProxyFields + 1);
+
+finish:
+    PR_Unlock(proxyFieldLock);
+}
+
+/***********************************************************************
+ * J S S _ g e t P r o x y F i e l d I D
+ *
+ * Returns the ID of the field of proxyOwner with the given name and
+ * signature, looking it up and caching it on first use per owner class.
+ * Returns NULL if an exception was thrown.
+ */
+jfieldID
+JSS_getProxyFieldID(JNIEnv *env, jobject proxyOwner, const char *name,
+    const char *sig)
+{
+    PRInt32 count;
+    jclass ownerClass;
+    jfieldID field;
+    int i;
+
+    count = PR_ATOMIC_ADD(&numProxyFields, 0);
+    for( i = 0; i < count; i++ ) {
+        ProxyField *pf = &proxyFields[i];
+        if( PL_strcmp(pf->name, name) == 0 && PL_strcmp(pf->sig, sig) == 0 &&
+            (*env)->IsInstanceOf(env, proxyOwner, pf->ownerClass) )
+        {
+            return pf->field;
+        }
+    }
+
+    ownerClass = (*env)->GetObjectClass(env, proxyOwner);
+    if( ownerClass == NULL ) {
+        return NULL;
+    }
+    field = (*env)->GetFieldID(env, ownerClass, name, sig);
+    if( field != NULL ) {
+        addProxyField(env, ownerClass, name, sig, field);
+    }
+    (*env)->DeleteLocalRef(env, ownerClass);
+    return field;
+}
@@ -0,0 +1,134 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+#ifndef JSS_JNICACHE_H
+#define JSS_JNICACHE_H
+
+/* Need to include these first.
+ * #include <nspr.h>
+ * #include <jni.h>
+ */
+
+PR_BEGIN_EXTERN_C
+
+/***********************************************************************
+ * JNI class references, method IDs and field IDs that are looked up once,
+ * in JNI_OnLoad, instead of on every callback or I/O operation.
+ *
+ * An entry is NULL if its lookup failed at load time. Use the
+ * JSS_getClass/JSS_getMethodID/JSS_getStaticMethodID/JSS_getObjectMethodID
+ * accessors, which fall back to looking the entry up on the spot in that
+ * case.
+ *
+ * Classes from the JDK are held by global references. JSS classes are
+ * held by weak global references, so the cache does not keep the class
+ * loader that loaded this library alive; they stay valid for as long as
+ * the library is loaded.
+ */
+typedef struct JSS_JNICacheStr {
+    /* java.net.Socket and its streams, used by the Java socket layer */
+    jmethodID socketGetInputStream;
+    jmethodID socketGetOutputStream;
+    jmethodID socketGetInetAddress;
+    jmethodID socketGetPort;
+    jmethodID socketGetLocalAddress;
+    jmethodID socketGetLocalPort;
+    jmethodID socketSetSoTimeout;
+    jmethodID socketClose;
+    jmethodID inputStreamRead;
+    jmethodID outputStreamWrite;
+    jmethodID inetAddressGetAddress;
+
+    /* java.util.Vector */
+    jclass vectorClass;
+    jmethodID vectorConstructor;
+    jmethodID vectorAddElement;
+
+    /* org.mozilla.jss.util.NativeProxy */
+    jfieldID nativeProxyPointer;
+
+    /* org.mozilla.jss.pkcs11.CipherContextProxy */
+    jclass cipherContextProxyClass;
+    jmethodID cipherContextProxyConstructor;
+
+    /* org.mozilla.jss.pkcs11.PK11CertCache */
+    jclass certCacheClass;
+    jmethodID certCacheWrap;
+
+    /* org.mozilla.jss.ssl.SSLSocket */
+    jmethodID sslSocketHandshakeNotifier;
+    jmethodID sslSocketFireAlertReceived;
+    jmethodID sslSocketFireAlertSent;
+
+    /* org.mozilla.jss.ssl.SSLAlertEvent */
+    jclass sslAlertEventClass;
+    jmethodID sslAlertEventConstructor;
+    jmethodID sslAlertEventSetLevel;
+    jmethodID sslAlertEventSetDescription;
+
+    /* org.mozilla.jss.ssl callback interfaces */
+    jmethodID certApprovalCallbackApprove;
+    jmethodID clientCertSelectionCallbackSelect;
+
+    /* org.mozilla.jss.ssl.SSLCertificateApprovalCallback.ValidityStatus */
+    jclass validityStatusClass;
+    jmethodID validityStatusConstructor;
+    jmethodID validityStatusAddReason;
+} JSS_JNICache;
+
+/* defined in jss_jnicache.c, filled in by JNI_OnLoad */
+extern JSS_JNICache JSS_jni;
+
+/***********************************************************************
+ * J S S _ g e t C l a s s
+ *
+ * Returns the cached class, or looks it up with FindClass if it is not
+ * cached. Returns NULL if an exception was thrown.
+ */
+jclass
+JSS_getClass(JNIEnv *env, jclass cached, const char *className);
+
+/***********************************************************************
+ * J S S _ g e t M e t h o d I D
+ *
+ * Returns the cached method ID, or looks it up in the given class if it
+ * is not cached. Returns NULL if an exception was thrown.
+ */
+jmethodID
+JSS_getMethodID(JNIEnv *env, jmethodID cached, jclass clazz,
+    const char *name, const char *sig);
+
+/***********************************************************************
+ * J S S _ g e t S t a t i c M e t h o d I D
+ *
+ * Returns the cached static method ID, or looks it up in the given class
+ * if it is not cached. Returns NULL if an exception was thrown.
+ */
+jmethodID
+JSS_getStaticMethodID(JNIEnv *env, jmethodID cached, jclass clazz,
+    const char *name, const char *sig);
+
+/***********************************************************************
+ * J S S _ g e t O b j e c t M e t h o d I D
+ *
+ * Returns the cached method ID, or looks it up in the class of the given
+ * object if it is not cached. Returns NULL if an exception was thrown.
+ */
+jmethodID
+JSS_getObjectMethodID(JNIEnv *env, jmethodID cached, jobject obj,
+    const char *name, const char *sig);
+
+/***********************************************************************
+ * J S S _ g e t P r o x y F i e l d I D
+ *
+ * Returns the ID of the NativeProxy member of proxyOwner with the given
+ * name and signature. The ID is looked up on first use and cached per
+ * owner class. Returns NULL if an exception was thrown.
+ */
+jfieldID
+JSS_getProxyFieldID(JNIEnv *env, jobject proxyOwner, const char *name,
+    const char *sig);
+
+PR_END_EXTERN_C
+
+#endif
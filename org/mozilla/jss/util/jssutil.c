@@ -11,6 +11,7 @@
 #include "jss_bigint.h"
 #include "jss_exceptions.h"
 #include "java_ids.h"
+#include "jss_jnicache.h"
 
 #include "_jni/org_mozilla_jss_util_Password.h"
 
@@ -204,9 +205,6 @@ JSS_getPtrFromProxy(JNIEnv *env, jobject nativeProxy, void **ptr)
         return PR_FAILURE;
     }
 
-	proxyClass = (*env)->GetObjectClass(env, nativeProxy);
-	PR_ASSERT(proxyClass != NULL);
-
 #ifdef DEBUG
     nativeProxyClass = (*env)->FindClass(
 								env,
@@ -220,14 +218,20 @@ JSS_getPtrFromProxy(JNIEnv *env, jobject nativeProxy, void **ptr)
     PR_ASSERT( (*env)->IsInstanceOf(env, nativeProxy, nativeProxyClass) );
 #endif
 
-    byteArrayField = (*env)->GetFieldID(
+    byteArrayField = JSS_jni.nativeProxyPointer;
+    if(byteArrayField==NULL) {
+        proxyClass = (*env)->GetObjectClass(env, nativeProxy);
+        PR_ASSERT(proxyClass != NULL);
+
+        byteArrayField = (*env)->GetFieldID(
 								env,
 								proxyClass,
 								NATIVE_PROXY_POINTER_FIELD,
 						        NATIVE_PROXY_POINTER_SIG);
-    if(byteArrayField==NULL) {
-        ASSERT_OUTOFMEM(env);
-        return PR_FAILURE;
+        if(byteArrayField==NULL) {
+            ASSERT_OUTOFMEM(env);
+            return PR_FAILURE;
+        }
     }
 
     byteArray = (jbyteArray) (*env)->GetObjectField(env, nativeProxy,
@@ -279,7 +283,6 @@ PRStatus
 JSS_getPtrFromProxyOwner(JNIEnv *env, jobject proxyOwner, char* proxyFieldName,
 	char *proxyFieldSig, void **ptr)
 {
-    jclass ownerClass;
     jfieldID proxyField;
     jobject proxyObject;
 
@@ -289,8 +292,7 @@ JSS_getPtrFromProxyOwner(JNIEnv *env, jobject proxyOwner, char* proxyFieldName,
     /*
      * Get proxy object
      */
-    ownerClass = (*env)->GetObjectClass(env, proxyOwner);
-    proxyField = (*env)->GetFieldID(env, ownerClass, proxyFieldName,
+    proxyField = JSS_getProxyFieldID(env, proxyOwner, proxyFieldName,
 							proxyFieldSig);
     if(proxyField == NULL) {
         return PR_FAILURE;